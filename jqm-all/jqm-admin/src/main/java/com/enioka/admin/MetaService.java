@@ -923,6 +923,7 @@ public class MetaService
             tmp.setDefaultQueue(rs.getBoolean(2 + colShift));
             tmp.setDescription(rs.getString(3 + colShift));
             tmp.setName(rs.getString(4 + colShift));
+            tmp.setPriorityAging(rs.getInt(5 + colShift));
 
             return tmp;
         }
@@ -970,14 +971,23 @@ public class MetaService
 
     public static void upsertQueue(DbConn cnx, QueueDto dto)
     {
+        int priorityAging = dto.getPriorityAging() == null ? 0 : dto.getPriorityAging();
         if (dto.getId() != null)
         {
-            cnx.runUpdate("q_update_changed_by_id", dto.isDefaultQueue(), dto.getDescription(), dto.getName(), dto.getId(),
-                    dto.isDefaultQueue(), dto.getDescription(), dto.getName());
+            if (dto.getPriorityAging() == null)
+            {
+                // Clients which do not know about priority aging must not reset it.
+                for (Queue existing : Queue.select(cnx, "q_select_by_id", dto.getId()))
+                {
+                    priorityAging = existing.getPriorityAging();
+                }
+            }
+            cnx.runUpdate("q_update_changed_by_id", dto.isDefaultQueue(), dto.getDescription(), dto.getName(), priorityAging, dto.getId(),
+                    dto.isDefaultQueue(), dto.getDescription(), dto.getName(), priorityAging);
         }
         else
         {
-            Queue.create(cnx, dto.getName(), dto.getDescription(), dto.isDefaultQueue());
+            Queue.create(cnx, dto.getName(), dto.getDescription(), dto.isDefaultQueue(), priorityAging);
         }
     }
 
@@ -1034,8 +1044,9 @@ public class MetaService
             tmp.setPollingInterval(rs.getInt(5 + colShift));
             tmp.setNodeId(rs.getInt(6 + colShift));
             tmp.setQueueId(rs.getInt(7 + colShift));
-            tmp.setNodeName(rs.getString(8 + colShift));
-            tmp.setQueueName(rs.getString(9 + colShift));
+            tmp.setMaxPollingInterval(rs.getInt(8 + colShift));
+            tmp.setNodeName(rs.getString(9 + colShift));
+            tmp.setQueueName(rs.getString(10 + colShift));
 
             return tmp;
         }
@@ -1105,15 +1116,25 @@ public class MetaService
 
     public static void upsertQueueMapping(DbConn cnx, QueueMappingDto dto)
     {
+        int maxPollingInterval = dto.getMaxPollingInterval() == null ? 0 : dto.getMaxPollingInterval();
         if (dto.getId() != null)
         {
+            if (dto.getMaxPollingInterval() == null)
+            {
+                // Clients which do not know about adaptive polling must not reset it.
+                for (DeploymentParameter existing : DeploymentParameter.select(cnx, "dp_select_by_id", dto.getId()))
+                {
+                    maxPollingInterval = existing.getMaxPollingInterval();
+                }
+            }
             cnx.runUpdate("dp_update_changed_by_id", dto.getEnabled(), dto.getNbThread(), dto.getPollingInterval(), dto.getNodeId(),
-                    dto.getQueueId(), dto.getId(), dto.getEnabled(), dto.getNbThread(), dto.getPollingInterval(), dto.getNodeId(),
-                    dto.getQueueId());
+                    dto.getQueueId(), maxPollingInterval, dto.getId(), dto.getEnabled(), dto.getNbThread(), dto.getPollingInterval(),
+                    dto.getNodeId(), dto.getQueueId(), maxPollingInterval);
         }
         else
         {
-            DeploymentParameter.create(cnx, dto.getNodeId(), dto.getNbThread(), dto.getPollingInterval(), dto.getQueueId());
+            DeploymentParameter.create(cnx, true, dto.getNodeId(), dto.getNbThread(), dto.getPollingInterval(), maxPollingInterval,
+                    dto.getQueueId());
         }
     }
 
@@ -28,6 +28,7 @@ public class QueueDto implements Serializable
     private String name;
     private String description;
     private boolean defaultQueue;
+    private Integer priorityAging;
 
     public Integer getId()
     {
@@ -68,4 +69,14 @@ public class QueueDto implements Serializable
     {
         this.defaultQueue = defaultQueue;
     }
+
+    public Integer getPriorityAging()
+    {
+        return priorityAging;
+    }
+
+    public void setPriorityAging(Integer priorityAging)
+    {
+        this.priorityAging = priorityAging;
+    }
 }
@@ -31,6 +31,7 @@ public class QueueMappingDto implements Serializable
     private Integer nodeId;
     private Integer nbThread;
     private Integer pollingInterval;
+    private Integer maxPollingInterval;
     private Integer queueId;
     private String nodeName, queueName;
     private Boolean enabled = true;
@@ -75,6 +76,16 @@ public class QueueMappingDto implements Serializable
         this.pollingInterval = pollingInterval;
     }
 
+    public Integer getMaxPollingInterval()
+    {
+        return maxPollingInterval;
+    }
+
+    public void setMaxPollingInterval(Integer maxPollingInterval)
+    {
+        this.maxPollingInterval = maxPollingInterval;
+    }
+
     public Integer getQueueId()
     {
         return queueId;
@@ -60,6 +60,22 @@ public interface JqmClient
      */
     int enqueueFromHistory(int jobIdToCopy);
 
+    /**
+     * Creates one job instance per given job request, as if {@link JobRequest#enqueue()} had been called on each of them. With a direct
+     * database client, all the job instances are created inside a single transaction (so either all or none are created), and the metadata
+     * shared by the requests (job definitions, schedules...) is only read once. This is the way to go when many requests must be created at
+     * the same time. Other clients may simply send the requests one by one.
+     *
+     * @param requests
+     *            job requests created by {@link #newJobRequest(String, String)} on any client instance.
+     * @return the IDs of the job instances, in the order of the requests.
+     * @throws JqmInvalidRequestException
+     *             when input data of any of the requests is invalid.
+     * @throws JqmClientException
+     *             when an internal API implementation occurs. Usually linked to a configuration issue.
+     */
+    List<Integer> enqueueAll(List<JobRequest> requests);
+
     /**
      * Entry point of the enqueue API. Creates a new empty JobRequest object, ready to run on this client. The returned JobRequest can
      * either be enqued by calling {@link JobRequest#enqueue()} or by giving it to {@link JqmClient#enqueue(JobRequest)} in any client
@@ -470,6 +486,50 @@ public interface JqmClient
      */
     InputStream getJobLogStdErr(int jobId);
 
+    /**
+     * Same as {@link #getJobLogStdOut(int)}, but only returns the bytes after the given position. This allows to retrieve only what was
+     * added since a previous call on the log of a running job instance. The stream is empty if there is nothing after this position.
+     *
+     * @param from
+     *            number of bytes to skip (i.e. the number of bytes already retrieved)
+     * @throws JqmInvalidRequestException
+     *             when input data is invalid (job instance does not exist)
+     * @throws JqmClientException
+     *             when an internal API implementation occurs. Usually linked to a configuration issue.
+     */
+    InputStream getJobLogStdOut(int jobId, long from);
+
+    /**
+     * Same as {@link #getJobLogStdErr(int)}, but only returns the bytes after the given position.
+     *
+     * @see #getJobLogStdOut(int, long)
+     */
+    InputStream getJobLogStdErr(int jobId, long from);
+
+    /**
+     * Returns a stream of the standard output flow of a job instance, starting at the given position, which receives the new bytes as
+     * they are written by the job instance (with a delay of about one second). The stream ends once the job instance has ended and its
+     * whole log was read. It can be used on a job instance which has not started yet.<br>
+     * Reading the stream blocks while the job instance writes nothing. Closing the stream stops following the log.<br>
+     * <strong>Same connection requirements as {@link #getJobLogStdOut(int)}.</strong>
+     *
+     * @param from
+     *            number of bytes to skip (0 to get the whole log)
+     * @throws JqmInvalidRequestException
+     *             when input data is invalid (job instance does not exist)
+     * @throws JqmClientException
+     *             when an internal API implementation occurs. Usually linked to a configuration issue.
+     * @see #followJobLogStdErr(int, long)
+     */
+    InputStream followJobLogStdOut(int jobId, long from);
+
+    /**
+     * Same as {@link #followJobLogStdOut(int, long)} for the standard error flow.
+     *
+     * @see #followJobLogStdOut(int, long)
+     */
+    InputStream followJobLogStdErr(int jobId, long from);
+
     // /////////////////////////////////////////////////////////////////////
     // Queue API
     // /////////////////////////////////////////////////////////////////////
@@ -0,0 +1,210 @@
+package com.enioka.jqm.client.jdbc.api;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enioka.jqm.client.api.JqmClientException;
+import com.enioka.jqm.client.api.JqmInvalidRequestException;
+import com.enioka.jqm.client.shared.JobRequestBaseImpl;
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.jdbc.NoResultException;
+import com.enioka.jqm.jdbc.NonUniqueResultException;
+import com.enioka.jqm.jdbc.QueueNotificationBus;
+import com.enioka.jqm.model.JobDef;
+import com.enioka.jqm.model.JobDefParameter;
+import com.enioka.jqm.model.ScheduledJob;
+
+/**
+ * The state shared by all the job requests enqueued inside the same transaction: the metadata already read (so it is read only once per
+ * transaction, not once per request), the job instance parameters to insert (in a single JDBC batch) and the queues to notify once
+ * committed.
+ */
+class EnqueueContext
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(EnqueueContext.class);
+
+    private static final int ID_LIST_SIZE = 500;
+
+    private Map<Integer, ScheduledJob> schedules = new HashMap<>();
+    private Map<Integer, JobDef> jobDefsById = new HashMap<>();
+    private Map<String, JobDef> jobDefsByName = new HashMap<>();
+    private Map<Integer, Map<String, String>> jobDefParameters = new HashMap<>();
+    private Map<String, Integer> queuesByName = new HashMap<>();
+
+    private List<Object[]> parameters = new ArrayList<>();
+    private Set<Integer> queuesToSignal = new HashSet<>();
+
+    /**
+     * Reads all the schedules used by the given requests at once.
+     */
+    void prefetchSchedules(DbConn cnx, List<JobRequestBaseImpl> runRequests)
+    {
+        List<Integer> ids = new ArrayList<>();
+        for (JobRequestBaseImpl runRequest : runRequests)
+        {
+            if (runRequest.getScheduleId() != null && !ids.contains(runRequest.getScheduleId()))
+            {
+                ids.add(runRequest.getScheduleId());
+            }
+        }
+
+        for (int i = 0; i < ids.size(); i += ID_LIST_SIZE)
+        {
+            for (ScheduledJob sj : ScheduledJob.select(cnx, "sj_select_by_id_list",
+                    new ArrayList<>(ids.subList(i, Math.min(ids.size(), i + ID_LIST_SIZE)))))
+            {
+                schedules.put(sj.getId(), sj);
+            }
+        }
+    }
+
+    ScheduledJob getSchedule(DbConn cnx, int scheduleId)
+    {
+        ScheduledJob res = schedules.get(scheduleId);
+        if (res != null)
+        {
+            return res;
+        }
+
+        List<ScheduledJob> sjj = ScheduledJob.select(cnx, "sj_select_by_id", scheduleId);
+        if (sjj.size() == 0)
+        {
+            jqmlogger.error("Invalid job request: no schedule with ID " + scheduleId);
+            throw new JqmInvalidRequestException("Invalid job request: no schedule with ID " + scheduleId);
+        }
+        if (sjj.size() > 1)
+        {
+            jqmlogger.error("Inconsistent metadata: multiple schedules with ID " + scheduleId);
+            throw new JqmClientException("Inconsistent metadata: multiple schedules with ID " + scheduleId);
+        }
+        res = sjj.get(0);
+        schedules.put(scheduleId, res);
+        return res;
+    }
+
+    JobDef getJobDef(DbConn cnx, int jobDefId)
+    {
+        JobDef res = jobDefsById.get(jobDefId);
+        if (res != null)
+        {
+            return res;
+        }
+
+        List<JobDef> jdd = JobDef.select(cnx, "jd_select_by_id", jobDefId);
+        if (jdd.size() == 0)
+        {
+            jqmlogger.error("Invalid job request: no JobDef with ID " + jobDefId);
+            throw new JqmInvalidRequestException("Invalid job request: no JobDef with ID " + jobDefId);
+        }
+        if (jdd.size() > 1)
+        {
+            jqmlogger.error("Inconsistent metadata: multiple JobDef with ID " + jobDefId);
+            throw new JqmClientException("Inconsistent metadata: multiple JobDef with ID " + jobDefId);
+        }
+        res = jdd.get(0);
+        jobDefsById.put(jobDefId, res);
+        return res;
+    }
+
+    JobDef getJobDef(DbConn cnx, String applicationName)
+    {
+        JobDef res = jobDefsByName.get(applicationName);
+        if (res != null)
+        {
+            return res;
+        }
+
+        try
+        {
+            res = JobDef.select_key(cnx, applicationName);
+        }
+        catch (NonUniqueResultException ex)
+        {
+            jqmlogger.error("There are multiple Job definition named " + applicationName + ". Inconsistent configuration.");
+            throw new JqmInvalidRequestException("There are multiple Job definition named " + applicationName);
+        }
+        catch (NoResultException ex)
+        {
+            jqmlogger.error("Job definition named " + applicationName + " does not exist");
+            throw new JqmInvalidRequestException("no job definition named " + applicationName);
+        }
+        jobDefsByName.put(applicationName, res);
+        jobDefsById.put(res.getId(), res);
+        return res;
+    }
+
+    /**
+     * @return a copy of the parameters of the job definition, which can be modified.
+     */
+    Map<String, String> getJobDefParameters(DbConn cnx, int jobDefId)
+    {
+        Map<String, String> res = jobDefParameters.get(jobDefId);
+        if (res == null)
+        {
+            res = JobDefParameter.select_map(cnx, "jdprm_select_all_for_jd", jobDefId);
+            jobDefParameters.put(jobDefId, res);
+        }
+        return new HashMap<>(res);
+    }
+
+    /**
+     * @throws NoResultException
+     *             if there is no queue with this name.
+     */
+    int getQueueId(DbConn cnx, String queueName)
+    {
+        Integer res = queuesByName.get(queueName);
+        if (res == null)
+        {
+            res = cnx.runSelectSingle("q_select_by_key", 1, Integer.class, queueName);
+            queuesByName.put(queueName, res);
+        }
+        return res;
+    }
+
+    /**
+     * Parameters are only inserted on {@link #commit(DbConn)}.
+     */
+    void addParameters(int jobInstanceId, Map<String, String> prms)
+    {
+        for (Map.Entry<String, String> prm : prms.entrySet())
+        {
+            parameters.add(new Object[] { jobInstanceId, prm.getKey(), prm.getValue() });
+        }
+    }
+
+    /**
+     * The queue will be notified of new job instances on {@link #commit(DbConn)}.
+     */
+    void addQueueToSignal(int queueId)
+    {
+        queuesToSignal.add(queueId);
+    }
+
+    /**
+     * Inserts the pending parameters, commits and notifies the queues.
+     */
+    void commit(DbConn cnx)
+    {
+        cnx.runBatchUpdate("jiprm_insert", parameters);
+        for (int queueId : queuesToSignal)
+        {
+            QueueNotificationBus.publish(cnx, queueId);
+        }
+        cnx.commit();
+        for (int queueId : queuesToSignal)
+        {
+            // Wake up the pollers of this queue at once if they run inside this JVM.
+            QueueNotificationBus.signalLocal(queueId);
+        }
+        parameters.clear();
+        queuesToSignal.clear();
+    }
+}
@@ -163,7 +163,48 @@ final class JdbcClient implements JqmClient, JqmClientEnqueueCallback, JqmClient
     public int enqueue(JobRequestBaseImpl runRequest)
     {
         jqmlogger.trace("BEGINING ENQUEUE - request is for application name " + runRequest.getApplicationName());
+        validate(runRequest);
 
+        try (DbConn cnx = getDbSession())
+        {
+            EnqueueContext ctx = new EnqueueContext();
+            int res = enqueueWithCnx(runRequest, cnx, ctx);
+            commitEnqueue(cnx, ctx);
+            return res;
+        }
+    }
+
+    @Override
+    public List<Integer> enqueueAll(List<JobRequest> requests)
+    {
+        jqmlogger.trace("BEGINING ENQUEUE - request is for " + requests.size() + " job requests");
+        List<JobRequestBaseImpl> runRequests = new ArrayList<>(requests.size());
+        for (JobRequest jr : requests)
+        {
+            if (!(jr instanceof JobRequestBaseImpl))
+            {
+                throw new JqmInvalidRequestException("Invalid execution request: not created by JqmClient.newJobRequest");
+            }
+            validate((JobRequestBaseImpl) jr);
+            runRequests.add((JobRequestBaseImpl) jr);
+        }
+
+        List<Integer> res = new ArrayList<>(runRequests.size());
+        try (DbConn cnx = getDbSession())
+        {
+            EnqueueContext ctx = new EnqueueContext();
+            ctx.prefetchSchedules(cnx, runRequests);
+            for (JobRequestBaseImpl runRequest : runRequests)
+            {
+                res.add(enqueueWithCnx(runRequest, cnx, ctx));
+            }
+            commitEnqueue(cnx, ctx);
+        }
+        return res;
+    }
+
+    private void validate(JobRequestBaseImpl runRequest)
+    {
         // Form validity.
         if ((runRequest.getApplicationName() == null || runRequest.getApplicationName().trim().isEmpty())
                 && runRequest.getScheduleId() == null)
@@ -171,39 +212,37 @@ final class JdbcClient implements JqmClient, JqmClientEnqueueCallback, JqmClient
             throw new JqmClientException("Invalid execution request: applicationName is empty");
         }
         runRequest.setParameters(runRequest.getParameters()); // This will validate parameters.
+    }
 
-        try (DbConn cnx = getDbSession())
+    private void commitEnqueue(DbConn cnx, EnqueueContext ctx)
+    {
+        try
         {
-            return enqueueWithCnx(runRequest, cnx);
+            ctx.commit(cnx);
+        }
+        catch (Exception e)
+        {
+            throw new JqmClientException("Could not create new JobInstance", e);
         }
     }
 
-    private int enqueueWithCnx(JobRequestBaseImpl runRequest, DbConn cnx)
+    /**
+     * Creates the job instance (or the schedule) inside the current transaction, but does not commit. Its parameters are only inserted by
+     * {@link EnqueueContext#commit(DbConn)}.
+     */
+    private int enqueueWithCnx(JobRequestBaseImpl runRequest, DbConn cnx, EnqueueContext ctx)
     {
         // New schedule?
         if (runRequest.getRecurrence() != null && !runRequest.getRecurrence().trim().isEmpty())
         {
-            int res = createSchedule(runRequest, cnx);
-            cnx.commit();
-            return res;
+            return createSchedule(runRequest, cnx);
         }
 
         // Run existing schedule?
         ScheduledJob sj = null;
         if (runRequest.getScheduleId() != null)
         {
-            List<ScheduledJob> sjj = ScheduledJob.select(cnx, "sj_select_by_id", runRequest.getScheduleId());
-            if (sjj.size() == 0)
-            {
-                jqmlogger.error("Invalid job request: no schedule with ID " + runRequest.getScheduleId());
-                throw new JqmInvalidRequestException("Invalid job request: no schedule with ID " + runRequest.getScheduleId());
-            }
-            if (sjj.size() > 1)
-            {
-                jqmlogger.error("Inconsistent metadata: multiple schedules with ID " + runRequest.getScheduleId());
-                throw new JqmClientException("Inconsistent metadata: multiple schedules with ID " + runRequest.getScheduleId());
-            }
-            sj = sjj.get(0);
+            sj = ctx.getSchedule(cnx, runRequest.getScheduleId());
         }
 
         // First, get the JobDef.
@@ -211,37 +250,12 @@ final class JdbcClient implements JqmClient, JqmClientEnqueueCallback, JqmClient
         if (sj == null)
         {
             // Standard case: execution by applicationName.
-            try
-            {
-                jobDef = JobDef.select_key(cnx, runRequest.getApplicationName());
-            }
-            catch (NonUniqueResultException ex)
-            {
-                jqmlogger.error(
-                        "There are multiple Job definition named " + runRequest.getApplicationName() + ". Inconsistent configuration.");
-                throw new JqmInvalidRequestException("There are multiple Job definition named " + runRequest.getApplicationName());
-            }
-            catch (NoResultException ex)
-            {
-                jqmlogger.error("Job definition named " + runRequest.getApplicationName() + " does not exist");
-                throw new JqmInvalidRequestException("no job definition named " + runRequest.getApplicationName());
-            }
+            jobDef = ctx.getJobDef(cnx, runRequest.getApplicationName());
         }
         else
         {
             // Selection by schedule.
-            List<JobDef> jdd = JobDef.select(cnx, "jd_select_by_id", sj.getJobDefinition());
-            if (jdd.size() == 0)
-            {
-                jqmlogger.error("Invalid job request: no JobDef with ID " + sj.getJobDefinition());
-                throw new JqmInvalidRequestException("Invalid job request: no JobDef with ID " + sj.getJobDefinition());
-            }
-            if (jdd.size() > 1)
-            {
-                jqmlogger.error("Inconsistent metadata: multiple JobDef with ID " + sj.getJobDefinition());
-                throw new JqmClientException("Inconsistent metadata: multiple JobDef with ID " + sj.getJobDefinition());
-            }
-            jobDef = jdd.get(0);
+            jobDef = ctx.getJobDef(cnx, sj.getJobDefinition());
         }
         jqmlogger.trace("Job to enqueue is from JobDef " + jobDef.getId());
 
@@ -260,7 +274,7 @@ final class JdbcClient implements JqmClient, JqmClientEnqueueCallback, JqmClient
         jqmlogger.trace("Not in highlander mode or no currently enqueued instance");
 
         // Parameters are both from the JobDef and the execution request.
-        Map<String, String> prms = JobDefParameter.select_map(cnx, "jdprm_select_all_for_jd", jobDef.getId());
+        Map<String, String> prms = ctx.getJobDefParameters(cnx, jobDef.getId());
         if (sj != null)
         {
             prms.putAll(sj.getParameters());
@@ -274,7 +288,7 @@ final class JdbcClient implements JqmClient, JqmClientEnqueueCallback, JqmClient
             // use requested key if given.
             try
             {
-                queue_id = cnx.runSelectSingle("q_select_by_key", 1, Integer.class, runRequest.getQueueName());
+                queue_id = ctx.getQueueId(cnx, runRequest.getQueueName());
             }
             catch (NoResultException e)
             {
@@ -324,10 +338,15 @@ final class JdbcClient implements JqmClient, JqmClientEnqueueCallback, JqmClient
             int id = JobInstance.enqueue(cnx, startingState, queue_id, jobDef.getId(), runRequest.getApplication(),
                     runRequest.getParentID(), runRequest.getModule(), runRequest.getKeyword1(), runRequest.getKeyword2(),
                     runRequest.getKeyword3(), runRequest.getSessionID(), runRequest.getUser(), runRequest.getEmail(), jobDef.isHighlander(),
-                    sj != null || runRequest.getRunAfter() != null, runRequest.getRunAfter(), priority, Instruction.RUN, prms);
+                    sj != null || runRequest.getRunAfter() != null, runRequest.getRunAfter(), priority, Instruction.RUN, null);
+            ctx.addParameters(id, prms);
+            cnx.closeQuietly(highlanderRs);
 
             jqmlogger.trace("JI just created: " + id);
-            cnx.commit();
+            if (startingState == State.SUBMITTED)
+            {
+                ctx.addQueueToSignal(queue_id);
+            }
             return id;
         }
         catch (NoResultException e)
@@ -385,8 +404,7 @@ final class JdbcClient implements JqmClient, JqmClientEnqueueCallback, JqmClient
         try
         {
             Integer existing = cnx.runSelectSingle("ji_select_existing_highlander", Integer.class, jd.getId());
-            rs.close();
-            cnx.commit(); // Do not keep the lock!
+            rs.close(); // The lock is released by the commit ending the enqueue - not before, as other requests may share the transaction.
             return existing;
         }
         catch (NoResultException ex)
@@ -1591,10 +1609,15 @@ final class JdbcClient implements JqmClient, JqmClientEnqueueCallback, JqmClient
     }
 
     private InputStream getFile(String url)
+    {
+        return getFile(url, 0);
+    }
+
+    private InputStream getFile(String url, long from)
     {
         try (var cnx = getDbSession())
         {
-            return httpClient.getFile(cnx, url);
+            return httpClient.getFile(cnx, url, from);
         }
     }
 
@@ -1610,6 +1633,39 @@ final class JdbcClient implements JqmClient, JqmClientEnqueueCallback, JqmClient
         return getJobLog(jobId, ".stderr", "stderr");
     }
 
+    @Override
+    public InputStream getJobLogStdOut(int jobId, long from)
+    {
+        return getFile(getJobLogUrl(jobId, "stdout", ""), checkPosition(from));
+    }
+
+    @Override
+    public InputStream getJobLogStdErr(int jobId, long from)
+    {
+        return getFile(getJobLogUrl(jobId, "stderr", ""), checkPosition(from));
+    }
+
+    @Override
+    public InputStream followJobLogStdOut(int jobId, long from)
+    {
+        return followJobLog(jobId, "stdout", checkPosition(from));
+    }
+
+    @Override
+    public InputStream followJobLogStdErr(int jobId, long from)
+    {
+        return followJobLog(jobId, "stderr", checkPosition(from));
+    }
+
+    private static long checkPosition(long from)
+    {
+        if (from < 0)
+        {
+            throw new JqmInvalidRequestException("log position cannot be negative");
+        }
+        return from;
+    }
+
     private String getHostForLaunch(int launchId)
     {
         String host;
@@ -1649,6 +1705,20 @@ final class JdbcClient implements JqmClient, JqmClientEnqueueCallback, JqmClient
     }
 
     private InputStream getJobLog(int jobId, String extension, String param)
+    {
+        return getFile(getJobLogUrl(jobId, param, ""));
+    }
+
+    private InputStream followJobLog(int jobId, String param, long from)
+    {
+        String url = getJobLogUrl(jobId, param + "/follow", "&from=" + from);
+        try (var cnx = getDbSession())
+        {
+            return httpClient.getStream(cnx, url);
+        }
+    }
+
+    private String getJobLogUrl(int jobId, String path, String extraParameters)
     {
         // 1: retrieve node to address
         String uriStart = getHostForLaunch(jobId);
@@ -1657,15 +1727,14 @@ final class JdbcClient implements JqmClient, JqmClientEnqueueCallback, JqmClient
         URL url = null;
         try
         {
-            url = new URL(uriStart + "/ws/simple/" + param + "?id=" + jobId);
+            url = new URL(uriStart + "/ws/simple/" + path + "?id=" + jobId + extraParameters);
             jqmlogger.trace("URL: " + url.toString());
         }
         catch (MalformedURLException e)
         {
             throw new JqmClientException("URL is not valid " + url, e);
         }
-
-        return getFile(url.toString());
+        return url.toString();
     }
 
     // /////////////////////////////////////////////////////////////////////
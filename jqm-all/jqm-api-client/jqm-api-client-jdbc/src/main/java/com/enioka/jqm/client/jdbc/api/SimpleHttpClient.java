@@ -1,10 +1,13 @@
 package com.enioka.jqm.client.jdbc.api;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.http.HttpClient;
@@ -12,6 +15,7 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandlers;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
@@ -20,6 +24,7 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.zip.GZIPInputStream;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManagerFactory;
@@ -55,6 +60,14 @@ class SimpleHttpClient
     }
 
     InputStream getFile(DbConn cnx, String url)
+    {
+        return getFile(cnx, url, 0);
+    }
+
+    /**
+     * Downloads a file, skipping its first bytes. A range is asked to the server, which may ignore it.
+     */
+    InputStream getFile(DbConn cnx, String url, long from)
     {
         File file = null;
         String nameHint = null;
@@ -62,17 +75,6 @@ class SimpleHttpClient
         // Init the client if needed. (not threadsafe, not an issue as duplicate clients are cheap)
         var client = this.getHttpClient(cnx);
 
-        // Check the URL
-        URI uri;
-        try
-        {
-            uri = new URI(url);
-        }
-        catch (URISyntaxException e)
-        {
-            throw new JqmInvalidRequestException("Invalid URL " + url, e);
-        }
-
         // We will download the file to a temporary location
         File destDir = new File(System.getProperty("java.io.tmpdir"));
         if (!destDir.isDirectory() && !destDir.mkdir())
@@ -82,16 +84,13 @@ class SimpleHttpClient
         file = new File(destDir + "/" + UUID.randomUUID().toString());
         jqmlogger.trace("File will be copied into {} as {}", destDir, file.getName());
 
-        // Auth stuff
-        var authData = SimpleApiSecurity.getId(cnx);
-        String encodedAuth = null;
-        if (authData != null)
+        // Create request. Compressed job logs can be sent as they are, saving bandwidth.
+        var rqb = newRequest(cnx, url).header("Accept-Encoding", "gzip");
+        if (from > 0)
         {
-            encodedAuth = Base64.getEncoder().encodeToString((authData.usr + ":" + authData.pass).getBytes(StandardCharsets.UTF_8));
+            rqb.header("Range", "bytes=" + from + "-");
         }
-
-        // Create request
-        var rq = HttpRequest.newBuilder().uri(uri).header("Authorization", "Basic " + encodedAuth).GET().build();
+        var rq = rqb.GET().build();
 
         // Run
         HttpResponse<Path> rs;
@@ -111,7 +110,24 @@ class SimpleHttpClient
         }
 
         // Manage result.
-        if (rs.statusCode() != 200)
+        if (rs.statusCode() == 416)
+        {
+            // Nothing after the requested position.
+            from = 0;
+            try
+            {
+                Files.write(file.toPath(), new byte[0]);
+            }
+            catch (IOException e)
+            {
+                throw new JqmClientException("Could not write temporary file", e);
+            }
+        }
+        else if (rs.statusCode() == 206)
+        {
+            from = 0;
+        }
+        else if (rs.statusCode() != 200)
         {
             throw new JqmClientException(
                     "Could not retrieve file from JQM node. The file may have been purged, or the node may be unreachable. HTTP code was: "
@@ -129,6 +145,12 @@ class SimpleHttpClient
             }
         }
 
+        // The file may have been sent compressed
+        if (rs.headers().firstValue("Content-Encoding").orElse("").equalsIgnoreCase("gzip"))
+        {
+            file = gunzip(file);
+        }
+
         // Return the result as a stream
         SelfDestructFileStream res;
         try
@@ -140,6 +162,120 @@ class SimpleHttpClient
             throw new JqmClientException("Could not open temporary file downloaded from URL", e);
         }
         res.nameHint = nameHint;
+
+        // The server did not honour the range.
+        if (from > 0)
+        {
+            try
+            {
+                res.skip(from);
+            }
+            catch (IOException e)
+            {
+                throw new JqmClientException("Could not read temporary file downloaded from URL", e);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Returns the body of the response as it is received. Used for endpoints which stream content over a long time. Closing the stream
+     * closes the connection.
+     */
+    InputStream getStream(DbConn cnx, String url)
+    {
+        var client = this.getHttpClient(cnx);
+        var rq = newRequest(cnx, url).GET().build();
+
+        HttpResponse<InputStream> rs;
+        try
+        {
+            rs = client.send(rq, BodyHandlers.ofInputStream());
+        }
+        catch (IOException e)
+        {
+            throw new JqmClientException("Could not connect to JQM node at url " + url, e);
+        }
+        catch (InterruptedException e)
+        {
+            // Clear state
+            Thread.currentThread().interrupt();
+            throw new JqmClientException("Connection interrupted", e);
+        }
+
+        if (rs.statusCode() != 200)
+        {
+            try
+            {
+                rs.body().close();
+            }
+            catch (IOException e)
+            {
+                // Nothing to do.
+            }
+            throw new JqmClientException(
+                    "Could not retrieve stream from JQM node. The node may be unreachable. HTTP code was: " + rs.statusCode());
+        }
+        return rs.body();
+    }
+
+    private HttpRequest.Builder newRequest(DbConn cnx, String url)
+    {
+        // Check the URL
+        URI uri;
+        try
+        {
+            uri = new URI(url);
+        }
+        catch (URISyntaxException e)
+        {
+            throw new JqmInvalidRequestException("Invalid URL " + url, e);
+        }
+
+        // Auth stuff
+        var authData = SimpleApiSecurity.getId(cnx);
+        String encodedAuth = null;
+        if (authData != null)
+        {
+            encodedAuth = Base64.getEncoder().encodeToString((authData.usr + ":" + authData.pass).getBytes(StandardCharsets.UTF_8));
+        }
+
+        return HttpRequest.newBuilder().uri(uri).header("Authorization", "Basic " + encodedAuth);
+    }
+
+    /**
+     * Decompresses the given file into a new temporary file, and deletes it. The gzip stream of a log file may not be terminated (node
+     * killed while the job instance was running): what could be decompressed is kept.
+     */
+    private static File gunzip(File compressed)
+    {
+        File res = new File(compressed.getParentFile(), UUID.randomUUID().toString());
+        try (InputStream in = new GZIPInputStream(new FileInputStream(compressed), 65536);
+                OutputStream out = new FileOutputStream(res))
+        {
+            byte[] buffer = new byte[65536];
+            int read;
+            try
+            {
+                while ((read = in.read(buffer)) > 0)
+                {
+                    out.write(buffer, 0, read);
+                }
+            }
+            catch (EOFException e)
+            {
+                // Unterminated stream.
+            }
+        }
+        catch (IOException e)
+        {
+            res.delete();
+            throw new JqmClientException("Could not decompress file downloaded from JQM node", e);
+        }
+        finally
+        {
+            compressed.delete();
+        }
         return res;
     }
 
@@ -294,6 +294,18 @@ final class JerseyClient implements JqmClient, JqmClientQuerySubmitCallback, Jqm
         return newJobRequest(applicationName, userName).enqueue();
     }
 
+    @Override
+    public List<Integer> enqueueAll(List<JobRequest> requests)
+    {
+        // No batch web service - one call per request.
+        List<Integer> res = new ArrayList<>(requests.size());
+        for (JobRequest jr : requests)
+        {
+            res.add(enqueue((JobRequestBaseImpl) jr));
+        }
+        return res;
+    }
+
     @Override
     public int enqueueFromHistory(int jobIdToCopy)
     {
@@ -851,6 +863,47 @@ final class JerseyClient implements JqmClient, JqmClientQuerySubmitCallback, Jqm
         }
     }
 
+    @Override
+    public InputStream getJobLogStdOut(int jobId, long from)
+    {
+        return getJobLog(jobId, "stdout", from);
+    }
+
+    @Override
+    public InputStream getJobLogStdErr(int jobId, long from)
+    {
+        return getJobLog(jobId, "stderr", from);
+    }
+
+    @Override
+    public InputStream followJobLogStdOut(int jobId, long from)
+    {
+        return getJobLog(jobId, "stdout/follow", from);
+    }
+
+    @Override
+    public InputStream followJobLogStdErr(int jobId, long from)
+    {
+        return getJobLog(jobId, "stderr/follow", from);
+    }
+
+    private InputStream getJobLog(int jobId, String path, long from)
+    {
+        try
+        {
+            // The stream is not buffered by the client, so it can be read while the server is still sending it.
+            return target.path("ji/" + jobId + "/" + path).queryParam("from", from).request().get(InputStream.class);
+        }
+        catch (BadRequestException e)
+        {
+            throw new JqmInvalidRequestException(e.getResponse().readEntity(String.class), e);
+        }
+        catch (Exception e)
+        {
+            throw new JqmClientException(e);
+        }
+    }
+
     ///////////////////////////////////////////////////////////////////////
     // Queue APIs
     ///////////////////////////////////////////////////////////////////////
@@ -48,6 +48,7 @@ class CommandInstallNodeTemplate extends CommandBase
                     r.setNodeId(target.getId());
                     r.setNodeName(target.getName());
                     r.setPollingInterval(mapping.getPollingInterval());
+                    r.setMaxPollingInterval(mapping.getMaxPollingInterval());
                     r.setQueueId(mapping.getQueueId());
                     r.setQueueName(mapping.getQueueName());
                     toAdd.add(r);
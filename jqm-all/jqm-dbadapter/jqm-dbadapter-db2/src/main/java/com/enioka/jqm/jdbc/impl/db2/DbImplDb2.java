@@ -12,7 +12,10 @@ import org.kohsuke.MetaInfServices;
 
 import com.enioka.jqm.jdbc.DatabaseException;
 import com.enioka.jqm.jdbc.DbAdapter;
+import com.enioka.jqm.jdbc.DbConn;
 import com.enioka.jqm.jdbc.QueryPreparation;
+import com.enioka.jqm.model.JobInstance;
+import com.enioka.jqm.model.Queue;
 
 @MetaInfServices(DbAdapter.class)
 public class DbImplDb2 extends DbAdapter
@@ -27,12 +30,17 @@ public class DbImplDb2 extends DbAdapter
                 "UPDATE __T__JOB_INSTANCE j1 SET NODE=?, STATUS='ATTRIBUTED', DATE_ATTRIBUTION=CURRENT_TIMESTAMP WHERE j1.STATUS='SUBMITTED' AND j1.ID IN "
                         + "(SELECT j2.ID FROM __T__JOB_INSTANCE j2 WHERE j2.STATUS='SUBMITTED' AND j2.QUEUE=? "
                         + "AND (j2.HIGHLANDER=0 OR (j2.HIGHLANDER=1 AND (SELECT COUNT(1) FROM __T__JOB_INSTANCE j3 WHERE j3.STATUS IN('ATTRIBUTED', 'RUNNING') AND j3.JOBDEF=j2.JOBDEF)=0 )) ORDER BY PRIORITY DESC, INTERNAL_POSITION FETCH FIRST ? ROWS ONLY)"));
+
+        // Bounded head fetch. The row count is inlined inside beforeUpdate, as for the update above.
+        queries.put("ji_select_poll", queries.get("ji_select_poll") + " FETCH FIRST ? ROWS ONLY");
+        queries.put("ji_select_poll_aged", queries.get("ji_select_poll_aged") + " FETCH FIRST ? ROWS ONLY");
     }
 
     @Override
     public String adaptSql(String sql)
     {
         return sql.replace("MEMORY TABLE", "TABLE").replace("UNIX_MILLIS()", "JQM_PK.nextval").replace("IN(UNNEST(?))", "IN(?)")
+                .replace("UNIX_TIMESTAMP(ji.DATE_ENQUEUE)", "(BIGINT(DAYS(ji.DATE_ENQUEUE)) * 86400 + MIDNIGHT_SECONDS(ji.DATE_ENQUEUE))")
                 .replace("FROM (VALUES(0))", "FROM SYSIBM.SYSDUMMY1").replace("BOOLEAN", "SMALLINT").replace("__T__", this.tablePrefix)
                 .replace("true", "1").replace("false", "0");
     }
@@ -52,6 +60,16 @@ public class DbImplDb2 extends DbAdapter
             q.sqlText = q.sqlText.replace("FETCH FIRST ? ROWS ONLY", "FETCH FIRST " + q.parameters.get(2) + " ROWS ONLY");
             q.parameters.remove(2);
         }
+        if (q.isKey("ji_select_poll"))
+        {
+            q.sqlText = q.sqlText.replace("FETCH FIRST ? ROWS ONLY", "FETCH FIRST " + q.parameters.get(1) + " ROWS ONLY");
+            q.parameters.remove(1);
+        }
+        if (q.isKey("ji_select_poll_aged"))
+        {
+            q.sqlText = q.sqlText.replace("FETCH FIRST ? ROWS ONLY", "FETCH FIRST " + q.parameters.get(2) + " ROWS ONLY");
+            q.parameters.remove(2);
+        }
 
         // There is no (clean) way to do parameterized IN(?) queries with DB2 so we must rewrite these queries as IN(?, ?, ?...)
         // This cannot be done at startup, as the ? count may be different for each call.
@@ -131,4 +149,10 @@ public class DbImplDb2 extends DbAdapter
 
         return sql;
     }
+
+    @Override
+    public List<JobInstance> poll(DbConn cnx, Queue queue, int headSize)
+    {
+        return selectHead(cnx, "ji_select_poll", queue, headSize);
+    }
 }
@@ -24,6 +24,8 @@ public class DbImplHsql extends DbAdapter
 
         // We do NOT want to use paginateQuery on each poll query as we want polling to be as painless as possible, so we pre-paginate it.
         queries.put("ji_select_poll", queries.get("ji_select_poll") + " LIMIT ?");
+        queries.put("ji_select_poll_aged", queries.get("ji_select_poll_aged") + " LIMIT ?");
+        prepareMultiQueuePoll();
     }
 
     @Override
@@ -59,6 +61,6 @@ public class DbImplHsql extends DbAdapter
     @Override
     public List<JobInstance> poll(DbConn cnx, Queue queue, int headSize)
     {
-        return JobInstance.select(cnx, "ji_select_poll", queue.getId(), headSize);
+        return selectHead(cnx, "ji_select_poll", queue, headSize);
     }
 }
@@ -31,6 +31,8 @@ public class DbImplMySql extends DbAdapter
 
         // We do NOT want to use paginateQuery on each poll query as we want polling to be as painless as possible, so we pre-paginate it.
         queries.put("ji_select_poll", queries.get("ji_select_poll") + " LIMIT ?");
+        queries.put("ji_select_poll_aged", queries.get("ji_select_poll_aged") + " LIMIT ?");
+        prepareMultiQueuePoll();
 
         sequenceSqlRetrieval = adaptSql("SELECT next FROM __T__JQM_SEQUENCE WHERE name = ?");
         sequenceSql = adaptSql("UPDATE __T__JQM_SEQUENCE SET next = next + 1 WHERE name = ?");
@@ -171,6 +173,6 @@ public class DbImplMySql extends DbAdapter
     @Override
     public List<JobInstance> poll(DbConn cnx, Queue queue, int headSize)
     {
-        return JobInstance.select(cnx, "ji_select_poll", queue.getId(), headSize);
+        return selectHead(cnx, "ji_select_poll", queue, headSize);
     }
 }
@@ -23,6 +23,8 @@ import com.enioka.jqm.model.Queue;
 @MetaInfServices(DbAdapter.class)
 public class DbImplMySql8 extends DbAdapter
 {
+    private boolean skipLocked = false;
+
     @Override
     public void prepare(Properties p, Connection cnx)
     {
@@ -30,6 +32,20 @@ public class DbImplMySql8 extends DbAdapter
 
         // We do NOT want to use paginateQuery on each poll query as we want polling to be as painless as possible, so we pre-paginate it.
         queries.put("ji_select_poll", queries.get("ji_select_poll") + " LIMIT ?");
+        queries.put("ji_select_poll_aged", queries.get("ji_select_poll_aged") + " LIMIT ?");
+        prepareMultiQueuePoll();
+
+        // Claim mode: only lock the JI rows (not the joined definitions) and let other nodes skip them. MariaDB has no OF clause.
+        queries.put("ji_select_poll_lock", queries.get("ji_select_poll") + " FOR UPDATE OF ji SKIP LOCKED");
+        queries.put("ji_select_poll_lock_aged", queries.get("ji_select_poll_aged") + " FOR UPDATE OF ji SKIP LOCKED");
+        try
+        {
+            this.skipLocked = cnx.getMetaData().getDatabaseProductName().contains("MySQL");
+        }
+        catch (SQLException e)
+        {
+            this.skipLocked = false;
+        }
     }
 
     @Override
@@ -134,6 +150,18 @@ public class DbImplMySql8 extends DbAdapter
     @Override
     public List<JobInstance> poll(DbConn cnx, Queue queue, int headSize)
     {
-        return JobInstance.select(cnx, "ji_select_poll", queue.getId(), headSize);
+        return selectHead(cnx, "ji_select_poll", queue, headSize);
+    }
+
+    @Override
+    public boolean supportsPollAndLock()
+    {
+        return skipLocked;
+    }
+
+    @Override
+    public List<JobInstance> pollAndLock(DbConn cnx, Queue queue, int headSize)
+    {
+        return selectHead(cnx, "ji_select_poll_lock", queue, headSize);
     }
 }
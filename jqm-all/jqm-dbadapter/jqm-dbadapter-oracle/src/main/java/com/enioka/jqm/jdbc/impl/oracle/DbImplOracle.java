@@ -5,6 +5,7 @@ import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Properties;
 
@@ -35,8 +36,18 @@ public class DbImplOracle extends DbAdapter
         System.setProperty("oracle.jdbc.Trace", "false");
 
         // See poll method for everything which is wrong with Oracle and queues.
+        // Claim mode. FOR UPDATE cannot be used on a ROWNUM view, so the head is selected inside a sub query. Only JI rows are locked.
+        queries.put("ji_select_poll_lock", queries.get("ji_select_all") + this.adaptSql(" WHERE ji.ID IN(SELECT ID FROM (SELECT ID FROM "
+                + "__T__JOB_INSTANCE WHERE QUEUE = ? AND STATUS='SUBMITTED' ORDER BY PRIORITY DESC, INTERNAL_POSITION) WHERE ROWNUM <= ?) "
+                + "ORDER BY ji.PRIORITY DESC, ji.INTERNAL_POSITION FOR UPDATE OF ji.ID SKIP LOCKED"));
+        queries.put("ji_select_poll_lock_aged", queries.get("ji_select_all") + this.adaptSql(" WHERE ji.ID IN(SELECT ID FROM (SELECT ji.ID "
+                + "FROM __T__JOB_INSTANCE ji WHERE ji.QUEUE = ? AND ji.STATUS='SUBMITTED' ORDER BY UNIX_TIMESTAMP(ji.DATE_ENQUEUE) / ? - ji.PRIORITY, "
+                + "ji.PRIORITY DESC, ji.INTERNAL_POSITION) WHERE ROWNUM <= ?) FOR UPDATE OF ji.ID SKIP LOCKED"));
         queries.put("ji_select_poll",
-                String.format("SELECT /*+ FIRST_ROWS */ a.* FROM (%s) a WHERE ROWNUM < ?", queries.get("ji_select_poll")));
+                String.format("SELECT /*+ FIRST_ROWS */ a.* FROM (%s) a WHERE ROWNUM <= ?", queries.get("ji_select_poll")));
+        queries.put("ji_select_poll_aged",
+                String.format("SELECT /*+ FIRST_ROWS */ a.* FROM (%s) a WHERE ROWNUM <= ?", queries.get("ji_select_poll_aged")));
+        prepareMultiQueuePoll();
 
         // Sad: Oracle needs this inside the SQL text in addition to standard JDBC flags...
         queries.put("jd_select_by_id_lock", queries.get("jd_select_by_id_lock") + " FOR UPDATE");
@@ -47,6 +58,7 @@ public class DbImplOracle extends DbAdapter
     {
         return sql.replace("MEMORY TABLE", "TABLE").replace(" INTEGER", " NUMBER(10, 0)").replace(" DOUBLE", " DOUBLE PRECISION")
                 .replace("UNIX_MILLIS()", "JQM_PK.currval").replace("IN(UNNEST(?))", "IN(?)")
+                .replace("UNIX_TIMESTAMP(ji.DATE_ENQUEUE)", "((CAST(ji.DATE_ENQUEUE AS DATE) - DATE '1970-01-01') * 86400)")
                 .replace("CURRENT_TIMESTAMP - 1 MINUTE", "(CURRENT_TIMESTAMP - 1/1440)")
                 .replace("CURRENT_TIMESTAMP - ? SECOND", "(CURRENT_TIMESTAMP - ?/86400)").replace("FROM (VALUES(0))", "FROM DUAL")
                 .replace("BOOLEAN", "NUMBER(1)").replace("true", "1").replace("false", "0").replace("__T__", this.tablePrefix)
@@ -136,6 +148,29 @@ public class DbImplOracle extends DbAdapter
     @Override
     public List<JobInstance> poll(DbConn cnx, Queue queue, int headSize)
     {
-        return JobInstance.select(cnx, "ji_select_poll", queue.getId(), headSize);
+        return selectHead(cnx, "ji_select_poll", queue, headSize);
+    }
+
+    // SKIP LOCKED is applied after the head has been selected, so rows locked by another node simply reduce the head size of this poll.
+
+    @Override
+    public boolean supportsPollAndLock()
+    {
+        return true;
+    }
+
+    @Override
+    public List<JobInstance> pollAndLock(DbConn cnx, Queue queue, int headSize)
+    {
+        List<JobInstance> res = selectHead(cnx, "ji_select_poll_lock", queue, headSize);
+        if (queue.getPriorityAging() > 0)
+        {
+            // The aged order is only applied inside the sub query, as the locking query cannot have a second aging parameter.
+            res.sort(Comparator.comparingDouble(
+                    (JobInstance ji) -> (double) (ji.getCreationDate().getTimeInMillis() / 1000) / queue.getPriorityAging() - ji.getPriority())
+                    .thenComparing(JobInstance::getPriority, Comparator.reverseOrder())
+                    .thenComparingDouble(JobInstance::getInternalPosition));
+        }
+        return res;
     }
 }
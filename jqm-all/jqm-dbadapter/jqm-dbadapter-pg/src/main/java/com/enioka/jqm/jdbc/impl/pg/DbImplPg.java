@@ -1,27 +1,66 @@
 package com.enioka.jqm.jdbc.impl.pg;
 
+import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Properties;
 
 import org.kohsuke.MetaInfServices;
 
 import com.enioka.jqm.jdbc.DbAdapter;
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.jdbc.QueueSignalReceiver;
+import com.enioka.jqm.model.JobInstance;
+import com.enioka.jqm.model.Queue;
 
 @MetaInfServices(DbAdapter.class)
 public class DbImplPg extends DbAdapter
 {
+    static final String QUEUE_SIGNAL_CHANNEL = "jqm_queue_signal";
+
+    private boolean skipLocked = false;
+
     public DbImplPg()
     {
         this.IDS[0] = "id";
     }
 
+    @Override
+    public void prepare(Properties p, Connection cnx)
+    {
+        super.prepare(p, cnx);
+
+        // We do NOT want to use paginateQuery on each poll query as we want polling to be as painless as possible, so we pre-paginate it.
+        queries.put("ji_select_poll", queries.get("ji_select_poll") + " LIMIT ?");
+        queries.put("ji_select_poll_aged", queries.get("ji_select_poll_aged") + " LIMIT ?");
+        prepareMultiQueuePoll();
+
+        // Claim mode: only lock the JI rows (not the joined definitions) and let other nodes skip them. Available since PG 9.5.
+        queries.put("ji_select_poll_lock", queries.get("ji_select_poll") + " FOR UPDATE OF ji SKIP LOCKED");
+        queries.put("ji_select_poll_lock_aged", queries.get("ji_select_poll_aged") + " FOR UPDATE OF ji SKIP LOCKED");
+
+        // Queue signals. pg_notify is transactional: the notification is only sent on commit.
+        queries.put("qs_notify", "SELECT pg_notify('" + QUEUE_SIGNAL_CHANNEL + "', ?)");
+        try
+        {
+            DatabaseMetaData meta = cnx.getMetaData();
+            this.skipLocked = meta.getDatabaseMajorVersion() > 9
+                    || (meta.getDatabaseMajorVersion() == 9 && meta.getDatabaseMinorVersion() >= 5);
+        }
+        catch (SQLException e)
+        {
+            this.skipLocked = false;
+        }
+    }
+
     @Override
     public String adaptSql(String sql)
     {
         return sql.replace("MEMORY TABLE", "TABLE").replace("JQM_PK.nextval", "nextval('JQM_PK')").replace(" DOUBLE", " DOUBLE PRECISION")
                 .replace(" REAL", " DOUBLE PRECISION").replace("UNIX_MILLIS()", "extract('epoch' from current_timestamp)*1000")
+                .replace("UNIX_TIMESTAMP(ji.DATE_ENQUEUE)", "extract('epoch' from ji.DATE_ENQUEUE)")
                 .replace("IN(UNNEST(?))", "=ANY(?)").replace("CURRENT_TIMESTAMP - 1 MINUTE", "NOW() - INTERVAL '1 MINUTES'")
                 .replace("CURRENT_TIMESTAMP - ? SECOND", "(NOW() - (? || ' SECONDS')::interval)").replace("FROM (VALUES(0))", "")
                 .replace("CURRENT_TIMESTAMP", "CURRENT_TIMESTAMP AT TIME ZONE 'UTC'").replace("__T__", this.tablePrefix);
@@ -48,4 +87,40 @@ public class DbImplPg extends DbAdapter
         prms.add(start);
         return sql;
     }
+
+    @Override
+    public List<JobInstance> poll(DbConn cnx, Queue queue, int headSize)
+    {
+        return selectHead(cnx, "ji_select_poll", queue, headSize);
+    }
+
+    @Override
+    public boolean supportsPollAndLock()
+    {
+        return skipLocked;
+    }
+
+    @Override
+    public List<JobInstance> pollAndLock(DbConn cnx, Queue queue, int headSize)
+    {
+        return selectHead(cnx, "ji_select_poll_lock", queue, headSize);
+    }
+
+    @Override
+    public boolean supportsNativeQueueSignals()
+    {
+        return true;
+    }
+
+    @Override
+    public void publishNativeQueueSignal(DbConn cnx, int queueId)
+    {
+        cnx.runSelectSingle("qs_notify", String.class, String.valueOf(queueId));
+    }
+
+    @Override
+    public QueueSignalReceiver openNativeQueueSignalReceiver(DbConn cnx)
+    {
+        return new PgQueueSignalReceiver(cnx, getJdbcConnection(cnx));
+    }
 }
@@ -0,0 +1,82 @@
+package com.enioka.jqm.jdbc.impl.pg;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.enioka.jqm.jdbc.DatabaseException;
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.jdbc.QueueSignalReceiver;
+
+/**
+ * Queue signals through PostgreSQL LISTEN/NOTIFY. The session is kept open for the whole life of the receiver. The driver API is used
+ * through reflection, as adapters do not depend on drivers.
+ */
+class PgQueueSignalReceiver implements QueueSignalReceiver
+{
+    private DbConn cnx;
+    private Object pgConnection;
+    private Method getNotifications;
+    private Method getParameter;
+
+    PgQueueSignalReceiver(DbConn cnx, Connection jdbcConnection)
+    {
+        this.cnx = cnx;
+        try
+        {
+            Class<?> pgConnectionClass = Class.forName("org.postgresql.PGConnection", true, jdbcConnection.getClass().getClassLoader());
+            this.pgConnection = jdbcConnection.unwrap(pgConnectionClass);
+            this.getNotifications = pgConnectionClass.getMethod("getNotifications", int.class);
+            this.getParameter = Class.forName("org.postgresql.PGNotification", true, pgConnectionClass.getClassLoader())
+                    .getMethod("getParameter");
+
+            try (Statement s = jdbcConnection.createStatement())
+            {
+                s.execute("LISTEN " + DbImplPg.QUEUE_SIGNAL_CHANNEL);
+            }
+            jdbcConnection.commit();
+        }
+        catch (ClassNotFoundException | NoSuchMethodException | SQLException e)
+        {
+            cnx.close();
+            throw new DatabaseException("could not listen to PostgreSQL notifications", e);
+        }
+    }
+
+    @Override
+    public Set<Integer> receive(long timeoutMs) throws InterruptedException
+    {
+        Set<Integer> res = new HashSet<>();
+        Object[] notifications;
+        try
+        {
+            notifications = (Object[]) getNotifications.invoke(pgConnection, (int) Math.max(1, timeoutMs));
+            if (notifications == null)
+            {
+                return res;
+            }
+            for (Object n : notifications)
+            {
+                res.add(Integer.parseInt((String) getParameter.invoke(n)));
+            }
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new DatabaseException("could not read PostgreSQL notifications", e);
+        }
+        if (Thread.interrupted())
+        {
+            throw new InterruptedException();
+        }
+        return res;
+    }
+
+    @Override
+    public void close()
+    {
+        cnx.close();
+    }
+}
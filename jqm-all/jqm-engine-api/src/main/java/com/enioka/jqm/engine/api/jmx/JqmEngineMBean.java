@@ -80,4 +80,15 @@ public interface JqmEngineMBean
      * The count, for all pollers, of running jobs that have run for more than their maxTimeRunning time.
      */
     int getLateJobs();
+
+    /**
+     * The number of database statements which were reused from the statement cache of the database connections since engine start.
+     */
+    long getStatementCacheHits();
+
+    /**
+     * The number of database statements which had to be prepared since engine start while the statement cache is enabled. Both counters
+     * stay at zero when the cache is disabled (including when the connection pool caches statements itself).
+     */
+    long getStatementCacheMisses();
 }
@@ -0,0 +1,69 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.engine.api.jmx;
+
+import java.util.Map;
+
+import javax.management.MXBean;
+
+/**
+ * Monitoring interface for the database queries run by the engine, per query key. Only available when query tracing is enabled.
+ */
+@MXBean
+public interface QueryStatisticsMBean
+{
+    /**
+     * The upper bounds (inclusive, in microseconds) of the latency histogram buckets. The last bucket has no upper bound and is not listed.
+     */
+    long[] getBucketUpperBoundsMicroseconds();
+
+    /**
+     * For each query key, the number of executions inside each latency bucket. Arrays have one more element than
+     * {@link #getBucketUpperBoundsMicroseconds()}.
+     */
+    Map<String, long[]> getLatencyHistograms();
+
+    /**
+     * For each query key, the number of executions.
+     */
+    Map<String, Long> getExecutionCounts();
+
+    /**
+     * For each query key, the total execution time in microseconds.
+     */
+    Map<String, Long> getTotalDurationsMicroseconds();
+
+    /**
+     * For each query key, the longest execution time in microseconds.
+     */
+    Map<String, Long> getMaxDurationsMicroseconds();
+
+    /**
+     * For each query key, the total number of updated rows (always zero for selects).
+     */
+    Map<String, Long> getUpdatedRowCounts();
+
+    /**
+     * For each query key, the total number of bind variables sent to the database. Divided by the execution count, this shows the queries
+     * sending large parameter lists.
+     */
+    Map<String, Long> getBindVariableCounts();
+
+    /**
+     * Resets all counters.
+     */
+    void reset();
+}
@@ -15,6 +15,8 @@
  */
 package com.enioka.jqm.engine.api.jmx;
 
+import java.util.Map;
+
 import javax.management.MXBean;
 
 /**
@@ -38,6 +40,18 @@ public interface QueuePollerMBean
      */
     Integer getPollingIntervalMilliseconds();
 
+    /**
+     * Number of milliseconds the poller will actually wait before its next database check. Equal to
+     * {@link #getPollingIntervalMilliseconds()} unless the polling interval is adaptive, in which case it grows while the queue is empty
+     * (up to the max polling interval of the deployment parameter) and is zero when the queue is busy.
+     */
+    Integer getEffectivePollingIntervalMilliseconds();
+
+    /**
+     * True if the polling interval adapts itself to the queue activity.
+     */
+    boolean isAdaptivePolling();
+
     /**
      * Max number of simultaneously running job instances on this queue on this engine
      */
@@ -54,6 +68,24 @@ public interface QueuePollerMBean
      */
     float getJobsFinishedPerSecondLastMinute();
 
+    /**
+     * The number of seconds of waiting which count as one priority level when choosing the next job instances to run from the queue. 0
+     * means strict priority order.
+     */
+    int getPriorityAgingSeconds();
+
+    /**
+     * A readable description of the order in which job instances are taken from the queue: strict priority order, or priority aging.
+     */
+    String getPriorityPolicy();
+
+    /**
+     * For each priority present inside the queue, the time the oldest waiting job instance of this priority has waited, in milliseconds.
+     * This is the starvation indicator of the queue: with strict priority order, the wait of low priorities grows without bounds as long
+     * as higher priority job instances keep coming. Runs a query on the database at each call.
+     */
+    Map<Integer, Long> getOldestWaitPerPriorityMilliseconds();
+
     /**
      * The number of currently running job instances
      */
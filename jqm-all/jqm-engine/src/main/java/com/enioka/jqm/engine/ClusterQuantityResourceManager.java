@@ -0,0 +1,341 @@
+package com.enioka.jqm.engine;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.enioka.jqm.jdbc.DatabaseException;
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.jdbc.NoResultException;
+import com.enioka.jqm.model.JobInstance;
+import com.enioka.jqm.model.ResourceManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Resource Manager which handles a set quantity of a given resource shared by all the nodes of the cluster - for example "at most 20 job
+ * instances working on the billing database at the same time". Blocks once the resource is exhausted.<br>
+ * By default it has 10 units and JI do NOT use any of them - only job instances with the right parameter will take units.<br>
+ * <br>
+ * The units which are not used by any node are counted inside a database row identified by the key of the RM. Units are only taken from
+ * this row by conditional updates, so bookings never make it go below zero. It can only become negative for a while when a node whose lease
+ * was reclaimed (it was considered dead) takes its units back - bookings then fail until enough units are given back. To avoid a database
+ * write on each booking, a node takes units by batches (a lease, also stored inside the database) and keeps the unused units of its lease
+ * for its next bookings. Unused units are given back when there are too many of them, or when they were not needed during a whole internal
+ * poller period.<br>
+ * <br>
+ * Leases are renewed by the internal poller of the node. A lease which was not renewed for <code>leaseTimeout</code> seconds is
+ * considered as belonging to a dead node and its units are given back to the counter by the other nodes.<br>
+ * <br>
+ * Database operations are done inside sessions of their own, so they are committed independently of the poller transaction.
+ */
+public class ClusterQuantityResourceManager extends ResourceManagerBase
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(ClusterQuantityResourceManager.class);
+
+    private static String PRM_ROOT = "com.enioka.jqm.rm.cluster.";
+    private static String PRM_QUANTITY = "quantity";
+    private static String PRM_CONSUMPTION = "consumption";
+    private static String PRM_LEASE_BATCH = "leaseBatch";
+    private static String PRM_LEASE_TIMEOUT = "leaseTimeout";
+
+    private Integer counterId = null;
+    private int nodeId;
+
+    // All the fields below are guarded by this.
+    /**
+     * Units taken from the database counter by this node. Either used by running JIs or available for the next bookings.
+     */
+    private int leased = 0;
+    /**
+     * Units used by the running JIs.
+     */
+    private int used = 0;
+    /**
+     * Latest value of the database counter seen by this node.
+     */
+    private int clusterAvailable = 0;
+    private boolean bookedSinceHousekeeping = false;
+    private Map<Integer, Integer> runningJobs = new HashMap<>(10);
+
+    private int defaultConsumption;
+    private int leaseBatch;
+    private int leaseTimeout;
+
+    ClusterQuantityResourceManager(ResourceManager rm)
+    {
+        super(rm);
+    }
+
+    @Override
+    protected void setDefaultProperties()
+    {
+        this.currentProperties.put(PRM_ROOT + PRM_QUANTITY, "10");
+        this.currentProperties.put(PRM_ROOT + PRM_CONSUMPTION, "0");
+        this.currentProperties.put(PRM_ROOT + PRM_LEASE_BATCH, "5");
+        this.currentProperties.put(PRM_ROOT + PRM_LEASE_TIMEOUT, "300");
+    }
+
+    @Override
+    String getParameterRoot()
+    {
+        return PRM_ROOT;
+    }
+
+    @Override
+    synchronized void refreshConfiguration(ResourceManager configuration)
+    {
+        // Read configuration
+        super.refreshConfiguration(configuration);
+        int quantity = getIntegerParameter(PRM_QUANTITY);
+        this.defaultConsumption = getIntegerParameter(PRM_CONSUMPTION);
+        this.leaseBatch = Math.max(1, getIntegerParameter(PRM_LEASE_BATCH));
+        this.leaseTimeout = getIntegerParameter(PRM_LEASE_TIMEOUT);
+        this.nodeId = configuration.getNodeId();
+
+        try (DbConn cnx = Helpers.getNewDbSession())
+        {
+            if (this.counterId == null)
+            {
+                this.counterId = getCounterId(cnx, quantity);
+
+                // A lease left by a previous run of this node is useless - there is nothing running yet.
+                try
+                {
+                    int previous = cnx.runSelectSingle("rml_select_by_counter_and_node", Integer.class, this.counterId, this.nodeId);
+                    if (cnx.runUpdate("rml_delete_by_counter_and_node", this.counterId, this.nodeId).nbUpdated > 0)
+                    {
+                        jqmlogger.info("\tGiving back {} units leased by a previous run of the node for resource manager [{}]", previous,
+                                this.key);
+                        cnx.runUpdate("rmc_update_give_by_id", previous, this.counterId);
+                    }
+                }
+                catch (NoResultException e)
+                {
+                    // No previous lease.
+                }
+            }
+
+            // The counter only keeps the units not leased by nodes, so a change of quantity is applied as a delta.
+            cnx.runUpdate("rmc_update_total_by_id", quantity, quantity, this.counterId, quantity);
+            this.clusterAvailable = cnx.runSelectSingle("rmc_select_available_by_id", Integer.class, this.counterId);
+            cnx.commit();
+        }
+
+        // Log
+        jqmlogger.info("\tConfigured cluster quantity resource manager [{}] with max count {} - currently free in cluster {} - taking {} "
+                + "per JI by default", this.key, quantity, this.clusterAvailable, this.defaultConsumption);
+    }
+
+    private int getCounterId(DbConn cnx, int quantity)
+    {
+        try (DbConn cnx2 = Helpers.getNewDbSession())
+        {
+            cnx2.runUpdate("rmc_insert", this.key, quantity, quantity);
+            cnx2.commit();
+            jqmlogger.debug("This node is the first to use the cluster resource {}", this.key);
+        }
+        catch (DatabaseException ex)
+        {
+            // Ignore it (UK error). It means the line already exists inside the database.
+        }
+        return cnx.runSelectSingle("rmc_select_by_name", Integer.class, this.key);
+    }
+
+    @Override
+    synchronized BookingStatus bookResource(JobInstance ji, DbConn cnx)
+    {
+        int slots = this.getIntegerParameter(PRM_CONSUMPTION, ji, true);
+        if (slots == 0)
+        {
+            return BookingStatus.BOOKED; // Perf optim.
+        }
+
+        if (leased - used < slots)
+        {
+            lease(slots - (leased - used));
+        }
+        if (leased - used < slots)
+        {
+            // Return booking failure, depending on resources still available.
+            return leased - used >= this.defaultConsumption ? BookingStatus.FAILED : BookingStatus.EXHAUSTED;
+        }
+
+        // If here, booking has succeeded.
+        used += slots;
+        runningJobs.put(ji.getId(), slots);
+        bookedSinceHousekeeping = true;
+        return BookingStatus.BOOKED;
+    }
+
+    /**
+     * Takes units from the database counter - a batch if possible, and nothing if less than the needed units are available.
+     */
+    private void lease(int needed)
+    {
+        int wanted = Math.max(needed, leaseBatch);
+        try (DbConn cnx = Helpers.getNewDbSession())
+        {
+            // Retry a few times, as other nodes may be changing the counter at the same time.
+            for (int i = 0; i < 3; i++)
+            {
+                int available = cnx.runSelectSingle("rmc_select_available_by_id", Integer.class, this.counterId);
+                this.clusterAvailable = available;
+                int taken = Math.min(wanted, available);
+                if (taken < needed)
+                {
+                    return;
+                }
+
+                if (cnx.runUpdate("rmc_update_take_by_id", taken, this.counterId, taken).nbUpdated == 1)
+                {
+                    renew(cnx, leased + taken);
+                    cnx.commit();
+                    this.leased += taken;
+                    this.clusterAvailable = available - taken;
+                    jqmlogger.debug("Leased {} units of cluster resource {} - the node now has {} units", taken, this.key, this.leased);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the new size of the lease of this node. Does not commit. If the lease was reclaimed by another node (this node was considered
+     * dead), the units it held are taken again from the counter, which may then be negative for a while.
+     */
+    private void renew(DbConn cnx, int units)
+    {
+        if (cnx.runUpdate("rml_update_renew", units, this.counterId, this.nodeId).nbUpdated == 0)
+        {
+            if (this.leased > 0)
+            {
+                jqmlogger.warn("The lease of cluster resource {} was reclaimed by another node - is the internal poller too slow?",
+                        this.key);
+                cnx.runUpdate("rmc_update_give_by_id", -this.leased, this.counterId);
+            }
+            cnx.runUpdate("rml_insert", this.counterId, this.nodeId, units);
+        }
+    }
+
+    /**
+     * Gives unused units back to the database counter. Never fails - if the database is not available, the units are given back later.
+     */
+    private void giveBack(int units)
+    {
+        try (DbConn cnx = Helpers.getNewDbSession())
+        {
+            renew(cnx, leased - units);
+            cnx.runUpdate("rmc_update_give_by_id", units, this.counterId);
+            cnx.commit();
+            this.leased -= units;
+            this.clusterAvailable += units;
+            jqmlogger.debug("Gave back {} units of cluster resource {} - the node now has {} units", units, this.key, this.leased);
+        }
+        catch (RuntimeException e)
+        {
+            jqmlogger.warn("Could not give back units of cluster resource " + this.key + " - will retry later", e);
+        }
+    }
+
+    @Override
+    synchronized void releaseResource(JobInstance ji)
+    {
+        Integer slots = runningJobs.remove(ji.getId());
+        if (slots == null)
+        {
+            return;
+        }
+        jqmlogger.trace("Releasing {} slots for RM {}", slots, this.key);
+        used -= slots;
+
+        // Keep at most a batch of unused units. (Only when there are two batches, so as not to write on each release)
+        if (leased - used > 2 * leaseBatch)
+        {
+            giveBack(leased - used - leaseBatch);
+        }
+    }
+
+    @Override
+    void housekeeping(DbConn cnx)
+    {
+        synchronized (this)
+        {
+            // Renew the lease, without the units which were not needed during the whole period.
+            int unused = bookedSinceHousekeeping ? 0 : leased - used;
+            renew(cnx, leased - unused);
+            if (unused > 0)
+            {
+                cnx.runUpdate("rmc_update_give_by_id", unused, this.counterId);
+            }
+            cnx.commit();
+            this.leased -= unused;
+            this.bookedSinceHousekeeping = false;
+        }
+
+        // Reclaim the leases of dead nodes.
+        Map<Integer, Integer> expired = new LinkedHashMap<>();
+        try (ResultSet rs = cnx.runSelect("rml_select_expired", this.counterId, this.nodeId, this.leaseTimeout))
+        {
+            while (rs.next())
+            {
+                expired.put(rs.getInt(1), rs.getInt(2));
+            }
+        }
+        catch (SQLException e)
+        {
+            throw new DatabaseException(e);
+        }
+        for (Map.Entry<Integer, Integer> lease : expired.entrySet())
+        {
+            // Conditional delete: the lease may have been renewed since the select.
+            if (cnx.runUpdate("rml_delete_expired_by_id", lease.getKey(), this.leaseTimeout).nbUpdated == 1)
+            {
+                cnx.runUpdate("rmc_update_give_by_id", lease.getValue(), this.counterId);
+                jqmlogger.warn("Reclaimed {} units of cluster resource {} from an expired lease", lease.getValue(), this.key);
+            }
+            cnx.commit();
+        }
+
+        synchronized (this)
+        {
+            this.clusterAvailable = cnx.runSelectSingle("rmc_select_available_by_id", Integer.class, this.counterId);
+        }
+    }
+
+    @Override
+    synchronized void stop()
+    {
+        if (this.counterId == null)
+        {
+            return;
+        }
+        try (DbConn cnx = Helpers.getNewDbSession())
+        {
+            // If the lease is not there anymore, its units were already given back by another node.
+            if (cnx.runUpdate("rml_delete_by_counter_and_node", this.counterId, this.nodeId).nbUpdated > 0 && this.leased > 0)
+            {
+                cnx.runUpdate("rmc_update_give_by_id", this.leased, this.counterId);
+            }
+            cnx.commit();
+            this.leased = 0;
+        }
+        catch (RuntimeException e)
+        {
+            jqmlogger.warn("Could not give back the units of cluster resource " + this.key + " - they will be reclaimed by other nodes", e);
+        }
+    }
+
+    @Override
+    synchronized int getSlotsAvailable()
+    {
+        if (this.defaultConsumption <= 0)
+        {
+            return Integer.MAX_VALUE; // Most JI do not use the resource at all.
+        }
+        return Math.max(0, this.leased - this.used + this.clusterAvailable) / this.defaultConsumption;
+    }
+}
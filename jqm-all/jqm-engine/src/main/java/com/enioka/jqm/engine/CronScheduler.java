@@ -3,33 +3,25 @@ package com.enioka.jqm.engine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.enioka.jqm.client.api.JqmDbClientFactory;
 import com.enioka.jqm.jdbc.DatabaseException;
 import com.enioka.jqm.jdbc.DbConn;
 import com.enioka.jqm.jdbc.QueryResult;
 import com.enioka.jqm.model.GlobalParameter;
 import com.enioka.jqm.model.Node;
-import com.enioka.jqm.model.ScheduledJob;
-
-import it.sauronsoftware.cron4j.Scheduler;
-import it.sauronsoftware.cron4j.SchedulingPattern;
-import it.sauronsoftware.cron4j.Task;
-import it.sauronsoftware.cron4j.TaskCollector;
-import it.sauronsoftware.cron4j.TaskExecutionContext;
-import it.sauronsoftware.cron4j.TaskTable;
 
 /**
- * All cron integration code is concentrated here. It holds the Scheduler itself (from cron4j lib, which itself hosts a thread pool) and the
- * thread to check if this node should be the one doing the scheduling in the cluster.
+ * All cron integration code is concentrated here. It holds the thread to check if this node should be the one doing the scheduling in the
+ * cluster. The master scheduler node runs the {@link ScheduleFirer} (the scheduler itself) and the {@link DelayedJobPromoter}.
  *
  */
-class CronScheduler implements Runnable, TaskCollector
+class CronScheduler implements Runnable
 {
     private static Logger jqmlogger = LoggerFactory.getLogger(CronScheduler.class);
 
     private Node node = null;
     private Integer schedulerKeepAlive;
-    private Scheduler s;
+    private ScheduleFirer firer;
+    private DelayedJobPromoter promoter;
     private boolean run = true;
     private boolean masterScheduler = false;
     private Thread t;
@@ -68,6 +60,19 @@ class CronScheduler implements Runnable, TaskCollector
     void stop()
     {
         this.run = false;
+        if (masterScheduler)
+        {
+            // Let another node become master scheduler at once, without waiting for the keep alive to expire.
+            try (DbConn cnx = Helpers.getNewDbSession())
+            {
+                cnx.runUpdate("w_update_release", this.node.getId());
+                cnx.commit();
+            }
+            catch (DatabaseException e)
+            {
+                jqmlogger.warn("Could not release the scheduler lead - another node will take it once expired", e);
+            }
+        }
         stopScheduler();
         this.t.interrupt();
         // No need to wait... only daemon threads here, so cannot prevent engine shutdown.
@@ -144,61 +149,25 @@ class CronScheduler implements Runnable, TaskCollector
 
     private void startScheduler()
     {
-        s = new Scheduler();
-        s.setDaemon(true);
-
-        s.addTaskCollector(this);
-        s.start();
+        firer = ScheduleFirer.start();
+        promoter = DelayedJobPromoter.start();
         masterScheduler = true;
         jqmlogger.info("Scheduler (cron) has started");
     }
 
     private void stopScheduler()
     {
-        if (s != null && s.isStarted())
+        if (firer != null)
         {
-            s.stop();
+            firer.stop();
+            firer = null;
             jqmlogger.info("Scheduler (cron) is now down");
         }
-        s = null;
-        masterScheduler = false;
-    }
-
-    @Override
-    public TaskTable getTasks()
-    {
-        TaskTable res = new TaskTable();
-
-        try (DbConn cnx = Helpers.getNewDbSession())
+        if (promoter != null)
         {
-            for (ScheduledJob sj : ScheduledJob.select(cnx, "sj_select_all"))
-            {
-                res.add(new SchedulingPattern(sj.getCronExpression()), new JqmTask(sj));
-            }
-
-            // Also check delayed jobs
-            cnx.runUpdate("ji_update_delayed");
-            cnx.commit();
-        }
-
-        return res;
-    }
-
-    private class JqmTask extends Task
-    {
-        private ScheduledJob sj;
-
-        private JqmTask(ScheduledJob sj)
-        {
-            this.sj = sj;
-        }
-
-        @Override
-        public void execute(TaskExecutionContext context) throws RuntimeException
-        {
-            JqmDbClientFactory.getClient().newJobRequest("", "cron").setScheduleId(sj.getId()).enqueue();
+            promoter.stop();
+            promoter = null;
         }
-
+        masterScheduler = false;
     }
-
 }
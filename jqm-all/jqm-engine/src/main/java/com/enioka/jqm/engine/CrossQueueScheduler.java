@@ -0,0 +1,417 @@
+package com.enioka.jqm.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.DeploymentParameter;
+import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.model.JobInstance;
+import com.enioka.jqm.model.Queue;
+import com.enioka.jqm.model.ResourceManager;
+import com.enioka.jqm.shared.misc.Closer;
+
+/**
+ * A node-level replacement for the polling loops of the {@link QueuePoller}s, used when the global parameter
+ * <code>crossQueueScheduling</code> is true. A single thread, with a single database session per loop, polls the heads of all the queues of
+ * the node (in one round trip on most databases) and shares the free slots between the queues. The pollers keep everything else: resource
+ * managers, JMX beans, end of run notifications.<br>
+ * <br>
+ * The slots are given one by one to the queue with the fewest running and already granted job instances relative to its weight (its
+ * deployment parameter thread count), so queues get a fair share of the node. Slots granted to a queue but not used (as its resource
+ * managers refused some job instances) are handed to the other queues during the same loop.<br>
+ * <br>
+ * The global parameter <code>nodeSlotBudget</code> limits the total count of job instances running on the node, whatever their queue. It is
+ * enforced by a quantity resource manager shared by all the pollers, so it follows the usual booking protocol.
+ */
+class CrossQueueScheduler implements Runnable
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(CrossQueueScheduler.class);
+
+    private JqmEngine engine;
+    private List<QueuePoller> pollers = new CopyOnWriteArrayList<>();
+    private volatile boolean run = true;
+    private Semaphore loop = new Semaphore(0);
+    private int slotBudget;
+    private ResourceManagerBase budget = null;
+    private Thread t;
+
+    private AtomicLong loopCount = new AtomicLong(0);
+
+    /**
+     * The share of a queue inside a loop.
+     */
+    private static class Share implements Comparable<Share>
+    {
+        private QueuePoller poller;
+        private List<JobInstance> head;
+        private int initialRoom;
+        private int room;
+        private int weight;
+        private int used;
+        private int granted = 0;
+        private int launched = 0;
+
+        private double load()
+        {
+            return (double) (used + granted) / weight;
+        }
+
+        @Override
+        public int compareTo(Share o)
+        {
+            return Double.compare(load(), o.load());
+        }
+    }
+
+    private CrossQueueScheduler(JqmEngine engine, int slotBudget)
+    {
+        this.engine = engine;
+        this.slotBudget = slotBudget;
+    }
+
+    /**
+     * @return a scheduler (to be started with {@link #start()} once the pollers of the node are created), or null if each queue poller
+     *         should poll its own queue.
+     */
+    static CrossQueueScheduler create(DbConn cnx, JqmEngine engine)
+    {
+        if (!Boolean.parseBoolean(GlobalParameter.getParameter(cnx, "crossQueueScheduling", "false")))
+        {
+            return null;
+        }
+        int slotBudget = Integer.parseInt(GlobalParameter.getParameter(cnx, "nodeSlotBudget", "0"));
+        jqmlogger.info("All queues will be polled by a single node-level scheduler{}",
+                slotBudget > 0 ? " running at most " + slotBudget + " job instances" : "");
+        return new CrossQueueScheduler(engine, slotBudget);
+    }
+
+    /**
+     * The resource manager enforcing the node slot budget, to be shared by all the pollers of the node. Null if there is no budget.
+     */
+    ResourceManagerBase createBudgetResourceManager(int nodeId)
+    {
+        if (slotBudget <= 0)
+        {
+            return null;
+        }
+
+        ResourceManager configuration = new ResourceManager();
+        configuration.setClassName(QuantityResourceManager.class.getCanonicalName());
+        configuration.setDeploymentParameterId(null);
+        configuration.setEnabled(true);
+        configuration.setKey("node");
+        configuration.setNodeId(nodeId);
+        configuration.addParameter("com.enioka.jqm.rm.quantity.quantity", "" + slotBudget);
+
+        budget = new QuantityResourceManager(configuration);
+        budget.refreshConfiguration(configuration);
+        return budget;
+    }
+
+    /**
+     * Starts the scheduler thread. The pollers present at this time are all polled by the first loop.
+     */
+    void start()
+    {
+        t = new Thread(this);
+        t.start();
+    }
+
+    void add(QueuePoller poller)
+    {
+        pollers.add(poller);
+        wakeUp();
+    }
+
+    void wakeUp()
+    {
+        if (loop.availablePermits() == 0)
+        {
+            loop.release(1);
+        }
+    }
+
+    /**
+     * Stops the scheduler. Pollers must have been stopped before.
+     */
+    void stop()
+    {
+        run = false;
+        loop.release();
+    }
+
+    long getLoopCount()
+    {
+        return loopCount.get();
+    }
+
+    @Override
+    public void run()
+    {
+        Thread.currentThread().setName("CROSS_QUEUE_SCHEDULER;polling;" + this.engine.getNode().getName());
+        jqmlogger.debug("Start of the cross-queue scheduler");
+
+        while (run)
+        {
+            long wait = Long.MAX_VALUE;
+            if (!pollers.isEmpty())
+            {
+                wait = loopOnce();
+            }
+
+            try
+            {
+                if (wait > 0)
+                {
+                    loop.tryAcquire(Math.min(wait, 60000), TimeUnit.MILLISECONDS);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                run = false;
+            }
+        }
+
+        jqmlogger.debug("Cross-queue scheduler has stopped");
+    }
+
+    /**
+     * One loop over all the queues.
+     *
+     * @return the time to wait before the next loop, in ms.
+     */
+    private long loopOnce()
+    {
+        loopCount.incrementAndGet();
+        jqmlogger.trace("cross-queue scheduler loop");
+        DbConn cnx = null;
+
+        try
+        {
+            cnx = Helpers.getNewDbSession();
+
+            // Always check latest polling parameters - from the configuration snapshot of the node, without any query.
+            NodeConfiguration configuration = this.engine.getConfiguration();
+            boolean strictPollingPeriod = configuration.isStrictPollingPeriod();
+            boolean skipLockedPolling = configuration.isSkipLockedPolling();
+
+            long wait = Long.MAX_VALUE;
+            List<Share> shares = new ArrayList<>(pollers.size());
+            for (QueuePoller poller : pollers)
+            {
+                DeploymentParameter dp = configuration.getDeploymentParameter(poller.getDeploymentParameterId());
+                if (dp == null)
+                {
+                    poller.stop();
+                }
+                if (poller.isStopping())
+                {
+                    endPoller(poller);
+                    continue;
+                }
+                poller.refreshDeploymentParameter(dp, strictPollingPeriod, skipLockedPolling);
+                poller.markLoop();
+                wait = Math.min(wait, poller.getPollingInterval());
+
+                Share share = new Share();
+                share.poller = poller;
+                share.initialRoom = poller.potentialFreeRoom(); // Includes the node budget.
+                share.weight = Math.max(1, poller.getMaxConcurrentJobInstanceCount());
+                share.used = poller.getCurrentActiveThreadCount();
+                if (share.initialRoom > 0)
+                {
+                    shares.add(share);
+                }
+            }
+            if (shares.isEmpty())
+            {
+                return wait;
+            }
+
+            boolean filled;
+            if (skipLockedPolling && cnx.canPollAndLock())
+            {
+                filled = claimHeads(shares, cnx);
+            }
+            else
+            {
+                filled = pollHeads(shares, cnx);
+            }
+
+            // Same rule as the adaptive polling of a single queue: if all free slots were used, there may be more waiting.
+            return filled ? 0 : wait;
+        }
+        catch (RuntimeException e)
+        {
+            if (!run)
+            {
+                return 0;
+            }
+            if (Helpers.testDbFailure(e))
+            {
+                jqmlogger.error("connection to database lost - stopping all pollers");
+                jqmlogger.trace("connection error was:", e.getCause());
+                for (QueuePoller poller : pollers)
+                {
+                    pollers.remove(poller);
+                    poller.failed();
+                    this.engine.pollerRestartNeeded(poller);
+                }
+            }
+            else
+            {
+                failAll(e);
+            }
+            return Long.MAX_VALUE;
+        }
+        catch (Exception e)
+        {
+            failAll(e);
+            return Long.MAX_VALUE;
+        }
+        finally
+        {
+            Thread.interrupted(); // always clear interrupted status before doing DB operations.
+            Closer.closeQuietly(cnx);
+        }
+    }
+
+    /**
+     * Polls all the queues with free room at once, then shares the free slots between them.
+     *
+     * @return true if a queue has used all its free room.
+     */
+    private boolean pollHeads(List<Share> shares, DbConn cnx) throws Exception
+    {
+        Map<Queue, Integer> headSizes = new HashMap<>();
+        for (Share share : shares)
+        {
+            headSizes.put(share.poller.getQueue(), QueuePoller.headSize(share.initialRoom));
+        }
+        Map<Integer, List<JobInstance>> heads = cnx.pollQueues(headSizes);
+
+        // Parameters are needed by the RMs - load them for all the heads at once.
+        List<JobInstance> all = new ArrayList<>();
+        for (Share share : shares)
+        {
+            share.head = heads.get(share.poller.getQueue().getId());
+            all.addAll(share.head);
+        }
+        jqmlogger.trace("Scheduler has selected {} JIs to run on {} queues", all.size(), shares.size());
+        if (all.isEmpty())
+        {
+            return false;
+        }
+        JobInstance.loadPrmCache(cnx, all);
+
+        int launched;
+        do
+        {
+            // Hand-off: slots granted to a queue which could not use them go to the other queues in the next pass.
+            launched = 0;
+            for (Share share : grant(shares))
+            {
+                int res = share.poller.launchFromHead(share.head, share.granted, false, cnx);
+                share.used += res;
+                share.launched += res;
+                share.granted = 0;
+                launched += res;
+            }
+        } while (launched > 0);
+
+        for (Share share : shares)
+        {
+            if (share.launched >= share.initialRoom)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gives the free slots of the node one by one to the share with the lowest load which still has room and candidates.
+     *
+     * @return the shares which were granted slots.
+     */
+    private List<Share> grant(List<Share> shares)
+    {
+        int free = budget == null ? Integer.MAX_VALUE : budget.getSlotsAvailable();
+        PriorityQueue<Share> candidates = new PriorityQueue<>();
+        for (Share share : shares)
+        {
+            share.room = share.poller.potentialFreeRoom();
+            if (share.room > 0 && !share.head.isEmpty())
+            {
+                candidates.add(share);
+            }
+        }
+
+        List<Share> res = new ArrayList<>();
+        while (free > 0 && !candidates.isEmpty())
+        {
+            Share share = candidates.poll();
+            if (share.granted == 0)
+            {
+                res.add(share);
+            }
+            share.granted++;
+            free--;
+            if (share.granted < share.room && share.granted < share.head.size())
+            {
+                candidates.add(share);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Claim mode: locked polling must be committed queue by queue, so queues are polled one after the other - least loaded first.
+     *
+     * @return true if a queue has used all its free room.
+     */
+    private boolean claimHeads(List<Share> shares, DbConn cnx) throws Exception
+    {
+        boolean filled = false;
+        PriorityQueue<Share> ordered = new PriorityQueue<>(shares);
+        while (!ordered.isEmpty())
+        {
+            Share share = ordered.poll();
+            int room = share.poller.potentialFreeRoom();
+            if (room > 0)
+            {
+                filled = share.poller.pollAndLaunch(room, cnx) >= room || filled;
+            }
+        }
+        return filled;
+    }
+
+    private void endPoller(QueuePoller poller)
+    {
+        pollers.remove(poller);
+        Thread end = new Thread(poller::endOfPolling);
+        end.setName("QUEUE_POLLER;stopping;" + poller.getQueue().getName() + ";" + this.engine.getNode().getName());
+        end.start();
+    }
+
+    private void failAll(Exception e)
+    {
+        jqmlogger.error("Cross-queue scheduler has failed! All queues will stop.", e);
+        for (QueuePoller poller : pollers)
+        {
+            poller.stop();
+            endPoller(poller);
+        }
+    }
+}
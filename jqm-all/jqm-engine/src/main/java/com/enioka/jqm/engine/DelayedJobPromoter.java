@@ -0,0 +1,143 @@
+package com.enioka.jqm.engine;
+
+import java.util.Calendar;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enioka.jqm.jdbc.DatabaseException;
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.jdbc.QueueNotificationBus;
+import com.enioka.jqm.model.GlobalParameter;
+
+/**
+ * Makes the delayed job instances (state SCHEDULED, with a DATE_NOT_BEFORE) available to the queue pollers once they have become due. Only
+ * runs on the master scheduler node, alongside the cron scheduler.<br>
+ * <br>
+ * The due job instances are found with the (STATUS, DATE_NOT_BEFORE) index and promoted by bounded batches. The thread then sleeps until
+ * the next known due date, but never more than <code>delayedJobsMaxWaitMs</code>, so job instances delayed by other nodes or clients are
+ * still seen quickly.
+ */
+class DelayedJobPromoter implements Runnable
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(DelayedJobPromoter.class);
+
+    // Avoids a busy loop when the clocks of the database and of the engine do not agree on the due date.
+    private static final long MIN_WAIT_MS = 250;
+    // The IDs of a batch are sent inside an IN list, and Oracle refuses lists of more than 1000 elements.
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    private int batchSize = 500;
+    private long maxWaitMs = 5000;
+    private volatile boolean run = true;
+    private Thread t;
+
+    /**
+     * Creates and starts the promoter.
+     */
+    static DelayedJobPromoter start()
+    {
+        DelayedJobPromoter res = new DelayedJobPromoter();
+        res.t = new Thread(res);
+        res.t.setDaemon(true);
+        res.t.start();
+        return res;
+    }
+
+    void stop()
+    {
+        this.run = false;
+        this.t.interrupt();
+    }
+
+    @Override
+    public void run()
+    {
+        Thread.currentThread().setName("Delayed job promoter");
+        jqmlogger.debug("Delayed job promoter has started");
+        boolean configured = false;
+
+        while (run)
+        {
+            long wait = this.maxWaitMs;
+            try (DbConn cnx = Helpers.getNewDbSession())
+            {
+                if (!configured)
+                {
+                    this.batchSize = Math.min(MAX_BATCH_SIZE,
+                            Math.max(1, Integer.parseInt(GlobalParameter.getParameter(cnx, "delayedJobsBatchSize", "500"))));
+                    this.maxWaitMs = Math.max(MIN_WAIT_MS,
+                            Long.parseLong(GlobalParameter.getParameter(cnx, "delayedJobsMaxWaitMs", "5000")));
+                    configured = true;
+                }
+
+                promoteDue(cnx);
+                wait = timeToNextDueDate(cnx);
+            }
+            catch (DatabaseException e)
+            {
+                jqmlogger.error("Could not promote delayed job instances - will retry later", e);
+            }
+
+            try
+            {
+                Thread.sleep(wait);
+            }
+            catch (InterruptedException e)
+            {
+                break;
+            }
+        }
+
+        jqmlogger.debug("Delayed job promoter has stopped");
+    }
+
+    /**
+     * Promotes all the job instances which are due, by batches of <code>batchSize</code>.
+     */
+    private void promoteDue(DbConn cnx)
+    {
+        int total = 0;
+        while (run)
+        {
+            List<Integer> ids = cnx.runSelectColumnPage("ji_select_delayed_due", 0, this.batchSize, Integer.class);
+            if (ids.isEmpty())
+            {
+                break;
+            }
+
+            List<Integer> queues = cnx.runSelectColumn("ji_select_queues_by_id_list", Integer.class, ids);
+            total += cnx.runUpdate("ji_update_delayed_by_id_list", ids).nbUpdated;
+            for (int queueId : queues)
+            {
+                QueueNotificationBus.publish(cnx, queueId);
+            }
+            cnx.commit();
+            for (int queueId : queues)
+            {
+                QueueNotificationBus.signalLocal(queueId);
+            }
+
+            if (ids.size() < this.batchSize)
+            {
+                break;
+            }
+        }
+
+        if (total > 0)
+        {
+            jqmlogger.debug("{} delayed job instances are now available for the queue pollers", total);
+        }
+    }
+
+    private long timeToNextDueDate(DbConn cnx)
+    {
+        Calendar next = cnx.runSelectSingle("ji_select_delayed_next", Calendar.class);
+        if (next == null)
+        {
+            return this.maxWaitMs;
+        }
+        return Math.max(MIN_WAIT_MS, Math.min(this.maxWaitMs, next.getTimeInMillis() - System.currentTimeMillis()));
+    }
+}
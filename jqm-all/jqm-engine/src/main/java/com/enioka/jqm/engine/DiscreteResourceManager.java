@@ -1,11 +1,14 @@
 package com.enioka.jqm.engine;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.enioka.jqm.jdbc.DbConn;
 import com.enioka.jqm.model.JobInstance;
@@ -21,25 +24,51 @@ import org.slf4j.LoggerFactory;
  * <br>
  * Blocks once the resource is exhausted.<br>
  * This RM has no persistence - resources are counted in memory, and considered free on startup.<br>
- * By default it has 10 items named item01 to item10, and JI do NOT use any of them.
+ * By default it has 10 items named item01 to item10, and JI do NOT use any of them.<br>
+ * <br>
+ * Free items are kept inside a lock-free queue and booked items are indexed by JI, so booking and releasing cost only the number of items
+ * taken by the JI, whatever the size of the pool.
  */
 public class DiscreteResourceManager extends ResourceManagerBase
 {
-    private static Logger jqmlogger = LoggerFactory.getLogger(QuantityResourceManager.class);
+    private static Logger jqmlogger = LoggerFactory.getLogger(DiscreteResourceManager.class);
 
     private static String PRM_ROOT = "com.enioka.jqm.rm.discrete.";
     private static String PRM_LIST = "list";
     private static String PRM_CONSUMPTION = "consumption";
 
     /**
-     * The tokens, indexed by name. Boolean is true if available, false if booked.
+     * All the tokens currently configured, indexed by name. Only used by configuration refreshes.
      */
     private Map<String, Token> tokenRepository = new ConcurrentHashMap<>(10);
 
-    private class Token
+    /**
+     * The free tokens. A token is either inside this queue or inside {@link #bookings}.
+     */
+    private Queue<Token> freeTokens = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Count of the usable tokens inside {@link #freeTokens} - the size of a {@link ConcurrentLinkedQueue} is not a constant time operation.
+     */
+    private AtomicInteger freeCount = new AtomicInteger(0);
+
+    /**
+     * The booked tokens, indexed by JI ID.
+     */
+    private Map<Integer, List<Token>> bookings = new ConcurrentHashMap<>();
+
+    private static class Token
     {
-        private AtomicBoolean free = new AtomicBoolean(true);
-        private int jiId = 0;
+        private final String name;
+        /**
+         * True once the item is no longer inside the configuration. A removed token is never given back to the free queue.
+         */
+        private volatile boolean removed = false;
+
+        private Token(String name)
+        {
+            this.name = name;
+        }
     }
 
     private int defaultConsumption;
@@ -67,30 +96,30 @@ public class DiscreteResourceManager extends ResourceManagerBase
     {
         // Read configuration
         super.refreshConfiguration(configuration);
-        String[] newItems = getStringParameter(PRM_LIST).split(",");
+        Set<String> newItems = new HashSet<>();
+        for (String newItem : getStringParameter(PRM_LIST).split(","))
+        {
+            newItems.add(newItem);
+        }
 
         // Remove items absent from configuration
         List<String> toRemove = new ArrayList<>(); // Cannot directly modify map we iterate on.
         for (String key : this.tokenRepository.keySet())
         {
-            boolean found = false;
-            for (String newItem : newItems)
-            {
-                if (newItem.equals(key))
-                {
-                    found = true;
-                    break;
-                }
-            }
-
-            if (!found)
+            if (!newItems.contains(key))
             {
                 toRemove.add(key);
             }
         }
         for (String key : toRemove)
         {
-            this.tokenRepository.remove(key);
+            Token token = this.tokenRepository.remove(key);
+            token.removed = true;
+            // If booked (or being booked), the token is simply not given back on release.
+            if (this.freeTokens.remove(token))
+            {
+                this.freeCount.decrementAndGet();
+            }
         }
 
         // Add new items
@@ -98,7 +127,10 @@ public class DiscreteResourceManager extends ResourceManagerBase
         {
             if (!tokenRepository.containsKey(newItem))
             {
-                this.tokenRepository.put(newItem, new Token());
+                Token token = new Token(newItem);
+                this.tokenRepository.put(newItem, token);
+                this.freeTokens.add(token);
+                this.freeCount.incrementAndGet();
             }
         }
 
@@ -119,17 +151,15 @@ public class DiscreteResourceManager extends ResourceManagerBase
             return BookingStatus.BOOKED; // Perf optim.
         }
 
-        Map<String, Token> booked = new HashMap<>();
-        for (Map.Entry<String, Token> e : this.tokenRepository.entrySet())
+        List<Token> booked = new ArrayList<>(slots);
+        Token token;
+        while (booked.size() < slots && (token = this.freeTokens.poll()) != null)
         {
-            if (e.getValue().free.compareAndSet(true, false))
+            // Whoever takes a token out of the free queue accounts for it.
+            this.freeCount.decrementAndGet();
+            if (!token.removed)
             {
-                booked.put(e.getKey(), e.getValue());
-                e.getValue().jiId = ji.getId();
-            }
-            if (booked.size() == slots)
-            {
-                break;
+                booked.add(token);
             }
         }
 
@@ -138,15 +168,19 @@ public class DiscreteResourceManager extends ResourceManagerBase
             // Failure.
             if (booked.size() > 0)
             {
-                for (Token e : booked.values())
-                {
-                    e.free.set(true);
-                }
+                giveBack(booked);
                 return BookingStatus.FAILED; // If here there are items available, just not enough.
             }
             return BookingStatus.EXHAUSTED;
         }
-        ji.addEnvVar(String.format("JQM_RM_DISCRETE_%s_ITEMS", this.key.toUpperCase()), StringUtils.join(booked.keySet(), ","));
+
+        this.bookings.put(ji.getId(), booked);
+        List<String> names = new ArrayList<>(slots);
+        for (Token t : booked)
+        {
+            names.add(t.name);
+        }
+        ji.addEnvVar(String.format("JQM_RM_DISCRETE_%s_ITEMS", this.key.toUpperCase()), StringUtils.join(names, ","));
         jqmlogger.debug("Booking {} items for RM {}", booked.size(), this.key);
         return BookingStatus.BOOKED;
     }
@@ -154,30 +188,30 @@ public class DiscreteResourceManager extends ResourceManagerBase
     @Override
     void releaseResource(JobInstance ji)
     {
-        int released = 0;
-        for (Token e : this.tokenRepository.values())
+        List<Token> booked = this.bookings.remove(ji.getId());
+        if (booked == null)
         {
-            if (!e.free.get() && e.jiId == ji.getId())
-            {
-                e.free.set(true);
-                released++;
-            }
+            return;
         }
-
-        jqmlogger.debug("Releasing {} items for RM {}", released, this.key);
+        giveBack(booked);
+        jqmlogger.debug("Releasing {} items for RM {}", booked.size(), this.key);
     }
 
-    @Override
-    int getSlotsAvailable()
+    private void giveBack(List<Token> tokens)
     {
-        int availableItems = 0;
-        for (Map.Entry<String, Token> e : this.tokenRepository.entrySet())
+        for (Token token : tokens)
         {
-            if (e.getValue().free.get())
+            if (!token.removed)
             {
-                availableItems++;
+                this.freeTokens.add(token);
+                this.freeCount.incrementAndGet();
             }
         }
-        return availableItems / (this.defaultConsumption > 0 ? this.defaultConsumption : 1);
+    }
+
+    @Override
+    int getSlotsAvailable()
+    {
+        return Math.max(0, this.freeCount.get()) / (this.defaultConsumption > 0 ? this.defaultConsumption : 1);
     }
 }
@@ -0,0 +1,229 @@
+package com.enioka.jqm.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enioka.jqm.jdbc.DatabaseException;
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.GlobalParameter;
+
+/**
+ * The node-level registry of the highlander job definitions, shared by all the {@link HighlanderResourceManager}s of the node.<br>
+ * <br>
+ * It knows which highlander job definitions have an instance booked or running on this node, so a second instance is refused without any
+ * database access. To know if another node runs an instance, a node takes a lease on the job definition (a row of the HIGHLANDER_LEASE
+ * table). As long as it holds the lease, no other node can run an instance and the registry alone decides. The lease is only taken (and
+ * instances of the job definition counted inside the database) when the node did not hold it already - so the count is not done on each
+ * polling loop anymore.<br>
+ * <br>
+ * Leases are renewed by the internal poller, and given back as soon as the instance running on the node ends (or, if this fails, when
+ * the job definition was not needed on the node during a whole internal poller period). A lease which is not renewed for three internal
+ * poller periods can be taken by another node (after a count of the running instances, so the instances of a node which is only late are
+ * still taken into account). A node only trusts its lease for half that time after its latest renewal.<br>
+ * <br>
+ * The registry does not synchronize the engine with the clients: this is done by the job definition lock taken by
+ * {@link HighlanderResourceManager}.
+ */
+class HighlanderRegistry
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(HighlanderRegistry.class);
+
+    private final int nodeId;
+    private final int leaseSeconds;
+
+    // All fields below are guarded by this.
+    /**
+     * JD ID -> ID of the JI booked or running on this node.
+     */
+    private Map<Integer, Integer> running = new HashMap<>();
+    /**
+     * JD ID -> time of the latest confirmation of the lease (System.nanoTime), for the leases held by this node.
+     */
+    private Map<Integer, Long> leases = new HashMap<>();
+    private Set<Integer> usedSinceHousekeeping = new HashSet<>();
+
+    private HighlanderRegistry(int nodeId, int leaseSeconds)
+    {
+        this.nodeId = nodeId;
+        this.leaseSeconds = leaseSeconds;
+    }
+
+    /**
+     * To be called at node startup, after the purge of the job instances of a previous run: the leases of a previous run are given back.
+     */
+    static HighlanderRegistry create(DbConn cnx, int nodeId)
+    {
+        long internalPollingPeriodMs = Long.parseLong(GlobalParameter.getParameter(cnx, "internalPollingPeriodMs", "60000"));
+        HighlanderRegistry res = new HighlanderRegistry(nodeId, (int) Math.max(10, 3 * internalPollingPeriodMs / 1000));
+
+        cnx.runUpdate("hl_update_free_by_node", nodeId);
+        cnx.commit();
+        return res;
+    }
+
+    /**
+     * Books the job definition for a job instance.
+     *
+     * @return false if an instance of the job definition is already booked or running on this node or on another node.
+     */
+    synchronized boolean book(int jdId, int jiId)
+    {
+        if (running.containsKey(jdId))
+        {
+            jqmlogger.trace("Highlander JD {} is already running on this node", jdId);
+            return false;
+        }
+
+        Long confirmed = leases.get(jdId);
+        if (confirmed == null || System.nanoTime() - confirmed > leaseSeconds * 1000000000L / 2)
+        {
+            leases.remove(jdId);
+            if (!takeLease(jdId))
+            {
+                return false;
+            }
+        }
+
+        running.put(jdId, jiId);
+        usedSinceHousekeeping.add(jdId);
+        return true;
+    }
+
+    /**
+     * Called when the job instance has ended, or will not run after all. As there is no instance of the job definition left on this node,
+     * the lease is given back at once so that other nodes can run the next instance without waiting for the housekeeping. Never fails - if
+     * the database is not available, the lease is given back by the next housekeeping.
+     */
+    synchronized void release(int jdId, int jiId)
+    {
+        Integer booked = running.get(jdId);
+        if (booked == null || booked != jiId)
+        {
+            return;
+        }
+        running.remove(jdId);
+
+        if (leases.containsKey(jdId))
+        {
+            try (DbConn cnx = Helpers.getNewDbSession())
+            {
+                cnx.runUpdate("hl_update_free_by_jd_and_node", jdId, nodeId);
+                cnx.commit();
+                leases.remove(jdId);
+                usedSinceHousekeeping.remove(jdId);
+            }
+            catch (RuntimeException e)
+            {
+                jqmlogger.warn("Could not give back the lease of highlander JD " + jdId + " - will retry later", e);
+            }
+        }
+    }
+
+    /**
+     * Takes the lease inside its own transaction. The lease is refused if another node holds it, or if there are still running instances
+     * of the job definition (from a node which did not renew its lease in time, or from a node stopped without being able to clean up).
+     */
+    private boolean takeLease(int jdId)
+    {
+        long before = System.nanoTime();
+        try (DbConn cnx = Helpers.getNewDbSession())
+        {
+            if (cnx.runUpdate("hl_update_take", nodeId, jdId, nodeId, leaseSeconds).nbUpdated == 0)
+            {
+                if (cnx.runSelectSingle("hl_select_count_by_jd", Integer.class, jdId) > 0)
+                {
+                    jqmlogger.trace("Highlander JD {} is leased by another node", jdId);
+                    return false;
+                }
+                try
+                {
+                    cnx.runUpdate("hl_insert", jdId, nodeId);
+                }
+                catch (DatabaseException e)
+                {
+                    // UK error: another node has just used the JD for the first time.
+                    cnx.rollback();
+                    return false;
+                }
+            }
+
+            if (cnx.runSelectSingle("ji_select_existing_highlander_2", Integer.class, jdId) != 0)
+            {
+                jqmlogger.trace("Highlander JD {} still has a running instance", jdId);
+                cnx.rollback();
+                return false;
+            }
+            cnx.commit();
+        }
+
+        jqmlogger.trace("This node now holds the lease of highlander JD {}", jdId);
+        leases.put(jdId, before);
+        return true;
+    }
+
+    /**
+     * Renews the leases of the node, and gives back the ones not needed during the whole period. Called by the internal poller.
+     */
+    synchronized void housekeeping(DbConn cnx)
+    {
+        if (leases.isEmpty())
+        {
+            return;
+        }
+
+        long before = System.nanoTime();
+        List<Integer> unused = new ArrayList<>();
+        for (Integer jdId : leases.keySet())
+        {
+            if (!running.containsKey(jdId) && !usedSinceHousekeeping.contains(jdId))
+            {
+                unused.add(jdId);
+            }
+        }
+        for (Integer jdId : unused)
+        {
+            cnx.runUpdate("hl_update_free_by_jd_and_node", jdId, nodeId);
+            leases.remove(jdId);
+        }
+        usedSinceHousekeeping.clear();
+
+        int renewed = cnx.runUpdate("hl_update_renew_by_node", nodeId).nbUpdated;
+        cnx.commit();
+
+        if (renewed != leases.size())
+        {
+            // Some leases were taken by other nodes. Do not trust any of them.
+            jqmlogger.warn("Highlander leases were taken by other nodes - is the internal poller too slow?");
+            leases.clear();
+            return;
+        }
+        for (Integer jdId : leases.keySet())
+        {
+            leases.put(jdId, before);
+        }
+    }
+
+    /**
+     * Gives back all the leases. Called when the engine stops, after the end of all job instances. Never fails.
+     */
+    synchronized void stop()
+    {
+        leases.clear();
+        try (DbConn cnx = Helpers.getNewDbSession())
+        {
+            cnx.runUpdate("hl_update_free_by_node", nodeId);
+            cnx.commit();
+        }
+        catch (RuntimeException e)
+        {
+            jqmlogger.warn("Could not give back highlander leases - other nodes will take them once expired", e);
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package com.enioka.jqm.engine;
 
-import java.sql.ResultSet;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -15,19 +14,26 @@ import org.slf4j.LoggerFactory;
  * Highlander is when only a single instance of the same job definition can run at the same time on all queues.<br>
  * The resource is therefore defined here as "a single slot per job definition".<br>
  * <br>
- * This RM does not actually change anything in database - it simply holds a lock during job analysis. To hold this lock it must open a
- * connection of its own - that way locks can be granular. If it used the poller connection instead, locks would only be released when it is
- * committed as it is the only way to release them, and that could cause deadlocks.
+ * This RM uses the {@link HighlanderRegistry} of the node, which tracks the highlander job instances of the node and only goes to the
+ * database when the node does not hold the lease of the job definition yet.<br>
+ * <br>
+ * Once booked, it also locks the job definition in the database until the job instance is attributed to the node. This is a convention
+ * for highlander JI between clients and engine: a client enqueuing a new request locks the same row before looking for a waiting instance,
+ * so a request can never be merged into an instance which is being attributed. The lock needs a connection of its own - that way locks can
+ * be granular. If it used the poller connection instead, locks would only be released when it is committed as it is the only way to
+ * release them, and that could cause deadlocks.
  */
 public class HighlanderResourceManager extends ResourceManagerBase
 {
     private static Logger jqmlogger = LoggerFactory.getLogger(HighlanderResourceManager.class);
 
-    private Map<JobInstance, DbConn> openLocks = new HashMap<JobInstance, DbConn>();
+    private HighlanderRegistry registry;
+    private Map<JobInstance, DbConn> openLocks = new HashMap<>();
 
-    HighlanderResourceManager(ResourceManager rm)
+    HighlanderResourceManager(ResourceManager rm, HighlanderRegistry registry)
     {
         super(rm);
+        this.registry = registry;
     }
 
     @Override
@@ -45,52 +51,70 @@ public class HighlanderResourceManager extends ResourceManagerBase
             // Non-highlander JI do not need anything from this RM.
             return BookingStatus.BOOKED;
         }
-        cnx = Helpers.getNewDbSession();
-
-        // Lock the definition in the DB - this is a convention for highlander JI between clients and engine.
-        jqmlogger.trace("Locking JI ID {} of rank {} - {}", ji.getId(), ji.getInternalPosition(), ji.getJD().getApplicationName());
-        ResultSet rs = cnx.runSelect(true, "jd_select_by_id_lock", ji.getJD().getId());
 
-        // We have the lock. Check if there are already running instances.
-        Integer runningCount = cnx.runSelectSingle("ji_select_existing_highlander_2", Integer.class, ji.getJD().getId());
-        if (runningCount != 0)
+        if (!registry.book(ji.getJD().getId(), ji.getId()))
         {
-            // Already running, so skip this JI.
-            cnx.closeQuietly(rs); // release the lock.
-            cnx.rollback();
-            cnx.close();
             jqmlogger.trace("Resource reservation KO for JI {} - {} - one instance is already running", ji.getId(),
                     ji.getJD().getApplicationName());
             return BookingStatus.FAILED;
         }
 
-        // If here, no running instance and lock is held. It will only be released when commit or rollback is called on the connection.
+        DbConn lockCnx = null;
+        try
+        {
+            lockCnx = Helpers.getNewDbSession();
+            jqmlogger.trace("Locking JI ID {} of rank {} - {}", ji.getId(), ji.getInternalPosition(), ji.getJD().getApplicationName());
+            lockCnx.runSelect(true, "jd_select_by_id_lock", ji.getJD().getId());
+        }
+        catch (RuntimeException e)
+        {
+            if (lockCnx != null)
+            {
+                lockCnx.close();
+            }
+            registry.release(ji.getJD().getId(), ji.getId());
+            throw e;
+        }
+
+        // The lock will only be released when commit or rollback is called on the connection.
         jqmlogger.trace("Resourced reserved for JI {} - {}", ji.getId(), ji.getJD().getApplicationName());
-        openLocks.put(ji, cnx);
+        openLocks.put(ji, lockCnx);
         return BookingStatus.BOOKED;
     }
 
     @Override
     void rollbackResourceBooking(JobInstance ji, DbConn cnx)
     {
-        cnx = openLocks.remove(ji);
-        if (cnx != null)
+        DbConn lockCnx = openLocks.remove(ji);
+        if (lockCnx != null)
         {
             jqmlogger.trace("Rollbacking resource reservation for JI {} on app {}", ji.getId(), ji.getJD().getApplicationName());
-            cnx.rollback();
-            cnx.close();
+            lockCnx.rollback();
+            lockCnx.close();
         }
+        super.rollbackResourceBooking(ji, cnx);
     }
 
     @Override
     void commitResourceBooking(JobInstance ji, DbConn cnx)
     {
-        cnx = openLocks.remove(ji);
-        if (cnx != null)
+        // The JI is attributed: the lock is not needed anymore, but the registry keeps the booking until the end of the run.
+        DbConn lockCnx = openLocks.remove(ji);
+        if (lockCnx != null)
         {
             jqmlogger.trace("Committing resource reservation for JI {} on app {}", ji.getId(), ji.getJD().getApplicationName());
-            cnx.commit();
-            cnx.close();
+            lockCnx.commit();
+            lockCnx.close();
+        }
+    }
+
+    @Override
+    void releaseResource(JobInstance ji)
+    {
+        if (ji.getJD().isHighlander())
+        {
+            jqmlogger.trace("Releasing resource reservation for JI {} on app {}", ji.getId(), ji.getJD().getApplicationName());
+            registry.release(ji.getJD().getId(), ji.getId());
         }
     }
 }
@@ -0,0 +1,30 @@
+package com.enioka.jqm.engine;
+
+import com.enioka.jqm.model.Instruction;
+
+/**
+ * The latest instruction and priority of a running job instance, as read from the database by the node-level scan of the
+ * {@link InternalPoller}. Read by the engine API of the job instance instead of querying the database itself. There is one slot per
+ * running job instance.
+ */
+class InstructionSlot
+{
+    private volatile Instruction instruction = Instruction.RUN;
+    private volatile int priority = 0;
+
+    void update(Instruction instruction, int priority)
+    {
+        this.instruction = instruction;
+        this.priority = priority;
+    }
+
+    Instruction getInstruction()
+    {
+        return instruction;
+    }
+
+    int getPriority()
+    {
+        return priority;
+    }
+}
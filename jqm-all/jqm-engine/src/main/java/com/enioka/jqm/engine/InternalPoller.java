@@ -34,7 +34,11 @@ import org.slf4j.LoggerFactory;
 /**
  * The internal poller is responsible for doing all the repetitive tasks of an engine (excluding polling queues). Namely: check if
  * {@link Node#isStop()} has become true (stop order) and update {@link Node#setLastSeenAlive(java.util.Calendar)} to make visible to the
- * whole cluster that the engine is still alive and that no other engine should start with the same node name.
+ * whole cluster that the engine is still alive and that no other engine should start with the same node name.<br>
+ * <br>
+ * It also scans, more frequently, the instructions (kill, pause, priority) of all the job instances running on the node, and pushes them to
+ * the running job instances. This way, job instances do not have to query the database themselves. At the same frequency, it checks if
+ * the {@link NodeConfiguration} used by the queue pollers is still up to date, so pollers do not have to query the configuration.
  */
 class InternalPoller implements Runnable
 {
@@ -42,8 +46,10 @@ class InternalPoller implements Runnable
     private boolean run = true;
     private JqmEngine engine = null;
     private long step;
+    private long instructionStep;
     private Node node = null;
     private Semaphore loop = new Semaphore(0);
+    private Calendar lastJndiPurge = Calendar.getInstance();
 
     InternalPoller(JqmEngine e)
     {
@@ -53,6 +59,8 @@ class InternalPoller implements Runnable
         // Get configuration data
         this.node = this.engine.getNode();
         this.step = Long.parseLong(GlobalParameter.getParameter(cnx, "internalPollingPeriodMs", "60000"));
+        this.instructionStep = Math.min(this.step,
+                Long.parseLong(GlobalParameter.getParameter(cnx, "instructionPeriodMs", "1000")));
         cnx.close();
     }
 
@@ -73,14 +81,15 @@ class InternalPoller implements Runnable
     {
         Thread.currentThread().setName("INTERNAL_POLLER;polling orders;");
         jqmlogger.info("Start of the internal poller");
-        Calendar lastJndiPurge = Calendar.getInstance();
+        long nextFullLoop = System.currentTimeMillis() + this.step;
 
         // Launch main loop
         while (true)
         {
+            boolean forced = false;
             try
             {
-                loop.tryAcquire(this.step, TimeUnit.MILLISECONDS);
+                forced = loop.tryAcquire(this.instructionStep, TimeUnit.MILLISECONDS);
             }
             catch (InterruptedException e)
             {
@@ -91,85 +100,30 @@ class InternalPoller implements Runnable
                 break;
             }
 
+            // Only the configuration check and the instruction scan are done on short loops.
+            boolean fullLoop = forced || System.currentTimeMillis() >= nextFullLoop;
+
             // Get session
             try (DbConn cnx = Helpers.getNewDbSession())
             {
-                // Check if stop order
-                try
-                {
-                    node = Node.select_single(cnx, "node_select_by_id", node.getId());
-                }
-                catch (NoResultException e)
-                {
-                    node = null;
-                }
-                if (node == null || node.isStop())
-                {
-                    jqmlogger.info("Node has received a stop order from the database or was removed from the database");
-                    jqmlogger.trace(
-                            "At stop order time, there are " + this.engine.getCurrentlyRunningJobCount() + " jobs running in the node");
-                    this.run = false;
-                    this.engine.stop();
-                    break;
-                }
-
-                // Engine handler is allowed to do changes on configuration changes.
-                if (this.engine.getHandler() != null)
-                {
-                    this.engine.getHandler().onConfigurationChanged(node);
-                }
-
-                // I am alive
-                cnx.runUpdate("node_update_alive_by_id", node.getId());
-                cnx.commit();
-
-                // Have queue bindings changed, or is engine disabled?
-                this.engine.syncPollers(cnx, node);
-
-                // Should JNDI cache be purged?
-                Calendar bflkpm = Calendar.getInstance();
-                int i = cnx.runSelectSingle("jndi_select_count_changed", Integer.class, lastJndiPurge, lastJndiPurge);
-                if (i > 0L)
+                if (fullLoop)
                 {
-                    try
+                    nextFullLoop = System.currentTimeMillis() + this.step;
+                    if (!fullLoop(cnx))
                     {
-                        // TODO: actually use a signal instead.
-                        // ((JndiContext) NamingManager.getInitialContext(null)).resetSingletons();
-                        lastJndiPurge = bflkpm;
-                    }
-                    catch (Exception e)
-                    {
-                        jqmlogger.warn(
-                                "Could not reset JNDI singleton resources. New parameters won't be used. Restart engine to update them.",
-                                e);
+                        break;
                     }
                 }
-
-                // Should job instances be killed or changed priorities?
-                try
+                else if (this.engine.refreshConfiguration(cnx, false))
                 {
-                    ResultSet rs = cnx.runSelect("ji_select_instructions_by_node", node.getId());
-                    while (rs.next())
-                    {
-                        Integer jiid = rs.getInt(1);
-                        String instr = rs.getString(2);
-                        Instruction instruction;
-                        try
-                        {
-                            instruction = Instruction.valueOf(instr);
-                        }
-                        catch (IllegalArgumentException ex2)
-                        {
-                            jqmlogger.warn("An unknown instruction was found and is ignored: " + instr);
-                            continue;
-                        }
-
-                        this.engine.getRunningJobInstanceManager().handleInstruction(jiid, instruction);
-                    }
+                    // New or removed deployment parameters should not wait for the next full loop.
+                    this.engine.syncPollers(cnx, node);
                 }
-                catch (SQLException e)
+
+                // Should job instances be killed, paused or changed priorities?
+                if (this.engine.getCurrentlyRunningJobCount() > 0)
                 {
-                    throw new DatabaseException(e);
+                    scanInstructions(cnx);
                 }
 
                 // All engine pollings done!
@@ -193,4 +147,99 @@ class InternalPoller implements Runnable
 
         jqmlogger.info("End of the internal poller");
     }
+
+    /**
+     * The tasks done on each full loop.
+     *
+     * @return false if the poller should stop.
+     */
+    private boolean fullLoop(DbConn cnx)
+    {
+        // Check if stop order
+        try
+        {
+            node = Node.select_single(cnx, "node_select_by_id", node.getId());
+        }
+        catch (NoResultException e)
+        {
+            node = null;
+        }
+        if (node == null || node.isStop())
+        {
+            jqmlogger.info("Node has received a stop order from the database or was removed from the database");
+            jqmlogger.trace("At stop order time, there are " + this.engine.getCurrentlyRunningJobCount() + " jobs running in the node");
+            this.run = false;
+            this.engine.stop();
+            return false;
+        }
+
+        // Engine handler is allowed to do changes on configuration changes.
+        if (this.engine.getHandler() != null)
+        {
+            this.engine.getHandler().onConfigurationChanged(node);
+        }
+
+        // I am alive
+        cnx.runUpdate("node_update_alive_by_id", node.getId());
+        cnx.commit();
+
+        // Have queue bindings changed, or is engine disabled? (The configuration is always reloaded on full loops, as a safety net for
+        // changes done inside the database without updating LAST_MODIFIED)
+        this.engine.refreshConfiguration(cnx, true);
+        this.engine.syncPollers(cnx, node);
+
+        // Renew the resources shared with the other nodes
+        for (ResourceManagerBase rm : this.engine.getResourceManagers())
+        {
+            rm.housekeeping(cnx);
+        }
+        this.engine.getHighlanderRegistry().housekeeping(cnx);
+
+        // Should JNDI cache be purged?
+        Calendar bflkpm = Calendar.getInstance();
+        int i = cnx.runSelectSingle("jndi_select_count_changed", Integer.class, lastJndiPurge, lastJndiPurge);
+        if (i > 0L)
+        {
+            try
+            {
+                // TODO: actually use a signal instead.
+                // ((JndiContext) NamingManager.getInitialContext(null)).resetSingletons();
+                lastJndiPurge = bflkpm;
+            }
+            catch (Exception e)
+            {
+                jqmlogger.warn("Could not reset JNDI singleton resources. New parameters won't be used. Restart engine to update them.", e);
+            }
+        }
+        return true;
+    }
+
+    private void scanInstructions(DbConn cnx)
+    {
+        try (ResultSet rs = cnx.runSelect("ji_select_instructions_by_node", node.getId()))
+        {
+            while (rs.next())
+            {
+                Integer jiid = rs.getInt(1);
+                String instr = rs.getString(2);
+                int priority = rs.getInt(3);
+                Instruction instruction;
+                try
+                {
+                    instruction = Instruction.valueOf(instr);
+                }
+                catch (IllegalArgumentException ex2)
+                {
+                    jqmlogger.warn("An unknown instruction was found and is ignored: " + instr);
+                    continue;
+                }
+
+                this.engine.getRunningJobInstanceManager().handleInstruction(jiid, instruction, priority);
+            }
+        }
+        catch (SQLException e)
+        {
+            throw new DatabaseException(e);
+        }
+    }
 }
@@ -42,11 +42,22 @@ class JobInstanceEngineApi implements JobManager
     private static Logger jqmlogger = LoggerFactory.getLogger(JobInstanceEngineApi.class);
 
     private JobInstance ji;
+    private JobInstanceStatusWriter statusWriter;
+    private InstructionSlot instructionSlot;
     private Calendar lastPeek = null;
 
-    JobInstanceEngineApi(JobInstance ji)
+    /**
+     * @param statusWriter
+     *                            if not null, progress and messages are stored asynchronously by this writer.
+     * @param instructionSlot
+     *                            if not null, instructions are read from this slot filled by the engine. Otherwise they are read from
+     *                            the database.
+     */
+    JobInstanceEngineApi(JobInstance ji, JobInstanceStatusWriter statusWriter, InstructionSlot instructionSlot)
     {
         this.ji = ji;
+        this.statusWriter = statusWriter;
+        this.instructionSlot = instructionSlot;
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -63,6 +74,10 @@ class JobInstanceEngineApi implements JobManager
     @Override
     public void sendMsg(String msg)
     {
+        if (statusWriter != null && statusWriter.sendMsg(ji.getId(), msg))
+        {
+            return;
+        }
         try (DbConn cnx = Helpers.getNewDbSession())
         {
             Message.create(cnx, msg, ji.getId());
@@ -79,9 +94,13 @@ class JobInstanceEngineApi implements JobManager
     @Override
     public void sendProgress(Integer msg)
     {
+        this.ji.setProgress(msg); // Not persisted, but useful to the Loader.
+        if (statusWriter != null && statusWriter.sendProgress(ji.getId(), msg))
+        {
+            return;
+        }
         try (DbConn cnx = Helpers.getNewDbSession())
         {
-            this.ji.setProgress(msg); // Not persisted, but useful to the Loader.
             cnx.runUpdate("jj_update_progress_by_id", msg, ji.getId());
             cnx.commit();
         }
@@ -277,6 +296,54 @@ class JobInstanceEngineApi implements JobManager
     }
 
     private void handleInstructions()
+    {
+        if (instructionSlot == null)
+        {
+            handleInstructionsFromDatabase();
+            return;
+        }
+
+        // The slot is filled by the node-level scan of the engine: no need to throttle.
+        Instruction s = instructionSlot.getInstruction();
+        if (s.equals(Instruction.PAUSE))
+        {
+            jqmlogger.info("Job will be paused at the request of a user");
+            sendMsg("Pause is beginning");
+
+            while (s.equals(Instruction.PAUSE))
+            {
+                try
+                {
+                    Thread.sleep(1000);
+                }
+                catch (InterruptedException e)
+                {
+                    throw new RuntimeException("job thread was interrupted");
+                }
+                s = instructionSlot.getInstruction();
+            }
+            jqmlogger.info("Job instance is resuming");
+            sendMsg("Job instance is resuming");
+        }
+        if (s.equals(Instruction.KILL))
+        {
+            jqmlogger.info("Job will be killed at the request of a user");
+            Thread.currentThread().interrupt();
+            throw new JqmKillException("This job" + "(ID: " + ji.getId() + ")" + " has been forcefully ended by a user");
+        }
+
+        // TEMP: #319 workaround. Full implementation should be in the engine, not here.
+        int priority = instructionSlot.getPriority();
+        if (priority != 0 && Thread.currentThread().getPriority() != priority)
+        {
+            Thread.currentThread().setPriority(priority);
+        }
+    }
+
+    /**
+     * Used when there is no engine to read instructions for the job instance (single runner).
+     */
+    private void handleInstructionsFromDatabase()
     {
         // Throttle: only peek once every 1 second.
         if (lastPeek != null && Calendar.getInstance().getTimeInMillis() - lastPeek.getTimeInMillis() < 1000L)
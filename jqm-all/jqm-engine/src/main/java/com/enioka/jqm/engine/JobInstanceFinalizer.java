@@ -0,0 +1,212 @@
+package com.enioka.jqm.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.model.History;
+
+/**
+ * Stores the results of ended job instances (History creation and JobInstance removal) in batches: instances ending at nearly the same
+ * time share a single transaction and JDBC batches instead of one transaction each. Only started if the global parameter
+ * <code>endOfRunBatchSize</code> is greater than 1.<br>
+ * <br>
+ * On database connection loss, the whole batch is given to the engine for delayed finalization, exactly as when the payload thread stores
+ * its own result. Other errors (which may be caused by a single instance) are retried one instance at a time.
+ */
+class JobInstanceFinalizer implements Runnable
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(JobInstanceFinalizer.class);
+
+    private BlockingQueue<RunningJobInstance> toFinalize = new LinkedBlockingQueue<>();
+    private boolean run = true;
+    private int batchSize;
+    private long batchDelay;
+    private Thread t;
+
+    private JobInstanceFinalizer(int batchSize, long batchDelay)
+    {
+        this.batchSize = batchSize;
+        this.batchDelay = batchDelay;
+
+        t = new Thread(this);
+        t.start();
+    }
+
+    /**
+     * @return a started finalizer, or null if batched finalization is disabled.
+     */
+    static JobInstanceFinalizer create(DbConn cnx)
+    {
+        int batchSize = Integer.parseInt(GlobalParameter.getParameter(cnx, "endOfRunBatchSize", "0"));
+        if (batchSize <= 1)
+        {
+            jqmlogger.info("Job instances will store their results one by one");
+            return null;
+        }
+        long batchDelay = Long.parseLong(GlobalParameter.getParameter(cnx, "endOfRunBatchDelayMs", "10"));
+        jqmlogger.info("Job instance results will be stored in batches of at most {} instances or {} ms", batchSize, batchDelay);
+        return new JobInstanceFinalizer(batchSize, batchDelay);
+    }
+
+    /**
+     * Queues an ended job instance for storage.
+     *
+     * @return false if the finalizer is stopped, in which case the caller should store the results itself.
+     */
+    synchronized boolean submit(RunningJobInstance rji)
+    {
+        if (!run)
+        {
+            return false;
+        }
+        toFinalize.add(rji);
+        return true;
+    }
+
+    /**
+     * Stops the finalizer once all the already queued instances are stored. Does not wait for the end of the thread. (which is not
+     * interrupted, as it may be inside a JDBC call)
+     */
+    synchronized void stop()
+    {
+        run = false;
+    }
+
+    void join() throws InterruptedException
+    {
+        t.join();
+    }
+
+    @Override
+    public void run()
+    {
+        Thread.currentThread().setName("JOB_INSTANCE_FINALIZER;storing;");
+        jqmlogger.debug("Start of the job instance finalizer");
+
+        List<RunningJobInstance> batch = new ArrayList<>(batchSize);
+        while (true)
+        {
+            boolean stopping;
+            synchronized (this)
+            {
+                stopping = !run;
+            }
+
+            try
+            {
+                if (stopping)
+                {
+                    // No new instances can come. Store the remaining ones without waiting.
+                    toFinalize.drainTo(batch, batchSize);
+                    if (batch.isEmpty())
+                    {
+                        break;
+                    }
+                }
+                else
+                {
+                    fillBatch(batch);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // Not expected. Loop to store what was taken (or stop).
+                jqmlogger.debug("interrupted wait in job instance finalizer");
+            }
+
+            if (!batch.isEmpty())
+            {
+                store(batch);
+                batch.clear();
+            }
+        }
+
+        jqmlogger.debug("Job instance finalizer has stopped");
+    }
+
+    /**
+     * Waits for a first instance (at most one second, so as to notice stop orders), then waits for more up to the batch delay or until the
+     * batch is full.
+     */
+    private void fillBatch(List<RunningJobInstance> batch) throws InterruptedException
+    {
+        RunningJobInstance first = toFinalize.poll(1, TimeUnit.SECONDS);
+        if (first == null)
+        {
+            return;
+        }
+        batch.add(first);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchDelay);
+        while (batch.size() < batchSize)
+        {
+            toFinalize.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0)
+            {
+                break;
+            }
+            RunningJobInstance next = toFinalize.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null)
+            {
+                break;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void store(List<RunningJobInstance> batch)
+    {
+        List<Object[]> histories = new ArrayList<>(batch.size());
+        List<Object[]> deletions = new ArrayList<>(batch.size());
+        for (RunningJobInstance rji : batch)
+        {
+            histories.add(History.getInsertParameters(rji.getJobInstance(), rji.getResultStatus(), rji.getEndDate()));
+            deletions.add(new Object[] { rji.getId() });
+        }
+
+        try (DbConn cnx = Helpers.getNewDbSession())
+        {
+            cnx.runBatchUpdate("history_insert_with_end_date", histories);
+            cnx.runBatchUpdate("ji_delete_by_id", deletions);
+            cnx.commit();
+            jqmlogger.trace("Results of {} job instances were stored", batch.size());
+            return;
+        }
+        catch (RuntimeException e)
+        {
+            if (Helpers.testDbFailure(e))
+            {
+                jqmlogger.error("connection to database lost - {} job instances will need delayed finalization", batch.size());
+                jqmlogger.trace("connection error was:", e.getCause());
+                for (RunningJobInstance rji : batch)
+                {
+                    rji.delayFinalization();
+                }
+                return;
+            }
+            jqmlogger.warn("Batched storage of job instance results has failed - results will be stored one by one", e);
+        }
+
+        // Fallback for non-connection errors: isolate the culprit.
+        for (RunningJobInstance rji : batch)
+        {
+            try
+            {
+                rji.endOfRunDbNow();
+            }
+            catch (RuntimeException e)
+            {
+                jqmlogger.error("Results of job instance " + rji.getId() + " could not be stored", e);
+            }
+        }
+    }
+}
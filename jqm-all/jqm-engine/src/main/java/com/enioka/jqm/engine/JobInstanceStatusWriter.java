@@ -0,0 +1,343 @@
+package com.enioka.jqm.engine;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.GlobalParameter;
+
+/**
+ * Asynchronous storage of the progress and messages sent by running job instances through the engine API. Instead of one transaction per
+ * call, calls are stored in memory and written by a single thread every <code>engineApiFlushIntervalMs</code>: only the latest progress of
+ * each job instance is kept, and messages are inserted in batches (in the order they were sent). Only started if this global parameter is
+ * greater than zero.<br>
+ * <br>
+ * The pending data of a job instance must be flushed with {@link #flush(int)} before its History is created, so that everything sent by a
+ * job instance is stored before its end. The writes of a given job instance never overlap: a flush waits for the end of a write of the same
+ * job instance by the writer thread. Once flushed, a job instance is considered ended and data it sends afterwards is discarded.
+ */
+class JobInstanceStatusWriter implements Runnable
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(JobInstanceStatusWriter.class);
+
+    // How long an ended job instance is remembered, so as to discard the data it may send after its end.
+    private static final long ENDED_RETENTION_MS = 60000;
+
+    private Map<Integer, Pending> pending = new ConcurrentHashMap<>();
+    private Set<Integer> inFlight = new HashSet<>(); // Guarded by itself.
+    private Map<Integer, Long> ended = new ConcurrentHashMap<>();
+    private volatile boolean run = true;
+    private long period;
+    private Semaphore loop = new Semaphore(0);
+    private Thread t;
+
+    /**
+     * What a job instance has sent since the last write. Once taken by a writer, it is closed and a new one must be created.
+     */
+    private static class Pending
+    {
+        private Integer progress = null;
+        private List<String> messages = new ArrayList<>();
+        private boolean closed = false;
+    }
+
+    private JobInstanceStatusWriter(long period)
+    {
+        this.period = period;
+
+        t = new Thread(this);
+        t.start();
+    }
+
+    /**
+     * @return a started writer, or null if progress and messages should be written synchronously.
+     */
+    static JobInstanceStatusWriter create(DbConn cnx)
+    {
+        long period = Long.parseLong(GlobalParameter.getParameter(cnx, "engineApiFlushIntervalMs", "0"));
+        if (period <= 0)
+        {
+            return null;
+        }
+        jqmlogger.info("Job instance progress and messages will be stored every {} ms", period);
+        return new JobInstanceStatusWriter(period);
+    }
+
+    /**
+     * @return false if the writer is stopped, in which case the caller should store the progress itself.
+     */
+    boolean sendProgress(int jobInstanceId, Integer progress)
+    {
+        if (!run)
+        {
+            return false;
+        }
+        while (true)
+        {
+            Pending p = pending.computeIfAbsent(jobInstanceId, k -> new Pending());
+            synchronized (p)
+            {
+                if (!p.closed)
+                {
+                    p.progress = progress;
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if the writer is stopped, in which case the caller should store the message itself.
+     */
+    boolean sendMsg(int jobInstanceId, String message)
+    {
+        if (!run)
+        {
+            return false;
+        }
+        while (true)
+        {
+            Pending p = pending.computeIfAbsent(jobInstanceId, k -> new Pending());
+            synchronized (p)
+            {
+                if (!p.closed)
+                {
+                    p.messages.add(message);
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Synchronously stores everything a job instance has sent, including what the writer thread may be writing at the same moment. Does
+     * nothing if there is nothing to store. On failure, the data is kept for a later call (or a later write by the writer thread) and the
+     * exception is thrown, so that the caller does not go on as if the data was stored. On success, the job instance is considered ended.
+     */
+    void flush(int jobInstanceId)
+    {
+        Pending p;
+        synchronized (inFlight)
+        {
+            // Wait for the writer thread, so that its data is committed before the History (and in order with ours).
+            while (inFlight.contains(jobInstanceId))
+            {
+                try
+                {
+                    inFlight.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("interrupted while waiting for the storage of job instance " + jobInstanceId, e);
+                }
+            }
+            p = take(jobInstanceId);
+            if (p == null)
+            {
+                ended.put(jobInstanceId, System.currentTimeMillis());
+                return;
+            }
+            inFlight.add(jobInstanceId);
+        }
+
+        List<Integer> ids = new ArrayList<>(1);
+        List<Pending> contents = new ArrayList<>(1);
+        ids.add(jobInstanceId);
+        contents.add(p);
+        try
+        {
+            write(ids, contents);
+            ended.put(jobInstanceId, System.currentTimeMillis());
+        }
+        catch (RuntimeException e)
+        {
+            restore(jobInstanceId, p);
+            throw e;
+        }
+        finally
+        {
+            release(ids);
+        }
+    }
+
+    /**
+     * Stops the writer after a last write. Data sent later (or during this last write) is only stored by {@link #flush(int)}. Does not
+     * wait for the end of the thread (which is not interrupted, as it may be inside a JDBC call).
+     */
+    void stop()
+    {
+        run = false;
+        loop.release();
+    }
+
+    void join() throws InterruptedException
+    {
+        t.join();
+    }
+
+    @Override
+    public void run()
+    {
+        Thread.currentThread().setName("JOB_INSTANCE_STATUS_WRITER;storing;");
+        jqmlogger.debug("Start of the job instance status writer");
+
+        while (run)
+        {
+            try
+            {
+                loop.tryAcquire(period, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                // Still write what is pending.
+                run = false;
+            }
+
+            List<Integer> ids = new ArrayList<>();
+            List<Pending> contents = new ArrayList<>();
+            synchronized (inFlight)
+            {
+                for (Integer id : pending.keySet())
+                {
+                    if (inFlight.contains(id))
+                    {
+                        // Being flushed.
+                        continue;
+                    }
+                    Pending p = take(id);
+                    if (p == null)
+                    {
+                        continue;
+                    }
+                    if (ended.containsKey(id))
+                    {
+                        jqmlogger.warn("Job instance {} has sent progress or messages after its end - they are ignored", id);
+                        continue;
+                    }
+                    ids.add(id);
+                    contents.add(p);
+                    inFlight.add(id);
+                }
+            }
+            if (!ids.isEmpty())
+            {
+                try
+                {
+                    write(ids, contents);
+                }
+                catch (RuntimeException e)
+                {
+                    // Give the data back so it is written on next loop (or by the final flush of each job instance).
+                    jqmlogger.warn("Could not store the progress and messages of " + ids.size() + " job instances - will retry later", e);
+                    for (int i = 0; i < ids.size(); i++)
+                    {
+                        restore(ids.get(i), contents.get(i));
+                    }
+                }
+                finally
+                {
+                    release(ids);
+                }
+            }
+
+            long limit = System.currentTimeMillis() - ENDED_RETENTION_MS;
+            for (Iterator<Long> it = ended.values().iterator(); it.hasNext();)
+            {
+                if (it.next() < limit)
+                {
+                    it.remove();
+                }
+            }
+        }
+
+        jqmlogger.debug("Job instance status writer has stopped");
+    }
+
+    private Pending take(int jobInstanceId)
+    {
+        Pending p = pending.remove(jobInstanceId);
+        if (p == null)
+        {
+            return null;
+        }
+        synchronized (p)
+        {
+            p.closed = true;
+        }
+        return p;
+    }
+
+    private void release(List<Integer> ids)
+    {
+        synchronized (inFlight)
+        {
+            inFlight.removeAll(ids);
+            inFlight.notifyAll();
+        }
+    }
+
+    private void write(List<Integer> ids, List<Pending> contents)
+    {
+        List<Object[]> progresses = new ArrayList<>();
+        List<Object[]> messages = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++)
+        {
+            Pending p = contents.get(i);
+            if (p.progress != null)
+            {
+                progresses.add(new Object[] { p.progress, ids.get(i) });
+            }
+            for (String msg : p.messages)
+            {
+                messages.add(new Object[] { ids.get(i), msg });
+            }
+        }
+
+        try (DbConn cnx = Helpers.getNewDbSession())
+        {
+            cnx.runBatchUpdate("message_insert", messages);
+            cnx.runBatchUpdate("jj_update_progress_by_id", progresses);
+            cnx.commit();
+        }
+    }
+
+    /**
+     * Gives back data which could not be written. Newer progress values win over the ones which could not be written. Data of ended job
+     * instances is dropped, as it could never be written.
+     */
+    private void restore(int jobInstanceId, Pending old)
+    {
+        if (ended.containsKey(jobInstanceId))
+        {
+            jqmlogger.warn("Progress and messages of job instance {} could not be stored before its end - they are lost", jobInstanceId);
+            return;
+        }
+        while (true)
+        {
+            Pending p = pending.computeIfAbsent(jobInstanceId, k -> new Pending());
+            synchronized (p)
+            {
+                if (!p.closed)
+                {
+                    if (p.progress == null)
+                    {
+                        p.progress = old.progress;
+                    }
+                    p.messages.addAll(0, old.messages);
+                    return;
+                }
+            }
+        }
+    }
+}
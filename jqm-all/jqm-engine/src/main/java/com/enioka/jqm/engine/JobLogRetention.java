@@ -0,0 +1,137 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.engine;
+
+import java.io.File;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enioka.jqm.cl.ExtClassLoader;
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.GlobalParameter;
+
+/**
+ * Deletes the log files of the job instances (compressed or not) which were last written more than a given number of days ago. Runs at
+ * startup, then every hour. Other files of the log directory (engine logs...) are never touched.<br>
+ * There is one purge per engine, whatever the number of runners writing to the log directory. The files of the job instances running on
+ * the node are kept however old they are: a job instance may run for days without writing anything, and its files are still open.
+ */
+class JobLogRetention implements Runnable
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(JobLogRetention.class);
+
+    private static final Pattern JOB_LOG_FILE = Pattern.compile("\\d{10}\\.std(out|err)\\.log(\\.gz)?");
+    private static final long PERIOD_MS = 3600000;
+
+    private final File logDirectory;
+    private final long retentionMs;
+    private final IntPredicate isRunning;
+    private Thread t;
+
+    /**
+     * @param isRunning
+     *            tells if the job instance of the given ID is running on the node.
+     */
+    JobLogRetention(String logDirectory, int retentionDays, IntPredicate isRunning)
+    {
+        this.logDirectory = new File(logDirectory);
+        this.retentionMs = retentionDays * 86400000L;
+        this.isRunning = isRunning;
+    }
+
+    /**
+     * Creates and starts the purge thread of the node, if job instance log files are used and should be purged (global parameters
+     * logFilePerLaunch and logFileRetentionDays).
+     *
+     * @return null if there is no purge.
+     */
+    static JobLogRetention create(DbConn cnx, IntPredicate isRunning)
+    {
+        String perLaunch = GlobalParameter.getParameter(cnx, "logFilePerLaunch", "true");
+        int retentionDays = Integer.parseInt(GlobalParameter.getParameter(cnx, "logFileRetentionDays", "0"));
+        if (retentionDays <= 0 || !("true".equals(perLaunch) || "both".equals(perLaunch)))
+        {
+            return null;
+        }
+
+        // Same directory as the one used by the runners.
+        JobLogRetention res = new JobLogRetention(FilenameUtils.concat(ExtClassLoader.getRootDir(), "logs"), retentionDays, isRunning);
+        res.t = new Thread(res, "Job log purge");
+        res.t.setDaemon(true);
+        res.t.start();
+        jqmlogger.info("Job instance log files will be deleted after {} days", retentionDays);
+        return res;
+    }
+
+    void stop()
+    {
+        this.t.interrupt();
+    }
+
+    @Override
+    public void run()
+    {
+        while (true)
+        {
+            purge(System.currentTimeMillis());
+            try
+            {
+                Thread.sleep(PERIOD_MS);
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of deleted files.
+     */
+    int purge(long now)
+    {
+        File[] files = logDirectory.listFiles((dir, name) -> JOB_LOG_FILE.matcher(name).matches());
+        if (files == null)
+        {
+            return 0;
+        }
+
+        int res = 0;
+        for (File f : files)
+        {
+            if (f.lastModified() < now - retentionMs && !isRunning.test(Integer.parseInt(f.getName().substring(0, 10))))
+            {
+                if (f.delete())
+                {
+                    res++;
+                }
+                else
+                {
+                    jqmlogger.warn("Could not delete old job instance log file {}", f.getAbsolutePath());
+                }
+            }
+        }
+        if (res > 0)
+        {
+            jqmlogger.info("{} job instance log files older than {} days were deleted", res, retentionMs / 86400000L);
+        }
+        return res;
+    }
+}
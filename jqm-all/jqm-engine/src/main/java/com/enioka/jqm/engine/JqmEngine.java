@@ -22,6 +22,7 @@ import java.lang.management.ManagementFactory;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -46,6 +47,7 @@ import com.enioka.jqm.engine.api.lifecycle.JqmEngineHandler;
 import com.enioka.jqm.engine.api.lifecycle.JqmEngineOperations;
 import com.enioka.jqm.jdbc.DatabaseException;
 import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.jdbc.DbManager;
 import com.enioka.jqm.jdbc.NoResultException;
 import com.enioka.jqm.jdbc.QueryResult;
 import com.enioka.jqm.model.DeploymentParameter;
@@ -79,12 +81,20 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
     // Parameters and parameter cache
     private Node node = null;
     private ObjectName name;
+    private ObjectName queryStatisticsName;
+    private QueryStatistics queryStatistics = null;
 
     // Threads that together constitute the engine
     private Map<Integer, QueuePoller> pollers = new HashMap<>();
     private InternalPoller intPoller = null;
     private Thread intPollerThread = null;
     private CronScheduler scheduler = null;
+    private QueueSignalListener signalListener = null;
+    private JobInstanceFinalizer finalizer = null;
+    private JobInstanceStatusWriter statusWriter = null;
+    private JobLogRetention logRetention = null;
+    private PayloadExecutor payloadExecutor = null;
+    private CrossQueueScheduler crossQueueScheduler = null;
 
     // Misc data
     private Calendar startTime = Calendar.getInstance();
@@ -94,6 +104,8 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
     private RunnerManager runnerManager;
     private RunningJobInstanceManager runningJobInstanceManager;
     private List<ResourceManagerBase> resourceManagers = new ArrayList<>();
+    private HighlanderRegistry highlanderRegistry;
+    private volatile NodeConfiguration configuration;
 
     // DB connection resilience data
     private volatile Queue<QueuePoller> qpToRestart = new LinkedBlockingQueue<>();
@@ -207,6 +219,24 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
                     throw new JqmInitError("Could not create JMX beans", e);
                 }
                 jqmlogger.info("JMX management bean for the engine was registered");
+
+                // Query tracing - only useful with JMX.
+                if (Boolean.parseBoolean(GlobalParameter.getParameter(cnx, "queryTracing", "false")))
+                {
+                    try
+                    {
+                        queryStatistics = new QueryStatistics();
+                        queryStatisticsName = new ObjectName(
+                                "com.enioka.jqm:type=Node.Database,Node=" + this.node.getName() + ",name=QueryStatistics");
+                        ManagementFactory.getPlatformMBeanServer().registerMBean(queryStatistics, queryStatisticsName);
+                    }
+                    catch (Exception e)
+                    {
+                        throw new JqmInitError("Could not create JMX beans", e);
+                    }
+                    DbManager.getDb().setQueryTracer(queryStatistics);
+                    jqmlogger.info("Database queries are traced");
+                }
             }
             else
             {
@@ -231,16 +261,31 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
             // Cleanup
             purgeDeadJobInstances(cnx, this.node);
             cleanupTransientNodes(cnx);
+            highlanderRegistry = HighlanderRegistry.create(cnx, this.node.getId());
+
+            // Batched storage of job instance results
+            finalizer = JobInstanceFinalizer.create(cnx);
+            statusWriter = JobInstanceStatusWriter.create(cnx);
 
             // Runners
-            runningJobInstanceManager = new RunningJobInstanceManager();
+            payloadExecutor = PayloadExecutor.create(cnx);
+            runningJobInstanceManager = new RunningJobInstanceManager(payloadExecutor);
             runnerManager = new RunnerManager(cnx);
+            logRetention = JobLogRetention.create(cnx, runningJobInstanceManager::isRunning);
+
+            // Node-level scheduler (if any) must exist before the resource managers and pollers
+            crossQueueScheduler = CrossQueueScheduler.create(cnx, this);
 
             // Resource managers
             initResourceManagers(cnx);
 
             // Pollers
+            configuration = NodeConfiguration.load(cnx, this.node.getId());
             syncPollers(cnx, this.node);
+            if (crossQueueScheduler != null)
+            {
+                crossQueueScheduler.start();
+            }
             jqmlogger.info("All required queues are now polled");
         }
 
@@ -249,6 +294,9 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
         intPollerThread = new Thread(intPoller);
         intPollerThread.start();
 
+        // Cross-node queue signals (new job instances available)
+        signalListener = new QueueSignalListener(this);
+
         // Kill notifications
         killHook = new SignalHandler(this);
         Runtime.getRuntime().addShutdownHook(killHook);
@@ -357,26 +405,46 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
         return this.node;
     }
 
+    JobInstanceFinalizer getFinalizer()
+    {
+        return this.finalizer;
+    }
+
+    JobInstanceStatusWriter getStatusWriter()
+    {
+        return this.statusWriter;
+    }
+
     synchronized void syncPollers(DbConn cnx, Node node)
     {
         if (node.getEnabled())
         {
-            List<DeploymentParameter> dps = DeploymentParameter.select(cnx, "dp_select_for_node", node.getId());
+            Collection<DeploymentParameter> dps = this.configuration.getDeploymentParameters();
+            Map<Integer, com.enioka.jqm.model.Queue> queues = new HashMap<>();
+            for (com.enioka.jqm.model.Queue q : com.enioka.jqm.model.Queue.select(cnx, "q_select_all"))
+            {
+                queues.put(q.getId(), q);
+            }
 
             QueuePoller p = null;
             for (DeploymentParameter i : dps)
             {
                 if (pollers.containsKey(i.getId()))
                 {
-                    // Nothing to do - the poller updates its own parameters. Just tell it the node is enabled (idempotent)
+                    // The poller updates its own DP parameters. Just tell it the node is enabled (idempotent) and give it the latest queue.
                     pollers.get(i.getId()).resume();
+                    com.enioka.jqm.model.Queue q = queues.get(i.getQueue());
+                    if (q != null)
+                    {
+                        // Null if the queue was deleted since the deployment parameters were read. The poller will be removed later.
+                        pollers.get(i.getId()).refreshQueue(q);
+                    }
                 }
                 else
                 {
-                    p = new QueuePoller(this, com.enioka.jqm.model.Queue.select(cnx, "q_select_by_id", i.getQueue()).get(0), i);
+                    p = new QueuePoller(this, queues.get(i.getQueue()), i);
                     pollers.put(i.getId(), p);
-                    Thread t = new Thread(p);
-                    t.start();
+                    startPoller(p);
                 }
             }
 
@@ -410,28 +478,99 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
         }
     }
 
+    private void startPoller(QueuePoller p)
+    {
+        if (crossQueueScheduler != null)
+        {
+            crossQueueScheduler.add(p);
+        }
+        else
+        {
+            Thread t = new Thread(p);
+            t.start();
+        }
+    }
+
     private void initResourceManagers(DbConn cnx)
     {
         jqmlogger.info("Initializing node-level resource managers");
 
+        // Node slot budget, only with the cross-queue scheduler.
+        if (crossQueueScheduler != null)
+        {
+            ResourceManagerBase budget = crossQueueScheduler.createBudgetResourceManager(this.node.getId());
+            if (budget != null)
+            {
+                this.resourceManagers.add(budget);
+            }
+        }
+
         // For now, single RM using a global parameter. Future: from db configuration.
         String itemList = GlobalParameter.getParameter(cnx, "discreteRmList", null);
-        if (itemList == null)
+        if (itemList != null)
         {
-            return;
+            ResourceManager discreteResourceManagerConfiguration = new ResourceManager();
+            discreteResourceManagerConfiguration.setClassName(DiscreteResourceManager.class.getCanonicalName());
+            discreteResourceManagerConfiguration.setDeploymentParameterId(null);
+            discreteResourceManagerConfiguration.setEnabled(true);
+            discreteResourceManagerConfiguration.setKey(GlobalParameter.getParameter(cnx, "discreteRmName", "ports"));
+            discreteResourceManagerConfiguration.setNodeId(this.node.getId());
+            discreteResourceManagerConfiguration.addParameter("com.enioka.jqm.rm.discrete.list", itemList);
+
+            ResourceManagerBase rm1 = new DiscreteResourceManager(discreteResourceManagerConfiguration);
+            rm1.refreshConfiguration(discreteResourceManagerConfiguration);
+            this.resourceManagers.add(rm1);
         }
 
-        ResourceManager discreteResourceManagerConfiguration = new ResourceManager();
-        discreteResourceManagerConfiguration.setClassName(DiscreteResourceManager.class.getCanonicalName());
-        discreteResourceManagerConfiguration.setDeploymentParameterId(null);
-        discreteResourceManagerConfiguration.setEnabled(true);
-        discreteResourceManagerConfiguration.setKey(GlobalParameter.getParameter(cnx, "discreteRmName", "ports"));
-        discreteResourceManagerConfiguration.setNodeId(this.node.getId());
-        discreteResourceManagerConfiguration.addParameter("com.enioka.jqm.rm.discrete.list", itemList);
+        // Same for the cluster-wide quantity RM.
+        String clusterRmName = GlobalParameter.getParameter(cnx, "clusterRmName", null);
+        if (clusterRmName != null)
+        {
+            ResourceManager clusterResourceManagerConfiguration = new ResourceManager();
+            clusterResourceManagerConfiguration.setClassName(ClusterQuantityResourceManager.class.getCanonicalName());
+            clusterResourceManagerConfiguration.setDeploymentParameterId(null);
+            clusterResourceManagerConfiguration.setEnabled(true);
+            clusterResourceManagerConfiguration.setKey(clusterRmName);
+            clusterResourceManagerConfiguration.setNodeId(this.node.getId());
+            clusterResourceManagerConfiguration.addParameter("com.enioka.jqm.rm.cluster.quantity",
+                    GlobalParameter.getParameter(cnx, "clusterRmQuantity", "10"));
+            clusterResourceManagerConfiguration.addParameter("com.enioka.jqm.rm.cluster.leaseBatch",
+                    GlobalParameter.getParameter(cnx, "clusterRmLeaseBatch", "5"));
+            clusterResourceManagerConfiguration.addParameter("com.enioka.jqm.rm.cluster.leaseTimeout",
+                    GlobalParameter.getParameter(cnx, "clusterRmLeaseTimeout", "300"));
+
+            ResourceManagerBase rm2 = new ClusterQuantityResourceManager(clusterResourceManagerConfiguration);
+            rm2.refreshConfiguration(clusterResourceManagerConfiguration);
+            this.resourceManagers.add(rm2);
+        }
+    }
 
-        ResourceManagerBase rm1 = new DiscreteResourceManager(discreteResourceManagerConfiguration);
-        rm1.refreshConfiguration(discreteResourceManagerConfiguration);
-        this.resourceManagers.add(rm1);
+    /**
+     * @return the latest configuration snapshot of the node. Never null once the engine has started.
+     */
+    NodeConfiguration getConfiguration()
+    {
+        return this.configuration;
+    }
+
+    /**
+     * Reloads the configuration snapshot of the node if it has changed inside the database (or always if forced).
+     *
+     * @return true if the snapshot was reloaded.
+     */
+    boolean refreshConfiguration(DbConn cnx, boolean force)
+    {
+        if (!force && this.configuration.isUpToDate(cnx, this.node.getId()))
+        {
+            return false;
+        }
+        this.configuration = NodeConfiguration.load(cnx, this.node.getId());
+        return true;
+    }
+
+    HighlanderRegistry getHighlanderRegistry()
+    {
+        return highlanderRegistry;
     }
 
     /**
@@ -469,6 +608,52 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
 
         // Also stop the internal poller
         this.intPoller.stop();
+        this.signalListener.stop();
+        if (this.crossQueueScheduler != null)
+        {
+            this.crossQueueScheduler.stop();
+        }
+
+        // Store the results of the last ended job instances
+        if (this.statusWriter != null)
+        {
+            this.statusWriter.stop();
+            try
+            {
+                this.statusWriter.join();
+            }
+            catch (InterruptedException e)
+            {
+                jqmlogger.error("interrupted", e);
+            }
+        }
+        if (this.finalizer != null)
+        {
+            this.finalizer.stop();
+            try
+            {
+                this.finalizer.join();
+            }
+            catch (InterruptedException e)
+            {
+                jqmlogger.error("interrupted", e);
+            }
+        }
+        this.payloadExecutor.shutdown();
+        if (this.logRetention != null)
+        {
+            this.logRetention.stop();
+        }
+
+        // Resource managers may hold resources shared with other nodes
+        for (ResourceManagerBase rm : this.resourceManagers)
+        {
+            rm.stop();
+        }
+        if (this.highlanderRegistry != null)
+        {
+            this.highlanderRegistry.stop();
+        }
 
         // Reset the stop counter - we may want to restart one day
         try (DbConn cnx = Helpers.getNewDbSession())
@@ -489,6 +674,15 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
                 MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
                 mbs.unregisterMBean(name);
                 jqmlogger.trace("unregistered bean " + name);
+
+                if (queryStatistics != null)
+                {
+                    if (DbManager.getDb().getQueryTracer() == queryStatistics)
+                    {
+                        DbManager.getDb().setQueryTracer(null);
+                    }
+                    mbs.unregisterMBean(queryStatisticsName);
+                }
             }
             catch (Exception e)
             {
@@ -669,8 +863,7 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
                 {
                     jqmlogger.warn("resetting poller on queue " + qp.getQueue().getName());
                     qp.reset();
-                    Thread t = new Thread(qp);
-                    t.start();
+                    ee.startPoller(qp);
                     qp = qpToRestart.poll();
                 }
 
@@ -687,7 +880,7 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
                     jqmlogger.warn("storing delayed results for loader " + l.getId());
                     try
                     {
-                        l.endOfRunDb();
+                        l.endOfRunDbNow();
                     }
                     catch (DatabaseException e3)
                     {
@@ -708,7 +901,7 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
                 while (l != null)
                 {
                     jqmlogger.warn("restarting (after db failure during initialization) loader " + l.getId());
-                    (new Thread(l)).start();
+                    ee.payloadExecutor.execute(l);
                     l = loaderToRestart.poll();
                 }
 
@@ -738,6 +931,16 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
         return this.runningJobInstanceManager;
     }
 
+    PayloadExecutor getPayloadExecutor()
+    {
+        return this.payloadExecutor;
+    }
+
+    CrossQueueScheduler getCrossQueueScheduler()
+    {
+        return this.crossQueueScheduler;
+    }
+
     ////////////////////////////////////////////////////////////////////////////
     // JMX stat methods (they get their own connection to be thread safe)
     ////////////////////////////////////////////////////////////////////////////
@@ -814,6 +1017,18 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
         return VersionRepository.getMavenVersion();
     }
 
+    @Override
+    public long getStatementCacheHits()
+    {
+        return DbManager.getDb().getStatementCacheHits();
+    }
+
+    @Override
+    public long getStatementCacheMisses()
+    {
+        return DbManager.getDb().getStatementCacheMisses();
+    }
+
     @Override
     public void pause()
     {
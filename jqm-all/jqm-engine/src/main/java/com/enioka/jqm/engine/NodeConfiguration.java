@@ -0,0 +1,96 @@
+package com.enioka.jqm.engine;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.enioka.jqm.jdbc.DatabaseException;
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.DeploymentParameter;
+import com.enioka.jqm.model.GlobalParameter;
+
+/**
+ * An immutable snapshot of the configuration used by the queue pollers of a node on each of their loops: the deployment parameters of the
+ * node and the global parameters about polling.<br>
+ * <br>
+ * The snapshot is loaded by the internal poller, which checks on each of its cycles if it is still up to date (with a single query on the
+ * count and latest LAST_MODIFIED of the deployment parameters and global parameters). Pollers only read it from memory.
+ */
+final class NodeConfiguration
+{
+    private final String version;
+    private final Map<Integer, DeploymentParameter> deploymentParameters;
+    private final boolean strictPollingPeriod;
+    private final boolean skipLockedPolling;
+
+    private NodeConfiguration(String version, Map<Integer, DeploymentParameter> deploymentParameters, boolean strictPollingPeriod,
+            boolean skipLockedPolling)
+    {
+        this.version = version;
+        this.deploymentParameters = Collections.unmodifiableMap(deploymentParameters);
+        this.strictPollingPeriod = strictPollingPeriod;
+        this.skipLockedPolling = skipLockedPolling;
+    }
+
+    static NodeConfiguration load(DbConn cnx, int nodeId)
+    {
+        // Version first: a change done during the load will be seen on the next check.
+        String version = selectVersion(cnx, nodeId);
+
+        Map<Integer, DeploymentParameter> dps = new HashMap<>();
+        for (DeploymentParameter dp : DeploymentParameter.select(cnx, "dp_select_for_node", nodeId))
+        {
+            dps.put(dp.getId(), dp);
+        }
+
+        return new NodeConfiguration(version, dps, Boolean.parseBoolean(GlobalParameter.getParameter(cnx, "strictPollingPeriod", "false")),
+                Boolean.parseBoolean(GlobalParameter.getParameter(cnx, "skipLockedPolling", "false")));
+    }
+
+    /**
+     * @return true if the configuration inside the database has not changed since this snapshot was loaded.
+     */
+    boolean isUpToDate(DbConn cnx, int nodeId)
+    {
+        return this.version.equals(selectVersion(cnx, nodeId));
+    }
+
+    private static String selectVersion(DbConn cnx, int nodeId)
+    {
+        try (ResultSet rs = cnx.runSelect("dp_select_config_version_for_node", nodeId))
+        {
+            rs.next();
+            return rs.getInt(1) + "/" + rs.getTimestamp(2) + "/" + rs.getInt(3) + "/" + rs.getTimestamp(4);
+        }
+        catch (SQLException e)
+        {
+            throw new DatabaseException(e);
+        }
+    }
+
+    /**
+     * @return null if the deployment parameter does not exist anymore.
+     */
+    DeploymentParameter getDeploymentParameter(int dpId)
+    {
+        return this.deploymentParameters.get(dpId);
+    }
+
+    Collection<DeploymentParameter> getDeploymentParameters()
+    {
+        return this.deploymentParameters.values();
+    }
+
+    boolean isStrictPollingPeriod()
+    {
+        return this.strictPollingPeriod;
+    }
+
+    boolean isSkipLockedPolling()
+    {
+        return this.skipLockedPolling;
+    }
+}
@@ -0,0 +1,185 @@
+package com.enioka.jqm.engine;
+
+import java.lang.reflect.Method;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.GlobalParameter;
+
+/**
+ * Runs the threads of the job instances (both {@link RunningJobInstance} and {@link RunningExternalJobInstance}). The mode is given by the
+ * global parameter <code>payloadExecutionMode</code>:
+ * <ul>
+ * <li>platform (default): a new platform thread per job instance.</li>
+ * <li>pool: a new platform thread per job instance, but at most <code>payloadPoolSize</code> at the same time. Job instances beyond this
+ * size wait for a running one to end.</li>
+ * <li>virtual: a new virtual thread per job instance. Needs a Java 21+ JVM, falls back to platform threads otherwise.</li>
+ * </ul>
+ * Threads are never reused between job instances: a payload may leave anything on its thread (context class loader, thread locals holding
+ * its class loader...), and this must not be seen by the next job instance. Job instances always rename their thread at startup (the name
+ * is the key used by the stdout multiplexing and is shown in thread dumps).
+ */
+class PayloadExecutor
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(PayloadExecutor.class);
+
+    private Executor executor = null;
+    private String mode;
+
+    private PayloadExecutor(String mode, Executor executor)
+    {
+        this.mode = mode;
+        this.executor = executor;
+    }
+
+    static PayloadExecutor create(DbConn cnx)
+    {
+        String mode = GlobalParameter.getParameter(cnx, "payloadExecutionMode", "platform").toLowerCase();
+        switch (mode)
+        {
+        case "pool":
+            int size = Integer.parseInt(GlobalParameter.getParameter(cnx, "payloadPoolSize", "100"));
+            jqmlogger.info("At most {} job instance threads will run at the same time", size);
+            return new PayloadExecutor(mode, new BoundedThreadLauncher(size));
+        case "virtual":
+            ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+            if (virtual != null)
+            {
+                jqmlogger.info("Job instances will run inside virtual threads");
+                return new PayloadExecutor(mode, virtual);
+            }
+            jqmlogger.warn("Virtual threads are not available in this JVM (Java 21+ is required) - platform threads will be used instead");
+            return new PayloadExecutor("platform", null);
+        case "platform":
+            return new PayloadExecutor(mode, null);
+        default:
+            jqmlogger.warn("Unknown payloadExecutionMode {} - platform threads will be used instead", mode);
+            return new PayloadExecutor("platform", null);
+        }
+    }
+
+    /**
+     * The engine is compiled for Java 11, so virtual threads can only be used through reflection.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor()
+    {
+        try
+        {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        }
+        catch (NoSuchMethodException e)
+        {
+            return null;
+        }
+        catch (Exception e)
+        {
+            jqmlogger.warn("Could not create virtual thread executor", e);
+            return null;
+        }
+    }
+
+    void execute(Runnable r)
+    {
+        if (executor == null)
+        {
+            (new Thread(r)).start();
+        }
+        else
+        {
+            executor.execute(r);
+        }
+    }
+
+    String getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * Lets the already started job instances end, but refuses new ones.
+     */
+    void shutdown()
+    {
+        if (executor instanceof ExecutorService)
+        {
+            ((ExecutorService) executor).shutdown();
+        }
+        else if (executor instanceof BoundedThreadLauncher)
+        {
+            ((BoundedThreadLauncher) executor).shutdown();
+        }
+    }
+
+    /**
+     * Starts a new thread per task, with at most a given number of them running at the same time. Tasks beyond this count are queued, and
+     * started when a running one ends.
+     */
+    private static class BoundedThreadLauncher implements Executor
+    {
+        private Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+        private Semaphore running;
+        private volatile boolean acceptNew = true;
+
+        private BoundedThreadLauncher(int size)
+        {
+            this.running = new Semaphore(size);
+        }
+
+        @Override
+        public void execute(Runnable r)
+        {
+            if (!acceptNew)
+            {
+                throw new RejectedExecutionException("payload executor is shut down");
+            }
+            waiting.add(r);
+            startWaiting();
+        }
+
+        /**
+         * Called on each new task and on each task end, so a waiting task is always started as soon as there is room for it.
+         */
+        private void startWaiting()
+        {
+            while (!waiting.isEmpty() && running.tryAcquire())
+            {
+                final Runnable r = waiting.poll();
+                if (r == null)
+                {
+                    // Taken by another thread in the meantime.
+                    running.release();
+                    continue;
+                }
+                (new Thread(() -> {
+                    try
+                    {
+                        r.run();
+                    }
+                    finally
+                    {
+                        running.release();
+                        startWaiting();
+                    }
+                })).start();
+            }
+        }
+
+        /**
+         * Already queued tasks are still started.
+         */
+        private void shutdown()
+        {
+            acceptNew = false;
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package com.enioka.jqm.engine;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
@@ -30,7 +30,10 @@ public class QuantityResourceManager extends ResourceManagerBase
     private int previousMaxUnits = 0;
 
     private int defaultConsumption;
-    private Map<Integer, Integer> runningJobs = new HashMap<>(10);
+    /**
+     * Units booked by the running JIs, indexed by JI ID. Concurrent as bookings and releases happen on different threads.
+     */
+    private Map<Integer, Integer> runningJobs = new ConcurrentHashMap<>(10);
 
     QuantityResourceManager(ResourceManager rm)
     {
@@ -75,15 +78,23 @@ public class QuantityResourceManager extends ResourceManagerBase
     {
         int slots = this.getIntegerParameter(PRM_CONSUMPTION, ji, true);
 
-        if (availableUnits.addAndGet(-slots) < 0)
+        if (slots == 0)
         {
-            // Put resource back.
-            availableUnits.addAndGet(slots);
-
-            // Return booking failure, depending on resources still available.
-            return availableUnits.get() >= this.defaultConsumption ? BookingStatus.FAILED : BookingStatus.EXHAUSTED;
+            return BookingStatus.BOOKED; // Nothing to book, nothing to release.
         }
 
+        // Only take the units if they are all available, so that concurrent bookings never see a transient negative count.
+        int current;
+        do
+        {
+            current = availableUnits.get();
+            if (current < slots)
+            {
+                // Return booking failure, depending on resources still available.
+                return current >= this.defaultConsumption ? BookingStatus.FAILED : BookingStatus.EXHAUSTED;
+            }
+        } while (!availableUnits.compareAndSet(current, current - slots));
+
         // If here, booking has succeeded.
         runningJobs.put(ji.getId(), slots);
         return BookingStatus.BOOKED;
@@ -92,8 +103,11 @@ public class QuantityResourceManager extends ResourceManagerBase
     @Override
     void releaseResource(JobInstance ji)
     {
-        int slots = runningJobs.get(ji.getId()) != null ? runningJobs.get(ji.getId()) : 0;
-        runningJobs.remove(ji.getId());
+        Integer slots = runningJobs.remove(ji.getId());
+        if (slots == null)
+        {
+            return;
+        }
         jqmlogger.trace("Releasing {} slots for RM {}", slots, this.key);
         availableUnits.addAndGet(slots);
     }
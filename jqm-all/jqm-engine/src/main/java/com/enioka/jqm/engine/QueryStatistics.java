@@ -0,0 +1,132 @@
+package com.enioka.jqm.engine;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import com.enioka.jqm.engine.api.jmx.QueryStatisticsMBean;
+import com.enioka.jqm.jdbc.QueryTracer;
+
+/**
+ * A {@link QueryTracer} which keeps a latency histogram per query key, exposed through JMX. Recording a query only increments counters
+ * (no locks, no allocation once the key is known).
+ */
+class QueryStatistics implements QueryTracer, QueryStatisticsMBean
+{
+    private static final long[] BUCKETS_US = new long[] { 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000,
+            1000000, 5000000 };
+
+    private Map<String, KeyStatistics> statistics = new ConcurrentHashMap<>();
+
+    private static class KeyStatistics
+    {
+        private LongAdder[] buckets = new LongAdder[BUCKETS_US.length + 1];
+        private LongAdder count = new LongAdder();
+        private LongAdder totalNanos = new LongAdder();
+        private LongAdder rows = new LongAdder();
+        private LongAdder binds = new LongAdder();
+        private LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        private KeyStatistics()
+        {
+            for (int i = 0; i < buckets.length; i++)
+            {
+                buckets[i] = new LongAdder();
+            }
+        }
+    }
+
+    @Override
+    public void queryExecuted(String queryKey, long durationNanos, int rowCount, int bindCount)
+    {
+        KeyStatistics s = statistics.get(queryKey);
+        if (s == null)
+        {
+            s = statistics.computeIfAbsent(queryKey, k -> new KeyStatistics());
+        }
+
+        long us = durationNanos / 1000;
+        int bucket = 0;
+        while (bucket < BUCKETS_US.length && us > BUCKETS_US[bucket])
+        {
+            bucket++;
+        }
+        s.buckets[bucket].increment();
+        s.count.increment();
+        s.totalNanos.add(durationNanos);
+        s.maxNanos.accumulate(durationNanos);
+        if (rowCount > 0)
+        {
+            s.rows.add(rowCount);
+        }
+        s.binds.add(bindCount);
+    }
+
+    @Override
+    public long[] getBucketUpperBoundsMicroseconds()
+    {
+        return BUCKETS_US.clone();
+    }
+
+    @Override
+    public Map<String, long[]> getLatencyHistograms()
+    {
+        return collect(s -> {
+            long[] res = new long[s.buckets.length];
+            for (int i = 0; i < res.length; i++)
+            {
+                res[i] = s.buckets[i].sum();
+            }
+            return res;
+        });
+    }
+
+    @Override
+    public Map<String, Long> getExecutionCounts()
+    {
+        return collect(s -> s.count.sum());
+    }
+
+    @Override
+    public Map<String, Long> getTotalDurationsMicroseconds()
+    {
+        return collect(s -> s.totalNanos.sum() / 1000);
+    }
+
+    @Override
+    public Map<String, Long> getMaxDurationsMicroseconds()
+    {
+        return collect(s -> s.maxNanos.get() / 1000);
+    }
+
+    @Override
+    public Map<String, Long> getUpdatedRowCounts()
+    {
+        return collect(s -> s.rows.sum());
+    }
+
+    @Override
+    public Map<String, Long> getBindVariableCounts()
+    {
+        return collect(s -> s.binds.sum());
+    }
+
+    @Override
+    public void reset()
+    {
+        statistics.clear();
+    }
+
+    private <T> Map<String, T> collect(Function<KeyStatistics, T> f)
+    {
+        Map<String, T> res = new TreeMap<>();
+        for (Map.Entry<String, KeyStatistics> e : statistics.entrySet())
+        {
+            res.put(e.getKey(), f.apply(e.getValue()));
+        }
+        return res;
+    }
+}
@@ -18,10 +18,16 @@
 
 package com.enioka.jqm.engine;
 
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -35,33 +41,44 @@ import javax.management.ObjectName;
 
 import com.enioka.jqm.engine.api.exceptions.JqmInitError;
 import com.enioka.jqm.engine.api.jmx.QueuePollerMBean;
+import com.enioka.jqm.jdbc.DatabaseException;
 import com.enioka.jqm.jdbc.DbConn;
 import com.enioka.jqm.jdbc.QueryResult;
+import com.enioka.jqm.jdbc.QueueNotificationBus;
 import com.enioka.jqm.model.DeploymentParameter;
-import com.enioka.jqm.model.GlobalParameter;
 import com.enioka.jqm.model.JobInstance;
 import com.enioka.jqm.model.Queue;
 import com.enioka.jqm.model.ResourceManager;
 import com.enioka.jqm.model.State;
+import com.enioka.jqm.shared.exceptions.JqmRuntimeException;
 import com.enioka.jqm.shared.misc.Closer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * A thread that polls a queue according to the parameters defined inside a {@link DeploymentParameter}.
+ * A thread that polls a queue according to the parameters defined inside a {@link DeploymentParameter}.<br>
+ * <br>
+ * When the node uses a {@link CrossQueueScheduler}, the poller has no thread of its own: the scheduler polls all the queues of the node and
+ * uses the poller to book resources and launch the job instances.
  */
 class QueuePoller implements Runnable, QueuePollerMBean
 {
     private static Logger jqmlogger = LoggerFactory.getLogger(QueuePoller.class);
 
-    private Queue queue = null;
+    // Most databases accept at least this count of elements inside an IN clause.
+    private static final int IN_CLAUSE_LIMIT = 500;
+
+    private volatile Queue queue = null;
     private JqmEngine engine;
     private int maxNbThread = 10;
     private boolean paused = false;
     private int pollingInterval = 10000;
+    private int maxPollingInterval = 0;
+    private volatile int effectivePollingInterval = 10000;
     private int dpId;
     private boolean strictPollingPeriod = false;
+    private boolean skipLockedPolling = false;
 
     private boolean run = true;
     private AtomicInteger actualNbThread = new AtomicInteger(0);
@@ -76,6 +93,8 @@ class QueuePoller implements Runnable, QueuePollerMBean
 
     private Thread localThread = null;
     private Semaphore loop;
+    private Runnable queueSignalListener = this::signal;
+    private CrossQueueScheduler scheduler = null;
 
     @Override
     public void stop()
@@ -83,6 +102,10 @@ class QueuePoller implements Runnable, QueuePollerMBean
         jqmlogger.info("Poller " + queue.getName() + " has received a stop order");
         run = false;
         loop.release();
+        if (scheduler != null)
+        {
+            scheduler.wakeUp();
+        }
     }
 
     /**
@@ -104,6 +127,7 @@ class QueuePoller implements Runnable, QueuePollerMBean
     {
         this.engine = engine;
         this.queue = q;
+        this.scheduler = engine.getCrossQueueScheduler();
 
         // Hard code a thread count RM and link it to the DP parameters (transitory - no db change for now this way)
         this.threadresourceManagerConfiguration = new ResourceManager();
@@ -123,7 +147,8 @@ class QueuePoller implements Runnable, QueuePollerMBean
         highlanderResourceManagerConfiguration.setEnabled(true);
         highlanderResourceManagerConfiguration.setKey("highlander");
         highlanderResourceManagerConfiguration.setNodeId(null);
-        HighlanderResourceManager highlanderResourceManager = new HighlanderResourceManager(highlanderResourceManagerConfiguration);
+        HighlanderResourceManager highlanderResourceManager = new HighlanderResourceManager(highlanderResourceManagerConfiguration,
+                engine.getHighlanderRegistry());
         this.resourceManagers.add(highlanderResourceManager);
 
         // Add global resource managers
@@ -134,41 +159,63 @@ class QueuePoller implements Runnable, QueuePollerMBean
 
         reset();
         registerMBean();
+        QueueNotificationBus.addListener(this.queue.getId(), this.queueSignalListener);
     }
 
     void applyDeploymentParameter(DeploymentParameter dp)
     {
         this.pollingInterval = dp.getPollingInterval();
+        this.maxPollingInterval = dp.getMaxPollingInterval();
+        this.effectivePollingInterval = this.pollingInterval;
         this.maxNbThread = !this.paused && dp.getEnabled() ? dp.getNbThread() : 0;
         this.dpId = dp.getId();
 
-        jqmlogger.info("Engine {}" + " will poll JobInstances on queue {} every {} s", engine.getNode().getName(), queue.getName(),
-                pollingInterval / 1000);
+        if (dp.isAdaptivePolling())
+        {
+            jqmlogger.info("Engine {} will poll JobInstances on queue {} every {} to {} s", engine.getNode().getName(),
+                    queue.getName(), pollingInterval / 1000, maxPollingInterval / 1000);
+        }
+        else
+        {
+            jqmlogger.info("Engine {} will poll JobInstances on queue {} every {} s", engine.getNode().getName(), queue.getName(),
+                    pollingInterval / 1000);
+        }
 
         this.threadresourceManagerConfiguration.addParameter("com.enioka.jqm.rm.quantity.quantity", "" + this.maxNbThread);
         this.resourceManagers.get(0).refreshConfiguration(this.threadresourceManagerConfiguration);
     }
 
     /**
-     * Called at the beginning of the main loop to check if the poller config is up to date (nbThread, pause...)
+     * Called at the beginning of the main loop to check if the poller config is up to date (nbThread, pause...). Only uses the configuration
+     * snapshot of the node, which is refreshed by the internal poller.
      */
-    private void refreshDeploymentParameter(DbConn cnx)
+    private void refreshDeploymentParameter()
     {
-        List<DeploymentParameter> prms = DeploymentParameter.select(cnx, "dp_select_by_id", this.dpId);
-        if (prms.size() != 1)
+        NodeConfiguration configuration = this.engine.getConfiguration();
+        DeploymentParameter dp = configuration.getDeploymentParameter(this.dpId);
+        if (dp == null)
         {
             this.stop();
             return;
         }
 
-        DeploymentParameter p = prms.get(0);
-        if (p.getPollingInterval() != this.pollingInterval || (p.getEnabled() && !this.paused && this.maxNbThread != p.getNbThread())
+        refreshDeploymentParameter(dp, configuration.isStrictPollingPeriod(), configuration.isSkipLockedPolling());
+    }
+
+    /**
+     * Same as {@link #refreshDeploymentParameter()}, with parameters given by the caller.
+     */
+    void refreshDeploymentParameter(DeploymentParameter p, boolean strictPollingPeriod, boolean skipLockedPolling)
+    {
+        if (p.getPollingInterval() != this.pollingInterval || p.getMaxPollingInterval() != this.maxPollingInterval
+                || (p.getEnabled() && !this.paused && this.maxNbThread != p.getNbThread())
                 || (this.maxNbThread > 0 && (!p.getEnabled() || this.paused)) || (this.maxNbThread == 0 && p.getEnabled() && !this.paused))
         {
             applyDeploymentParameter(p);
         }
 
-        this.strictPollingPeriod = Boolean.parseBoolean(GlobalParameter.getParameter(cnx, "strictPollingPeriod", "false"));
+        this.strictPollingPeriod = strictPollingPeriod;
+        this.skipLockedPolling = skipLockedPolling;
     }
 
     private void registerMBean()
@@ -201,7 +248,7 @@ class QueuePoller implements Runnable, QueuePollerMBean
         }
     }
 
-    private int potentialFreeRoom()
+    int potentialFreeRoom()
     {
         int room = Integer.MAX_VALUE;
         for (ResourceManagerBase rm : this.resourceManagers)
@@ -226,93 +273,13 @@ class QueuePoller implements Runnable, QueuePollerMBean
             try
             {
                 // Always check latest polling parameters
+                refreshDeploymentParameter();
                 cnx = Helpers.getNewDbSession();
-                refreshDeploymentParameter(cnx);
 
                 // Free room?
                 int freeRoom = potentialFreeRoom();
-                if (freeRoom > 0)
-                {
-                    // Fetch the queue head. * 3 because we may reject quite a few JI inside resource managers.
-                    List<JobInstance> newInstances = cnx.poll(this.queue, freeRoom > 100000 ? Integer.MAX_VALUE : freeRoom * 3);
-                    jqmlogger.trace("Poller has selected {} JIs to run", newInstances.size());
-
-                    jiloop: for (JobInstance ji : newInstances)
-                    {
-                        // TODO: bulk load parameters
-                        ji.loadPrmCache(cnx);
-
-                        // Check if we have the resources needed to run this JI
-                        List<ResourceManagerBase> alreadyReserved = new ArrayList<>(this.resourceManagers.size());
-                        for (ResourceManagerBase rm : this.resourceManagers)
-                        {
-                            switch (rm.bookResource(ji, cnx))
-                            {
-                            case BOOKED:
-                                // OK, nothing to do.
-                                alreadyReserved.add(rm);
-                                break;
-                            case EXHAUSTED:
-                                // Stop the loop - cannot do anything anymore with these resources.
-                                jqmlogger.trace("Poller has a full RM");
-                                for (ResourceManagerBase reservedRm : alreadyReserved)
-                                {
-                                    reservedRm.rollbackResourceBooking(ji, cnx);
-                                }
-                                break jiloop;
-                            case FAILED:
-                                // Skip this JI - no resource for it but there may be resources for the next ones.
-                                jqmlogger.trace("Head JI asks for unavailable resources, skipping to next one");
-                                for (ResourceManagerBase reservedRm : alreadyReserved)
-                                {
-                                    reservedRm.rollbackResourceBooking(ji, cnx);
-                                }
-                                continue jiloop;
-                            }
-                        }
-
-                        // Actually set it for running on this node and report it on the in-memory object.
-                        QueryResult qr = cnx.runUpdate("ji_update_status_by_id", this.engine.getNode().getId(), ji.getId());
-                        if (qr.nbUpdated != 1)
-                        {
-                            // Means the JI was taken by another node, so simply continue.
-                            for (ResourceManagerBase reservedRm : alreadyReserved)
-                            {
-                                reservedRm.rollbackResourceBooking(ji, cnx);
-                            }
-                            continue;
-                        }
-                        ji.setNode(this.engine.getNode());
-                        ji.setState(State.ATTRIBUTED);
-
-                        // Commit taking possession of the JI (as well as anything whih may have been done inside the RMs)
-                        actualNbThread.incrementAndGet();
-                        jqmlogger.trace("Commit");
-                        cnx.commit();
-                        for (ResourceManagerBase reservedRm : alreadyReserved)
-                        {
-                            reservedRm.commitResourceBooking(ji, cnx); // after transaction commit.
-                        }
-
-                        // We will run this JI!
-                        jqmlogger.trace("JI number {} will be run by this poller this loop (already {}/{} on {})", ji.getId(),
-                                actualNbThread, maxNbThread, this.queue.getName());
-                        if (ji.getJD().getMaxTimeRunning() != null)
-                        {
-                            this.peremption.put(ji.getId(), new Date((new Date()).getTime() + ji.getJD().getMaxTimeRunning() * 60 * 1000));
-                        }
-
-                        // Run it
-                        if (!ji.getJD().isExternal())
-                        {
-                            this.engine.getRunningJobInstanceManager().startNewJobInstance(ji, this);
-                        }
-                        else
-                        {
-                            (new Thread(new RunningExternalJobInstance(cnx, ji, this))).start();
-                        }
-                    }
-                }
+                int launched = freeRoom > 0 ? pollAndLaunch(freeRoom, cnx) : 0;
+                adaptPollingInterval(freeRoom, launched);
             }
             catch (RuntimeException e)
             {
@@ -356,7 +323,7 @@ class QueuePoller implements Runnable, QueuePollerMBean
             // Wait according to the deploymentParameter
             try
             {
-                loop.tryAcquire(this.pollingInterval, TimeUnit.MILLISECONDS);
+                loop.tryAcquire(this.effectivePollingInterval, TimeUnit.MILLISECONDS);
             }
             catch (InterruptedException e)
             {
@@ -375,38 +342,285 @@ class QueuePoller implements Runnable, QueuePollerMBean
         {
             // Run is true only if the loop has exited abnormally, in which case the engine should try to restart the poller
             // So only do the graceful shutdown procedure if normal shutdown.
+            endOfPolling();
+        }
+        else
+        {
+            // else => Abnormal stop (DB failure only). Set booleans to reflect this.
+            failed();
+            // Do not check for engine end - we do not want to shut down the engine on a poller failure.
+        }
+        localThread = null;
+    }
 
-            jqmlogger
-                    .info("Poller loop on queue " + this.queue.getName() + " is stopping [engine " + this.engine.getNode().getName() + "]");
-            waitForAllThreads(60L * 1000);
+    /**
+     * Graceful end of the poller, once it has been asked to stop: waits for the end of the running job instances, then lets the engine decide
+     * if it should stop too.
+     */
+    void endOfPolling()
+    {
+        jqmlogger.info("Poller loop on queue " + this.queue.getName() + " is stopping [engine " + this.engine.getNode().getName() + "]");
+        QueueNotificationBus.removeListener(this.queue.getId(), this.queueSignalListener);
+        waitForAllThreads(60L * 1000);
 
-            // JMX
-            if (this.engine.loadJmxBeans)
+        // JMX
+        if (this.engine.loadJmxBeans)
+        {
+            try
             {
-                try
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            }
+            catch (Exception e)
+            {
+                jqmlogger.error("Could not unregister JMX beans", e);
+            }
+        }
+
+        // Let the engine decide if it should stop completely
+        this.hasStopped = true; // BEFORE check
+        jqmlogger.info("Poller on queue " + this.queue.getName() + " has ended normally");
+        this.engine.checkEngineEnd();
+    }
+
+    /**
+     * Abnormal end of the poller (database failure only). The poller must then be reset before being restarted.
+     */
+    void failed()
+    {
+        jqmlogger.error("Poller on queue " + this.queue.getName() + " has ended abnormally");
+        this.run = false;
+        this.hasStopped = true;
+    }
+
+    /**
+     * One polling loop: fetches the queue head and launches as many job instances from it as the resource managers allow.
+     *
+     * @return the count of launched job instances.
+     */
+    int pollAndLaunch(int freeRoom, DbConn cnx) throws IOException
+    {
+        // Fetch the queue head. * 3 because we may reject quite a few JI inside resource managers.
+        // In claim mode, the head rows are locked until the commit below and other nodes skip them.
+        boolean claim = this.skipLockedPolling && cnx.canPollAndLock();
+        int headSize = headSize(freeRoom);
+        List<JobInstance> newInstances = claim ? cnx.pollAndLock(this.queue, headSize) : cnx.poll(this.queue, headSize);
+        jqmlogger.trace("Poller has selected {} JIs to run", newInstances.size());
+
+        // Parameters are needed by the RMs - load them for the whole head at once.
+        JobInstance.loadPrmCache(cnx, newInstances);
+
+        return launchFromHead(newInstances, Integer.MAX_VALUE, claim, cnx);
+    }
+
+    static int headSize(int freeRoom)
+    {
+        return freeRoom > 100000 ? Integer.MAX_VALUE : freeRoom * 3;
+    }
+
+    /**
+     * Books the resources for the job instances of a queue head (with their parameters already loaded), in order, and launches the ones
+     * which have their resources. The job instances which were examined are removed from the head list - all of them if a resource manager
+     * is exhausted.
+     *
+     * @param head
+     *                        the queue head, in priority order. Modified.
+     * @param maxLaunches
+     *                        stop after this count of launched job instances.
+     * @param claim
+     *                        true if the head was fetched with {@link DbConn#pollAndLock(Queue, int)}.
+     * @return the count of launched job instances.
+     */
+    int launchFromHead(List<JobInstance> head, int maxLaunches, boolean claim, DbConn cnx) throws IOException
+    {
+        int launched = 0;
+        boolean exhausted = false;
+        List<JobInstance> claimed = new ArrayList<>();
+        Map<JobInstance, List<ResourceManagerBase>> claimedReservations = new HashMap<>();
+
+        Iterator<JobInstance> it = head.iterator();
+        jiloop: while (it.hasNext() && launched + claimed.size() < maxLaunches)
+        {
+            JobInstance ji = it.next();
+            it.remove();
+
+            // Check if we have the resources needed to run this JI
+            List<ResourceManagerBase> alreadyReserved = new ArrayList<>(this.resourceManagers.size());
+            for (ResourceManagerBase rm : this.resourceManagers)
+            {
+                switch (rm.bookResource(ji, cnx))
                 {
-                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+                case BOOKED:
+                    // OK, nothing to do.
+                    alreadyReserved.add(rm);
+                    break;
+                case EXHAUSTED:
+                    // Stop the loop - cannot do anything anymore with these resources.
+                    jqmlogger.trace("Poller has a full RM");
+                    for (ResourceManagerBase reservedRm : alreadyReserved)
+                    {
+                        reservedRm.rollbackResourceBooking(ji, cnx);
+                    }
+                    exhausted = true;
+                    break jiloop;
+                case FAILED:
+                    // Skip this JI - no resource for it but there may be resources for the next ones.
+                    jqmlogger.trace("Head JI asks for unavailable resources, skipping to next one");
+                    for (ResourceManagerBase reservedRm : alreadyReserved)
+                    {
+                        reservedRm.rollbackResourceBooking(ji, cnx);
+                    }
+                    continue jiloop;
                 }
-                catch (Exception e)
+            }
+
+            if (claim)
+            {
+                // The row is already locked by this session - attribution is done for the whole batch after the loop.
+                claimed.add(ji);
+                claimedReservations.put(ji, alreadyReserved);
+                continue;
+            }
+
+            // Actually set it for running on this node and report it on the in-memory object.
+            QueryResult qr = cnx.runUpdate("ji_update_status_by_id", this.engine.getNode().getId(), ji.getId());
+            if (qr.nbUpdated != 1)
+            {
+                // Means the JI was taken by another node, so simply continue.
+                for (ResourceManagerBase reservedRm : alreadyReserved)
                 {
-                    jqmlogger.error("Could not unregister JMX beans", e);
+                    reservedRm.rollbackResourceBooking(ji, cnx);
                 }
+                continue;
+            }
+            ji.setNode(this.engine.getNode());
+            ji.setState(State.ATTRIBUTED);
+
+            // Commit taking possession of the JI (as well as anything whih may have been done inside the RMs)
+            actualNbThread.incrementAndGet();
+            jqmlogger.trace("Commit");
+            cnx.commit();
+            for (ResourceManagerBase reservedRm : alreadyReserved)
+            {
+                reservedRm.commitResourceBooking(ji, cnx); // after transaction commit.
             }
 
-            // Let the engine decide if it should stop completely
-            this.hasStopped = true; // BEFORE check
-            jqmlogger.info("Poller on queue " + this.queue.getName() + " has ended normally");
-            this.engine.checkEngineEnd();
+            launch(ji, cnx);
+            launched++;
+        }
+        if (exhausted)
+        {
+            head.clear();
+        }
+
+        if (claim)
+        {
+            attributeClaimed(claimed, claimedReservations, cnx);
+            launched += claimed.size();
+        }
+        return launched;
+    }
+
+    /**
+     * Adaptive polling: computes the time to wait before the next loop from the result of the current one. The interval doubles (up to the
+     * maximum) while the queue is empty, goes back to the base interval as soon as something is found, and is zero when all the free slots
+     * were filled, as the queue head is then likely to contain more job instances waiting for the slots freed during the loop. Fixed
+     * interval if not adaptive or if the polling period is strict.
+     */
+    private void adaptPollingInterval(int freeRoom, int launched)
+    {
+        if (this.maxPollingInterval <= this.pollingInterval || this.strictPollingPeriod)
+        {
+            this.effectivePollingInterval = this.pollingInterval;
+        }
+        else if (freeRoom > 0 && launched >= freeRoom)
+        {
+            this.effectivePollingInterval = 0;
+        }
+        else if (freeRoom > 0 && launched == 0)
+        {
+            this.effectivePollingInterval = (int) Math.min(this.maxPollingInterval,
+                    Math.max(this.pollingInterval, 2L * this.effectivePollingInterval));
         }
         else
         {
-            // else => Abnormal stop (DB failure only). Set booleans to reflect this.
-            jqmlogger.error("Poller on queue " + this.queue.getName() + " has ended abnormally");
-            this.run = false;
-            this.hasStopped = true;
-            // Do not check for engine end - we do not want to shut down the engine on a poller failure.
+            // Some JI were launched, or no room (in which case the end of a running JI will trigger a new loop).
+            this.effectivePollingInterval = this.pollingInterval;
+        }
+    }
+
+    /**
+     * Claim mode: sets all the JI locked and booked during this loop for running on this node in a single transaction.
+     */
+    private void attributeClaimed(List<JobInstance> claimed, Map<JobInstance, List<ResourceManagerBase>> reservations, DbConn cnx)
+            throws IOException
+    {
+        try
+        {
+            List<Integer> ids = new ArrayList<>(IN_CLAUSE_LIMIT);
+            for (int i = 0; i < claimed.size(); i++)
+            {
+                ids.add(claimed.get(i).getId());
+                if (ids.size() == IN_CLAUSE_LIMIT || i == claimed.size() - 1)
+                {
+                    QueryResult qr = cnx.runUpdate("ji_update_status_by_id_list", this.engine.getNode().getId(), ids);
+                    if (qr.nbUpdated != ids.size())
+                    {
+                        // Cannot happen as rows are locked - unless someone has deleted them in the meantime.
+                        throw new JqmRuntimeException("some claimed job instances could not be attributed to this node");
+                    }
+                    ids = new ArrayList<>(IN_CLAUSE_LIMIT);
+                }
+            }
+            actualNbThread.addAndGet(claimed.size());
+            jqmlogger.trace("Commit");
+            cnx.commit(); // also releases the locks on the rows which were not claimed.
+        }
+        catch (RuntimeException e)
+        {
+            for (JobInstance ji : claimed)
+            {
+                for (ResourceManagerBase reservedRm : reservations.get(ji))
+                {
+                    reservedRm.rollbackResourceBooking(ji, cnx);
+                }
+            }
+            throw e;
+        }
+
+        for (JobInstance ji : claimed)
+        {
+            ji.setNode(this.engine.getNode());
+            ji.setState(State.ATTRIBUTED);
+            for (ResourceManagerBase reservedRm : reservations.get(ji))
+            {
+                reservedRm.commitResourceBooking(ji, cnx); // after transaction commit.
+            }
+            launch(ji, cnx);
+        }
+    }
+
+    /**
+     * Actually runs a JI which has been attributed to this node (and committed).
+     */
+    private void launch(JobInstance ji, DbConn cnx) throws IOException
+    {
+        // We will run this JI!
+        jqmlogger.trace("JI number {} will be run by this poller this loop (already {}/{} on {})", ji.getId(), actualNbThread, maxNbThread,
+                this.queue.getName());
+        if (ji.getJD().getMaxTimeRunning() != null)
+        {
+            this.peremption.put(ji.getId(), new Date((new Date()).getTime() + ji.getJD().getMaxTimeRunning() * 60 * 1000));
+        }
+
+        // Run it
+        if (!ji.getJD().isExternal())
+        {
+            this.engine.getRunningJobInstanceManager().startNewJobInstance(ji, this);
+        }
+        else
+        {
+            this.engine.getPayloadExecutor().execute(new RunningExternalJobInstance(cnx, ji, this));
         }
-        localThread = null;
     }
 
     @Override
@@ -431,11 +645,34 @@ class QueuePoller implements Runnable, QueuePollerMBean
         if (!this.strictPollingPeriod)
         {
             // Force a new loop at once. This makes queues more fluid.
-            loop.release(1);
+            wakeUp();
         }
         this.engine.signalEndOfRun();
     }
 
+    /**
+     * Called when new job instances may be available on the queue. Forces a new loop at once, unless the polling period is strict.
+     */
+    private void signal()
+    {
+        if (!this.strictPollingPeriod && loop.availablePermits() == 0)
+        {
+            wakeUp();
+        }
+    }
+
+    private void wakeUp()
+    {
+        if (scheduler != null)
+        {
+            scheduler.wakeUp();
+        }
+        else
+        {
+            loop.release(1);
+        }
+    }
+
     boolean isRunning()
     {
         return !this.hasStopped;
@@ -482,6 +719,44 @@ class QueuePoller implements Runnable, QueuePollerMBean
         return this.queue;
     }
 
+    /**
+     * Takes into account the latest version of the queue (only its priority aging is actually used - the queue is polled by ID).
+     */
+    void refreshQueue(Queue q)
+    {
+        if (q.getPriorityAging() != this.queue.getPriorityAging())
+        {
+            jqmlogger.info("Queue {} is now ordered with priority policy: {}", q.getName(), getPriorityPolicy(q));
+        }
+        this.queue = q;
+    }
+
+    int getDeploymentParameterId()
+    {
+        return this.dpId;
+    }
+
+    int getPollingInterval()
+    {
+        return this.pollingInterval;
+    }
+
+    /**
+     * @return true if the poller has been asked to stop (but may still be waiting for its job instances).
+     */
+    boolean isStopping()
+    {
+        return !this.run;
+    }
+
+    /**
+     * Used by the {@link CrossQueueScheduler} to report the loops it does on behalf of the poller.
+     */
+    void markLoop()
+    {
+        this.lastLoop = Calendar.getInstance();
+    }
+
     JqmEngine getEngine()
     {
         return this.engine;
@@ -508,6 +783,7 @@ class QueuePoller implements Runnable, QueuePollerMBean
     void setPollingInterval(int ms)
     {
         this.pollingInterval = ms;
+        this.effectivePollingInterval = ms;
     }
 
     // //////////////////////////////////////////////////////////
@@ -533,6 +809,43 @@ class QueuePoller implements Runnable, QueuePollerMBean
         }
     }
 
+    @Override
+    public int getPriorityAgingSeconds()
+    {
+        return this.queue.getPriorityAging();
+    }
+
+    @Override
+    public String getPriorityPolicy()
+    {
+        return getPriorityPolicy(this.queue);
+    }
+
+    private static String getPriorityPolicy(Queue q)
+    {
+        return q.getPriorityAging() > 0 ? "aging - one priority level per " + q.getPriorityAging() + " s of waiting" : "strict";
+    }
+
+    @Override
+    public Map<Integer, Long> getOldestWaitPerPriorityMilliseconds()
+    {
+        Map<Integer, Long> res = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+        try (DbConn em2 = Helpers.getNewDbSession();
+                ResultSet rs = em2.runSelect("ji_select_oldest_by_priority_for_queue", this.queue.getId()))
+        {
+            while (rs.next())
+            {
+                res.put(rs.getInt(1), Math.max(0, now - em2.getCal(rs, 2).getTimeInMillis()));
+            }
+        }
+        catch (SQLException e)
+        {
+            throw new DatabaseException(e);
+        }
+        return res;
+    }
+
     @Override
     public long getCurrentlyRunningJobCount()
     {
@@ -545,6 +858,18 @@ class QueuePoller implements Runnable, QueuePollerMBean
         return this.pollingInterval;
     }
 
+    @Override
+    public Integer getEffectivePollingIntervalMilliseconds()
+    {
+        return this.effectivePollingInterval;
+    }
+
+    @Override
+    public boolean isAdaptivePolling()
+    {
+        return this.maxPollingInterval > this.pollingInterval;
+    }
+
     @Override
     public Integer getMaxConcurrentJobInstanceCount()
     {
@@ -555,7 +880,8 @@ class QueuePoller implements Runnable, QueuePollerMBean
     public boolean isActuallyPolling()
     {
         // 1000ms is a rough estimate of the time taken to do the actual poll. If it's more, there is a huge issue elsewhere.
-        return (Calendar.getInstance().getTimeInMillis() - this.lastLoop.getTimeInMillis()) <= pollingInterval + 1000;
+        return (Calendar.getInstance().getTimeInMillis() - this.lastLoop.getTimeInMillis()) <= Math.max(pollingInterval,
+                effectivePollingInterval) + 1000;
     }
 
     @Override
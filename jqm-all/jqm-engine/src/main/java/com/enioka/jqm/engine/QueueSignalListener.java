@@ -0,0 +1,111 @@
+package com.enioka.jqm.engine;
+
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.jdbc.DbManager;
+import com.enioka.jqm.jdbc.QueueNotificationBus;
+import com.enioka.jqm.jdbc.QueueSignalReceiver;
+import com.enioka.jqm.model.GlobalParameter;
+
+/**
+ * Receives the queue signals sent by the other nodes (and by clients running outside of this JVM) through the cross-node channel of the
+ * {@link QueueNotificationBus}, and forwards them to the local queue pollers. Only started if the channel is enabled.
+ */
+class QueueSignalListener implements Runnable
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(QueueSignalListener.class);
+
+    private volatile boolean run = true;
+    private QueueSignalReceiver receiver;
+    private long period;
+    private Thread t;
+
+    QueueSignalListener(JqmEngine e)
+    {
+        try (DbConn cnx = Helpers.getNewDbSession())
+        {
+            this.period = Long.parseLong(GlobalParameter.getParameter(cnx, "queueSignalPeriodMs", "100"));
+        }
+
+        this.receiver = QueueNotificationBus.openReceiver(DbManager.getDb());
+        if (this.receiver == null)
+        {
+            jqmlogger.info("Cross-node queue signals are disabled");
+            return;
+        }
+
+        t = new Thread(this);
+        t.start();
+    }
+
+    void stop()
+    {
+        this.run = false;
+        if (this.t != null)
+        {
+            this.t.interrupt();
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        Thread.currentThread().setName("QUEUE_SIGNAL_LISTENER;listening;");
+        jqmlogger.info("Start of the queue signal listener");
+
+        while (run)
+        {
+            try
+            {
+                Set<Integer> queues = receiver.receive(period);
+                for (Integer queueId : queues)
+                {
+                    jqmlogger.trace("Queue signal received for queue {}", queueId);
+                    QueueNotificationBus.signalLocal(queueId);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                run = false;
+            }
+            catch (RuntimeException e)
+            {
+                if (!run)
+                {
+                    break;
+                }
+
+                // Signals are only an optimization - never stop, simply retry later with a new receiver.
+                jqmlogger.warn("Queue signal listener has failed - it will restart in 10 seconds", e);
+                receiver.close();
+                try
+                {
+                    Thread.sleep(10000);
+                    QueueSignalReceiver newReceiver = QueueNotificationBus.openReceiver(DbManager.getDb());
+                    if (newReceiver == null)
+                    {
+                        // Signals were disabled in the meantime.
+                        break;
+                    }
+                    receiver = newReceiver;
+                }
+                catch (InterruptedException e1)
+                {
+                    run = false;
+                }
+                catch (RuntimeException e1)
+                {
+                    // Will fail again on next receive, and be retried.
+                    jqmlogger.debug("Queue signal receiver could not be reopened", e1);
+                }
+            }
+        }
+
+        receiver.close();
+        jqmlogger.info("Queue signal listener has stopped");
+    }
+}
@@ -88,6 +88,22 @@ public abstract class ResourceManagerBase
         this.releaseResource(ji);
     }
 
+    /**
+     * Called on each full loop of the internal poller of the engine (see global parameter <code>internalPollingPeriodMs</code>), only for
+     * the resource managers of the engine itself. Allows RMs keeping a state inside the database to maintain it. The RM is responsible for
+     * committing.<br>
+     * Default implementation does nothing.
+     */
+    void housekeeping(DbConn cnx)
+    {}
+
+    /**
+     * Called once when the engine stops, after the end of all job instances, only for the resource managers of the engine itself.<br>
+     * Default implementation does nothing. This method should never fail.
+     */
+    void stop()
+    {}
+
     /**
      * According to this resource manager, how many job instances could now be launched? This should be a very fast approximation with
      * reasonable hypothesis (which may use parameters). Do not implement if not compatible with this type of resource.
@@ -50,6 +50,7 @@ class RunningJobInstance implements Runnable, JobRunnerCallback
     private Boolean isDone = false;
     private Calendar endDate = null;
     private JobRunner jr = null;
+    private InstructionSlot instructionSlot = null;
 
     /**
      * Constructor for JI coming from queue pollers.
@@ -63,6 +64,13 @@ class RunningJobInstance implements Runnable, JobRunnerCallback
         this.qp = qp;
         this.engine = qp.getEngine();
         this.manager = engine.getRunningJobInstanceManager();
+        this.instructionSlot = new InstructionSlot();
+
+        // Instructions given before the start (as read by the poller) must not wait for the first scan.
+        if (ji.getInstruction() != null)
+        {
+            this.instructionSlot.update(ji.getInstruction(), ji.getPriority() == null ? 0 : ji.getPriority());
+        }
     }
 
     /**
@@ -133,7 +141,9 @@ class RunningJobInstance implements Runnable, JobRunnerCallback
         }
 
         // Create tracker
-        tracker = jr.getTracker(this.ji, new JobInstanceEngineApi(this.ji), this);
+        JobInstanceEngineApi api = new JobInstanceEngineApi(this.ji, this.engine != null ? this.engine.getStatusWriter() : null,
+                this.instructionSlot);
+        tracker = jr.getTracker(this.ji, api, this);
 
         // Block needing the database
         try (DbConn cnx = Helpers.getNewDbSession())
@@ -281,9 +291,42 @@ class RunningJobInstance implements Runnable, JobRunnerCallback
     }
 
     /**
-     * Part of the endOfRun process that needs the database. May be deferred if the database is not available.
+     * Part of the endOfRun process that needs the database. May be deferred if the database is not available, and is given to the engine
+     * finalizer if batched finalization is enabled.
      */
     void endOfRunDb()
+    {
+        JobInstanceFinalizer finalizer = this.engine != null ? this.engine.getFinalizer() : null;
+        if (finalizer == null)
+        {
+            endOfRunDbNow();
+            return;
+        }
+
+        // The finalizer only stores the History, so the status must be stored before handing over.
+        if (!storeStatus())
+        {
+            return;
+        }
+        if (!finalizer.submit(this))
+        {
+            storeHistory();
+        }
+    }
+
+    /**
+     * Stores the result of the run inside the database, inside its own transaction.
+     */
+    void endOfRunDbNow()
+    {
+        if (!storeStatus())
+        {
+            return;
+        }
+        storeHistory();
+    }
+
+    private void storeHistory()
     {
         try (DbConn cnx = Helpers.getNewDbSession())
         {
@@ -299,6 +342,30 @@ class RunningJobInstance implements Runnable, JobRunnerCallback
         }
     }
 
+    /**
+     * Progress and messages sent by the job instance must be stored before its history. Does nothing when they are not stored
+     * asynchronously, or when there is nothing left to store.
+     *
+     * @return false if they could not be stored, in which case the finalization was delayed.
+     */
+    private boolean storeStatus()
+    {
+        if (this.engine == null || this.engine.getStatusWriter() == null)
+        {
+            return true;
+        }
+        try
+        {
+            this.engine.getStatusWriter().flush(this.ji.getId());
+            return true;
+        }
+        catch (RuntimeException e)
+        {
+            endBlockDbFailureAnalysis(e);
+            return false;
+        }
+    }
+
     ///////////////////////////////////////////////////////////////////////////
     // DB failure analysis
     ///////////////////////////////////////////////////////////////////////////
@@ -331,7 +398,7 @@ class RunningJobInstance implements Runnable, JobRunnerCallback
         {
             jqmlogger.error("connection to database lost - loader " + this.ji.getId() + " will need delayed finalization");
             jqmlogger.trace("connection error was:", e.getCause());
-            this.engine.loaderFinalizationNeeded(this);
+            delayFinalization();
         }
         else
         {
@@ -340,6 +407,14 @@ class RunningJobInstance implements Runnable, JobRunnerCallback
         }
     }
 
+    /**
+     * Asks the engine to store the result of the run once the database is available again.
+     */
+    void delayFinalization()
+    {
+        this.engine.loaderFinalizationNeeded(this);
+    }
+
     ///////////////////////////////////////////////////////////////////////////
     // CB interface
     ///////////////////////////////////////////////////////////////////////////
@@ -365,19 +440,24 @@ class RunningJobInstance implements Runnable, JobRunnerCallback
         JqmDbClientFactory.getClient("uncached", props, false).killJob(this.ji.getId());
     }
 
-    void handleInstruction(Instruction instruction)
+    /**
+     * @return false if the runner has not started yet, in which case the instruction was not given to it.
+     */
+    boolean handleInstruction(Instruction instruction)
     {
-        if (this.tracker != null)
+        if (this.tracker == null)
         {
-            try
-            {
-                this.tracker.handleInstruction(instruction);
-            }
-            catch (Exception e)
-            {
-                jqmlogger.error("Could not handle instruction inside job instance runner.", e);
-            }
+            return false;
+        }
+        try
+        {
+            this.tracker.handleInstruction(instruction);
         }
+        catch (Exception e)
+        {
+            jqmlogger.error("Could not handle instruction inside job instance runner.", e);
+        }
+        return true;
     }
 
     @Override
@@ -429,6 +509,29 @@ class RunningJobInstance implements Runnable, JobRunnerCallback
         return this.isDone;
     }
 
+    /**
+     * @return the slot filled by the engine with the latest instruction of the job instance. Null for single runners.
+     */
+    InstructionSlot getInstructionSlot()
+    {
+        return this.instructionSlot;
+    }
+
+    JobInstance getJobInstance()
+    {
+        return this.ji;
+    }
+
+    State getResultStatus()
+    {
+        return this.resultStatus;
+    }
+
+    Calendar getEndDate()
+    {
+        return this.endDate;
+    }
+
     @Override
     public Entry<String, String> getWebApiUser(DbConn cnx)
     {
@@ -17,6 +17,12 @@ class RunningJobInstanceManager
 
     private ConcurrentHashMap<RunningJobInstance, RjiRegistration> instancesByTracker = new ConcurrentHashMap<>();
     private ConcurrentHashMap<Integer, RjiRegistration> instancesById = new ConcurrentHashMap<>();
+    private PayloadExecutor executor;
+
+    RunningJobInstanceManager(PayloadExecutor executor)
+    {
+        this.executor = executor;
+    }
 
     void startNewJobInstance(JobInstance ji, QueuePoller qp)
     {
@@ -29,7 +35,7 @@ class RunningJobInstanceManager
         instancesByTracker.put(reg.rji, reg);
         instancesById.put(reg.ji.getId(), reg);
 
-        (new Thread(reg.rji)).start();
+        executor.execute(reg.rji);
     }
 
     void signalEndOfRun(RunningJobInstance rji)
@@ -53,16 +59,37 @@ class RunningJobInstanceManager
         }
     }
 
-    void handleInstruction(int jobInstanceId, Instruction instruction)
+    void handleInstruction(int jobInstanceId, Instruction instruction, int priority)
     {
-        if (!instancesById.containsKey(jobInstanceId))
+        RjiRegistration reg = instancesById.get(jobInstanceId);
+        if (reg == null)
         {
-            jqmlogger.warn("Tried to send an instruction to an instance which was not registered inside the manager");
+            if (instruction != Instruction.RUN)
+            {
+                jqmlogger.warn("Tried to send an instruction to an instance which was not registered inside the manager");
+            }
             return;
         }
 
-        RjiRegistration reg = instancesById.get(jobInstanceId);
-        reg.rji.handleInstruction(instruction);
+        reg.rji.getInstructionSlot().update(instruction, priority);
+
+        // The scan sends the pending instruction of every running instance each time: only give the runner the ones which have changed.
+        if (instruction == reg.handledInstruction)
+        {
+            return;
+        }
+        if (instruction == Instruction.RUN || reg.rji.handleInstruction(instruction))
+        {
+            reg.handledInstruction = instruction;
+        }
+    }
+
+    /**
+     * @return true if the job instance was started by this manager and has not ended yet.
+     */
+    boolean isRunning(int jobInstanceId)
+    {
+        return instancesById.containsKey(jobInstanceId);
     }
 
     private class RjiRegistration
@@ -70,6 +97,7 @@ class RunningJobInstanceManager
         RunningJobInstance rji;
         QueuePoller qp;
         JobInstance ji;
+        Instruction handledInstruction = Instruction.RUN;
     }
 
     /**
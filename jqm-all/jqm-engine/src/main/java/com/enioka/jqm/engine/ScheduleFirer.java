@@ -0,0 +1,123 @@
+package com.enioka.jqm.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enioka.jqm.client.api.JobRequest;
+import com.enioka.jqm.client.api.JqmClient;
+import com.enioka.jqm.client.api.JqmDbClientFactory;
+import com.enioka.jqm.jdbc.DatabaseException;
+import com.enioka.jqm.jdbc.DbConn;
+
+/**
+ * Launches the scheduled jobs (the JOB_SCHEDULE table). Only runs on the master scheduler node.<br>
+ * <br>
+ * On each minute, the thread applies the changes done to the schedules to its {@link ScheduleIndex} and creates a job instance for each
+ * schedule which has become due. All the schedules due on the same minute are launched inside a single enqueue transaction.
+ */
+class ScheduleFirer implements Runnable
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(ScheduleFirer.class);
+
+    private ScheduleIndex index = new ScheduleIndex();
+    private volatile boolean run = true;
+    private Thread t;
+
+    /**
+     * Creates and starts the firer.
+     */
+    static ScheduleFirer start()
+    {
+        ScheduleFirer res = new ScheduleFirer();
+        res.t = new Thread(res);
+        res.t.setDaemon(true);
+        res.t.start();
+        return res;
+    }
+
+    void stop()
+    {
+        this.run = false;
+        this.t.interrupt();
+    }
+
+    @Override
+    public void run()
+    {
+        Thread.currentThread().setName("Scheduler (cron)");
+        jqmlogger.debug("Schedule firer has started");
+        long previousRefresh = System.currentTimeMillis();
+
+        while (run)
+        {
+            long now = System.currentTimeMillis();
+            try (DbConn cnx = Helpers.getNewDbSession())
+            {
+                index.refresh(cnx, previousRefresh);
+                previousRefresh = now;
+            }
+            catch (DatabaseException e)
+            {
+                jqmlogger.error("Could not refresh the schedules - will retry later", e);
+            }
+
+            List<Integer> due = index.pollDue(now);
+            if (!due.isEmpty())
+            {
+                fire(due);
+            }
+
+            try
+            {
+                // Fire times are always on a minute.
+                Thread.sleep(60000 - System.currentTimeMillis() % 60000);
+            }
+            catch (InterruptedException e)
+            {
+                break;
+            }
+        }
+
+        jqmlogger.debug("Schedule firer has stopped");
+    }
+
+    /**
+     * Launches all the schedules due on the same minute inside a single enqueue transaction. If it fails (a schedule was removed in the
+     * meantime...) the schedules are launched one by one, so a single faulty schedule does not prevent the others from running.
+     */
+    private void fire(List<Integer> scheduleIds)
+    {
+        JqmClient client = JqmDbClientFactory.getClient();
+        List<JobRequest> requests = new ArrayList<>(scheduleIds.size());
+        for (int scheduleId : scheduleIds)
+        {
+            requests.add(client.newJobRequest("", "cron").setScheduleId(scheduleId));
+        }
+
+        try
+        {
+            client.enqueueAll(requests);
+            jqmlogger.debug("{} scheduled jobs were launched", requests.size());
+            return;
+        }
+        catch (RuntimeException e)
+        {
+            jqmlogger.warn("Could not launch the scheduled jobs in a single transaction - launching them one by one", e);
+        }
+
+        for (int i = 0; i < requests.size(); i++)
+        {
+            try
+            {
+                requests.get(i).enqueue();
+            }
+            catch (RuntimeException e)
+            {
+                jqmlogger.error("Could not launch scheduled job " + scheduleIds.get(i), e);
+            }
+        }
+    }
+}
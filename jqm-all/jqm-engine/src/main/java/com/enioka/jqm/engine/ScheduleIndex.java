@@ -0,0 +1,256 @@
+package com.enioka.jqm.engine;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enioka.jqm.jdbc.DatabaseException;
+import com.enioka.jqm.jdbc.DbConn;
+
+import it.sauronsoftware.cron4j.InvalidPatternException;
+import it.sauronsoftware.cron4j.Predictor;
+import it.sauronsoftware.cron4j.SchedulingPattern;
+
+/**
+ * The in-memory index of the schedules (the JOB_SCHEDULE table) used by the {@link ScheduleFirer}. Not thread safe.<br>
+ * <br>
+ * The index is maintained incrementally: each refresh only reads the schedules with a LAST_UPDATED after the latest one already seen
+ * (minus a safety overlap, as rows are not committed in LAST_UPDATED order). Deletions leave no trace inside the table, so they are found
+ * with a separate path: the number of rows is compared to the size of the index, and the IDs are only read when they differ.<br>
+ * <br>
+ * The next fire time of each schedule is kept in a priority queue, so finding the schedules to launch does not require to evaluate every
+ * pattern each minute.
+ */
+class ScheduleIndex
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(ScheduleIndex.class);
+
+    private static final long WATERMARK_OVERLAP_MS = 120000;
+
+    private static class Entry
+    {
+        private final int id;
+        private final String cronExpression;
+        private final long lastUpdated;
+        private final SchedulingPattern pattern;
+        private long nextFire;
+        private boolean removed = false;
+
+        private Entry(int id, String cronExpression, long lastUpdated, SchedulingPattern pattern)
+        {
+            this.id = id;
+            this.cronExpression = cronExpression;
+            this.lastUpdated = lastUpdated;
+            this.pattern = pattern;
+        }
+    }
+
+    private Map<Integer, Entry> entries = new HashMap<>();
+    /**
+     * Entries replaced or removed are not taken out of the queue (this is linear) but only flagged, and skipped when polled.
+     */
+    private PriorityQueue<Entry> fireOrder = new PriorityQueue<>(Comparator.comparingLong((Entry e) -> e.nextFire));
+    private Calendar watermark = null;
+
+    /**
+     * Applies the changes done to the schedules since the previous refresh.
+     *
+     * @param from
+     *            new and modified schedules are fired for the first time on the first matching minute after this time. It should be the
+     *            time of the previous refresh, so a schedule created just before a minute is still fired on this minute.
+     */
+    void refresh(DbConn cnx, long from)
+    {
+        Calendar since = Calendar.getInstance();
+        since.setTimeInMillis(this.watermark == null ? 0 : this.watermark.getTimeInMillis() - WATERMARK_OVERLAP_MS);
+        int changed = 0;
+
+        try (ResultSet rs = cnx.runSelect("sj_select_updated", since))
+        {
+            while (rs.next())
+            {
+                // ID, CRON_EXPRESSION, JOBDEF, QUEUE, PRIORITY, LAST_UPDATED
+                Calendar lastUpdated = cnx.getCal(rs, 6);
+                if (put(rs.getInt(1), rs.getString(2), lastUpdated, from))
+                {
+                    changed++;
+                }
+                if (this.watermark == null || lastUpdated.after(this.watermark))
+                {
+                    this.watermark = lastUpdated;
+                }
+            }
+        }
+        catch (SQLException e)
+        {
+            throw new DatabaseException(e);
+        }
+
+        int removed = removeDeleted(cnx, from);
+        if (changed > 0 || removed > 0)
+        {
+            jqmlogger.debug("Schedule index refreshed - {} schedules added or modified, {} removed, {} schedules in index", changed, removed,
+                    this.entries.size());
+        }
+
+        if (this.fireOrder.size() > 2 * this.entries.size() + 1000)
+        {
+            compact();
+        }
+    }
+
+    /**
+     * @return true if the entry was added or modified.
+     */
+    private boolean put(int id, String cronExpression, Calendar lastUpdated, long from)
+    {
+        long lastUpdatedMs = lastUpdated == null ? 0 : lastUpdated.getTimeInMillis();
+        Entry previous = this.entries.get(id);
+        if (previous != null && previous.lastUpdated == lastUpdatedMs && previous.cronExpression.equals(cronExpression))
+        {
+            // Already seen, inside the watermark overlap.
+            return false;
+        }
+
+        SchedulingPattern pattern = null;
+        try
+        {
+            pattern = new SchedulingPattern(cronExpression);
+        }
+        catch (InvalidPatternException e)
+        {
+            jqmlogger.error("Schedule " + id + " has an invalid cron expression and will never run: " + cronExpression, e);
+        }
+
+        Entry entry = new Entry(id, cronExpression, lastUpdatedMs, pattern);
+        if (previous != null)
+        {
+            previous.removed = true;
+        }
+        this.entries.put(id, entry);
+        schedule(entry, from);
+        return true;
+    }
+
+    private int removeDeleted(DbConn cnx, long from)
+    {
+        int count = cnx.runSelectSingle("sj_select_count", Integer.class);
+        if (count == this.entries.size())
+        {
+            return 0;
+        }
+
+        // Some schedules are gone (or were not seen through LAST_UPDATED): compare the ID sets.
+        Set<Integer> ids = new HashSet<>(cnx.runSelectColumn("sj_select_all_ids", Integer.class));
+        List<Integer> toRemove = new ArrayList<>();
+        for (Integer id : this.entries.keySet())
+        {
+            if (!ids.contains(id))
+            {
+                toRemove.add(id);
+            }
+        }
+        for (Integer id : toRemove)
+        {
+            this.entries.remove(id).removed = true;
+        }
+
+        for (Integer id : ids)
+        {
+            if (!this.entries.containsKey(id))
+            {
+                try (ResultSet rs = cnx.runSelect("sj_select_by_id", id))
+                {
+                    if (rs.next())
+                    {
+                        put(rs.getInt(1), rs.getString(2), cnx.getCal(rs, 6), from);
+                    }
+                }
+                catch (SQLException e)
+                {
+                    throw new DatabaseException(e);
+                }
+            }
+        }
+        return toRemove.size();
+    }
+
+    private void schedule(Entry entry, long from)
+    {
+        if (entry.pattern == null)
+        {
+            return;
+        }
+        entry.nextFire = new Predictor(entry.pattern, from).nextMatchingTime();
+        this.fireOrder.add(entry);
+    }
+
+    private void compact()
+    {
+        PriorityQueue<Entry> res = new PriorityQueue<>(this.fireOrder.comparator());
+        for (Entry entry : this.fireOrder)
+        {
+            if (!entry.removed)
+            {
+                res.add(entry);
+            }
+        }
+        this.fireOrder = res;
+    }
+
+    /**
+     * Returns the schedules which should fire at or before the given time, and computes their next fire time. A schedule which has missed
+     * several minutes (engine too slow or paused) is only returned once.
+     *
+     * @return a list of schedule IDs, in fire time order.
+     */
+    List<Integer> pollDue(long now)
+    {
+        List<Integer> res = new ArrayList<>();
+        List<Entry> fired = new ArrayList<>();
+        while (!this.fireOrder.isEmpty() && this.fireOrder.peek().nextFire <= now)
+        {
+            Entry entry = this.fireOrder.poll();
+            if (entry.removed)
+            {
+                continue;
+            }
+            res.add(entry.id);
+            fired.add(entry);
+        }
+
+        for (Entry entry : fired)
+        {
+            schedule(entry, now);
+        }
+        return res;
+    }
+
+    /**
+     * @return the next fire time of all the schedules, or Long.MAX_VALUE if none.
+     */
+    long getNextFireTime()
+    {
+        while (!this.fireOrder.isEmpty() && this.fireOrder.peek().removed)
+        {
+            this.fireOrder.poll();
+        }
+        return this.fireOrder.isEmpty() ? Long.MAX_VALUE : this.fireOrder.peek().nextFire;
+    }
+
+    int size()
+    {
+        return this.entries.size();
+    }
+}
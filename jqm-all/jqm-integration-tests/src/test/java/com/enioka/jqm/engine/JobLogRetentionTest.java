@@ -0,0 +1,77 @@
+package com.enioka.jqm.engine;
+
+import java.io.File;
+import java.io.PrintStream;
+
+import com.enioka.jqm.integration.tests.JqmBaseTest;
+import com.enioka.jqm.model.GlobalParameter;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Purge of the old job instance log files. Inside the engine package as the purge is not public.
+ */
+public class JobLogRetentionTest extends JqmBaseTest
+{
+    private File logDir = new File("./target/server/logs");
+
+    @Test
+    public void testOldJobLogsArePurged() throws Exception
+    {
+        File dir = new File("./target/logpurge");
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+        long now = System.currentTimeMillis();
+        File old = new File(dir, "0000000001.stdout.log");
+        File oldCompressed = new File(dir, "0000000001.stderr.log.gz");
+        File recent = new File(dir, "0000000002.stdout.log");
+        File oldButRunning = new File(dir, "0000000003.stdout.log");
+        File notAJobLog = new File(dir, "jqm.log");
+        for (File f : new File[] { old, oldCompressed, recent, oldButRunning, notAJobLog })
+        {
+            FileUtils.touch(f);
+        }
+        old.setLastModified(now - 3 * 86400000L);
+        oldCompressed.setLastModified(now - 3 * 86400000L);
+        recent.setLastModified(now - 86400000L);
+        oldButRunning.setLastModified(now - 3 * 86400000L);
+        notAJobLog.setLastModified(now - 30 * 86400000L);
+
+        Assert.assertEquals(2, new JobLogRetention(dir.getPath(), 2, id -> id == 3).purge(now));
+        Assert.assertFalse(old.exists());
+        Assert.assertFalse(oldCompressed.exists());
+        Assert.assertTrue(recent.exists());
+        Assert.assertTrue(oldButRunning.exists());
+        Assert.assertTrue(notAJobLog.exists());
+    }
+
+    @Test
+    public void testOnePurgePerNode() throws Exception
+    {
+        PrintStream out_ini = System.out;
+        PrintStream err_ini = System.err;
+        GlobalParameter.setParameter(cnx, "logFilePerLaunch", "true");
+        GlobalParameter.setParameter(cnx, "logFileRetentionDays", "2");
+        cnx.commit();
+        logDir.mkdirs();
+        File old = new File(logDir, "0000999999.stdout.log");
+        FileUtils.touch(old);
+        old.setLastModified(System.currentTimeMillis() - 3 * 86400000L);
+
+        addAndStartEngine();
+
+        // Purged at startup by the engine, whatever the number of runners.
+        long start = System.currentTimeMillis();
+        while (old.exists() && System.currentTimeMillis() - start < 5000)
+        {
+            Thread.sleep(50);
+        }
+        Assert.assertFalse(old.exists());
+        Assert.assertEquals(1, Thread.getAllStackTraces().keySet().stream().filter(t -> "Job log purge".equals(t.getName())).count());
+
+        System.setErr(err_ini);
+        System.setOut(out_ini);
+    }
+}
@@ -0,0 +1,193 @@
+package com.enioka.jqm.engine;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.enioka.jqm.engine.ResourceManagerBase.BookingStatus;
+import com.enioka.jqm.integration.tests.JqmBaseTest;
+import com.enioka.jqm.model.JobInstance;
+import com.enioka.jqm.model.ResourceManager;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Booking throughput of the in-memory resource managers with large pools. Inside the engine package as resource managers are not public.
+ */
+public class ResourceManagerBenchmarkTest extends JqmBaseTest
+{
+    private static final int POOL_SIZE = 10000;
+    private static final int THREADS = 32;
+    private static final int HELD_PER_THREAD = 100;
+    private static final int ROUNDS = 200;
+
+    @Test
+    public void testDiscreteBookingAndRelease() throws Exception
+    {
+        ResourceManagerBase rm = createDiscrete(5, 2);
+        List<JobInstance> jis = createJobInstances(4);
+
+        Assert.assertEquals(BookingStatus.BOOKED, rm.bookResource(jis.get(0), cnx));
+        Assert.assertEquals(BookingStatus.BOOKED, rm.bookResource(jis.get(1), cnx));
+        Assert.assertEquals(0, rm.getSlotsAvailable());
+        Assert.assertEquals(BookingStatus.FAILED, rm.bookResource(jis.get(2), cnx)); // one item left, two needed.
+        Assert.assertEquals(0, rm.getSlotsAvailable());
+
+        rm.releaseResource(jis.get(0));
+        rm.releaseResource(jis.get(0)); // twice should not give items back twice.
+        Assert.assertEquals(1, rm.getSlotsAvailable());
+        Assert.assertEquals(BookingStatus.BOOKED, rm.bookResource(jis.get(3), cnx));
+        Assert.assertEquals(BookingStatus.FAILED, rm.bookResource(jis.get(2), cnx));
+
+        rm.releaseResource(jis.get(1));
+        rm.releaseResource(jis.get(3));
+        Assert.assertEquals(2, rm.getSlotsAvailable());
+
+        // No item left at all.
+        ResourceManagerBase single = createDiscrete(1, 1);
+        Assert.assertEquals(BookingStatus.BOOKED, single.bookResource(jis.get(0), cnx));
+        Assert.assertEquals("item0", jis.get(0).getEnvVarCache().get("JQM_RM_DISCRETE_BENCHDISCRETE_ITEMS"));
+        Assert.assertEquals(BookingStatus.EXHAUSTED, single.bookResource(jis.get(1), cnx));
+    }
+
+    /**
+     * Not really a test - many threads book and release items of 10k-item pools, each thread holding a window of running job instances
+     * which all end at once. Results are only logged. Only runs with -Djqm.benchmarks=true.
+     */
+    @Test
+    public void benchmarkResourceManagerBooking() throws Exception
+    {
+        assumeBenchmarks();
+        String discrete = runBenchmark(createDiscrete(POOL_SIZE, 4));
+        String quantity = runBenchmark(createQuantity(POOL_SIZE));
+
+        jqmlogger.info("Discrete resource manager with {} items: {}", POOL_SIZE, discrete);
+        jqmlogger.info("Quantity resource manager with {} units: {}", POOL_SIZE, quantity);
+    }
+
+    private String runBenchmark(final ResourceManagerBase rm) throws Exception
+    {
+        final int initialSlots = rm.getSlotsAvailable();
+        final AtomicLong booked = new AtomicLong();
+        final AtomicLong refused = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch end = new CountDownLatch(THREADS);
+
+        List<List<JobInstance>> perThread = new ArrayList<>(THREADS);
+        for (int i = 0; i < THREADS; i++)
+        {
+            perThread.add(createJobInstances(i * HELD_PER_THREAD, HELD_PER_THREAD));
+        }
+
+        for (final List<JobInstance> jis : perThread)
+        {
+            new Thread(() -> {
+                try
+                {
+                    start.await();
+                    List<JobInstance> running = new ArrayList<>(HELD_PER_THREAD);
+                    for (int round = 0; round < ROUNDS; round++)
+                    {
+                        for (JobInstance ji : jis)
+                        {
+                            if (rm.bookResource(ji, null) == BookingStatus.BOOKED)
+                            {
+                                running.add(ji);
+                            }
+                            else
+                            {
+                                refused.incrementAndGet();
+                            }
+                        }
+                        booked.addAndGet(running.size());
+                        for (JobInstance ji : running)
+                        {
+                            rm.releaseResource(ji);
+                        }
+                        running.clear();
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    // Nothing - the count will be wrong.
+                }
+                finally
+                {
+                    end.countDown();
+                }
+            }).start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        end.await();
+        long durationMs = Math.max(1, (System.nanoTime() - startTime) / 1000000);
+
+        // Everything was released.
+        Assert.assertEquals(initialSlots, rm.getSlotsAvailable());
+
+        long attempts = booked.get() + refused.get();
+        return String.format("%d booking attempts (%d refused) and %d releases by %d threads in %d ms - %d bookings per second", attempts,
+                refused.get(), booked.get(), THREADS, durationMs, attempts * 1000 / durationMs);
+    }
+
+    private ResourceManagerBase createDiscrete(int items, int consumption)
+    {
+        List<String> names = new ArrayList<>(items);
+        for (int i = 0; i < items; i++)
+        {
+            names.add("item" + i);
+        }
+
+        ResourceManager configuration = new ResourceManager();
+        configuration.setClassName(DiscreteResourceManager.class.getCanonicalName());
+        configuration.setEnabled(true);
+        configuration.setKey("benchdiscrete");
+        configuration.addParameter("com.enioka.jqm.rm.discrete.list", String.join(",", names));
+        configuration.addParameter("com.enioka.jqm.rm.discrete.consumption", "" + consumption);
+
+        ResourceManagerBase rm = new DiscreteResourceManager(configuration);
+        rm.refreshConfiguration(configuration);
+        return rm;
+    }
+
+    private ResourceManagerBase createQuantity(int units)
+    {
+        ResourceManager configuration = new ResourceManager();
+        configuration.setClassName(QuantityResourceManager.class.getCanonicalName());
+        configuration.setEnabled(true);
+        configuration.setKey("benchquantity");
+        configuration.addParameter("com.enioka.jqm.rm.quantity.quantity", "" + units);
+
+        ResourceManagerBase rm = new QuantityResourceManager(configuration);
+        rm.refreshConfiguration(configuration);
+        return rm;
+    }
+
+    private List<JobInstance> createJobInstances(int count) throws Exception
+    {
+        return createJobInstances(0, count);
+    }
+
+    /**
+     * Job instances which only exist in memory (they have no parameters).
+     */
+    private List<JobInstance> createJobInstances(int firstId, int count) throws Exception
+    {
+        Method setId = JobInstance.class.getDeclaredMethod("setId", Integer.class);
+        setId.setAccessible(true);
+
+        List<JobInstance> res = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            JobInstance ji = new JobInstance();
+            setId.invoke(ji, firstId + i + 1);
+            res.add(ji);
+        }
+        JobInstance.loadPrmCache(cnx, res);
+        return res;
+    }
+}
@@ -0,0 +1,75 @@
+package com.enioka.jqm.engine;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+
+import com.enioka.jqm.integration.tests.JqmBaseTest;
+import com.enioka.jqm.test.helpers.CreationTools;
+import com.enioka.jqm.test.helpers.TestHelpers;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Incremental maintenance of the schedule index. Inside the engine package as the index is not public.
+ */
+public class ScheduleIndexTest extends JqmBaseTest
+{
+    @Test
+    public void testIndexFollowsScheduleChanges()
+    {
+        CreationTools.createJobDef(null, true, "pyl.EngineApiSendMsg", null, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip, 42,
+                "MarsuApplication", null, "Franquin", "ModuleMachin", "other", "other", true, cnx);
+        int everyMinute = jqmClient.newJobRequest("MarsuApplication", "test user").setRecurrence("* * * * *").enqueue();
+        int hourly = jqmClient.newJobRequest("MarsuApplication", "test user").setRecurrence("5 * * * *").enqueue();
+
+        Calendar start = Calendar.getInstance();
+        start.set(Calendar.HOUR_OF_DAY, 10);
+        start.set(Calendar.MINUTE, 0);
+        start.set(Calendar.SECOND, 30);
+        start.set(Calendar.MILLISECOND, 0);
+        long t0 = start.getTimeInMillis();
+
+        ScheduleIndex index = new ScheduleIndex();
+        index.refresh(cnx, t0);
+        Assert.assertEquals(2, index.size());
+        Assert.assertEquals(t0 + 30000, index.getNextFireTime());
+
+        // Only due schedules fire, and are then scheduled for their next minute.
+        Assert.assertEquals(Collections.emptyList(), index.pollDue(t0 + 29000));
+        Assert.assertEquals(Arrays.asList(everyMinute), index.pollDue(t0 + 30000));
+        Assert.assertEquals(t0 + 90000, index.getNextFireTime());
+        Assert.assertEquals(Arrays.asList(everyMinute), index.pollDue(t0 + 90000));
+
+        // Missed minutes only fire once.
+        Assert.assertEquals(Arrays.asList(everyMinute, hourly), index.pollDue(t0 + 5 * 60000));
+        Assert.assertEquals(t0 + 5 * 60000 + 30000, index.getNextFireTime());
+
+        // Nothing changed: nothing to do.
+        index.refresh(cnx, t0);
+        Assert.assertEquals(2, index.size());
+        Assert.assertEquals(t0 + 5 * 60000 + 30000, index.getNextFireTime());
+
+        // Modification.
+        cnx.runUpdate("sj_update_cron_by_id", "59 12 * * *", everyMinute);
+        cnx.commit();
+        index.refresh(cnx, t0);
+        Assert.assertEquals(2, index.size());
+        Assert.assertEquals(t0 + 64 * 60000 + 30000, index.getNextFireTime()); // hourly, at 11:05.
+
+        // Deletion.
+        jqmClient.removeRecurrence(hourly);
+        index.refresh(cnx, t0);
+        Assert.assertEquals(1, index.size());
+        Assert.assertEquals(t0 + (2 * 60 + 58) * 60000 + 30000, index.getNextFireTime()); // 12:59.
+        Assert.assertEquals(Collections.emptyList(), index.pollDue(t0 + 2 * 3600000));
+
+        // Invalid patterns never fire but are still known.
+        cnx.runUpdate("sj_update_cron_by_id", "not a pattern", everyMinute);
+        cnx.commit();
+        index.refresh(cnx, t0);
+        Assert.assertEquals(1, index.size());
+        Assert.assertEquals(Long.MAX_VALUE, index.getNextFireTime());
+    }
+}
@@ -15,18 +15,31 @@
  */
 package com.enioka.jqm.integration.tests;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -52,6 +65,7 @@ public class ApiSimpleTest extends JqmBaseTest
     {
         GlobalParameter.setParameter(cnx, "disableWsApi", "false");
         GlobalParameter.setParameter(cnx, "enableWsApiAuth", "false");
+        GlobalParameter.setParameter(cnx, "logFilePerLaunch", "true");
         cnx.commit();
 
         addAndStartEngine();
@@ -162,4 +176,219 @@ public class ApiSimpleTest extends JqmBaseTest
 
         Assert.assertEquals(State.ENDED, currentState);
     }
+
+    @Test
+    public void testLogRangeAndFollow() throws Exception
+    {
+        CreationTools.createJobDef(null, true, "pyl.EngineApiProgress", null, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip,
+                42, "Marsu-Application", null, "Franquin", "ModuleMachin", "other", "other", true, cnx);
+        cnx.commit();
+        int i = jqmClient.newJobRequest("Marsu-Application", "testuser").enqueue();
+
+        // The node must be known before following the log. The job instance lasts about 5s.
+        long start = System.currentTimeMillis();
+        while (jqmClient.getJob(i).getState() != com.enioka.jqm.client.api.State.RUNNING && System.currentTimeMillis() - start < 10000)
+        {
+            Thread.sleep(50);
+        }
+
+        // The stream ends with the job instance.
+        String followed = read(jqmClient.followJobLogStdOut(i, 0));
+        Assert.assertEquals(com.enioka.jqm.client.api.State.ENDED, jqmClient.getJob(i).getState());
+        Assert.assertTrue(followed.contains("Progress: 5"));
+        Assert.assertTrue(followed.contains("Progress: 50"));
+
+        String full = read(jqmClient.getJobLogStdOut(i));
+        Assert.assertEquals(full, followed);
+        Assert.assertEquals(full.substring(10), read(jqmClient.getJobLogStdOut(i, 10)));
+        Assert.assertEquals("", read(jqmClient.getJobLogStdOut(i, full.length())));
+        Assert.assertEquals(full.substring(10), read(jqmClient.followJobLogStdOut(i, 10)));
+
+        // Raw HTTP ranges
+        var url = "http://" + TestHelpers.node.getDns() + ":" + port + "/ws/simple/stdout?id=" + i;
+        HttpClient client = HttpClient.newHttpClient();
+        var res = client.send(HttpRequest.newBuilder().uri(URI.create(url)).header("Range", "bytes=-10").GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(206, res.statusCode());
+        Assert.assertEquals(full.substring(full.length() - 10), res.body());
+        Assert.assertEquals("bytes " + (full.length() - 10) + "-" + (full.length() - 1) + "/" + full.length(),
+                res.headers().firstValue("Content-Range").orElse(null));
+
+        res = client.send(HttpRequest.newBuilder().uri(URI.create(url)).header("Range", "bytes=2-5").GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(206, res.statusCode());
+        Assert.assertEquals(full.substring(2, 6), res.body());
+
+        res = client.send(HttpRequest.newBuilder().uri(URI.create(url)).header("Range", "bytes=" + full.length() + "-").GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(416, res.statusCode());
+    }
+
+    @Test
+    public void testCompressedLogWhileRunning() throws Exception
+    {
+        stopAndRemoveEngine("localhost");
+        GlobalParameter.setParameter(cnx, "logFileCompression", "gzip");
+        cnx.commit();
+        addAndStartEngine();
+        port = Node.select_single(cnx, "node_select_by_id", TestHelpers.node.getId()).getPort();
+
+        CreationTools.createJobDef(null, true, "pyl.EngineApiProgress", null, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip,
+                42, "Marsu-Application", null, "Franquin", "ModuleMachin", "other", "other", true, cnx);
+        cnx.commit();
+        int i = jqmClient.newJobRequest("Marsu-Application", "testuser").enqueue();
+        var url = "http://" + TestHelpers.node.getDns() + ":" + port + "/ws/simple/stdout?id=" + i;
+        HttpClient client = HttpClient.newHttpClient();
+
+        // The gzip stream of a running job instance is not terminated yet: it is always sent decompressed, up to the last flush.
+        long start = System.currentTimeMillis();
+        HttpResponse<String> res = null;
+        while (System.currentTimeMillis() - start < 10000)
+        {
+            if (jqmClient.getJob(i).getState() == com.enioka.jqm.client.api.State.RUNNING)
+            {
+                res = client.send(HttpRequest.newBuilder().uri(URI.create(url)).header("Accept-Encoding", "gzip").GET().build(),
+                        HttpResponse.BodyHandlers.ofString());
+                if (res.statusCode() == 200 && res.body().contains("Progress: 10"))
+                {
+                    break;
+                }
+            }
+            Thread.sleep(100);
+        }
+        Assert.assertNotNull(res);
+        Assert.assertTrue(res.body().contains("Progress: 10"));
+        Assert.assertFalse(res.headers().firstValue("Content-Encoding").isPresent());
+        Assert.assertEquals(com.enioka.jqm.client.api.State.RUNNING, jqmClient.getJob(i).getState());
+
+        // Followed while the file grows, from a position which is not at the start of the decompressed stream.
+        CompletableFuture<HttpResponse<String>> followedFrom = client.sendAsync(
+                HttpRequest.newBuilder().uri(URI.create(url.replace("stdout?", "stdout/follow?") + "&from=10")).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        // Once ended, the file is complete and sent as it is to clients accepting gzip.
+        String followed = read(jqmClient.followJobLogStdOut(i, 0));
+        Assert.assertEquals(followed.substring(10), followedFrom.get(30, TimeUnit.SECONDS).body());
+        Assert.assertTrue(followed.contains("Progress: 50"));
+        var raw = client.send(HttpRequest.newBuilder().uri(URI.create(url)).header("Accept-Encoding", "gzip").GET().build(),
+                HttpResponse.BodyHandlers.ofInputStream());
+        Assert.assertEquals("gzip", raw.headers().firstValue("Content-Encoding").orElse(null));
+        Assert.assertEquals(followed, read(new GZIPInputStream(raw.body())));
+        Assert.assertEquals(followed, read(jqmClient.getJobLogStdOut(i)));
+    }
+
+    @Test
+    public void testLogFollowersShareOneThread() throws Exception
+    {
+        // localhost runs the job instance, localhost2 only hosts web services and relays the log.
+        stopAndRemoveEngine("localhost");
+        cnx.runUpdate("node_update_all_enable_ws");
+        cnx.commit();
+        addAndStartEngine("localhost");
+        addAndStartEngine("localhost2");
+        port = Node.select_single(cnx, "node_select_by_id", TestHelpers.node.getId()).getPort();
+        int port2 = Node.select_single(cnx, "node_select_by_id", TestHelpers.node2.getId()).getPort();
+
+        CreationTools.createJobDef(null, true, "pyl.EngineApiProgress", null, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip,
+                42, "Marsu-Application", null, "Franquin", "ModuleMachin", "other", "other", true, cnx);
+        cnx.commit();
+        int i = jqmClient.newJobRequest("Marsu-Application", "testuser").enqueue();
+        long start = System.currentTimeMillis();
+        while (jqmClient.getJob(i).getState() != com.enioka.jqm.client.api.State.RUNNING && System.currentTimeMillis() - start < 10000)
+        {
+            Thread.sleep(50);
+        }
+
+        // Simple API, client API of the node running the job instance (file), client API of another node (relay).
+        String host = "http://" + TestHelpers.node.getDns() + ":";
+        String[] urls = new String[] { host + port + "/ws/simple/stdout/follow?id=" + i,
+                host + port + "/ws/client/ji/" + i + "/stdout/follow", host + port2 + "/ws/client/ji/" + i + "/stdout/follow" };
+        HttpClient client = HttpClient.newHttpClient();
+        List<CompletableFuture<HttpResponse<String>>> follows = new ArrayList<>();
+        for (int j = 0; j < 30; j++)
+        {
+            follows.add(client.sendAsync(HttpRequest.newBuilder().uri(URI.create(urls[j % urls.length])).GET().build(),
+                    HttpResponse.BodyHandlers.ofString()));
+        }
+
+        // Each web application (one per node) has a single poller thread, whatever the number of followers. No request thread waits.
+        Thread.sleep(1000);
+        Assert.assertEquals(com.enioka.jqm.client.api.State.RUNNING, jqmClient.getJob(i).getState());
+        Map<Thread, StackTraceElement[]> threads = Thread.getAllStackTraces();
+        Assert.assertEquals(2, threads.keySet().stream().filter(t -> "Log follow poller".equals(t.getName())).count());
+        Assert.assertEquals(0, threads.entrySet().stream()
+                .filter(e -> !"Log follow poller".equals(e.getKey().getName()) && !"Log follow writer".equals(e.getKey().getName()))
+                .filter(e -> Stream.of(e.getValue()).anyMatch(f -> f.getClassName().contains("LogFileStreamer"))).count());
+
+        for (CompletableFuture<HttpResponse<String>> f : follows)
+        {
+            HttpResponse<String> res = f.get(30, TimeUnit.SECONDS);
+            Assert.assertEquals(200, res.statusCode());
+            Assert.assertTrue(res.body().contains("Progress: 50"));
+        }
+        String full = read(jqmClient.getJobLogStdOut(i));
+        for (CompletableFuture<HttpResponse<String>> f : follows)
+        {
+            Assert.assertEquals(full, f.get().body());
+        }
+    }
+
+    @Test
+    public void testSlowLogFollowerDoesNotDelayOthers() throws Exception
+    {
+        CreationTools.createJobDef(null, true, "pyl.EngineApiWriteLog", null, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip,
+                42, "Marsu-Application", null, "Franquin", "ModuleMachin", "other", "other", true, cnx);
+        cnx.commit();
+        int i = jqmClient.newJobRequest("Marsu-Application", "testuser").enqueue();
+        File log = new File(FilenameUtils.concat("./target/server/logs", StringUtils.leftPad("" + i, 10, "0") + ".stdout.log"));
+        long start = System.currentTimeMillis();
+        while (!log.isFile() && System.currentTimeMillis() - start < 10000)
+        {
+            Thread.sleep(50);
+        }
+
+        try (Socket stalled = new Socket())
+        {
+            // A client which does not read. Its response is started before the log grows, so that the log is written to it by JQM.
+            stalled.setReceiveBufferSize(1024);
+            stalled.connect(new InetSocketAddress(TestHelpers.node.getDns(), port));
+            stalled.getOutputStream().write(("GET /ws/simple/stdout/follow?id=" + i + " HTTP/1.1\r\nHost: " + TestHelpers.node.getDns()
+                    + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            stalled.getOutputStream().flush();
+            Thread.sleep(2000);
+
+            // Far more than what socket buffers can hold, so the writes to the stalled client end up blocked.
+            try (OutputStream os = new FileOutputStream(log, true))
+            {
+                byte[] line = "filler filler filler filler filler filler filler filler filler filler filler filler\n"
+                        .getBytes(StandardCharsets.UTF_8);
+                for (int j = 0; j < 400000; j++)
+                {
+                    os.write(line);
+                }
+            }
+            long from = log.length();
+            Thread.sleep(2000);
+
+            // The new lines of the job instance still reach the other followers.
+            String url = "http://" + TestHelpers.node.getDns() + ":" + port + "/ws/simple/stdout/follow?id=" + i + "&from=" + from;
+            Assert.assertTrue(HttpClient.newHttpClient()
+                    .sendAsync(HttpRequest.newBuilder().uri(URI.create(url)).GET().build(), HttpResponse.BodyHandlers.ofLines())
+                    .thenApply(res -> res.body().anyMatch(l -> l.startsWith("This is a text line.")))
+                    .get(10, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            jqmClient.killJob(i);
+            TestHelpers.waitFor(1, 10000, cnx);
+        }
+    }
+
+    private static String read(InputStream is) throws IOException
+    {
+        try (InputStream s = is)
+        {
+            return IOUtils.toString(s, StandardCharsets.UTF_8);
+        }
+    }
 }
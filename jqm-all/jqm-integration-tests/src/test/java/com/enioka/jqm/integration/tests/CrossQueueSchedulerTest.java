@@ -0,0 +1,236 @@
+package com.enioka.jqm.integration.tests;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.enioka.jqm.client.api.JobInstance;
+import com.enioka.jqm.client.api.State;
+import com.enioka.jqm.jdbc.QueryTracer;
+import com.enioka.jqm.model.DeploymentParameter;
+import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.model.Node;
+import com.enioka.jqm.model.Queue;
+import com.enioka.jqm.test.helpers.CreationTools;
+import com.enioka.jqm.test.helpers.TestHelpers;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the node-level scheduler which replaces the per-queue polling loops.
+ */
+public class CrossQueueSchedulerTest extends JqmBaseTest
+{
+    @Test
+    public void testAllQueuesAreRun() throws Exception
+    {
+        GlobalParameter.setParameter(cnx, "crossQueueScheduling", "true");
+        for (int qId : new int[] { TestHelpers.qVip, TestHelpers.qNormal, TestHelpers.qSlow })
+        {
+            CreationTools.createJobDef(null, true, "pyl.Nothing", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", qId, -1,
+                    "TestApp" + qId, null, "TestModule", "kw1", "kw2", "kw3", false, cnx);
+        }
+        cnx.commit();
+
+        for (int i = 0; i < 10; i++)
+        {
+            for (int qId : new int[] { TestHelpers.qVip, TestHelpers.qNormal, TestHelpers.qSlow })
+            {
+                jqmClient.newJobRequest("TestApp" + qId, "TestUser").enqueue();
+            }
+        }
+
+        addAndStartEngine();
+        TestHelpers.waitFor(30, 60000, cnx);
+
+        Assert.assertEquals(30, TestHelpers.getOkCount(cnx));
+        Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
+    }
+
+    @Test
+    public void testNodeSlotBudget() throws Exception
+    {
+        GlobalParameter.setParameter(cnx, "crossQueueScheduling", "true");
+        GlobalParameter.setParameter(cnx, "nodeSlotBudget", "2");
+        CreationTools.createJobDef(null, true, "pyl.Wait", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", TestHelpers.qVip, 42,
+                "jqm-test-wait", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+        cnx.commit();
+
+        for (int i = 0; i < 5; i++)
+        {
+            jqmClient.newJobRequest("jqm-test-wait", "test").addParameter("ms", "2000").enqueue();
+        }
+
+        addAndStartEngine();
+
+        // The queue has 40 threads, but the node only 2 slots.
+        TestHelpers.waitForRunning(2, 10000, cnx);
+        sleep(1);
+        Assert.assertEquals(2, TestHelpers.getQueueRunningCount(cnx));
+
+        TestHelpers.waitFor(5, 60000, cnx);
+        Assert.assertEquals(5, TestHelpers.getOkCount(cnx));
+    }
+
+    @Test
+    public void testFairShare() throws Exception
+    {
+        // Two queues with weights 3 and 1 sharing 4 slots.
+        GlobalParameter.setParameter(cnx, "crossQueueScheduling", "true");
+        GlobalParameter.setParameter(cnx, "nodeSlotBudget", "4");
+        int q1 = Queue.create(cnx, "fairqueue1", " ", false);
+        int q2 = Queue.create(cnx, "fairqueue2", " ", false);
+        DeploymentParameter.create(cnx, TestHelpers.node.getId(), 30, 100, q1);
+        DeploymentParameter.create(cnx, TestHelpers.node.getId(), 10, 100, q2);
+        CreationTools.createJobDef(null, true, "pyl.Wait", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", q1, 42, "jqm-test-wait1",
+                null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+        CreationTools.createJobDef(null, true, "pyl.Wait", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", q2, 42, "jqm-test-wait2",
+                null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+        cnx.commit();
+
+        for (int i = 0; i < 6; i++)
+        {
+            jqmClient.newJobRequest("jqm-test-wait1", "test").addParameter("ms", "3000").enqueue();
+            jqmClient.newJobRequest("jqm-test-wait2", "test").addParameter("ms", "3000").enqueue();
+        }
+
+        addAndStartEngine();
+        TestHelpers.waitForRunning(4, 10000, cnx);
+
+        List<JobInstance> running = jqmClient.newQuery().setQueryLiveInstances(true).setQueryHistoryInstances(false)
+                .addStatusFilter(State.RUNNING).invoke();
+        int onQ1 = 0, onQ2 = 0;
+        for (JobInstance ji : running)
+        {
+            if ("fairqueue1".equals(ji.getQueueName()))
+            {
+                onQ1++;
+            }
+            else
+            {
+                onQ2++;
+            }
+        }
+        Assert.assertEquals(3, onQ1);
+        Assert.assertEquals(1, onQ2);
+
+        TestHelpers.waitFor(12, 60000, cnx);
+        Assert.assertEquals(12, TestHelpers.getOkCount(cnx));
+    }
+
+    /**
+     * Not really a test - compares the database load of the polling threads and the start latency of job instances between one poller thread
+     * per queue and the cross-queue scheduler, on 20 queues. Results are only logged. Only runs with -Djqm.benchmarks=true.
+     */
+    @Test
+    public void benchmarkCrossQueueScheduler() throws Exception
+    {
+        assumeBenchmarks();
+        int queueCount = 20, jobsPerQueue = 10;
+        Node perQueueNode = Node.create(cnx, "benchperqueue", 0, "./target/outputfiles/", "./../", "./target/tmp",
+                TestHelpers.getLocalHostName(), "INFO");
+        Node crossQueueNode = Node.create(cnx, "benchcrossqueue", 0, "./target/outputfiles/", "./../", "./target/tmp",
+                TestHelpers.getLocalHostName(), "INFO");
+        List<String> apps = new ArrayList<>();
+        for (int i = 0; i < queueCount; i++)
+        {
+            int qId = Queue.create(cnx, "benchqueue" + i, " ", false);
+            DeploymentParameter.create(cnx, perQueueNode.getId(), 5, 500, qId);
+            DeploymentParameter.create(cnx, crossQueueNode.getId(), 5, 500, qId);
+            CreationTools.createJobDef(null, true, "pyl.Nothing", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", qId, -1,
+                    "benchapp" + i, null, "TestModule", "kw1", "kw2", "kw3", false, cnx);
+            apps.add("benchapp" + i);
+        }
+        cnx.commit();
+
+        PollingQueryCounter counter = new PollingQueryCounter();
+        db.setQueryTracer(counter);
+        try
+        {
+            String perQueue = runBenchmarkPhase("benchperqueue", apps, jobsPerQueue, counter);
+            stopAndRemoveEngine("benchperqueue");
+
+            GlobalParameter.setParameter(cnx, "crossQueueScheduling", "true");
+            cnx.commit();
+            String crossQueue = runBenchmarkPhase("benchcrossqueue", apps, jobsPerQueue, counter);
+
+            jqmlogger.info("Polling {} queues - one poller per queue: {}", queueCount, perQueue);
+            jqmlogger.info("Polling {} queues - cross-queue scheduler: {}", queueCount, crossQueue);
+        }
+        finally
+        {
+            db.setQueryTracer(null);
+        }
+    }
+
+    private String runBenchmarkPhase(String nodeName, List<String> apps, int jobsPerQueue, PollingQueryCounter counter) throws Exception
+    {
+        int before = TestHelpers.getOkCount(cnx);
+        addAndStartEngine(nodeName);
+        sleep(1);
+
+        // Idle load.
+        counter.reset();
+        sleep(5);
+        long idleQueries = counter.count.get();
+
+        // Load while running jobs.
+        counter.reset();
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < jobsPerQueue; i++)
+        {
+            for (String app : apps)
+            {
+                ids.add(jqmClient.newJobRequest(app, "TestUser").enqueue());
+            }
+        }
+        TestHelpers.waitFor(before + ids.size(), 120000, cnx);
+        long runQueries = counter.count.get();
+        long runNanos = counter.nanos.get();
+        Assert.assertEquals(before + ids.size(), TestHelpers.getOkCount(cnx));
+
+        long latency = 0;
+        Map<Integer, JobInstance> done = new HashMap<>();
+        for (JobInstance ji : jqmClient.newQuery().setQueryLiveInstances(false).setQueryHistoryInstances(true).invoke())
+        {
+            done.put(ji.getId(), ji);
+        }
+        for (int id : ids)
+        {
+            JobInstance ji = done.get(id);
+            latency += ji.getBeganRunningDate().getTimeInMillis() - ji.getEnqueueDate().getTimeInMillis();
+        }
+
+        return String.format("%d polling queries per second when idle, %d polling queries (%d ms) to run %d job instances, "
+                + "average start latency %d ms", idleQueries / 5, runQueries, runNanos / 1000000, ids.size(), latency / ids.size());
+    }
+
+    /**
+     * Counts the queries run by the polling threads only.
+     */
+    private static class PollingQueryCounter implements QueryTracer
+    {
+        private AtomicLong count = new AtomicLong();
+        private AtomicLong nanos = new AtomicLong();
+
+        @Override
+        public void queryExecuted(String queryKey, long durationNanos, int rowCount, int bindCount)
+        {
+            String thread = Thread.currentThread().getName();
+            if (thread.startsWith("QUEUE_POLLER") || thread.startsWith("CROSS_QUEUE_SCHEDULER"))
+            {
+                count.incrementAndGet();
+                nanos.addAndGet(durationNanos);
+            }
+        }
+
+        private void reset()
+        {
+            count.set(0);
+            nanos.set(0);
+        }
+    }
+}
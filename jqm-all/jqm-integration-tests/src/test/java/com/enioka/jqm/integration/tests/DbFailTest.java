@@ -1,6 +1,7 @@
 package com.enioka.jqm.integration.tests;
 
 import com.enioka.jqm.client.api.JobRequest;
+import com.enioka.jqm.model.GlobalParameter;
 import com.enioka.jqm.test.helpers.CreationTools;
 import com.enioka.jqm.test.helpers.TestHelpers;
 
@@ -132,4 +133,33 @@ public class DbFailTest extends JqmBaseTest
         Assert.assertEquals(1000, TestHelpers.getOkCount(this.getNewDbSession()));
         // Assert.assertTrue(this.engines.get("localhost").isAllPollersPolling());
     }
+
+    // Same, with job instance results stored in batches.
+    @Test
+    public void testDbFailureUnderLoadWithBatchedEndOfRun() throws Exception
+    {
+        GlobalParameter.setParameter(cnx, "endOfRunBatchSize", "50");
+        cnx.runUpdate("dp_update_threads_by_id", 50, TestHelpers.dpVip.getId());
+        cnx.commit();
+        TestHelpers.setNodesLogLevel("INFO", cnx);
+
+        CreationTools.createJobDef(null, true, "pyl.Nothing", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", TestHelpers.qVip, -1,
+                "TestJqmApplication", "appFreeName", "TestModule", "kw1", "kw2", "kw3", false, cnx);
+
+        JobRequest j = jqmClient.newJobRequest("TestJqmApplication", "TestUser");
+        for (int i = 0; i < 1000; i++)
+        {
+            j.enqueue();
+        }
+
+        addAndStartEngine();
+
+        this.sleep(1);
+        jqmlogger.info("Stopping db");
+        simulateDbFailure();
+
+        TestHelpers.waitFor(1000, 120000, this.getNewDbSession());
+
+        Assert.assertEquals(1000, TestHelpers.getOkCount(this.getNewDbSession()));
+    }
 }
@@ -15,12 +15,16 @@
  */
 package com.enioka.jqm.integration.tests;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 
 import com.enioka.jqm.client.api.JobInstance;
 import com.enioka.jqm.client.api.Query.Sort;
 import com.enioka.jqm.client.api.State;
+import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.test.helpers.CreationTools;
+import com.enioka.jqm.test.helpers.TestHelpers;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -67,6 +71,57 @@ public class EngineApiTest extends JqmBaseTest
         Assert.assertEquals((Integer) 50, res.get(0).getProgress());
     }
 
+    @Test
+    public void testSendMsgAsync() throws Exception
+    {
+        // Long interval: everything must be written by the flush at the end of the run.
+        GlobalParameter.setParameter(cnx, "engineApiFlushIntervalMs", "60000");
+        cnx.commit();
+
+        int i = JqmSimpleTest.create(cnx, "pyl.EngineApiSend3Msg").run(this);
+
+        List<String> messages = jqmClient.newQuery().setJobInstanceId(i).invoke().get(0).getMessages();
+        Assert.assertTrue(messages.contains("Les marsus sont nos amis, il faut les aimer aussi!"));
+        Assert.assertTrue(messages.contains("Les marsus sont nos amis, il faut les aimer aussi!2"));
+        Assert.assertTrue(messages.contains("Les marsus sont nos amis, il faut les aimer aussi!3"));
+    }
+
+    @Test
+    public void testSendMsgAsyncWhileWriting() throws Exception
+    {
+        // Very short interval: the writer thread is nearly always writing when job instances end and flush their own data.
+        GlobalParameter.setParameter(cnx, "engineApiFlushIntervalMs", "1");
+        CreationTools.createJobDef(null, true, "pyl.EngineApiSend3Msg", null, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip,
+                42, "jqm-test-send", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+        cnx.commit();
+
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 30; i++)
+        {
+            ids.add(jqmClient.enqueue("jqm-test-send", "test"));
+        }
+        addAndStartEngine();
+        TestHelpers.waitFor(ids.size(), 60000, cnx);
+
+        Assert.assertEquals(ids.size(), TestHelpers.getOkCount(cnx));
+        for (int id : ids)
+        {
+            Assert.assertEquals(3, jqmClient.newQuery().setJobInstanceId(id).invoke().get(0).getMessages().size());
+        }
+    }
+
+    @Test
+    public void testSendProgressAsync() throws Exception
+    {
+        GlobalParameter.setParameter(cnx, "engineApiFlushIntervalMs", "60000");
+        cnx.commit();
+
+        JqmSimpleTest.create(cnx, "pyl.EngineApiProgress").addWaitMargin(10000).run(this);
+
+        List<JobInstance> res = jqmClient.newQuery().invoke();
+        Assert.assertEquals((Integer) 50, res.get(0).getProgress());
+    }
+
     /**
      * To stop a job, just throw an exception
      */
@@ -21,6 +21,11 @@ package com.enioka.jqm.integration.tests;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -154,6 +159,55 @@ public class HighlanderTest extends JqmBaseTest
         Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
     }
 
+    @Test
+    public void testHighlanderEnqueueDuringAttribution() throws Exception
+    {
+        CreationTools.createJobDef(null, true, "pyl.KillMe", null, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip, 42, "kill",
+                null, "Franquin", "ModuleMachin", "other", "other", true, cnx);
+        cnx.commit();
+        int i1 = jqmClient.newJobRequest("kill", "TestUser").enqueue();
+
+        // Enqueue a new request while the engine is attributing the waiting instance (after its update, before its commit). It must not be
+        // merged into that instance: it has to wait for the attribution and create a new one.
+        ExecutorService client = Executors.newSingleThreadExecutor();
+        AtomicReference<Future<Integer>> enqueued = new AtomicReference<>();
+        db.setQueryTracer((queryKey, durationNanos, rowCount, bindCount) -> {
+            if (queryKey.startsWith("ji_update_status_by_id") && Thread.currentThread().getName().startsWith("QUEUE_POLLER")
+                    && enqueued.get() == null)
+            {
+                enqueued.set(client.submit(() -> jqmClient.newJobRequest("kill", "TestUser").enqueue()));
+                try
+                {
+                    enqueued.get().get(2, TimeUnit.SECONDS);
+                }
+                catch (Exception e)
+                {
+                    // Expected: the client waits for the end of the attribution.
+                }
+            }
+        });
+        try
+        {
+            addAndStartEngine();
+            TestHelpers.waitForRunning(1, 10000, cnx);
+        }
+        finally
+        {
+            db.setQueryTracer(null);
+        }
+
+        Assert.assertNotNull(enqueued.get());
+        int i2 = enqueued.get().get(10, TimeUnit.SECONDS);
+        client.shutdown();
+        Assert.assertNotEquals(i1, i2);
+        Assert.assertEquals(State.RUNNING, jqmClient.getJob(i1).getState());
+        Assert.assertEquals(State.SUBMITTED, jqmClient.getJob(i2).getState());
+
+        jqmClient.killJob(i2);
+        jqmClient.killJob(i1);
+        TestHelpers.waitFor(2, 20000, cnx);
+    }
+
     @Test
     public void testHighlanderMultiNodeBug195() throws Exception
     {
@@ -192,4 +246,30 @@ public class HighlanderTest extends JqmBaseTest
         jqmClient.killJob(i3);
         TestHelpers.waitFor(2, 20000, cnx);
     }
+
+    @Test
+    public void testHighlanderLeaseGivenBackOnNodeStop() throws Exception
+    {
+        int q = Queue.create(cnx, "q", "test queue", false);
+        DeploymentParameter.create(cnx, TestHelpers.node.getId(), 1, 1, q);
+        DeploymentParameter.create(cnx, TestHelpers.nodeMix.getId(), 1, 1, q);
+        cnx.commit();
+
+        CreationTools.createJobDef(null, true, "App", null, "jqm-tests/jqm-test-datetimemaven/target/test.jar", q, 42, "MarsuApplication",
+                null, "Franquin", "ModuleMachin", "other", "other", true, cnx);
+
+        // First node takes the lease of the JD.
+        addAndStartEngine();
+        jqmClient.newJobRequest("MarsuApplication", "TestUser").enqueue();
+        TestHelpers.waitFor(1, 10000, cnx);
+
+        // Without giving it back, the other node would have to wait for the lease to expire.
+        stopAndRemoveEngine("localhost");
+        addAndStartEngine("localhost4");
+        jqmClient.newJobRequest("MarsuApplication", "TestUser").enqueue();
+        TestHelpers.waitFor(2, 5000, cnx); // Leases expire after at least 10s.
+
+        Assert.assertEquals(2, TestHelpers.getOkCount(cnx));
+        Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
+    }
 }
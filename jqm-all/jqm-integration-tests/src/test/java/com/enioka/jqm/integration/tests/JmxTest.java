@@ -15,8 +15,10 @@
  */
 package com.enioka.jqm.integration.tests;
 
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.ServerSocket;
+import java.util.Map;
 import java.util.Set;
 
 import javax.management.JMX;
@@ -28,7 +30,9 @@ import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
 
 import com.enioka.jqm.engine.api.jmx.JqmEngineMBean;
+import com.enioka.jqm.engine.api.jmx.QueryStatisticsMBean;
 import com.enioka.jqm.engine.api.jmx.QueuePollerMBean;
+import com.enioka.jqm.model.GlobalParameter;
 import com.enioka.jqm.runner.java.api.jmx.JavaJobInstanceTrackerMBean;
 import com.enioka.jqm.test.helpers.CreationTools;
 import com.enioka.jqm.test.helpers.TestHelpers;
@@ -141,4 +145,46 @@ public class JmxTest extends JqmBaseTest
         // Done
         cntor.close();
     }
+
+    @Test
+    public void jmxQueryStatisticsTest() throws Exception
+    {
+        GlobalParameter.setParameter(cnx, "queryTracing", "true");
+        CreationTools.createJobDef(null, true, "pyl.Nothing", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", TestHelpers.qVip, 42,
+                "jqm-test-nothing", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+
+        ServerSocket s1 = new ServerSocket(0);
+        int port1 = s1.getLocalPort();
+        ServerSocket s2 = new ServerSocket(0);
+        int port2 = s2.getLocalPort();
+        s1.close();
+        s2.close();
+        cnx.runUpdate("node_update_jmx_by_id", port1, port2, TestHelpers.node.getId());
+        cnx.commit();
+
+        addAndStartEngine();
+        jqmClient.newJobRequest("jqm-test-nothing", "TestUser").enqueue();
+        TestHelpers.waitFor(1, 10000, cnx);
+
+        ObjectName statistics = new ObjectName(
+                "com.enioka.jqm:type=Node.Database,Node=" + TestHelpers.node.getName() + ",name=QueryStatistics");
+        QueryStatisticsMBean proxy = JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(), statistics, QueryStatisticsMBean.class);
+
+        Map<String, Long> counts = proxy.getExecutionCounts();
+        Assert.assertTrue(counts.get("dp_select_config_version_for_node") > 0);
+        Assert.assertEquals((Long) 1L, proxy.getUpdatedRowCounts().get("ji_update_status_by_id"));
+        Assert.assertTrue(proxy.getBindVariableCounts().get("ji_update_status_by_id") > 0);
+
+        long[] histogram = proxy.getLatencyHistograms().get("dp_select_config_version_for_node");
+        Assert.assertEquals(proxy.getBucketUpperBoundsMicroseconds().length + 1, histogram.length);
+        long total = 0;
+        for (long l : histogram)
+        {
+            total += l;
+        }
+        Assert.assertTrue(total > 0);
+
+        proxy.reset();
+        Assert.assertNull(proxy.getExecutionCounts().get("ji_update_status_by_id"));
+    }
 }
@@ -61,7 +61,7 @@ public class JqmBaseTest
 
     protected static DebugHsqlDbServer s;
 
-    JqmClient jqmClient;
+    protected JqmClient jqmClient;
 
     @Rule
     public TestName testName = new TestName();
@@ -159,6 +159,14 @@ public class JqmBaseTest
         Assume.assumeTrue(s.isHsqldb());
     }
 
+    /**
+     * Benchmarks only log timings and take long: they only run when asked for with -Djqm.benchmarks=true.
+     */
+    protected void assumeBenchmarks()
+    {
+        Assume.assumeTrue(Boolean.getBoolean("jqm.benchmarks"));
+    }
+
     protected void assumeJavaVersionStrictlyGreaterThan(double version)
     {
         Assume.assumeTrue(getJavaVersion() > version);
@@ -1,16 +1,23 @@
 package com.enioka.jqm.integration.tests;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.io.PrintStream;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.zip.GZIPInputStream;
 
 import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.model.JobDef.PathType;
 import com.enioka.jqm.test.helpers.CreationTools;
 import com.enioka.jqm.test.helpers.TestHelpers;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.junit.Assert;
 import org.junit.Test;
@@ -48,4 +55,134 @@ public class LogTest extends JqmBaseTest
         System.setErr(err_ini);
         System.setOut(out_ini);
     }
+
+    @Test
+    public void testMultiLogPooledThreads() throws Exception
+    {
+        PrintStream out_ini = System.out;
+        PrintStream err_ini = System.err;
+        if (Files.exists(Path.of("./target/server/logs")))
+        {
+            FileUtils.cleanDirectory(new File("./target/server/logs"));
+        }
+
+        // Fewer pool threads than job instances: job instances wait for each other, each one must still get its own log file.
+        GlobalParameter.setParameter(cnx, "logFilePerLaunch", "true");
+        GlobalParameter.setParameter(cnx, "payloadExecutionMode", "pool");
+        GlobalParameter.setParameter(cnx, "payloadPoolSize", "2");
+        CreationTools.createJobDef(null, true, "App", null, "jqm-tests/jqm-test-datetimemaven/target/test.jar", TestHelpers.qVip, 42,
+                "MarsuApplication", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+        cnx.commit();
+        int[] ids = new int[5];
+        for (int j = 0; j < ids.length; j++)
+        {
+            ids[j] = jqmClient.newJobRequest("MarsuApplication", "TestUser").enqueue();
+        }
+        addAndStartEngine();
+        TestHelpers.waitFor(ids.length, 20000, cnx);
+
+        Assert.assertEquals(ids.length, TestHelpers.getOkCount(cnx));
+        Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
+        for (int i : ids)
+        {
+            String fileName = StringUtils.leftPad("" + i, 10, "0") + ".stdout.log";
+            Assert.assertTrue(new File(FilenameUtils.concat("./target/server/logs", fileName)).exists());
+        }
+
+        System.setErr(err_ini);
+        System.setOut(out_ini);
+    }
+
+    @Test
+    public void testMultiLogAsync() throws Exception
+    {
+        PrintStream out_ini = System.out;
+        PrintStream err_ini = System.err;
+        if (Files.exists(Path.of("./target/server/logs")))
+        {
+            FileUtils.cleanDirectory(new File("./target/server/logs"));
+        }
+
+        GlobalParameter.setParameter(cnx, "logFilePerLaunch", "true");
+        GlobalParameter.setParameter(cnx, "logFileAsync", "true");
+        GlobalParameter.setParameter(cnx, "logFileAsyncBufferKb", "64");
+        CreationTools.createJobDef(null, true, "App", null, "jqm-tests/jqm-test-datetimemaven/target/test.jar", TestHelpers.qVip, 42,
+                "MarsuApplication", null, "Franquin", "ModuleMachin", "other", "other", true, cnx);
+        cnx.commit();
+        int i = jqmClient.newJobRequest("MarsuApplication", "TestUser").enqueue();
+        addAndStartEngine();
+        TestHelpers.waitFor(1, 20000, cnx);
+
+        // The log file is complete as soon as the job instance has ended.
+        String fileName = StringUtils.leftPad("" + i, 10, "0") + ".stdout.log";
+        File f = new File(FilenameUtils.concat("./target/server/logs", fileName));
+        Assert.assertEquals(1, TestHelpers.getOkCount(cnx));
+        Assert.assertTrue(FileUtils.readFileToString(f, Charset.defaultCharset()).contains("Date GENERATED: "));
+
+        System.setErr(err_ini);
+        System.setOut(out_ini);
+    }
+
+    @Test
+    public void testMultiLogCompressed() throws Exception
+    {
+        PrintStream out_ini = System.out;
+        PrintStream err_ini = System.err;
+        if (Files.exists(Path.of("./target/server/logs")))
+        {
+            FileUtils.cleanDirectory(new File("./target/server/logs"));
+        }
+
+        GlobalParameter.setParameter(cnx, "logFilePerLaunch", "true");
+        GlobalParameter.setParameter(cnx, "logFileCompression", "gzip");
+        GlobalParameter.setParameter(cnx, "logFileRetentionDays", "7");
+        CreationTools.createJobDef(null, true, "App", null, "jqm-tests/jqm-test-datetimemaven/target/test.jar", TestHelpers.qVip, 42,
+                "MarsuApplication", null, "Franquin", "ModuleMachin", "other", "other", true, cnx);
+        cnx.commit();
+        int i = jqmClient.newJobRequest("MarsuApplication", "TestUser").enqueue();
+        addAndStartEngine();
+        TestHelpers.waitFor(1, 20000, cnx);
+
+        String fileName = StringUtils.leftPad("" + i, 10, "0") + ".stdout.log";
+        File f = new File(FilenameUtils.concat("./target/server/logs", fileName + ".gz"));
+        Assert.assertEquals(1, TestHelpers.getOkCount(cnx));
+        Assert.assertFalse(new File(FilenameUtils.concat("./target/server/logs", fileName)).exists());
+        try (InputStream is = new GZIPInputStream(new FileInputStream(f)))
+        {
+            Assert.assertTrue(IOUtils.toString(is, Charset.defaultCharset()).contains("Date GENERATED: "));
+        }
+
+        System.setErr(err_ini);
+        System.setOut(out_ini);
+    }
+
+    @Test
+    public void testMultiLogShell() throws Exception
+    {
+        PrintStream out_ini = System.out;
+        PrintStream err_ini = System.err;
+        if (Files.exists(Path.of("./target/server/logs")))
+        {
+            FileUtils.cleanDirectory(new File("./target/server/logs"));
+        }
+
+        // The output of the process is copied by the pump threads, but must land in the files of the job instance.
+        String command = onWindows() ? "echo marsupilami & echo houba 1>&2" : "echo marsupilami; echo houba 1>&2";
+        GlobalParameter.setParameter(cnx, "logFilePerLaunch", "true");
+        CreationTools.createJobDef("test job", true, "none", new HashMap<>(), command, TestHelpers.qNormal, 0, "TestApp1", null, null,
+                "kw1", "kw2", null, false, cnx, null, false, null, false, PathType.DEFAULTSHELLCOMMAND);
+        int i = jqmClient.newJobRequest("TestApp1", "TestUser").enqueue();
+        addAndStartEngine();
+        TestHelpers.waitFor(1, 20000, cnx);
+
+        String fileName = StringUtils.leftPad("" + i, 10, "0");
+        Assert.assertEquals(1, TestHelpers.getOkCount(cnx));
+        Assert.assertTrue(FileUtils.readFileToString(new File(FilenameUtils.concat("./target/server/logs", fileName + ".stdout.log")),
+                Charset.defaultCharset()).contains("marsupilami"));
+        Assert.assertTrue(FileUtils.readFileToString(new File(FilenameUtils.concat("./target/server/logs", fileName + ".stderr.log")),
+                Charset.defaultCharset()).contains("houba"));
+
+        System.setErr(err_ini);
+        System.setOut(out_ini);
+    }
 }
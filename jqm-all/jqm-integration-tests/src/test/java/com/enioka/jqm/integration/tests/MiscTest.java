@@ -343,4 +343,48 @@ public class MiscTest extends JqmBaseTest
         Assert.assertNotNull("not null", gps.get(0).getLastModified());
         Assert.assertNotEquals(first, gps.get(0).getLastModified());
     }
+
+    @Test
+    public void testBatchedEndOfRun() throws Exception
+    {
+        GlobalParameter.setParameter(cnx, "endOfRunBatchSize", "20");
+        GlobalParameter.setParameter(cnx, "endOfRunBatchDelayMs", "50");
+        cnx.runUpdate("dp_update_threads_by_id", 20, TestHelpers.dpVip.getId());
+        cnx.commit();
+
+        CreationTools.createJobDef(null, true, "pyl.Nothing", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", TestHelpers.qVip, -1,
+                "TestJqmApplication", "appFreeName", "TestModule", "kw1", "kw2", "kw3", false, cnx);
+        for (int i = 0; i < 200; i++)
+        {
+            jqmClient.newJobRequest("TestJqmApplication", "TestUser").enqueue();
+        }
+
+        addAndStartEngine();
+        TestHelpers.waitFor(200, 60000, cnx);
+
+        Assert.assertEquals(200, TestHelpers.getOkCount(cnx));
+        Assert.assertEquals(0, (int) cnx.runSelectSingle("ji_select_count_all", Integer.class));
+    }
+
+    @Test
+    public void testPooledPayloadThreads() throws Exception
+    {
+        GlobalParameter.setParameter(cnx, "payloadExecutionMode", "pool");
+        GlobalParameter.setParameter(cnx, "payloadPoolSize", "5");
+        cnx.runUpdate("dp_update_threads_by_id", 20, TestHelpers.dpVip.getId());
+        cnx.commit();
+
+        CreationTools.createJobDef(null, true, "pyl.Nothing", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", TestHelpers.qVip, -1,
+                "TestJqmApplication", "appFreeName", "TestModule", "kw1", "kw2", "kw3", false, cnx);
+        for (int i = 0; i < 100; i++)
+        {
+            jqmClient.newJobRequest("TestJqmApplication", "TestUser").enqueue();
+        }
+
+        addAndStartEngine();
+        TestHelpers.waitFor(100, 60000, cnx);
+
+        Assert.assertEquals(100, TestHelpers.getOkCount(cnx));
+        Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
+    }
 }
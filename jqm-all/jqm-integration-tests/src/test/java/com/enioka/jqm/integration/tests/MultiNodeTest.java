@@ -284,6 +284,102 @@ public class MultiNodeTest extends JqmBaseTest
         Assert.assertEquals(10, TestHelpers.getQueueAllCount(cnx));
     }
 
+    @Test
+    public void testClusterResourceManager() throws Exception
+    {
+        // Two units for the whole cluster, leased one by one.
+        GlobalParameter.setParameter(cnx, "clusterRmName", "billing");
+        GlobalParameter.setParameter(cnx, "clusterRmQuantity", "2");
+        GlobalParameter.setParameter(cnx, "clusterRmLeaseBatch", "1");
+
+        Map<String, String> prms = new HashMap<>(1);
+        prms.put("com.enioka.jqm.rm.cluster.consumption", "1");
+        CreationTools.createJobDef(null, true, "pyl.Wait", prms, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", TestHelpers.qVip, 42,
+                "jqm-test-wait", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+        cnx.commit();
+
+        for (int i = 0; i < 6; i++)
+        {
+            jqmClient.newJobRequest("jqm-test-wait", "test").addParameter("ms", "1500").enqueue();
+        }
+
+        // Both nodes poll the VIP queue, with 40 and 3 threads.
+        addAndStartEngine("localhost");
+        addAndStartEngine("localhost4");
+
+        TestHelpers.waitForRunning(2, 10000, cnx);
+        for (int i = 0; i < 10; i++)
+        {
+            Assert.assertTrue(TestHelpers.getQueueRunningCount(cnx) <= 2);
+            Thread.sleep(300);
+        }
+
+        TestHelpers.waitFor(6, 60000, cnx);
+        Assert.assertEquals(6, TestHelpers.getOkCount(cnx));
+        Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
+    }
+
+    @Test
+    public void testClusterResourceManagerReclaimsDeadLeases() throws Exception
+    {
+        GlobalParameter.setParameter(cnx, "internalPollingPeriodMs", "200");
+        GlobalParameter.setParameter(cnx, "clusterRmName", "billing");
+        GlobalParameter.setParameter(cnx, "clusterRmQuantity", "2");
+        GlobalParameter.setParameter(cnx, "clusterRmLeaseTimeout", "1");
+
+        // All units are leased by a node which is not running.
+        int counterId = cnx.runUpdate("rmc_insert", "billing", 2, 0).getGeneratedId();
+        cnx.runUpdate("rml_insert", counterId, TestHelpers.node3.getId(), 2);
+
+        Map<String, String> prms = new HashMap<>(1);
+        prms.put("com.enioka.jqm.rm.cluster.consumption", "1");
+        CreationTools.createJobDef(null, true, "pyl.Nothing", prms, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", TestHelpers.qVip, 42,
+                "jqm-test-nothing", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+        cnx.commit();
+
+        jqmClient.newJobRequest("jqm-test-nothing", "test").enqueue();
+        jqmClient.newJobRequest("jqm-test-nothing", "test").enqueue();
+
+        addAndStartEngine("localhost");
+
+        // Can only run once the lease has expired.
+        TestHelpers.waitFor(2, 20000, cnx);
+        Assert.assertEquals(2, TestHelpers.getOkCount(cnx));
+
+        // Unused units go back to the counter after an internal poller period without bookings.
+        Thread.sleep(1000);
+        Assert.assertEquals(2, (int) cnx.runSelectSingle("rmc_select_available_by_id", Integer.class, counterId));
+    }
+
+    @Test
+    public void testHighlanderLeaseGivenBackAtEndOfInstance() throws Exception
+    {
+        // One queue per node, so as to choose where each instance runs.
+        int q1 = Queue.create(cnx, "q1", "test queue", false);
+        int q2 = Queue.create(cnx, "q2", "test queue", false);
+        DeploymentParameter.create(cnx, TestHelpers.node.getId(), 1, 100, q1);
+        DeploymentParameter.create(cnx, TestHelpers.nodeMix.getId(), 1, 100, q2);
+        CreationTools.createJobDef(null, true, "pyl.Nothing", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", q1, 42,
+                "jqm-test-nothing", null, "Franquin", "ModuleMachin", "other", "other", true, cnx);
+        cnx.commit();
+
+        addAndStartEngine("localhost");
+        addAndStartEngine("localhost4");
+
+        // First node takes the lease of the JD.
+        jqmClient.newJobRequest("jqm-test-nothing", "TestUser").setQueueName("q1").enqueue();
+        TestHelpers.waitFor(1, 10000, cnx);
+
+        // The first node is still running, but has no instance of the JD anymore: the second one must not wait for the lease to expire or
+        // for the internal poller of the first node (60s by default).
+        jqmClient.newJobRequest("jqm-test-nothing", "TestUser").setQueueName("q2").enqueue();
+        TestHelpers.waitFor(2, 5000, cnx);
+
+        Assert.assertEquals(2, TestHelpers.getOkCount(cnx));
+        Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
+        Assert.assertEquals(1, jqmClient.newQuery().setNodeName("localhost4").invoke().size());
+    }
+
     @Test
     public void testMassMulti()
     {
@@ -18,6 +18,14 @@
 
 package com.enioka.jqm.integration.tests;
 
+import java.util.List;
+
+import com.enioka.jqm.model.JobInstance;
+import com.enioka.jqm.model.Queue;
+import com.enioka.jqm.test.helpers.CreationTools;
+import com.enioka.jqm.test.helpers.TestHelpers;
+
+import org.junit.Assert;
 import org.junit.Test;
 
 public class ParameterTest extends JqmBaseTest
@@ -50,4 +58,31 @@ public class ParameterTest extends JqmBaseTest
                 .addRuntimeParameter("arg1", "argument1").addRuntimeParameter("arg2", "argument2").run(this);
     }
 
+    // The poller loads the parameters of the whole queue head at once - check each JI gets its own parameters, including across batches.
+    @Test
+    public void testBulkParameterLoad() throws Exception
+    {
+        CreationTools.createJobDef(null, true, "pyl.Wait", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", TestHelpers.qNormal, 42,
+                "jqm-test-wait", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+        cnx.commit();
+
+        for (int i = 0; i < 600; i++)
+        {
+            jqmClient.newJobRequest("jqm-test-wait", "test").addParameter("index", "" + i).addParameter("other", "value").enqueue();
+        }
+        jqmClient.newJobRequest("jqm-test-wait", "test").enqueue();
+
+        List<JobInstance> head = cnx.poll(Queue.select(cnx, "q_select_by_id", TestHelpers.qNormal).get(0), 1000);
+        Assert.assertEquals(601, head.size());
+        JobInstance.loadPrmCache(cnx, head);
+
+        for (JobInstance ji : head)
+        {
+            JobInstance single = JobInstance.select_id(cnx, ji.getId());
+            single.loadPrmCache(cnx);
+            Assert.assertEquals(single.getPrms(), ji.getPrms());
+        }
+        Assert.assertEquals(0, head.get(600).getPrms().size());
+        Assert.assertEquals("599", head.get(599).getPrms().get("index"));
+    }
 }
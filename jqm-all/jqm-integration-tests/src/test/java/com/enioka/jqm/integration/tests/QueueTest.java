@@ -1,12 +1,21 @@
 package com.enioka.jqm.integration.tests;
 
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.sql.ResultSet;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.management.JMX;
+import javax.management.ObjectName;
+
 import com.enioka.jqm.client.api.JobInstance;
 import com.enioka.jqm.client.api.JqmInvalidRequestException;
 import com.enioka.jqm.client.api.State;
+import com.enioka.jqm.engine.api.jmx.QueuePollerMBean;
+import com.enioka.jqm.jdbc.QueryTracer;
 import com.enioka.jqm.model.DeploymentParameter;
 import com.enioka.jqm.model.GlobalParameter;
 import com.enioka.jqm.model.Queue;
@@ -158,6 +167,54 @@ public class QueueTest extends JqmBaseTest
                 Assert.assertTrue(ji1.getBeganRunningDate().compareTo(ji2.getEndDate()) >= 0);
         }
 
+        @Test
+        public void testPriorityAging() throws Exception
+        {
+                // JMX beans are only registered when the node has a JMX port.
+                ServerSocket s1 = new ServerSocket(0);
+                int port1 = s1.getLocalPort();
+                ServerSocket s2 = new ServerSocket(0);
+                int port2 = s2.getLocalPort();
+                s1.close();
+                s2.close();
+                cnx.runUpdate("node_update_jmx_by_id", port1, port2, TestHelpers.node.getId());
+
+                // Single thread available, one priority level per second of waiting.
+                int qId = Queue.create(cnx, "testqueue", " ", false, 1);
+                DeploymentParameter.create(cnx, TestHelpers.node.getId(), 1, 1, qId);
+
+                CreationTools.createJobDef(null, true, "pyl.Wait", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", qId, 42,
+                                "jqm-test-wait", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+                cnx.commit();
+
+                // The low priority job instance has waited for 3 levels when the higher priority ones arrive, which are only 2 levels higher.
+                int i1 = jqmClient.newJobRequest("jqm-test-wait", "test").addParameter("ms", "1000").setPriority(1).enqueue();
+                Thread.sleep(3000);
+                int i2 = jqmClient.newJobRequest("jqm-test-wait", "test").addParameter("ms", "100").setPriority(3).enqueue();
+                int i3 = jqmClient.newJobRequest("jqm-test-wait", "test").addParameter("ms", "100").setPriority(3).enqueue();
+
+                addAndStartEngine();
+                TestHelpers.waitForRunning(1, 10000, cnx);
+
+                ObjectName poller = new ObjectName("com.enioka.jqm:type=Node.Queue,Node=" + TestHelpers.node.getName() + ",name=testqueue");
+                QueuePollerMBean proxyPoller = JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(), poller,
+                                QueuePollerMBean.class);
+                Assert.assertEquals(1, proxyPoller.getPriorityAgingSeconds());
+                Assert.assertTrue(proxyPoller.getPriorityPolicy().startsWith("aging"));
+                Map<Integer, Long> waits = proxyPoller.getOldestWaitPerPriorityMilliseconds();
+                Assert.assertEquals(1, waits.size());
+                Assert.assertTrue(waits.containsKey(3));
+
+                TestHelpers.waitFor(3, 60000, cnx);
+                Assert.assertEquals(3, TestHelpers.getOkCount(cnx));
+
+                JobInstance ji1 = jqmClient.newQuery().setJobInstanceId(i1).invoke().get(0);
+                JobInstance ji2 = jqmClient.newQuery().setJobInstanceId(i2).invoke().get(0);
+                JobInstance ji3 = jqmClient.newQuery().setJobInstanceId(i3).invoke().get(0);
+                Assert.assertTrue(ji2.getBeganRunningDate().compareTo(ji1.getEndDate()) >= 0);
+                Assert.assertTrue(ji3.getBeganRunningDate().compareTo(ji1.getEndDate()) >= 0);
+        }
+
         @Test(expected = JqmInvalidRequestException.class)
         public void testPriorityLimits()
         {
@@ -329,4 +386,210 @@ public class QueueTest extends JqmBaseTest
                 Assert.assertEquals(0, TestHelpers.getQueueRunningCount(cnx));
                 Assert.assertEquals(0, TestHelpers.getQueueAllCount(cnx));
         }
+
+        // The poller should only read the head of the queue, whatever the size of the backlog.
+        @Test
+        public void testPollHeadIsBounded() throws Exception
+        {
+                int qId = Queue.create(cnx, "testqueue", " ", false);
+                CreationTools.createJobDef(null, true, "pyl.Wait", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", qId, 42,
+                                "jqm-test-wait", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+                cnx.commit();
+                Queue q = Queue.select(cnx, "q_select_by_id", qId).get(0);
+
+                Thread testThread = Thread.currentThread();
+                List<Integer> pollBinds = new ArrayList<>();
+                QueryTracer tracer = (queryKey, durationNanos, rowCount, bindCount) -> {
+                        if (Thread.currentThread() == testThread && queryKey.startsWith("ji_select_poll"))
+                        {
+                                pollBinds.add(bindCount);
+                        }
+                };
+
+                int enqueued = 0;
+                for (int backlog : new int[] { 10, 100, 300 })
+                {
+                        while (enqueued < backlog)
+                        {
+                                jqmClient.newJobRequest("jqm-test-wait", "test").setPriority(null).enqueue();
+                                enqueued++;
+                        }
+                        Assert.assertEquals(backlog, TestHelpers.getQueueAllCount(cnx));
+
+                        // The head size must be sent to the database...
+                        pollBinds.clear();
+                        db.setQueryTracer(tracer);
+                        try
+                        {
+                                Assert.assertEquals(5, cnx.poll(q, 5).size());
+                        }
+                        finally
+                        {
+                                db.setQueryTracer(null);
+                        }
+                        Assert.assertEquals(1, pollBinds.size());
+                        Assert.assertEquals(2, (int) pollBinds.get(0));
+
+                        // ... and the database must only return the head, whatever the backlog.
+                        int rows = 0;
+                        try (ResultSet rs = cnx.runSelect("ji_select_poll", qId, 5))
+                        {
+                                while (rs.next())
+                                {
+                                        rows++;
+                                }
+                        }
+                        Assert.assertEquals(5, rows);
+                }
+
+                // The bound must not change the queue order.
+                int high = jqmClient.newJobRequest("jqm-test-wait", "test").setPriority(5).enqueue();
+                List<com.enioka.jqm.model.JobInstance> head = cnx.poll(q, 1);
+                Assert.assertEquals(1, head.size());
+                Assert.assertEquals(high, head.get(0).getId());
+        }
+
+        // Claim mode is not available on HSQLDB, so the poller must silently fall back to the usual one JI at a time attribution.
+        @Test
+        public void testSkipLockedPollingFallback() throws Exception
+        {
+                GlobalParameter.setParameter(cnx, "skipLockedPolling", "true");
+                int qId = Queue.create(cnx, "testqueue", " ", false);
+                DeploymentParameter.create(cnx, TestHelpers.node.getId(), 3, 3600000, qId);
+
+                CreationTools.createJobDef(null, true, "pyl.KillMe", null, "jqm-tests/jqm-test-pyl/target/test.jar", qId, 42,
+                                "jqm-test-kill", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+                cnx.commit();
+
+                jqmClient.enqueue("jqm-test-kill", "test");
+                jqmClient.enqueue("jqm-test-kill", "test");
+                jqmClient.enqueue("jqm-test-kill", "test");
+                jqmClient.enqueue("jqm-test-kill", "test");
+
+                addAndStartEngine();
+                TestHelpers.waitForRunning(3, 3000, cnx);
+
+                Assert.assertEquals(3, jqmClient.newQuery().setQueryLiveInstances(true).setQueryHistoryInstances(false)
+                                .addStatusFilter(com.enioka.jqm.client.api.State.RUNNING).invoke().size());
+                Assert.assertEquals(1, jqmClient.newQuery().setQueryLiveInstances(true).setQueryHistoryInstances(false)
+                                .addStatusFilter(com.enioka.jqm.client.api.State.SUBMITTED).invoke().size());
+
+                for (JobInstance ji : jqmClient.newQuery().setQueryLiveInstances(true).setQueryHistoryInstances(false).invoke())
+                {
+                        jqmClient.killJob(ji.getId());
+                }
+                TestHelpers.waitFor(4, 10000, cnx);
+        }
+
+        // With a one hour polling interval, only the queue signals can explain a quick start.
+        @Test
+        public void testEnqueueWakesLocalPoller() throws Exception
+        {
+                int qId = Queue.create(cnx, "testqueue", " ", false);
+                DeploymentParameter.create(cnx, TestHelpers.node.getId(), 3, 3600000, qId);
+                CreationTools.createJobDef(null, true, "pyl.Nothing", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", qId, 42,
+                                "jqm-test-nothing", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+                cnx.commit();
+
+                addAndStartEngine();
+                Thread.sleep(1000); // First poll is done.
+
+                jqmClient.enqueue("jqm-test-nothing", "test");
+                TestHelpers.waitFor(1, 5000, cnx);
+                Assert.assertEquals(1, TestHelpers.getOkCount(cnx));
+        }
+
+        @Test
+        public void testTableQueueSignalWakesPoller() throws Exception
+        {
+                GlobalParameter.setParameter(cnx, "queueSignalChannel", "table");
+                int qId = Queue.create(cnx, "testqueue", " ", false);
+                DeploymentParameter.create(cnx, TestHelpers.node.getId(), 3, 3600000, qId);
+                int jdId = CreationTools.createJobDef(null, true, "pyl.Nothing", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", qId,
+                                42, "jqm-test-nothing", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+                cnx.commit();
+
+                addAndStartEngine();
+                Thread.sleep(1000); // First poll is done.
+
+                // Enqueue as another node would: no local signal, only a row inside the signal table.
+                com.enioka.jqm.model.JobInstance.enqueue(cnx, com.enioka.jqm.model.State.SUBMITTED, qId, jdId, null, null, null, null, null,
+                                null, null, "test", null, false, false, null, 0, com.enioka.jqm.model.Instruction.RUN, new HashMap<>());
+                cnx.runUpdate("qs_insert", qId);
+                cnx.commit();
+
+                TestHelpers.waitFor(1, 5000, cnx);
+                Assert.assertEquals(1, TestHelpers.getOkCount(cnx));
+        }
+
+        @Test
+        public void testAdaptivePollingBacksOff() throws Exception
+        {
+                // JMX beans are only registered when the node has a JMX port.
+                ServerSocket s1 = new ServerSocket(0);
+                int port1 = s1.getLocalPort();
+                ServerSocket s2 = new ServerSocket(0);
+                int port2 = s2.getLocalPort();
+                s1.close();
+                s2.close();
+                cnx.runUpdate("node_update_jmx_by_id", port1, port2, TestHelpers.node.getId());
+
+                int qId = Queue.create(cnx, "testqueue", " ", false);
+                DeploymentParameter.create(cnx, true, TestHelpers.node.getId(), 3, 100, 1600, qId);
+                int jdId = CreationTools.createJobDef(null, true, "pyl.Nothing", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", qId,
+                                42, "jqm-test-nothing", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+                cnx.commit();
+
+                addAndStartEngine();
+                Thread.sleep(3000); // Empty queue: 100, 200, 400, 800, 1600...
+
+                ObjectName poller = new ObjectName("com.enioka.jqm:type=Node.Queue,Node=" + TestHelpers.node.getName() + ",name=testqueue");
+                QueuePollerMBean proxyPoller = JMX.newMBeanProxy(ManagementFactory.getPlatformMBeanServer(), poller,
+                                QueuePollerMBean.class);
+                Assert.assertTrue(proxyPoller.isAdaptivePolling());
+                Assert.assertEquals((Integer) 100, proxyPoller.getPollingIntervalMilliseconds());
+                Assert.assertTrue(proxyPoller.getEffectivePollingIntervalMilliseconds() > 100);
+                Assert.assertTrue(proxyPoller.getEffectivePollingIntervalMilliseconds() <= 1600);
+                Assert.assertTrue(proxyPoller.isActuallyPolling());
+
+                // No signal at all (as if created by another node without signal channel): must be found within the max interval.
+                com.enioka.jqm.model.JobInstance.enqueue(cnx, com.enioka.jqm.model.State.SUBMITTED, qId, jdId, null, null, null, null, null,
+                                null, null, "test", null, false, false, null, 0, com.enioka.jqm.model.Instruction.RUN, new HashMap<>());
+                cnx.commit();
+
+                TestHelpers.waitFor(1, 5000, cnx);
+                Assert.assertEquals(1, TestHelpers.getOkCount(cnx));
+        }
+
+        @Test
+        public void testDeploymentParameterChangeSeenBeforeFullInternalLoop() throws Exception
+        {
+                // Only 1 thread at first. (The full internal poller loop only happens every 60s in tests)
+                int qId = Queue.create(cnx, "testqueue", " ", false);
+                int dpId = DeploymentParameter.create(cnx, TestHelpers.node.getId(), 1, 1, qId).getId();
+
+                CreationTools.createJobDef(null, true, "pyl.KillMe", null, "jqm-tests/jqm-test-pyl/target/test.jar", qId, 42,
+                                "jqm-test-kill", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+                cnx.commit();
+
+                int i1 = jqmClient.enqueue("jqm-test-kill", "test");
+                int i2 = jqmClient.enqueue("jqm-test-kill", "test");
+                int i3 = jqmClient.enqueue("jqm-test-kill", "test");
+
+                addAndStartEngine();
+                TestHelpers.waitForRunning(1, 10000, cnx);
+                Thread.sleep(1000);
+                Assert.assertEquals(1, TestHelpers.getQueueRunningCount(cnx));
+
+                // The configuration snapshot of the node is refreshed on the short internal poller loop.
+                cnx.runUpdate("dp_update_threads_by_id", 3, dpId);
+                cnx.commit();
+                TestHelpers.waitForRunning(3, 5000, cnx);
+                Assert.assertEquals(3, TestHelpers.getQueueRunningCount(cnx));
+
+                jqmClient.killJob(i1);
+                jqmClient.killJob(i2);
+                jqmClient.killJob(i3);
+                TestHelpers.waitFor(3, 10000, cnx);
+        }
 }
@@ -1,11 +1,14 @@
 package com.enioka.jqm.integration.tests;
 
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.List;
 
 import com.enioka.admin.MetaService;
 import com.enioka.api.admin.JobDefDto;
 import com.enioka.api.admin.ScheduledJob;
 import com.enioka.jqm.client.api.JobDef;
+import com.enioka.jqm.client.api.JqmInvalidRequestException;
 import com.enioka.jqm.client.api.State;
 import com.enioka.jqm.test.helpers.CreationTools;
 import com.enioka.jqm.test.helpers.TestHelpers;
@@ -144,6 +147,46 @@ public class SchedulerTest extends JqmBaseTest
         Assert.assertTrue(jqmClient.newQuery().invoke().get(0).isFromSchedule());
     }
 
+    @Test
+    public void testEnqueueAllFromSchedules()
+    {
+        CreationTools.createJobDef(null, true, "pyl.EngineApiSendMsg", null, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip, 42,
+                "MarsuApplication", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+        int sj1 = jqmClient.newJobRequest("MarsuApplication", "test user").setRecurrence("0 0 1 1 *").addParameter("key1", "value1")
+                .enqueue();
+        int sj2 = jqmClient.newJobRequest("MarsuApplication", "test user").setRecurrence("0 0 1 1 *").addParameter("key1", "value2")
+                .enqueue();
+
+        // All or nothing.
+        try
+        {
+            jqmClient.enqueueAll(Arrays.asList(jqmClient.newJobRequest("", "cron").setScheduleId(sj1),
+                    jqmClient.newJobRequest("", "cron").setScheduleId(sj2 + 1000)));
+            Assert.fail("an invalid request should make the whole batch fail");
+        }
+        catch (JqmInvalidRequestException e)
+        {
+            // Expected.
+        }
+        Assert.assertEquals(0, TestHelpers.getQueueAllCount(cnx));
+
+        List<Integer> ids = jqmClient.enqueueAll(Arrays.asList(jqmClient.newJobRequest("", "cron").setScheduleId(sj1),
+                jqmClient.newJobRequest("", "cron").setScheduleId(sj2),
+                jqmClient.newJobRequest("MarsuApplication", "test user").addParameter("key1", "value3")));
+        Assert.assertEquals(3, ids.size());
+        Assert.assertEquals(3, TestHelpers.getQueueAllCount(cnx));
+
+        Assert.assertEquals("value1", jqmClient.getJob(ids.get(0)).getParameters().get("key1"));
+        Assert.assertTrue(jqmClient.getJob(ids.get(0)).isFromSchedule());
+        Assert.assertEquals("value2", jqmClient.getJob(ids.get(1)).getParameters().get("key1"));
+        Assert.assertEquals("value3", jqmClient.getJob(ids.get(2)).getParameters().get("key1"));
+        Assert.assertFalse(jqmClient.getJob(ids.get(2)).isFromSchedule());
+
+        addAndStartEngine();
+        TestHelpers.waitFor(3, 10000, cnx);
+        Assert.assertEquals(3, TestHelpers.getOkCount(cnx));
+    }
+
     @Test // Commented - waiting for one minute is long.
     public void testDelayedJob()
     {
@@ -170,6 +213,33 @@ public class SchedulerTest extends JqmBaseTest
         Assert.assertTrue(jqmClient.newQuery().invoke().get(0).getBeganRunningDate().after(runAt));
     }
 
+    @Test
+    public void testDelayedJobStartsSoonAfterDueDate()
+    {
+        CreationTools.createJobDef(null, true, "pyl.EngineApiSendMsg", null, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip, 42,
+                "MarsuApplication", null, "Franquin", "ModuleMachin", "other", "other", true, cnx);
+
+        Calendar runAt = Calendar.getInstance();
+        runAt.add(Calendar.MINUTE, 2);
+        int i = jqmClient.newJobRequest("MarsuApplication", "testuser").setRunAfter(runAt).enqueue();
+
+        // The request API has a one minute resolution, but not the date change API.
+        runAt = Calendar.getInstance();
+        runAt.add(Calendar.SECOND, 3);
+        jqmClient.setJobRunAfter(i, runAt);
+
+        addAndStartEngine();
+
+        // Should not run before its due date.
+        sleepms(1000);
+        Assert.assertEquals(State.SCHEDULED, jqmClient.newQuery().setQueryLiveInstances(true).invoke().get(0).getState());
+
+        // But soon after it - not on the next cron minute.
+        TestHelpers.waitFor(1, 10000, cnx);
+        Assert.assertEquals(1, TestHelpers.getOkCount(cnx));
+        Assert.assertFalse(jqmClient.newQuery().invoke().get(0).getBeganRunningDate().before(runAt));
+    }
+
     @Test
     public void testStartHeld()
     {
@@ -0,0 +1,184 @@
+package com.enioka.jqm.integration.tests;
+
+import java.sql.ResultSet;
+import java.util.Properties;
+
+import javax.naming.InitialContext;
+
+import com.enioka.jqm.jdbc.Db;
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.test.helpers.TestHelpers;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.apache.tomcat.jdbc.pool.PoolProperties;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The test datasources use the statement cache of the pool, so these tests create their own pools on the same database (HSQLDB by default,
+ * PostgreSQL or others with the DB environment variable).
+ */
+public class StatementCacheTest extends JqmBaseTest
+{
+    @Test
+    public void testStatementReuseAcrossSessions() throws Exception
+    {
+        DataSource ds = newPool(null, 1);
+        try
+        {
+            Db cachedDb = newDb(ds, 50);
+            long hits = cachedDb.getStatementCacheHits();
+            long misses = cachedDb.getStatementCacheMisses();
+
+            // A new session each time, like most engine operations: the statement is kept by the physical connection.
+            runQueries(cachedDb, 10);
+
+            Assert.assertEquals(1, cachedDb.getStatementCacheMisses() - misses);
+            Assert.assertEquals(9, cachedDb.getStatementCacheHits() - hits);
+        }
+        finally
+        {
+            ds.close(true);
+        }
+    }
+
+    @Test
+    public void testNestedResultSetsAreNotShared() throws Exception
+    {
+        DataSource ds = newPool(null, 1);
+        try (DbConn c = newDb(ds, 50).getConn())
+        {
+            int outer = 0, inner = 0;
+            for (int i = 0; i < 2; i++)
+            {
+                try (ResultSet rs1 = c.runSelect("q_select_all"))
+                {
+                    while (rs1.next())
+                    {
+                        outer++;
+                        // Same query while the first result set is still open: must not close it.
+                        try (ResultSet rs2 = c.runSelect("q_select_all"))
+                        {
+                            while (rs2.next())
+                            {
+                                inner++;
+                            }
+                        }
+                    }
+                }
+            }
+            Assert.assertEquals(18, outer);
+            Assert.assertEquals(162, inner);
+        }
+        finally
+        {
+            ds.close(true);
+        }
+    }
+
+    @Test
+    public void testPoolCacheIsUsedFirst() throws Exception
+    {
+        DataSource ds = newPool("StatementCache(max=50)", 1);
+        try
+        {
+            Db poolCachedDb = newDb(ds, 50);
+            runQueries(poolCachedDb, 10);
+
+            Assert.assertEquals(0, poolCachedDb.getStatementCacheHits());
+            Assert.assertEquals(0, poolCachedDb.getStatementCacheMisses());
+        }
+        finally
+        {
+            ds.close(true);
+        }
+    }
+
+    /**
+     * Not really a test - compares the time taken by the same query, run inside a new session each time, without statement cache, with the
+     * JQM statement cache and with the statement cache of the pool. Results are only logged.
+     */
+    @Test
+    public void benchmarkStatementCache() throws Exception
+    {
+        assumeBenchmarks();
+
+        DataSource noCacheDs = newPool(null, 5);
+        DataSource jqmCacheDs = newPool(null, 5);
+        DataSource poolCacheDs = newPool("StatementCache(max=500)", 5);
+        try
+        {
+            Db noCache = newDb(noCacheDs, 0);
+            Db jqmCache = newDb(jqmCacheDs, 50);
+            Db poolCache = newDb(poolCacheDs, 50);
+
+            int loops = 5000;
+            long[] res = new long[3];
+            for (int warmUp = 0; warmUp < 2; warmUp++)
+            {
+                res[0] = runQueries(noCache, loops);
+                res[1] = runQueries(jqmCache, loops);
+                res[2] = runQueries(poolCache, loops);
+            }
+
+            jqmlogger.info("Statement cache on {}: {} sessions in {} ms without cache, {} ms with the JQM cache ({} hits, {} misses), "
+                    + "{} ms with the pool cache", db.getProduct(), loops, res[0] / 1000000, res[1] / 1000000,
+                    jqmCache.getStatementCacheHits(), jqmCache.getStatementCacheMisses(), res[2] / 1000000);
+        }
+        finally
+        {
+            noCacheDs.close(true);
+            jqmCacheDs.close(true);
+            poolCacheDs.close(true);
+        }
+    }
+
+    private long runQueries(Db target, int loops)
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < loops; i++)
+        {
+            try (DbConn c = target.getConn())
+            {
+                Assert.assertEquals((Integer) 3, c.runSelectSingle("dp_select_count_for_node", Integer.class, TestHelpers.node.getId()));
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private Db newDb(DataSource ds, int statementCacheSize)
+    {
+        Properties p = new Properties();
+        p.setProperty("com.enioka.jqm.jdbc.statementCacheSize", "" + statementCacheSize);
+        return new Db(ds, p);
+    }
+
+    /**
+     * A pool on the test database, with the given interceptors instead of the ones of the test datasource. (which comes from another class
+     * loader, hence the reflection)
+     */
+    private DataSource newPool(String interceptors, int size) throws Exception
+    {
+        String dbName = System.getenv("DB");
+        Object testDs = InitialContext.doLookup("jdbc/" + (dbName == null ? "hsqldb" : dbName));
+        Object test = testDs.getClass().getMethod("getPoolProperties").invoke(testDs);
+
+        PoolProperties p = new PoolProperties();
+        p.setDriverClassName(getProperty(test, "getDriverClassName"));
+        p.setUrl(getProperty(test, "getUrl"));
+        p.setUsername(getProperty(test, "getUsername"));
+        p.setPassword(getProperty(test, "getPassword"));
+        p.setInitSQL(getProperty(test, "getInitSQL"));
+        p.setInitialSize(size);
+        p.setMaxActive(size);
+        p.setMaxIdle(size);
+        p.setMinIdle(size);
+        p.setJdbcInterceptors(interceptors);
+        return new DataSource(p);
+    }
+
+    private String getProperty(Object poolProperties, String getter) throws Exception
+    {
+        return (String) poolProperties.getClass().getMethod(getter).invoke(poolProperties);
+    }
+}
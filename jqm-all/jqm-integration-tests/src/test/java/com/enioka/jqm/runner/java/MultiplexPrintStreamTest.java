@@ -0,0 +1,567 @@
+package com.enioka.jqm.runner.java;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPInputStream;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests and throughput of the stdout/stderr multiplexing stream and of its asynchronous writer. Inside the runner package as they are
+ * not public.
+ */
+public class MultiplexPrintStreamTest
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(MultiplexPrintStreamTest.class);
+
+    private static final int THREADS = 8;
+    private static final int LINES_PER_THREAD = 50000;
+    private static final String LINE = "0123456789 the quick brown fox jumps over the lazy dog 0123456789 - line number ";
+
+    private File logDir = new File("./target/multiplex");
+
+    @Before
+    public void before() throws IOException
+    {
+        if (logDir.isDirectory())
+        {
+            FileUtils.cleanDirectory(logDir);
+        }
+    }
+
+    @Test
+    public void testOutputIsSeparatedByThread() throws Exception
+    {
+        ByteArrayOutputStream original = new ByteArrayOutputStream();
+        final MultiplexPrintStream mps = new MultiplexPrintStream(new PrintStream(original), logDir.getPath(), false);
+
+        List<Thread> threads = new ArrayList<>();
+        for (final String name : new String[] { "a", "b" })
+        {
+            threads.add(new Thread(() -> {
+                mps.registerThread(name + ".log");
+                mps.print(name + "1 ");
+                mps.println(2);
+                mps.printf("%s%d%n", name, 3);
+                byte[] bytes = ("é" + name + "4").getBytes(StandardCharsets.UTF_8); // Bytes are written as they are, whatever the charset.
+                mps.write(bytes, 0, bytes.length);
+                mps.write('\n');
+                mps.unregisterThread();
+                mps.println("after");
+            }));
+        }
+        for (Thread t : threads)
+        {
+            t.start();
+        }
+        for (Thread t : threads)
+        {
+            t.join();
+        }
+        mps.println("main");
+
+        String ls = System.lineSeparator();
+        Assert.assertEquals("a1 2" + ls + "a3" + ls + "éa4\n", readLog("a.log"));
+        Assert.assertEquals("b1 2" + ls + "b3" + ls + "éb4\n", readLog("b.log"));
+        Assert.assertEquals("after" + ls + "after" + ls + "main" + ls, original.toString(Charset.defaultCharset()));
+    }
+
+    @Test
+    public void testChildThreadsDoNotUseTheLogFile() throws Exception
+    {
+        ByteArrayOutputStream original = new ByteArrayOutputStream();
+        final MultiplexPrintStream mps = new MultiplexPrintStream(new PrintStream(original), logDir.getPath(), false);
+        final Thread[] child = new Thread[1];
+
+        Thread t = new Thread(() -> {
+            mps.registerThread("parent.log");
+            // Children may be shared threads living longer than the job instance: they must not keep its log file.
+            child[0] = new Thread(() -> mps.println("child"));
+            child[0].start();
+            try
+            {
+                child[0].join();
+            }
+            catch (InterruptedException e)
+            {
+                // Exit.
+            }
+            mps.println("parent");
+            mps.unregisterThread();
+        });
+        t.start();
+        t.join();
+
+        String ls = System.lineSeparator();
+        Assert.assertEquals("parent" + ls, readLog("parent.log"));
+        Assert.assertEquals("child" + ls, original.toString(Charset.defaultCharset()));
+    }
+
+    @Test
+    public void testOutputIsFlushedPeriodically() throws Exception
+    {
+        final MultiplexPrintStream mps = new MultiplexPrintStream(new PrintStream(new ByteArrayOutputStream()), logDir.getPath(), false);
+        final CountDownLatch written = new CountDownLatch(1);
+        final CountDownLatch checked = new CountDownLatch(1);
+
+        Thread t = new Thread(() -> {
+            mps.registerThread("flush.log");
+            mps.println("line");
+            written.countDown();
+            try
+            {
+                checked.await();
+            }
+            catch (InterruptedException e)
+            {
+                // Exit.
+            }
+            mps.unregisterThread();
+        });
+        t.start();
+
+        written.await();
+        Thread.sleep(MultiplexPrintStream.FLUSH_PERIOD_MS * 3);
+        Assert.assertEquals("line" + System.lineSeparator(), readLog("flush.log")); // while the job instance is still running.
+        checked.countDown();
+        t.join();
+    }
+
+    @Test
+    public void testAsyncOutputIsOrderedWhenBlocking() throws Exception
+    {
+        testAsyncOutputIsOrdered(AsyncLogWriter.Policy.BLOCK);
+    }
+
+    @Test
+    public void testAsyncOutputIsOrderedWhenSpilling() throws Exception
+    {
+        testAsyncOutputIsOrdered(AsyncLogWriter.Policy.SPILL);
+    }
+
+    private void testAsyncOutputIsOrdered(AsyncLogWriter.Policy policy) throws Exception
+    {
+        // Smallest possible buffer, so that it is full most of the time.
+        AsyncLogWriter writer = AsyncLogWriter.start(0, policy);
+        MultiplexPrintStream mps = new MultiplexPrintStream(new PrintStream(new ByteArrayOutputStream()), logDir.getPath(), false, writer,
+                false);
+        runBenchmark(mps, "async", 4, 20000);
+        writer.stop();
+
+        for (int i = 0; i < 4; i++)
+        {
+            List<String> lines = Files.readAllLines(new File(logDir, "async" + i + ".log").toPath(), Charset.defaultCharset());
+            Assert.assertEquals(20000, lines.size());
+            for (int j = 0; j < lines.size(); j++)
+            {
+                Assert.assertEquals(LINE + j, lines.get(j));
+            }
+        }
+        Assert.assertEquals(0, writer.getDroppedBytes());
+        Assert.assertEquals(0, writer.getBufferedBytes());
+    }
+
+    @Test
+    public void testAsyncOutputIsDroppedWhenFull() throws Exception
+    {
+        AsyncLogWriter writer = AsyncLogWriter.start(0, AsyncLogWriter.Policy.DROP);
+        MultiplexPrintStream mps = new MultiplexPrintStream(new PrintStream(new ByteArrayOutputStream()), logDir.getPath(), false, writer,
+                false);
+        runBenchmark(mps, "drop", 4, 20000);
+        writer.stop();
+
+        long expected = 0;
+        for (int j = 0; j < 20000; j++)
+        {
+            expected += (LINE + j + System.lineSeparator()).length();
+        }
+        long written = 0;
+        for (int i = 0; i < 4; i++)
+        {
+            written += new File(logDir, "drop" + i + ".log").length();
+        }
+        Assert.assertEquals(expected * 4, written + writer.getDroppedBytes());
+        Assert.assertEquals(written, writer.getWrittenBytes());
+    }
+
+    @Test
+    public void testAsyncCommonLogDoesNotBlockPayload() throws Exception
+    {
+        // A common log appender which hangs until released.
+        final CountDownLatch released = new CountDownLatch(1);
+        final List<String> appended = new ArrayList<>();
+        AppenderBase<ILoggingEvent> slow = new AppenderBase<ILoggingEvent>()
+        {
+            @Override
+            protected void append(ILoggingEvent e)
+            {
+                try
+                {
+                    released.await();
+                }
+                catch (InterruptedException x)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                appended.add(e.getThreadName() + "|" + e.getFormattedMessage());
+            }
+        };
+        slow.start();
+        ch.qos.logback.classic.Logger common = (ch.qos.logback.classic.Logger) LoggerFactory.getLogger("alljobslogger");
+        common.addAppender(slow);
+
+        AsyncLogWriter writer = AsyncLogWriter.start(1024 * 1024, AsyncLogWriter.Policy.BLOCK);
+        try
+        {
+            final MultiplexPrintStream mps = new MultiplexPrintStream(new PrintStream(new ByteArrayOutputStream()), logDir.getPath(), true,
+                    writer, false);
+            Thread t = new Thread(() -> {
+                mps.registerThread("common.log");
+                for (int i = 0; i < 100; i++)
+                {
+                    mps.println("line " + i);
+                }
+                mps.unregisterThread();
+            }, "payload");
+            t.start();
+            t.join(5000);
+            Assert.assertFalse(t.isAlive());
+            Assert.assertEquals(100, readLog("common.log").split(System.lineSeparator()).length);
+        }
+        finally
+        {
+            released.countDown();
+            writer.stop();
+            common.detachAppender(slow);
+        }
+
+        // Logged in order, under the name of the payload thread.
+        Assert.assertEquals(100, appended.size());
+        for (int i = 0; i < 100; i++)
+        {
+            Assert.assertEquals("payload|line " + i + System.lineSeparator(), appended.get(i));
+        }
+    }
+
+    @Test
+    public void testCompressedOutputIsReadable() throws Exception
+    {
+        MultiplexPrintStream mps = new MultiplexPrintStream(new PrintStream(new ByteArrayOutputStream()), logDir.getPath(), false, null,
+                true);
+        runBenchmark(mps, "sync", 2, 20000);
+        AsyncLogWriter writer = AsyncLogWriter.start(1024 * 1024, AsyncLogWriter.Policy.BLOCK);
+        mps = new MultiplexPrintStream(new PrintStream(new ByteArrayOutputStream()), logDir.getPath(), false, writer, true);
+        runBenchmark(mps, "async", 2, 20000);
+        writer.stop();
+
+        for (String prefix : new String[] { "sync", "async" })
+        {
+            for (int i = 0; i < 2; i++)
+            {
+                File f = new File(logDir, prefix + i + ".log.gz");
+                Assert.assertFalse(new File(logDir, prefix + i + ".log").exists());
+
+                List<String> lines = new ArrayList<>();
+                try (BufferedReader r = new BufferedReader(
+                        new InputStreamReader(new GZIPInputStream(new FileInputStream(f)), Charset.defaultCharset())))
+                {
+                    String line;
+                    while ((line = r.readLine()) != null)
+                    {
+                        lines.add(line);
+                    }
+                }
+                Assert.assertEquals(20000, lines.size());
+                for (int j = 0; j < lines.size(); j++)
+                {
+                    Assert.assertEquals(LINE + j, lines.get(j));
+                }
+                Assert.assertTrue(f.length() < (long) LINE.length() * 20000 / 5);
+            }
+        }
+    }
+
+    @Test
+    public void testCompressedOutputIsSmallWithPeriodicShortLines() throws Exception
+    {
+        // A batch writing a short log line from time to time: the periodic flusher sends each line alone to the file.
+        MultiplexPrintStream plain = new MultiplexPrintStream(new PrintStream(new ByteArrayOutputStream()), logDir.getPath(), false);
+        MultiplexPrintStream compressed = new MultiplexPrintStream(new PrintStream(new ByteArrayOutputStream()), logDir.getPath(), false,
+                null, true);
+        for (MultiplexPrintStream mps : new MultiplexPrintStream[] { plain, compressed })
+        {
+            Thread t = new Thread(() -> {
+                mps.registerThread("periodic.log");
+                for (int j = 0; j < 2000; j++)
+                {
+                    mps.printf("2026-10-18 12:%02d:%02d,%03d INFO  [main] com.company.billing.InvoiceBatch - invoice %06d processed in "
+                            + "%dms%n", j / 60 % 60, j % 60, j * 7 % 1000, j, j * 13 % 200);
+                    mps.flush();
+                }
+                mps.unregisterThread();
+            });
+            t.start();
+            t.join();
+        }
+
+        File plainFile = new File(logDir, "periodic.log");
+        File compressedFile = new File(logDir, "periodic.log.gz");
+        try (InputStream in = new GZIPInputStream(new FileInputStream(compressedFile)))
+        {
+            Assert.assertEquals(readLog("periodic.log"), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        jqmlogger.info("Periodic short lines: {} bytes, {} bytes compressed", plainFile.length(), compressedFile.length());
+        Assert.assertTrue(compressedFile.length() < plainFile.length() / 3);
+    }
+
+    @Test
+    public void testCompressedOutputIsReadableWhileWritten() throws Exception
+    {
+        final MultiplexPrintStream mps = new MultiplexPrintStream(new PrintStream(new ByteArrayOutputStream()), logDir.getPath(), false,
+                null, true);
+        final CountDownLatch written = new CountDownLatch(1);
+        final CountDownLatch checked = new CountDownLatch(1);
+
+        Thread t = new Thread(() -> {
+            mps.registerThread("running.log");
+            mps.println("line 1");
+            mps.flush();
+            mps.println("line 2");
+            mps.flush();
+            written.countDown();
+            try
+            {
+                checked.await();
+            }
+            catch (InterruptedException e)
+            {
+                // Exit.
+            }
+            mps.unregisterThread();
+        });
+        t.start();
+        written.await();
+
+        // The gzip stream is not terminated yet: everything flushed can be read, then the stream ends abruptly.
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new FileInputStream(new File(logDir, "running.log.gz"))))
+        {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) > 0)
+            {
+                content.write(buffer, 0, read);
+            }
+            Assert.fail("stream should not be terminated");
+        }
+        catch (EOFException e)
+        {
+            // Expected.
+        }
+        String ls = System.lineSeparator();
+        Assert.assertEquals("line 1" + ls + "line 2" + ls, content.toString(Charset.defaultCharset()));
+        checked.countDown();
+        t.join();
+    }
+
+    /**
+     * Not really a test - many threads print lines to their own log file, first with the previous implementation (one string and one
+     * flush per write, writers found by thread name), then with the current one. Results are only logged. Only runs with
+     * -Djqm.benchmarks=true.
+     */
+    @Test
+    public void benchmarkMultiplexPrintStream() throws Exception
+    {
+        Assume.assumeTrue(Boolean.getBoolean("jqm.benchmarks"));
+        PrintStream devNull = new PrintStream(OutputStream.nullOutputStream());
+
+        long legacy = runBenchmark(new LegacyMultiplexPrintStream(devNull, logDir.getPath()), "legacy", THREADS, LINES_PER_THREAD);
+        long current = runBenchmark(new MultiplexPrintStream(devNull, logDir.getPath(), false), "current", THREADS, LINES_PER_THREAD);
+        AsyncLogWriter writer = AsyncLogWriter.start(4 * 1024 * 1024, AsyncLogWriter.Policy.BLOCK);
+        long async = runBenchmark(new MultiplexPrintStream(devNull, logDir.getPath(), false, writer, false), "async", THREADS,
+                LINES_PER_THREAD);
+        writer.stop();
+
+        long lines = (long) THREADS * LINES_PER_THREAD;
+        jqmlogger.info("Legacy multiplexing stream: {} threads, {} lines in {}ms ({} lines/s)", THREADS, lines, legacy,
+                lines * 1000 / Math.max(1, legacy));
+        jqmlogger.info("Current multiplexing stream: {} threads, {} lines in {}ms ({} lines/s)", THREADS, lines, current,
+                lines * 1000 / Math.max(1, current));
+        jqmlogger.info("Asynchronous multiplexing stream: {} threads, {} lines in {}ms ({} lines/s), write latency avg {}us max {}us",
+                THREADS, lines, async, lines * 1000 / Math.max(1, async), writer.getAverageLatencyMicroseconds(),
+                writer.getMaxLatencyMicroseconds());
+
+        for (int i = 0; i < THREADS; i++)
+        {
+            Assert.assertEquals(new File(logDir, "legacy" + i + ".log").length(), new File(logDir, "current" + i + ".log").length());
+            Assert.assertEquals(new File(logDir, "legacy" + i + ".log").length(), new File(logDir, "async" + i + ".log").length());
+        }
+    }
+
+    private long runBenchmark(final PrintStream stream, final String prefix, int threadCount, int linesPerThread) throws Exception
+    {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++)
+        {
+            final String fileName = prefix + i + ".log";
+            Thread t = new Thread(() -> {
+                register(stream, fileName);
+                try
+                {
+                    start.await();
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                for (int j = 0; j < linesPerThread; j++)
+                {
+                    stream.println(LINE + j);
+                }
+                unregister(stream);
+            });
+            t.start();
+            threads.add(t);
+        }
+
+        long before = System.nanoTime();
+        start.countDown();
+        for (Thread t : threads)
+        {
+            t.join();
+        }
+        return (System.nanoTime() - before) / 1000000;
+    }
+
+    private static void register(PrintStream stream, String fileName)
+    {
+        if (stream instanceof MultiplexPrintStream)
+        {
+            ((MultiplexPrintStream) stream).registerThread(fileName);
+        }
+        else
+        {
+            ((LegacyMultiplexPrintStream) stream).registerThread(fileName);
+        }
+    }
+
+    private static void unregister(PrintStream stream)
+    {
+        if (stream instanceof MultiplexPrintStream)
+        {
+            ((MultiplexPrintStream) stream).unregisterThread();
+        }
+        else
+        {
+            ((LegacyMultiplexPrintStream) stream).unregisterThread();
+        }
+    }
+
+    private String readLog(String fileName) throws IOException
+    {
+        return new String(Files.readAllBytes(new File(logDir, fileName).toPath()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The write path of the previous implementation, for comparison only.
+     */
+    private static class LegacyMultiplexPrintStream extends PrintStream
+    {
+        private Map<String, BufferedWriter> writers = new HashMap<>();
+        private String rootLogDir;
+
+        LegacyMultiplexPrintStream(OutputStream out, String rootLogDir)
+        {
+            super(out);
+            this.rootLogDir = rootLogDir;
+        }
+
+        void registerThread(String fileName)
+        {
+            try
+            {
+                BufferedWriter w = new BufferedWriter(new FileWriter(FilenameUtils.concat(rootLogDir, fileName), true));
+                synchronized (this)
+                {
+                    // The original was not even synchronized.
+                    writers.put(Thread.currentThread().getName(), w);
+                }
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+
+        void unregisterThread()
+        {
+            try
+            {
+                writers.get(Thread.currentThread().getName()).close();
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private void write(String s, boolean newLine)
+        {
+            BufferedWriter textOut = writers.get(Thread.currentThread().getName());
+            try
+            {
+                textOut.write(s);
+                if (newLine)
+                {
+                    textOut.newLine();
+                }
+                textOut.flush();
+            }
+            catch (IOException x)
+            {
+                // Ignored, as in the original.
+            }
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len)
+        {
+            write(new String(buf, off, len), false);
+        }
+
+        @Override
+        public void println(String x)
+        {
+            write(String.valueOf(x), true);
+        }
+    }
+}
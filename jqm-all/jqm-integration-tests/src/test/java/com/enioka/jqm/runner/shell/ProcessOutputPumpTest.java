@@ -0,0 +1,81 @@
+package com.enioka.jqm.runner.shell;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the copy of the process outputs. Inside the runner package as the pump is not public.
+ */
+public class ProcessOutputPumpTest
+{
+    @Before
+    public void before()
+    {
+        Assume.assumeFalse(System.getProperty("os.name").toLowerCase().startsWith("win"));
+    }
+
+    @Test
+    public void testOutputsAreCopiedAsTheyAre() throws Exception
+    {
+        // A line far longer than the copy chunks, without end of line, and many processes for few pump threads.
+        int processCount = 20;
+        int lineLength = 3 * ProcessOutputPump.CHUNK_SIZE + 17;
+
+        List<Process> processes = new ArrayList<>();
+        List<Waiter> waiters = new ArrayList<>();
+        List<ByteArrayOutputStream> outs = new ArrayList<>();
+        List<ByteArrayOutputStream> errs = new ArrayList<>();
+        for (int i = 0; i < processCount; i++)
+        {
+            Process p = new ProcessBuilder("/bin/sh", "-c",
+                    "sleep 0.2; head -c " + lineLength + " /dev/zero | tr '\\0' 'a'; echo err" + i + " >&2; printf '\\303\\251'").start();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            processes.add(p);
+            outs.add(out);
+            errs.add(err);
+            waiters.add(ProcessOutputPump.plumbProcess(p, out, err));
+        }
+
+        for (int i = 0; i < processCount; i++)
+        {
+            Assert.assertEquals(0, processes.get(i).waitFor());
+            waiters.get(i).waitForEnd();
+
+            byte[] out = outs.get(i).toByteArray();
+            Assert.assertEquals(lineLength + 2, out.length); // \303\251 is "é" in UTF-8: bytes are not decoded.
+            Assert.assertEquals('a', out[lineLength - 1]);
+            Assert.assertEquals((byte) 0xC3, out[lineLength]);
+            Assert.assertEquals("err" + i + "\n", errs.get(i).toString());
+        }
+    }
+
+    @Test
+    public void testSilentProcessDoesNotBlockOthers() throws Exception
+    {
+        Process silent = new ProcessBuilder("/bin/sh", "-c", "sleep 3").start();
+        Waiter silentWaiter = ProcessOutputPump.plumbProcess(silent, new ByteArrayOutputStream(), new ByteArrayOutputStream());
+
+        // Even if the silent process is handled by the same pump thread.
+        for (int i = 0; i < 4; i++)
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Process p = new ProcessBuilder("/bin/sh", "-c", "echo hello").start();
+            Waiter w = ProcessOutputPump.plumbProcess(p, out, new ByteArrayOutputStream());
+            Assert.assertEquals(0, p.waitFor());
+            w.waitForEnd();
+            Assert.assertEquals("hello\n", out.toString());
+        }
+        Assert.assertTrue(silent.isAlive());
+
+        silent.destroy();
+        silent.waitFor();
+        silentWaiter.waitForEnd();
+    }
+}
@@ -10,6 +10,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.naming.InitialContext;
 import javax.naming.NameNotFoundException;
@@ -31,18 +33,25 @@ public class Db
     /**
      * The version of the schema as it described in the current Maven artifact
      */
-    private static final int SCHEMA_VERSION = 1;
+    private static final int SCHEMA_VERSION = 8;
 
     /**
      * The SCHEMA_VERSION version is backward compatible until this version
      */
-    private static final int SCHEMA_COMPATIBLE_VERSION = 1;
+    private static final int SCHEMA_COMPATIBLE_VERSION = 8;
 
     private DataSource _ds = null;
     private DbAdapter adapter = null;
     private String product;
     private Properties p = null;
 
+    private volatile QueryTracer queryTracer = null;
+
+    private int statementCacheSize = 0;
+    private Map<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+    private LongAdder statementCacheHits = new LongAdder();
+    private LongAdder statementCacheMisses = new LongAdder();
+
     /**
      * Connects to the database by retrieving a DataDource from JNDI (with every parameter set to default, including the JNDI alias for the
      * DataSource being jdbc/jqm).
@@ -61,13 +70,33 @@ public class Db
      *            set to true if the database schema should upgrade (if needed) during initialization
      */
     public Db(DataSource ds, boolean updateSchema)
+    {
+        this(ds, schemaUpdateProperties(updateSchema));
+    }
+
+    /**
+     * Constructor for cases when a DataSource is readily available (and not retrieved through JNDI), with the same properties as
+     * {@link #Db(Properties)} (JNDI related properties are ignored).
+     *
+     * @param ds
+     *                       the existing DataSource.
+     * @param properties
+     *                       may be null.
+     */
+    public Db(DataSource ds, Properties properties)
     {
         this._ds = ds;
-        this.p = new Properties();
-        this.p.setProperty("com.enioka.jqm.jdbc.allowSchemaUpdate", updateSchema + "");
+        this.p = properties != null ? properties : new Properties();
         initAdapterAndSchema(this.p);
     }
 
+    private static Properties schemaUpdateProperties(boolean updateSchema)
+    {
+        Properties res = new Properties();
+        res.setProperty("com.enioka.jqm.jdbc.allowSchemaUpdate", updateSchema + "");
+        return res;
+    }
+
     /**
      * Main constructor. Properties may be null. Properties are not documented on purpose, as this is a private JQM API.
      *
@@ -206,6 +235,7 @@ public class Db
     {
         // Select a DB adapter
         initAdapter(p);
+        initStatementCache(p);
 
         // Adapt and cache all JQM SQL queries with the selected DB adapter.
         initQueries();
@@ -421,6 +451,95 @@ public class Db
         }
     }
 
+    /**
+     * Sets the size of the prepared statement cache of each physical connection. The cache is disabled when the pool already caches
+     * statements (Tomcat pool with a StatementCache interceptor).
+     */
+    private void initStatementCache(Properties p)
+    {
+        statementCacheSize = Integer.parseInt(p.getProperty("com.enioka.jqm.jdbc.statementCacheSize", "50"));
+
+        try
+        {
+            Method m = _ds.getClass().getMethod("getJdbcInterceptors");
+            Object interceptors = m.invoke(_ds);
+            if (interceptors != null && interceptors.toString().contains("StatementCache"))
+            {
+                jqmlogger.info("Connection pool caches prepared statements - JQM statement cache is disabled");
+                statementCacheSize = 0;
+            }
+        }
+        catch (NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e)
+        {
+            // Not a Tomcat pool - use our own cache.
+        }
+
+        jqmlogger.debug("Statement cache size is {} per connection", statementCacheSize);
+    }
+
+    /**
+     * The statement cache of the physical connection behind a connection given by the pool. Caches of connections closed by the pool are
+     * dropped when a new physical connection is met.
+     *
+     * @return null if the cache is disabled or if the physical connection cannot be reached.
+     */
+    StatementCache getStatementCache(Connection pooled)
+    {
+        if (statementCacheSize <= 0)
+        {
+            return null;
+        }
+
+        Connection physical;
+        try
+        {
+            physical = pooled.unwrap(Connection.class);
+        }
+        catch (SQLException e)
+        {
+            return null;
+        }
+        if (physical == null)
+        {
+            return null;
+        }
+
+        StatementCache res = statementCaches.get(physical);
+        if (res == null)
+        {
+            statementCaches.values().removeIf(c -> DbHelper.isClosed(c.getConnection()));
+            res = new StatementCache(physical, statementCacheSize);
+            statementCaches.put(physical, res);
+        }
+        return res;
+    }
+
+    void statementCacheHit()
+    {
+        this.statementCacheHits.increment();
+    }
+
+    void statementCacheMiss()
+    {
+        this.statementCacheMisses.increment();
+    }
+
+    /**
+     * Number of statements which were taken from the statement cache instead of being prepared again, since startup.
+     */
+    public long getStatementCacheHits()
+    {
+        return this.statementCacheHits.sum();
+    }
+
+    /**
+     * Number of statements which had to be prepared while the statement cache is enabled, since startup.
+     */
+    public long getStatementCacheMisses()
+    {
+        return this.statementCacheMisses.sum();
+    }
+
     /**
      * Create the query cache (with db-specific queries)
      */
@@ -485,6 +604,19 @@ public class Db
         return this.adapter;
     }
 
+    /**
+     * Sets the hook called after each query run by the sessions of this database. Null (the default) disables tracing.
+     */
+    public void setQueryTracer(QueryTracer tracer)
+    {
+        this.queryTracer = tracer;
+    }
+
+    public QueryTracer getQueryTracer()
+    {
+        return this.queryTracer;
+    }
+
     public String getProduct()
     {
         return this.product;
@@ -5,6 +5,7 @@ import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -24,6 +25,11 @@ public abstract class DbAdapter
 {
     protected String[] IDS = new String[] { "ID" };
 
+    /**
+     * Number of queues polled by a single ji_select_poll_multi query. See {@link #prepareMultiQueuePoll()}.
+     */
+    protected static final int MULTI_POLL_QUEUES = 10;
+
     /**
      * Query cache.
      */
@@ -143,7 +149,8 @@ public abstract class DbAdapter
      * method allows to fully change the polling method. <br>
      * <br>
      * Default implementation uses the ji_select_poll SQL template query and does retrieve the whole queue without using headSize, so is a
-     * performance waste.
+     * performance waste. All adapters shipped with JQM override it with a bounded version (the query is pre-paginated inside
+     * {@link #prepare(Properties, Connection)}).
      *
      * @param cnx
      *                     a session without active TX.
@@ -155,6 +162,190 @@ public abstract class DbAdapter
      */
     public List<JobInstance> poll(DbConn cnx, Queue queue, int headSize)
     {
-        return JobInstance.select(cnx, "ji_select_poll", queue.getId());
+        return selectHead(cnx, "ji_select_poll", queue);
+    }
+
+    /**
+     * Runs a queue head query, taking into account the priority aging of the queue: if the queue has one (see
+     * {@link Queue#getPriorityAging()}) and the adapter has an aged version of the query (same key with an <code>_aged</code> suffix, which
+     * takes the aging as its second parameter), it is used instead of the strict priority version.
+     *
+     * @param cnx
+     *                     the session to use.
+     * @param queryKey
+     *                     the strict version of the query, which takes the queue ID as its first parameter.
+     * @param queue
+     *                     the queue being polled
+     * @param prms
+     *                     the other parameters of the query (usually the head size).
+     * @return a list of JI, or an empty list. Never null.
+     */
+    protected List<JobInstance> selectHead(DbConn cnx, String queryKey, Queue queue, Object... prms)
+    {
+        List<Object> all = new ArrayList<>(prms.length + 2);
+        all.add(queue.getId());
+        if (isAged(queue, queryKey))
+        {
+            queryKey = queryKey + "_aged";
+            all.add(queue.getPriorityAging());
+        }
+        Collections.addAll(all, prms);
+        return JobInstance.select(cnx, queryKey, all.toArray());
+    }
+
+    private boolean isAged(Queue queue, String queryKey)
+    {
+        return queue.getPriorityAging() > 0 && queries.containsKey(queryKey + "_aged");
+    }
+
+    /**
+     * Polls several queues at once. Used by the cross-queue scheduler, which polls all the queues of a node in a single loop.<br>
+     * <br>
+     * Default implementation uses the ji_select_poll_multi query (i.e. one round trip for {@link #MULTI_POLL_QUEUES} queues) if the adapter
+     * has created it with {@link #prepareMultiQueuePoll()}, and calls {@link #poll(DbConn, Queue, int)} once per queue otherwise (and for
+     * queues with priority aging).
+     *
+     * @param cnx
+     *                      a session without active TX.
+     * @param headSizes
+     *                      the queues to poll, with for each the upper estimate of how many JI can be taken from it.
+     * @return the heads of the queues, each sorted like the result of {@link #poll(DbConn, Queue, int)}. Never null.
+     */
+    public Map<Integer, List<JobInstance>> pollQueues(DbConn cnx, Map<Queue, Integer> headSizes)
+    {
+        Map<Integer, List<JobInstance>> res = new HashMap<>();
+        Map<Integer, List<JobInstance>> multi = new HashMap<>();
+        Map<Queue, Integer> strict = new HashMap<>();
+        for (Map.Entry<Queue, Integer> e : headSizes.entrySet())
+        {
+            // The branches of the multi poll all use the strict priority order.
+            if (!queries.containsKey("ji_select_poll_multi") || isAged(e.getKey(), "ji_select_poll"))
+            {
+                res.put(e.getKey().getId(), poll(cnx, e.getKey(), e.getValue()));
+            }
+            else
+            {
+                strict.put(e.getKey(), e.getValue());
+            }
+        }
+
+        List<Object> prms = new ArrayList<>(2 * MULTI_POLL_QUEUES);
+        int i = 0;
+        for (Map.Entry<Queue, Integer> e : strict.entrySet())
+        {
+            multi.put(e.getKey().getId(), new ArrayList<>());
+            prms.add(e.getKey().getId());
+            prms.add(e.getValue());
+
+            if (++i == strict.size() || prms.size() == 2 * MULTI_POLL_QUEUES)
+            {
+                // Unused branches poll a queue which does not exist.
+                while (prms.size() < 2 * MULTI_POLL_QUEUES)
+                {
+                    prms.add(-1);
+                    prms.add(1);
+                }
+                for (JobInstance ji : JobInstance.select(cnx, "ji_select_poll_multi", prms.toArray()))
+                {
+                    multi.get(ji.getQueue()).add(ji);
+                }
+                prms.clear();
+            }
+        }
+
+        // UNION ALL does not guarantee the order of the branches.
+        for (List<JobInstance> head : multi.values())
+        {
+            head.sort((a, b) -> a.getPriority().equals(b.getPriority()) ? Double.compare(a.getInternalPosition(), b.getInternalPosition())
+                    : b.getPriority().compareTo(a.getPriority()));
+        }
+        res.putAll(multi);
+        return res;
+    }
+
+    /**
+     * Creates the ji_select_poll_multi query used by {@link #pollQueues(DbConn, Map)}, as a UNION ALL of {@link #MULTI_POLL_QUEUES} times the
+     * ji_select_poll query. To be called at the end of {@link #prepare(Properties, Connection)} by adapters whose ji_select_poll query is
+     * bounded and takes the queue ID and the head size as its only parameters.
+     */
+    protected void prepareMultiQueuePoll()
+    {
+        String branch = "(" + queries.get("ji_select_poll") + ")";
+        queries.put("ji_select_poll_multi", String.join(" UNION ALL ", Collections.nCopies(MULTI_POLL_QUEUES, branch)));
+    }
+
+    /**
+     * Tells if this adapter implements {@link #pollAndLock(DbConn, Queue, int)} on the database it is connected to. Default is false.
+     *
+     * @return true if the claim polling mode can be used.
+     */
+    public boolean supportsPollAndLock()
+    {
+        return false;
+    }
+
+    /**
+     * The claim polling method. Like {@link #poll(DbConn, Queue, int)} it returns the queue head, but the returned rows are also locked inside
+     * the current transaction of the session and rows already locked by other sessions (i.e. other nodes polling the same queue) are
+     * skipped instead of waited for. The locks are released by the next commit or rollback of the session.<br>
+     * <br>
+     * Default implementation throws {@link UnsupportedOperationException}. Only called when {@link #supportsPollAndLock()} returns true.
+     *
+     * @param cnx
+     *                     a session without active TX.
+     * @param queue
+     *                     the queue being polled
+     * @param headSize
+     *                     upper estimate of how many slots are available - i.e. max JI which can be taken from the queue.
+     * @return a list of locked JI, or an empty list. Never null.
+     */
+    public List<JobInstance> pollAndLock(DbConn cnx, Queue queue, int headSize)
+    {
+        throw new UnsupportedOperationException("this database adapter does not support locked polling");
+    }
+
+    /**
+     * Tells if this adapter has a native (i.e. not based on the QUEUE_SIGNAL table) cross-node queue signal channel. Default is false.
+     *
+     * @return true if {@link #publishNativeQueueSignal(DbConn, int)} and {@link #openNativeQueueSignalReceiver(DbConn)} can be used.
+     */
+    public boolean supportsNativeQueueSignals()
+    {
+        return false;
+    }
+
+    /**
+     * Tells the other nodes that new job instances may be available on a queue. The signal must only be sent when the current transaction of
+     * the session is committed. Default implementation throws {@link UnsupportedOperationException}.
+     *
+     * @param cnx
+     *                    a session with an active TX.
+     * @param queueId
+     *                    the queue on which job instances were made available.
+     */
+    public void publishNativeQueueSignal(DbConn cnx, int queueId)
+    {
+        throw new UnsupportedOperationException("this database adapter does not support native queue signals");
+    }
+
+    /**
+     * Starts listening to the signals sent by {@link #publishNativeQueueSignal(DbConn, int)}. Default implementation throws
+     * {@link UnsupportedOperationException}.
+     *
+     * @param cnx
+     *                a session dedicated to the receiver. It is closed by the receiver.
+     * @return a ready to use receiver.
+     */
+    public QueueSignalReceiver openNativeQueueSignalReceiver(DbConn cnx)
+    {
+        throw new UnsupportedOperationException("this database adapter does not support native queue signals");
+    }
+
+    /**
+     * Gives access to the JDBC connection behind a session, for adapters which need driver-specific APIs. Do not close it.
+     */
+    protected Connection getJdbcConnection(DbConn cnx)
+    {
+        return cnx._cnx;
     }
 }
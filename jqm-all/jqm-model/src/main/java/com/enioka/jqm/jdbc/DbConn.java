@@ -41,11 +41,14 @@ public class DbConn implements Closeable
     private boolean transac_open = false;
     private boolean rollbackOnly = false;
     private List<Statement> toClose = new ArrayList<>();
+    private StatementCache statementCache;
+    private List<ResultSet> cachedResults = new ArrayList<>();
 
     DbConn(Db parent, Connection cnx)
     {
         this.parent = parent;
         this._cnx = cnx;
+        this.statementCache = parent.getStatementCache(cnx);
     }
 
     public void commit()
@@ -99,8 +102,11 @@ public class DbConn implements Closeable
     public QueryResult runUpdate(String query_key, Object... params)
     {
         transac_open = true;
+        QueryTracer tracer = parent.getQueryTracer();
+        long start = tracer == null ? 0 : System.nanoTime();
         QueryPreparation qp = adapterPreparation(query_key, false, params);
-        try (PreparedStatement ps = prepare(qp))
+        PreparedStatement ps = prepare(qp);
+        try
         {
             QueryResult qr = new QueryResult();
             qr.nbUpdated = ps.executeUpdate();
@@ -123,13 +129,113 @@ public class DbConn implements Closeable
                 }
             }
 
-            jqmlogger.debug("Updated rows: {}. Key: {}. Generated ID: {}", qr.nbUpdated, query_key, qr.generatedKey);
+            if (tracer != null)
+            {
+                tracer.queryExecuted(query_key, System.nanoTime() - start, qr.nbUpdated, qp.parameters.size());
+            }
+            if (jqmlogger.isDebugEnabled())
+            {
+                jqmlogger.debug("Updated rows: {}. Key: {}. Generated ID: {}", qr.nbUpdated, query_key, qr.generatedKey);
+            }
             return qr;
         }
         catch (SQLException e)
         {
+            if (qp.cacheKey != null)
+            {
+                statementCache.remove(qp.cacheKey);
+            }
             throw new DatabaseException(qp.sqlText, e);
         }
+        finally
+        {
+            if (qp.cacheKey == null)
+            {
+                closeQuietly(ps);
+            }
+        }
+    }
+
+    /**
+     * Runs the same update query for each given parameter set, using JDBC batches. No generated keys are retrieved. The transaction is
+     * not committed.
+     *
+     * @param query_key
+     *                       the key of the query to run.
+     * @param paramSets
+     *                       one parameter array per execution.
+     * @return the number of updated rows (may be an estimate on drivers which do not report per-row counts in batches).
+     */
+    public int runBatchUpdate(String query_key, List<Object[]> paramSets)
+    {
+        if (paramSets.isEmpty())
+        {
+            return 0;
+        }
+        transac_open = true;
+        QueryTracer tracer = parent.getQueryTracer();
+        long start = tracer == null ? 0 : System.nanoTime();
+
+        PreparedStatement ps = null;
+        String sqlText = null;
+        int res = 0, binds = 0;
+        try
+        {
+            for (Object[] params : paramSets)
+            {
+                QueryPreparation qp = adapterPreparation(query_key, false, params);
+                if (sqlText != null && !sqlText.equals(qp.sqlText))
+                {
+                    // The adapter has rewritten the query differently (list parameters...): cannot be inside the same batch.
+                    res += executeBatch(ps);
+                    closeQuietly(ps);
+                    ps = null;
+                }
+                if (ps == null)
+                {
+                    sqlText = qp.sqlText;
+                    if (jqmlogger.isDebugEnabled())
+                    {
+                        jqmlogger.debug("Running batch {} : {} with {} parameter sets.", query_key, sqlText, paramSets.size());
+                    }
+                    ps = _cnx.prepareStatement(sqlText);
+                }
+
+                int i = 0;
+                for (Object prm : qp.parameters)
+                {
+                    addParameter(prm, ++i, ps);
+                }
+                binds += i;
+                ps.addBatch();
+            }
+            res += executeBatch(ps);
+
+            if (tracer != null)
+            {
+                tracer.queryExecuted(query_key, System.nanoTime() - start, res, binds);
+            }
+            return res;
+        }
+        catch (SQLException e)
+        {
+            throw new DatabaseException(sqlText, e);
+        }
+        finally
+        {
+            closeQuietly(ps);
+        }
+    }
+
+    private int executeBatch(PreparedStatement ps) throws SQLException
+    {
+        int res = 0;
+        for (int count : ps.executeBatch())
+        {
+            // SUCCESS_NO_INFO is negative - count it as a single row.
+            res += count >= 0 ? count : 1;
+        }
+        return res;
     }
 
     void runRawUpdate(String query_sql)
@@ -154,6 +260,8 @@ public class DbConn implements Closeable
 
     public ResultSet runRawSelect(String rawQuery, Object... params)
     {
+        QueryTracer tracer = parent.getQueryTracer();
+        long start = tracer == null ? 0 : System.nanoTime();
         PreparedStatement ps = null;
         QueryPreparation q = new QueryPreparation();
         q.parameters = new ArrayList<>(Arrays.asList(params));
@@ -162,17 +270,10 @@ public class DbConn implements Closeable
 
         try
         {
-            jqmlogger.debug("Running raw SQL query: {}", q.sqlText);
-            for (Object o : params)
+            if (jqmlogger.isDebugEnabled())
             {
-                if (o == null)
-                {
-                    jqmlogger.debug("     null");
-                }
-                else
-                {
-                    jqmlogger.debug("     {} - {}", o.toString(), o.getClass());
-                }
+                jqmlogger.debug("Running raw SQL query: {}", q.sqlText);
+                logParameters(params);
             }
 
             ps = _cnx.prepareStatement(q.sqlText, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
@@ -183,7 +284,12 @@ public class DbConn implements Closeable
                 addParameter(prm, ++i, ps);
             }
 
-            return ps.executeQuery();
+            ResultSet rs = ps.executeQuery();
+            if (tracer != null)
+            {
+                tracer.queryExecuted("raw", System.nanoTime() - start, -1, q.parameters.size());
+            }
+            return rs;
         }
         catch (SQLException e)
         {
@@ -202,20 +308,45 @@ public class DbConn implements Closeable
 
     public ResultSet runSelect(boolean for_update, String query_key, Object... params)
     {
+        return runSelect(adapterPreparation(query_key, for_update, params));
+    }
+
+    private ResultSet runSelect(QueryPreparation qp)
+    {
+        QueryTracer tracer = parent.getQueryTracer();
+        long start = tracer == null ? 0 : System.nanoTime();
         PreparedStatement ps = null;
-        QueryPreparation qp = adapterPreparation(query_key, for_update, params);
+        boolean for_update = qp.forUpdate;
+        String query_key = qp.queryKey;
         try
         {
             ps = prepare(qp);
-            toClose.add(ps);
+            if (qp.cacheKey == null)
+            {
+                toClose.add(ps);
+            }
             if (for_update)
             {
                 transac_open = true;
             }
-            return ps.executeQuery();
+            ResultSet rs = ps.executeQuery();
+            if (qp.cacheKey != null)
+            {
+                statementCache.setResult(qp.cacheKey, rs);
+                cachedResults.add(rs);
+            }
+            if (tracer != null)
+            {
+                tracer.queryExecuted(query_key, System.nanoTime() - start, -1, qp.parameters.size());
+            }
+            return rs;
         }
         catch (SQLException e)
         {
+            if (qp.cacheKey != null)
+            {
+                statementCache.remove(qp.cacheKey);
+            }
             throw new DatabaseException(qp.sqlText, e);
         }
         finally
@@ -327,11 +458,27 @@ public class DbConn implements Closeable
         return runSelectColumn(query_key, 1, clazz, params);
     }
 
-    @SuppressWarnings("unchecked")
     public <T> List<T> runSelectColumn(String query_key, int column, Class<T> clazz, Object... params)
+    {
+        return readColumn(runSelect(query_key, params), column, clazz);
+    }
+
+    /**
+     * Same as {@link #runSelectColumn(String, Class, Object...)}, but only returns the rows [start, stopBefore[ of the result, using the
+     * pagination of the database. The query should be sorted.
+     */
+    public <T> List<T> runSelectColumnPage(String query_key, int start, int stopBefore, Class<T> clazz, Object... params)
+    {
+        QueryPreparation qp = adapterPreparation(query_key, false, params);
+        qp.sqlText = this.parent.getAdapter().paginateQuery(qp.sqlText, start, stopBefore, qp.parameters);
+        return readColumn(runSelect(qp), 1, clazz);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> List<T> readColumn(ResultSet resultSet, int column, Class<T> clazz)
     {
         ArrayList<T> resList = new ArrayList<>();
-        try (ResultSet rs = runSelect(query_key, params))
+        try (ResultSet rs = resultSet)
         {
             if (rs.getMetaData().getColumnCount() < column)
             {
@@ -400,6 +547,20 @@ public class DbConn implements Closeable
         }
         toClose.clear();
 
+        // Cached statements stay open with the physical connection - only their results are closed.
+        for (ResultSet rs : cachedResults)
+        {
+            try
+            {
+                rs.close();
+            }
+            catch (SQLException e)
+            {
+                // Ignore.
+            }
+        }
+        cachedResults.clear();
+
         closeQuietly(_cnx);
         _cnx = null;
     }
@@ -461,29 +622,46 @@ public class DbConn implements Closeable
             throw new DatabaseException("unknown query key");
         }
 
-        // Debug
-        jqmlogger.debug("Running {} : {} with {} parameters.", q.queryKey, q.sqlText, q.parameters.size());
-        for (Object o : q.parameters)
+        // Debug - guarded, as this is the hottest path of the engine. Use a QueryTracer for metrics.
+        if (jqmlogger.isDebugEnabled())
         {
-            if (o == null)
-            {
-                jqmlogger.debug("      null");
-            }
-            else
-            {
-                jqmlogger.debug("      {} - {}", o.toString(), o.getClass());
-            }
+            jqmlogger.debug("Running {} : {} with {} parameters.", q.queryKey, q.sqlText, q.parameters.size());
+            logParameters(q.parameters.toArray());
         }
 
         try
         {
-            if (q.forUpdate)
+            // Reuse the statement if it was already prepared on this physical connection. Raw queries are never cached.
+            String cacheKey = statementCache == null || q.queryKey == null ? null : StatementCache.key(q.queryKey, q.forUpdate);
+            Connection target = _cnx;
+            if (cacheKey != null)
             {
-                ps = _cnx.prepareStatement(q.sqlText, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE);
+                ps = statementCache.get(cacheKey, q.sqlText);
+                if (ps != null)
+                {
+                    parent.statementCacheHit();
+                    q.cacheKey = cacheKey;
+                }
+                else
+                {
+                    parent.statementCacheMiss();
+                    target = statementCache.getConnection();
+                }
             }
-            else
+
+            if (ps == null && q.forUpdate)
             {
-                ps = _cnx.prepareStatement(q.sqlText, this.parent.getAdapter().keyRetrievalColumn());
+                ps = target.prepareStatement(q.sqlText, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE);
+            }
+            else if (ps == null)
+            {
+                ps = target.prepareStatement(q.sqlText, this.parent.getAdapter().keyRetrievalColumn());
+            }
+
+            // If not cached (same statement still in use), the statement is closed like any other by the caller.
+            if (cacheKey != null && q.cacheKey == null && statementCache.put(cacheKey, q.sqlText, ps, toClose))
+            {
+                q.cacheKey = cacheKey;
             }
         }
         catch (SQLException e)
@@ -501,6 +679,21 @@ public class DbConn implements Closeable
         return ps;
     }
 
+    private void logParameters(Object[] params)
+    {
+        for (Object o : params)
+        {
+            if (o == null)
+            {
+                jqmlogger.debug("      null");
+            }
+            else
+            {
+                jqmlogger.debug("      {} - {}", o.toString(), o.getClass());
+            }
+        }
+    }
+
     private void addParameter(Object value, int position, PreparedStatement s)
     {
         // TODO: cache meta call and use setObject.
@@ -598,4 +791,31 @@ public class DbConn implements Closeable
     {
         return this.parent.getAdapter().poll(this, queue, nbSlots);
     }
+
+    /**
+     * See {@link DbAdapter#pollQueues(DbConn, Map)}.
+     */
+    public Map<Integer, List<JobInstance>> pollQueues(Map<Queue, Integer> headSizes)
+    {
+        return this.parent.getAdapter().pollQueues(this, headSizes);
+    }
+
+    DbAdapter getAdapter()
+    {
+        return this.parent.getAdapter();
+    }
+
+    public boolean canPollAndLock()
+    {
+        return this.parent.getAdapter().supportsPollAndLock();
+    }
+
+    /**
+     * See {@link DbAdapter#pollAndLock(DbConn, Queue, int)}. The locks are held until the next commit or rollback.
+     */
+    public List<JobInstance> pollAndLock(Queue queue, int nbSlots)
+    {
+        transac_open = true;
+        return this.parent.getAdapter().pollAndLock(this, queue, nbSlots);
+    }
 }
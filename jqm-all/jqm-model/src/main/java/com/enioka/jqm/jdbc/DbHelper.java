@@ -76,4 +76,19 @@ public class DbHelper
             }
         }
     }
+
+    /**
+     * @return true if the connection is closed, or if this cannot be known.
+     */
+    static boolean isClosed(Connection connection)
+    {
+        try
+        {
+            return connection.isClosed();
+        }
+        catch (Exception e)
+        {
+            return true;
+        }
+    }
 }
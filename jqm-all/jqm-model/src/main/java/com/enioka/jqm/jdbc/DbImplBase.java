@@ -52,36 +52,38 @@ class DbImplBase
         queries.put("node_select_connectdata_by_key", "SELECT DNS, PORT FROM __T__NODE WHERE NAME=?");
 
         // QUEUE
-        queries.put("q_insert", "INSERT INTO __T__QUEUE(ID, DEFAULT_QUEUE, DESCRIPTION, NAME) VALUES(JQM_PK.nextval, ?, ?, ?)");
+        queries.put("q_insert", "INSERT INTO __T__QUEUE(ID, DEFAULT_QUEUE, DESCRIPTION, NAME, PRIORITY_AGING) VALUES(JQM_PK.nextval, ?, ?, ?, ?)");
         queries.put("q_delete_all", "DELETE FROM __T__QUEUE");
         queries.put("q_delete_by_id", "DELETE FROM __T__QUEUE WHERE ID=?");
         queries.put("q_update_default_none", "UPDATE __T__QUEUE SET DEFAULT_QUEUE=false");
         queries.put("q_update_default_by_id", "UPDATE __T__QUEUE SET DEFAULT_QUEUE=true WHERE ID=?");
-        queries.put("q_update_all_fields_by_id", "UPDATE __T__QUEUE SET DEFAULT_QUEUE=?, DESCRIPTION=?, NAME=? WHERE ID=?");
-        queries.put("q_update_changed_by_id", "UPDATE __T__QUEUE SET DEFAULT_QUEUE=?, DESCRIPTION=?, NAME=? WHERE ID=? AND NOT (DEFAULT_QUEUE=? AND DESCRIPTION=? AND NAME=?)");
+        queries.put("q_update_all_fields_by_id", "UPDATE __T__QUEUE SET DEFAULT_QUEUE=?, DESCRIPTION=?, NAME=?, PRIORITY_AGING=? WHERE ID=?");
+        queries.put("q_update_changed_by_id", "UPDATE __T__QUEUE SET DEFAULT_QUEUE=?, DESCRIPTION=?, NAME=?, PRIORITY_AGING=? WHERE ID=? AND NOT (DEFAULT_QUEUE=? AND DESCRIPTION=? AND NAME=? AND PRIORITY_AGING=?)");
         queries.put("q_select_count_all", "SELECT COUNT(1) FROM __T__QUEUE");
-        queries.put("q_select_all", "SELECT ID, DEFAULT_QUEUE, DESCRIPTION, NAME FROM __T__QUEUE");
-        queries.put("q_select_default", "SELECT ID, DEFAULT_QUEUE, DESCRIPTION, NAME FROM __T__QUEUE WHERE DEFAULT_QUEUE=true");
-        queries.put("q_select_by_key", "SELECT ID, DEFAULT_QUEUE, DESCRIPTION, NAME FROM __T__QUEUE WHERE NAME=?");
-        queries.put("q_select_by_id", "SELECT ID, DEFAULT_QUEUE, DESCRIPTION, NAME FROM __T__QUEUE WHERE ID=?");
+        queries.put("q_select_all", "SELECT ID, DEFAULT_QUEUE, DESCRIPTION, NAME, PRIORITY_AGING FROM __T__QUEUE");
+        queries.put("q_select_default", "SELECT ID, DEFAULT_QUEUE, DESCRIPTION, NAME, PRIORITY_AGING FROM __T__QUEUE WHERE DEFAULT_QUEUE=true");
+        queries.put("q_select_by_key", "SELECT ID, DEFAULT_QUEUE, DESCRIPTION, NAME, PRIORITY_AGING FROM __T__QUEUE WHERE NAME=?");
+        queries.put("q_select_by_id", "SELECT ID, DEFAULT_QUEUE, DESCRIPTION, NAME, PRIORITY_AGING FROM __T__QUEUE WHERE ID=?");
         
         // DEPLOYMENT
-        queries.put("dp_insert", "INSERT INTO __T__QUEUE_NODE_MAPPING(ID, ENABLED, LAST_MODIFIED, MAX_THREAD, POLLING_INTERVAL, NODE, QUEUE) VALUES(JQM_PK.nextval, ?, CURRENT_TIMESTAMP, ?, ?, ?, ?)");
+        queries.put("dp_insert", "INSERT INTO __T__QUEUE_NODE_MAPPING(ID, ENABLED, LAST_MODIFIED, MAX_THREAD, POLLING_INTERVAL, NODE, QUEUE, MAX_POLLING_INTERVAL) VALUES(JQM_PK.nextval, ?, CURRENT_TIMESTAMP, ?, ?, ?, ?, ?)");
         queries.put("dp_delete_all", "DELETE FROM __T__QUEUE_NODE_MAPPING");
         queries.put("dp_delete_for_node", "DELETE FROM __T__QUEUE_NODE_MAPPING WHERE NODE=?");
         queries.put("dp_delete_for_queue", "DELETE FROM __T__QUEUE_NODE_MAPPING WHERE QUEUE=?");
         queries.put("dp_delete_by_id", "DELETE FROM __T__QUEUE_NODE_MAPPING WHERE ID=?");
-        queries.put("dp_update_interval_by_id", "UPDATE __T__QUEUE_NODE_MAPPING SET POLLING_INTERVAL=? WHERE ID=?");
-        queries.put("dp_update_enable_by_queue_id", "UPDATE __T__QUEUE_NODE_MAPPING SET ENABLED=? WHERE QUEUE=?");
-        queries.put("dp_update_threads_by_id", "UPDATE __T__QUEUE_NODE_MAPPING SET MAX_THREAD=? WHERE ID=?");
-        queries.put("dp_update_changed_by_id", "UPDATE __T__QUEUE_NODE_MAPPING SET ENABLED=?, LAST_MODIFIED=CURRENT_TIMESTAMP, MAX_THREAD=?, POLLING_INTERVAL=?, NODE=?, QUEUE=? WHERE ID=? AND NOT "
-                + "(ENABLED=? AND MAX_THREAD=? AND POLLING_INTERVAL=? AND NODE=? AND QUEUE=?)");
-        queries.put("dp_select_by_id", "SELECT ID, ENABLED, LAST_MODIFIED, MAX_THREAD, POLLING_INTERVAL, NODE, QUEUE FROM __T__QUEUE_NODE_MAPPING WHERE ID=?");
-        queries.put("dp_select_for_node", "SELECT ID, ENABLED, LAST_MODIFIED, MAX_THREAD, POLLING_INTERVAL, NODE, QUEUE FROM __T__QUEUE_NODE_MAPPING WHERE NODE=?");
+        queries.put("dp_update_interval_by_id", "UPDATE __T__QUEUE_NODE_MAPPING SET POLLING_INTERVAL=?, LAST_MODIFIED=CURRENT_TIMESTAMP WHERE ID=?");
+        queries.put("dp_update_max_interval_by_id", "UPDATE __T__QUEUE_NODE_MAPPING SET MAX_POLLING_INTERVAL=?, LAST_MODIFIED=CURRENT_TIMESTAMP WHERE ID=?");
+        queries.put("dp_update_enable_by_queue_id", "UPDATE __T__QUEUE_NODE_MAPPING SET ENABLED=?, LAST_MODIFIED=CURRENT_TIMESTAMP WHERE QUEUE=?");
+        queries.put("dp_update_threads_by_id", "UPDATE __T__QUEUE_NODE_MAPPING SET MAX_THREAD=?, LAST_MODIFIED=CURRENT_TIMESTAMP WHERE ID=?");
+        queries.put("dp_update_changed_by_id", "UPDATE __T__QUEUE_NODE_MAPPING SET ENABLED=?, LAST_MODIFIED=CURRENT_TIMESTAMP, MAX_THREAD=?, POLLING_INTERVAL=?, NODE=?, QUEUE=?, MAX_POLLING_INTERVAL=? WHERE ID=? AND NOT "
+                + "(ENABLED=? AND MAX_THREAD=? AND POLLING_INTERVAL=? AND NODE=? AND QUEUE=? AND MAX_POLLING_INTERVAL=?)");
+        queries.put("dp_select_by_id", "SELECT ID, ENABLED, LAST_MODIFIED, MAX_THREAD, POLLING_INTERVAL, NODE, QUEUE, MAX_POLLING_INTERVAL FROM __T__QUEUE_NODE_MAPPING WHERE ID=?");
+        queries.put("dp_select_for_node", "SELECT ID, ENABLED, LAST_MODIFIED, MAX_THREAD, POLLING_INTERVAL, NODE, QUEUE, MAX_POLLING_INTERVAL FROM __T__QUEUE_NODE_MAPPING WHERE NODE=?");
+        queries.put("dp_select_config_version_for_node", "SELECT d.C, d.M, g.C, g.M FROM (SELECT COUNT(1) AS C, MAX(LAST_MODIFIED) AS M FROM __T__QUEUE_NODE_MAPPING WHERE NODE=?) d, (SELECT COUNT(1) AS C, MAX(LAST_MODIFIED) AS M FROM __T__GLOBAL_PARAMETER) g");
         queries.put("dp_select_count_for_node", "SELECT COUNT(1) FROM __T__QUEUE_NODE_MAPPING WHERE NODE=?");
         queries.put("dp_select_enabled_for_queue", "SELECT ENABLED, MAX_THREAD FROM __T__QUEUE_NODE_MAPPING WHERE QUEUE=?");
         queries.put("dp_select_sum_queue_capacity", "SELECT SUM(dp.MAX_THREAD) FROM __T__QUEUE_NODE_MAPPING dp LEFT JOIN __T__NODE n ON n.ID = dp.NODE WHERE dp.ENABLED = true AND n.ENABLED = true AND dp.QUEUE = ?");
-        queries.put("dp_select_all_with_names", "SELECT dp.ID, dp.ENABLED, dp.LAST_MODIFIED, dp.MAX_THREAD, dp.POLLING_INTERVAL, dp.NODE, dp.QUEUE, n.NAME, q.NAME FROM __T__QUEUE_NODE_MAPPING dp LEFT JOIN __T__NODE n ON n.ID=dp.NODE LEFT JOIN __T__QUEUE q ON q.ID=dp.QUEUE ");
+        queries.put("dp_select_all_with_names", "SELECT dp.ID, dp.ENABLED, dp.LAST_MODIFIED, dp.MAX_THREAD, dp.POLLING_INTERVAL, dp.NODE, dp.QUEUE, dp.MAX_POLLING_INTERVAL, n.NAME, q.NAME FROM __T__QUEUE_NODE_MAPPING dp LEFT JOIN __T__NODE n ON n.ID=dp.NODE LEFT JOIN __T__QUEUE q ON q.ID=dp.QUEUE ");
         queries.put("dp_select_with_names_by_id", queries.get("dp_select_all_with_names") + " WHERE dp.ID=?");
         queries.put("dp_select_with_names_by_node_id", queries.get("dp_select_all_with_names") + " WHERE dp.NODE=?");
         
@@ -154,8 +156,11 @@ class DbImplBase
         queries.put("sj_update_priority_by_id", "UPDATE __T__JOB_SCHEDULE SET PRIORITY=?, LAST_UPDATED=CURRENT_TIMESTAMP WHERE ID=?");
         queries.put("sj_select_all", "SELECT ID, CRON_EXPRESSION, JOBDEF, QUEUE, PRIORITY, LAST_UPDATED FROM __T__JOB_SCHEDULE ORDER BY ID ");
         queries.put("sj_select_by_id", "SELECT ID, CRON_EXPRESSION, JOBDEF, QUEUE, PRIORITY, LAST_UPDATED FROM __T__JOB_SCHEDULE WHERE ID=? ");
+        queries.put("sj_select_by_id_list", "SELECT ID, CRON_EXPRESSION, JOBDEF, QUEUE, PRIORITY, LAST_UPDATED FROM __T__JOB_SCHEDULE WHERE ID IN(UNNEST(?)) ORDER BY ID");
         queries.put("sj_select_updated",  "SELECT ID, CRON_EXPRESSION, JOBDEF, QUEUE, PRIORITY, LAST_UPDATED FROM __T__JOB_SCHEDULE WHERE LAST_UPDATED > ?");
         queries.put("sj_select_for_jd",  "SELECT ID, CRON_EXPRESSION, JOBDEF, QUEUE, PRIORITY, LAST_UPDATED FROM __T__JOB_SCHEDULE WHERE JOBDEF = ?");
+        queries.put("sj_select_all_ids", "SELECT ID FROM __T__JOB_SCHEDULE");
+        queries.put("sj_select_count", "SELECT COUNT(1) FROM __T__JOB_SCHEDULE");
         queries.put("sj_select_for_jd_list",  "SELECT ID, CRON_EXPRESSION, JOBDEF, QUEUE, PRIORITY, LAST_UPDATED FROM __T__JOB_SCHEDULE WHERE JOBDEF IN(UNNEST(?)) ORDER BY ID");
         
         // SCHEDULED JOBS PARAMETERS
@@ -214,11 +219,17 @@ class DbImplBase
         queries.put("ji_select_priority_by_id", "SELECT PRIORITY FROM __T__JOB_INSTANCE WHERE ID=?");
         queries.put("ji_select_execution_date_by_id", "SELECT DATE_START FROM __T__JOB_INSTANCE WHERE ID=?");
         queries.put("ji_select_cnx_data_by_id", "SELECT DNS||':'||PORT AS HOST FROM __T__JOB_INSTANCE ji LEFT JOIN __T__NODE n ON ji.NODE = n.ID WHERE ji.ID=?");
-        queries.put("ji_select_instructions_by_node", "SELECT ji.ID, ji.INSTRUCTION FROM __T__JOB_INSTANCE ji WHERE ji.STATUS='RUNNING' AND ji.INSTRUCTION <> 'RUN' AND ji.NODE=?");
+        queries.put("ji_select_instructions_by_node", "SELECT ji.ID, ji.INSTRUCTION, ji.PRIORITY FROM __T__JOB_INSTANCE ji WHERE ji.STATUS='RUNNING' AND ji.NODE=?");
         
-        queries.put("ji_update_delayed", "UPDATE __T__JOB_INSTANCE SET STATUS='SUBMITTED' WHERE STATUS='SCHEDULED' AND DATE_NOT_BEFORE <= CURRENT_TIMESTAMP");
+        queries.put("ji_update_delayed_by_id_list", "UPDATE __T__JOB_INSTANCE SET STATUS='SUBMITTED' WHERE STATUS='SCHEDULED' AND ID IN(UNNEST(?))");
+        queries.put("ji_select_delayed_due", "SELECT ID FROM __T__JOB_INSTANCE WHERE STATUS='SCHEDULED' AND DATE_NOT_BEFORE <= CURRENT_TIMESTAMP ORDER BY DATE_NOT_BEFORE, ID");
+        queries.put("ji_select_delayed_next", "SELECT MIN(DATE_NOT_BEFORE) FROM __T__JOB_INSTANCE WHERE STATUS='SCHEDULED'");
+        queries.put("ji_select_queues_by_id_list", "SELECT DISTINCT QUEUE FROM __T__JOB_INSTANCE WHERE ID IN(UNNEST(?))");
         queries.put("ji_select_poll",queries.get("ji_select_all") + " WHERE ji.QUEUE = ? AND ji.STATUS='SUBMITTED' ORDER BY ji.PRIORITY DESC, ji.INTERNAL_POSITION");
+        queries.put("ji_select_poll_aged",queries.get("ji_select_all") + " WHERE ji.QUEUE = ? AND ji.STATUS='SUBMITTED' ORDER BY UNIX_TIMESTAMP(ji.DATE_ENQUEUE) / ? - ji.PRIORITY, ji.PRIORITY DESC, ji.INTERNAL_POSITION");
+        queries.put("ji_select_oldest_by_priority_for_queue", "SELECT PRIORITY, MIN(DATE_ENQUEUE) FROM __T__JOB_INSTANCE WHERE QUEUE=? AND STATUS='SUBMITTED' GROUP BY PRIORITY ORDER BY PRIORITY DESC");
         queries.put("ji_update_status_by_id", "UPDATE __T__JOB_INSTANCE SET STATUS='ATTRIBUTED', NODE=? WHERE STATUS='SUBMITTED' AND ID=?");
+        queries.put("ji_update_status_by_id_list", "UPDATE __T__JOB_INSTANCE SET STATUS='ATTRIBUTED', NODE=? WHERE STATUS='SUBMITTED' AND ID IN(UNNEST(?))");
         
         // HISTORY
         queries.put("history_insert_with_end_date", "INSERT INTO __T__HISTORY(ID, JD_APPLICATION, JD_KEY, DATE_ATTRIBUTION, EMAIL, "
@@ -339,6 +350,40 @@ class DbImplBase
         // WITNESS
         queries.put("w_insert", "INSERT INTO __T__WITNESS(ID, KEYNAME, NODE, LATEST_CONTACT) VALUES(JQM_PK.nextval, 'SCHEDULER', ?, CURRENT_TIMESTAMP)");
         queries.put("w_update_take", "UPDATE __T__WITNESS SET NODE=?, LATEST_CONTACT=CURRENT_TIMESTAMP WHERE KEYNAME='SCHEDULER' AND (LATEST_CONTACT IS NULL OR NODE IS NULL OR NODE=? OR (NODE<>? AND LATEST_CONTACT < (CURRENT_TIMESTAMP - ? SECOND)))");
+        queries.put("w_update_release", "UPDATE __T__WITNESS SET NODE=NULL WHERE KEYNAME='SCHEDULER' AND NODE=?");
+        
+        // QUEUE SIGNAL
+        queries.put("qs_insert", "INSERT INTO __T__QUEUE_SIGNAL(ID, QUEUE, SIGNAL_DATE) VALUES(JQM_PK.nextval, ?, CURRENT_TIMESTAMP)");
+        queries.put("qs_delete_all", "DELETE FROM __T__QUEUE_SIGNAL");
+        queries.put("qs_delete_older_than", queries.get("qs_delete_all") + " WHERE SIGNAL_DATE < (CURRENT_TIMESTAMP - ? SECOND)");
+        queries.put("qs_select_after", "SELECT ID, QUEUE FROM __T__QUEUE_SIGNAL WHERE ID > ?");
+        queries.put("qs_select_max_id", "SELECT COALESCE(MAX(ID), 0) FROM __T__QUEUE_SIGNAL");
+
+        // CLUSTER-WIDE RESOURCE MANAGERS
+        queries.put("rmc_insert", "INSERT INTO __T__RM_COUNTER(ID, NAME, TOTAL, AVAILABLE) VALUES(JQM_PK.nextval, ?, ?, ?)");
+        queries.put("rmc_delete_all", "DELETE FROM __T__RM_COUNTER");
+        queries.put("rmc_select_by_name", "SELECT ID, TOTAL, AVAILABLE FROM __T__RM_COUNTER WHERE NAME=?");
+        queries.put("rmc_select_available_by_id", "SELECT AVAILABLE FROM __T__RM_COUNTER WHERE ID=?");
+        queries.put("rmc_update_total_by_id", "UPDATE __T__RM_COUNTER SET AVAILABLE=AVAILABLE + ? - TOTAL, TOTAL=? WHERE ID=? AND TOTAL<>?");
+        queries.put("rmc_update_take_by_id", "UPDATE __T__RM_COUNTER SET AVAILABLE=AVAILABLE - ? WHERE ID=? AND AVAILABLE >= ?");
+        queries.put("rmc_update_give_by_id", "UPDATE __T__RM_COUNTER SET AVAILABLE=AVAILABLE + ? WHERE ID=?");
+
+        queries.put("rml_insert", "INSERT INTO __T__RM_LEASE(ID, COUNTER, NODE, UNITS, RENEWED) VALUES(JQM_PK.nextval, ?, ?, ?, CURRENT_TIMESTAMP)");
+        queries.put("rml_delete_all", "DELETE FROM __T__RM_LEASE");
+        queries.put("rml_delete_by_counter_and_node", "DELETE FROM __T__RM_LEASE WHERE COUNTER=? AND NODE=?");
+        queries.put("rml_delete_expired_by_id", "DELETE FROM __T__RM_LEASE WHERE ID=? AND RENEWED < (CURRENT_TIMESTAMP - ? SECOND)");
+        queries.put("rml_update_renew", "UPDATE __T__RM_LEASE SET UNITS=?, RENEWED=CURRENT_TIMESTAMP WHERE COUNTER=? AND NODE=?");
+        queries.put("rml_select_by_counter_and_node", "SELECT UNITS FROM __T__RM_LEASE WHERE COUNTER=? AND NODE=?");
+        queries.put("rml_select_expired", "SELECT ID, UNITS FROM __T__RM_LEASE WHERE COUNTER=? AND NODE<>? AND RENEWED < (CURRENT_TIMESTAMP - ? SECOND)");
+
+        // HIGHLANDER LEASE
+        queries.put("hl_insert", "INSERT INTO __T__HIGHLANDER_LEASE(ID, JOBDEF, NODE, RENEWED) VALUES(JQM_PK.nextval, ?, ?, CURRENT_TIMESTAMP)");
+        queries.put("hl_delete_all", "DELETE FROM __T__HIGHLANDER_LEASE");
+        queries.put("hl_select_count_by_jd", "SELECT COUNT(1) FROM __T__HIGHLANDER_LEASE WHERE JOBDEF=?");
+        queries.put("hl_update_take", "UPDATE __T__HIGHLANDER_LEASE SET NODE=?, RENEWED=CURRENT_TIMESTAMP WHERE JOBDEF=? AND (NODE IS NULL OR NODE=? OR RENEWED < (CURRENT_TIMESTAMP - ? SECOND))");
+        queries.put("hl_update_renew_by_node", "UPDATE __T__HIGHLANDER_LEASE SET RENEWED=CURRENT_TIMESTAMP WHERE NODE=?");
+        queries.put("hl_update_free_by_jd_and_node", "UPDATE __T__HIGHLANDER_LEASE SET NODE=NULL WHERE JOBDEF=? AND NODE=?");
+        queries.put("hl_update_free_by_node", "UPDATE __T__HIGHLANDER_LEASE SET NODE=NULL WHERE NODE=?");
     }
    
 }
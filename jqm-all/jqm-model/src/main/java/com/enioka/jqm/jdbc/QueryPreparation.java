@@ -30,6 +30,11 @@ public class QueryPreparation
      */
     boolean forUpdate = false;
 
+    /**
+     * Key of the statement inside the statement cache of the connection. Null if the statement used is not cached.
+     */
+    String cacheKey = null;
+
     public boolean isKey(String key)
     {
         return queryKey != null && this.queryKey.equals(key);
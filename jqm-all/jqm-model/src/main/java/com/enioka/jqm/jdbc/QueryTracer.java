@@ -0,0 +1,24 @@
+package com.enioka.jqm.jdbc;
+
+/**
+ * A hook called after each query run through a {@link DbConn}. It is set with {@link Db#setQueryTracer(QueryTracer)}, and when none is set
+ * the sessions do not even read the clock.<br>
+ * <br>
+ * Implementations are called by all the threads using the database and must be thread safe, fast and must never throw.
+ */
+public interface QueryTracer
+{
+    /**
+     * Called after a statement has been executed.
+     *
+     * @param queryKey
+     *                          the key of the query, as given to the {@link DbConn} run methods, or "raw" for raw queries.
+     * @param durationNanos
+     *                          execution duration (including the statement preparation), in nanoseconds.
+     * @param rowCount
+     *                          the number of updated rows for updates. -1 for selects, as rows are only fetched afterwards by the caller.
+     * @param bindCount
+     *                          the number of bind variables actually sent to the database.
+     */
+    void queryExecuted(String queryKey, long durationNanos, int rowCount, int bindCount);
+}
@@ -0,0 +1,145 @@
+package com.enioka.jqm.jdbc;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import com.enioka.jqm.model.GlobalParameter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Signals that new job instances are available on a queue, so that queue pollers do not have to wait for the end of their polling
+ * interval.<br>
+ * <br>
+ * There are two levels:
+ * <ul>
+ * <li>local: the pollers running inside the current JVM register a listener which is called at once by {@link #signalLocal(int)}</li>
+ * <li>cross-node: {@link #publish(DbConn, int)} sends the signal through the channel set by the <code>queueSignalChannel</code> global
+ * parameter. <code>none</code> (the default) disables it, <code>table</code> uses the QUEUE_SIGNAL table on all databases, and
+ * <code>native</code> uses the database notification mechanism when the adapter has one (PostgreSQL LISTEN/NOTIFY) and the table
+ * otherwise. Each engine then forwards the signals it receives to its local listeners.</li>
+ * </ul>
+ * Signals are only hints: pollers still poll on their usual interval, so a lost signal only means a longer latency.
+ */
+public final class QueueNotificationBus
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(QueueNotificationBus.class);
+
+    private static final long CHANNEL_CACHE_MS = 60000L;
+
+    private static Map<Integer, Set<Runnable>> listeners = new ConcurrentHashMap<>();
+
+    private static volatile String channel = null;
+    private static volatile long channelReadAt = 0;
+
+    private QueueNotificationBus()
+    {
+        // Static helper class.
+    }
+
+    /**
+     * Registers a listener called each time a signal is received for the given queue. Listeners must be fast and must not throw.
+     */
+    public static void addListener(int queueId, Runnable listener)
+    {
+        listeners.computeIfAbsent(queueId, k -> new CopyOnWriteArraySet<>()).add(listener);
+    }
+
+    public static void removeListener(int queueId, Runnable listener)
+    {
+        Set<Runnable> l = listeners.get(queueId);
+        if (l != null)
+        {
+            l.remove(listener);
+        }
+    }
+
+    /**
+     * Calls all the listeners of the given queue inside this JVM. Must be called after the commit which has made the job instances
+     * visible.
+     */
+    public static void signalLocal(int queueId)
+    {
+        Set<Runnable> l = listeners.get(queueId);
+        if (l == null)
+        {
+            return;
+        }
+        for (Runnable r : l)
+        {
+            r.run();
+        }
+    }
+
+    /**
+     * Sends a signal to the other nodes through the configured cross-node channel (if any). Must be called inside the transaction which
+     * makes the job instances visible, before its commit - the signal is only sent on commit.
+     */
+    public static void publish(DbConn cnx, int queueId)
+    {
+        String c = getChannel(cnx);
+        if ("none".equals(c))
+        {
+            return;
+        }
+
+        if ("native".equals(c) && cnx.getAdapter().supportsNativeQueueSignals())
+        {
+            cnx.getAdapter().publishNativeQueueSignal(cnx, queueId);
+        }
+        else
+        {
+            cnx.runUpdate("qs_insert", queueId);
+        }
+    }
+
+    /**
+     * Starts listening to the configured cross-node channel.
+     *
+     * @return a receiver, or null if cross-node signals are disabled.
+     */
+    public static QueueSignalReceiver openReceiver(Db db)
+    {
+        String c;
+        try (DbConn cnx = db.getConn())
+        {
+            c = readChannel(cnx);
+            if ("none".equals(c))
+            {
+                return null;
+            }
+            if ("native".equals(c) && cnx.getAdapter().supportsNativeQueueSignals())
+            {
+                jqmlogger.info("Listening to queue signals with the native database mechanism");
+                return cnx.getAdapter().openNativeQueueSignalReceiver(db.getConn());
+            }
+        }
+        jqmlogger.info("Listening to queue signals through the signal table");
+        return new TableQueueSignalReceiver(db);
+    }
+
+    private static String getChannel(DbConn cnx)
+    {
+        if (channel == null || System.currentTimeMillis() - channelReadAt > CHANNEL_CACHE_MS)
+        {
+            readChannel(cnx);
+        }
+        return channel;
+    }
+
+    private static String readChannel(DbConn cnx)
+    {
+        String c = GlobalParameter.getParameter(cnx, "queueSignalChannel", "none").trim().toLowerCase();
+        if (!"none".equals(c) && !"table".equals(c) && !"native".equals(c))
+        {
+            jqmlogger.warn("Unknown queueSignalChannel value {} - cross-node queue signals are disabled", c);
+            c = "none";
+        }
+        channel = c;
+        channelReadAt = System.currentTimeMillis();
+        return c;
+    }
+}
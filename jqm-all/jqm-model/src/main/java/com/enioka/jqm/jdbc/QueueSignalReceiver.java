@@ -0,0 +1,26 @@
+package com.enioka.jqm.jdbc;
+
+import java.util.Set;
+
+/**
+ * The receiving end of a cross-node queue signal channel, as given by {@link QueueNotificationBus#openReceiver(Db)}. Not thread safe: it is
+ * meant to be used by a single listener thread per node.
+ */
+public interface QueueSignalReceiver
+{
+    /**
+     * Waits for signals.
+     *
+     * @param timeoutMs
+     *                      max wait time in ms. Implementations may return earlier, or (only for polling implementations) wait exactly this
+     *                      time when there is no signal.
+     * @return the IDs of the queues which have received signals since the previous call. Can be empty, never null.
+     * @throws InterruptedException
+     */
+    Set<Integer> receive(long timeoutMs) throws InterruptedException;
+
+    /**
+     * Releases all resources (connections...) held by the receiver.
+     */
+    void close();
+}
@@ -0,0 +1,136 @@
+package com.enioka.jqm.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded LRU cache of the prepared statements of one physical database connection, shared by all the {@link DbConn} successively using
+ * that connection. Statements are keyed by query key and result set mode. The SQL text is also checked, as the adapter may rewrite the
+ * text of a query (list parameters...): a statement prepared for another text is replaced.<br>
+ * <br>
+ * A cached statement is only given again once the result set of its previous execution is closed, as re-executing it would close a result
+ * set which may still be read. Not thread safe - a physical connection is only used by one session at a time.
+ */
+class StatementCache
+{
+    private final Connection connection;
+    private final int maxSize;
+    private final Map<String, Entry> entries;
+
+    private static class Entry
+    {
+        private String sqlText;
+        private PreparedStatement statement;
+        private ResultSet lastResult;
+    }
+
+    /**
+     * @param connection
+     *                       the physical connection, on which the cached statements are prepared.
+     * @param maxSize
+     *                       max number of statements kept open.
+     */
+    StatementCache(Connection connection, int maxSize)
+    {
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    static String key(String queryKey, boolean forUpdate)
+    {
+        return (forUpdate ? "U:" : "K:") + queryKey;
+    }
+
+    Connection getConnection()
+    {
+        return this.connection;
+    }
+
+    /**
+     * @return the cached statement with its parameters cleared, or null if there is none for this SQL text or if it is still in use.
+     */
+    PreparedStatement get(String key, String sqlText) throws SQLException
+    {
+        Entry e = entries.get(key);
+        if (e == null || !e.sqlText.equals(sqlText) || (e.lastResult != null && !e.lastResult.isClosed()))
+        {
+            return null;
+        }
+        if (e.statement.isClosed())
+        {
+            // Closed through its result set by a caller.
+            entries.remove(key);
+            return null;
+        }
+        e.lastResult = null;
+        e.statement.clearParameters();
+        return e.statement;
+    }
+
+    /**
+     * Adds a newly created statement to the cache, replacing the statement of the same key or evicting the least recently used one if
+     * needed. Does nothing if the key is cached with a statement still in use (the new statement is then not cached and should be closed
+     * normally).
+     *
+     * @param evicted
+     *                    the list in which the statements removed from the cache are put. They may still have an open result set, so they
+     *                    should be closed with the session.
+     * @return true if the statement was cached.
+     */
+    boolean put(String key, String sqlText, PreparedStatement statement, List<? super PreparedStatement> evicted) throws SQLException
+    {
+        Entry old = entries.get(key);
+        if (old != null)
+        {
+            if (old.lastResult != null && !old.lastResult.isClosed())
+            {
+                return false;
+            }
+            evicted.add(old.statement);
+            entries.remove(key);
+        }
+        else if (entries.size() >= maxSize)
+        {
+            Iterator<Entry> it = entries.values().iterator();
+            evicted.add(it.next().statement);
+            it.remove();
+        }
+
+        Entry e = new Entry();
+        e.sqlText = sqlText;
+        e.statement = statement;
+        entries.put(key, e);
+        return true;
+    }
+
+    /**
+     * Records the result set returned by the last execution of a cached statement.
+     */
+    void setResult(String key, ResultSet rs)
+    {
+        Entry e = entries.get(key);
+        if (e != null)
+        {
+            e.lastResult = rs;
+        }
+    }
+
+    /**
+     * Removes a statement which has failed, so that it is prepared again next time.
+     */
+    void remove(String key)
+    {
+        Entry e = entries.remove(key);
+        if (e != null)
+        {
+            DbHelper.closeQuietly(e.statement);
+        }
+    }
+}
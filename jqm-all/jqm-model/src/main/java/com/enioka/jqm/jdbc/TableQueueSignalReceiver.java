@@ -0,0 +1,71 @@
+package com.enioka.jqm.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Default cross-node channel: signals are rows of the QUEUE_SIGNAL table, and this receiver polls that table for rows with an ID greater
+ * than the last one seen. This is a single very cheap query per node instead of one poll per queue. As IDs may be committed out of order,
+ * a signal may be missed - this is not an issue as the usual queue polling still takes place.
+ */
+class TableQueueSignalReceiver implements QueueSignalReceiver
+{
+    private static final long PURGE_PERIOD_MS = 60000L;
+
+    private Db db;
+    private Integer lastId = null;
+    private long lastPurge = System.currentTimeMillis();
+
+    TableQueueSignalReceiver(Db db)
+    {
+        this.db = db;
+    }
+
+    @Override
+    public Set<Integer> receive(long timeoutMs) throws InterruptedException
+    {
+        Set<Integer> res = new HashSet<>();
+        try (DbConn cnx = db.getConn())
+        {
+            if (lastId == null)
+            {
+                lastId = cnx.runSelectSingle("qs_select_max_id", Integer.class);
+            }
+
+            try (ResultSet rs = cnx.runSelect("qs_select_after", lastId))
+            {
+                while (rs.next())
+                {
+                    lastId = Math.max(lastId, rs.getInt(1));
+                    res.add(rs.getInt(2));
+                }
+            }
+            catch (SQLException e)
+            {
+                throw new DatabaseException(e);
+            }
+
+            // Signals are only useful for a few seconds. All nodes purge, which is harmless.
+            if (System.currentTimeMillis() - lastPurge > PURGE_PERIOD_MS)
+            {
+                cnx.runUpdate("qs_delete_older_than", (int) (PURGE_PERIOD_MS / 1000));
+                cnx.commit();
+                lastPurge = System.currentTimeMillis();
+            }
+        }
+
+        if (res.isEmpty())
+        {
+            Thread.sleep(timeoutMs);
+        }
+        return res;
+    }
+
+    @Override
+    public void close()
+    {
+        // Nothing to do - connections are not kept between calls.
+    }
+}
@@ -40,6 +40,7 @@ public class DeploymentParameter
     private int node;
     private int nbThread;
     private int pollingInterval;
+    private int maxPollingInterval = 0;
     private int queue;
     private boolean enabled = true;
     private Calendar lastModified;
@@ -127,6 +128,32 @@ public class DeploymentParameter
         this.pollingInterval = pollingInterval;
     }
 
+    /**
+     * When greater than {@link #getPollingInterval()}, the polling interval is adaptive: it doubles after each poll which found nothing to
+     * run, up to this value (in milliseconds), and the queue is polled again at once when a poll has filled all the free slots. Any other
+     * value (default is 0) means the polling interval is fixed.
+     */
+    public Integer getMaxPollingInterval()
+    {
+        return maxPollingInterval;
+    }
+
+    /**
+     * See {@link #getMaxPollingInterval()}
+     */
+    public void setMaxPollingInterval(final Integer maxPollingInterval)
+    {
+        this.maxPollingInterval = maxPollingInterval;
+    }
+
+    /**
+     * True if the polling interval is adaptive. See {@link #getMaxPollingInterval()}
+     */
+    public boolean isAdaptivePolling()
+    {
+        return maxPollingInterval > pollingInterval;
+    }
+
     /**
      * The {@link Queue} that will have to be polled by the {@link Node} designated by {@link #getNode()} for new {@link JobInstance}s to
      * run.
@@ -188,12 +215,22 @@ public class DeploymentParameter
     public static DeploymentParameter create(DbConn cnx, Boolean enabled, Integer nodeId, Integer nbThread, Integer pollingInterval,
             Integer qId)
     {
-        QueryResult r = cnx.runUpdate("dp_insert", enabled, nbThread, pollingInterval, nodeId, qId);
+        return create(cnx, enabled, nodeId, nbThread, pollingInterval, 0, qId);
+    }
+
+    /**
+     * Create a new entry in the database. No commit performed.
+     */
+    public static DeploymentParameter create(DbConn cnx, Boolean enabled, Integer nodeId, Integer nbThread, Integer pollingInterval,
+            Integer maxPollingInterval, Integer qId)
+    {
+        QueryResult r = cnx.runUpdate("dp_insert", enabled, nbThread, pollingInterval, nodeId, qId, maxPollingInterval);
         DeploymentParameter res = new DeploymentParameter();
         res.id = r.getGeneratedId();
         res.node = nodeId;
         res.nbThread = nbThread;
         res.pollingInterval = pollingInterval;
+        res.maxPollingInterval = maxPollingInterval;
         res.queue = qId;
 
         return res;
@@ -224,6 +261,7 @@ public class DeploymentParameter
                 tmp.pollingInterval = rs.getInt(5);
                 tmp.node = rs.getInt(6);
                 tmp.queue = rs.getInt(7);
+                tmp.maxPollingInterval = rs.getInt(8);
 
                 res.add(tmp);
             }
@@ -40,6 +40,9 @@ public class JobInstance implements Serializable
 {
     private static final long serialVersionUID = -7710486847228806301L;
 
+    // Max count of elements inside an IN clause accepted by most databases.
+    private static final int IN_CLAUSE_LIMIT = 500;
+
     private Integer id;
 
     private int jd_id;
@@ -470,6 +473,43 @@ public class JobInstance implements Serializable
         }
     }
 
+    /**
+     * Same as {@link #loadPrmCache(DbConn)} for a list of JI, using one query per batch of JI instead of one query per JI.
+     *
+     * @param cnx
+     *                      an open session
+     * @param instances
+     *                      the JI to load the parameters of. Can be empty.
+     */
+    public static void loadPrmCache(DbConn cnx, List<JobInstance> instances)
+    {
+        Map<Integer, JobInstance> byId = new HashMap<>(instances.size());
+        List<Integer> ids = new ArrayList<>(IN_CLAUSE_LIMIT);
+        for (int i = 0; i < instances.size(); i++)
+        {
+            JobInstance ji = instances.get(i);
+            ji.prmCache = new HashMap<>();
+            byId.put(ji.id, ji);
+            ids.add(ji.id);
+
+            if (ids.size() == IN_CLAUSE_LIMIT || i == instances.size() - 1)
+            {
+                try (ResultSet rs = cnx.runSelect("jiprm_select_by_ji_list", ids))
+                {
+                    while (rs.next())
+                    {
+                        byId.get(rs.getInt(2)).prmCache.put(rs.getString(3), rs.getString(4));
+                    }
+                }
+                catch (SQLException e)
+                {
+                    throw new DatabaseException(e);
+                }
+                ids = new ArrayList<>(IN_CLAUSE_LIMIT);
+            }
+        }
+    }
+
     public void addEnvVar(String key, String value)
     {
         if (envVarCache == null)
@@ -42,6 +42,8 @@ public class Queue implements Serializable
 
     private boolean defaultQueue;
 
+    private int priorityAging = 0;
+
     /**
      * Functional key. Queues are specified by name inside all APIs. Must be unique.<br>
      * Max length is 50.
@@ -125,17 +127,45 @@ public class Queue implements Serializable
         this.timeToLive = timeToLive;
     }
 
+    /**
+     * The number of seconds of waiting which count as one priority level when ordering the job instances waiting inside the queue: a job
+     * instance which has waited for <code>n * priorityAging</code> seconds goes before job instances with a priority up to <code>n</code>
+     * levels higher which were enqueued later. This way, low priority job instances are not delayed forever by a steady flow of high
+     * priority ones. 0 (the default) means strict priority order.
+     */
+    public int getPriorityAging()
+    {
+        return priorityAging;
+    }
+
+    /**
+     * See {@link #getPriorityAging()}
+     */
+    public void setPriorityAging(int priorityAging)
+    {
+        this.priorityAging = priorityAging;
+    }
+
     /**
      * Create a new entry in the database. No commit performed.
      */
     public static Integer create(DbConn cnx, String name, String description, boolean defaultQ)
     {
-        QueryResult r = cnx.runUpdate("q_insert", defaultQ, description, name);
+        return create(cnx, name, description, defaultQ, 0);
+    }
+
+    /**
+     * Create a new entry in the database. No commit performed.
+     */
+    public static Integer create(DbConn cnx, String name, String description, boolean defaultQ, int priorityAging)
+    {
+        QueryResult r = cnx.runUpdate("q_insert", defaultQ, description, name, priorityAging);
         Queue res = new Queue();
         res.id = r.getGeneratedId();
         res.name = name;
         res.description = description;
         res.defaultQueue = defaultQ;
+        res.priorityAging = priorityAging;
         return res.id;
     }
 
@@ -168,6 +198,7 @@ public class Queue implements Serializable
             while (rs.next())
             {
                 Queue tmp = map(rs, 0);
+                tmp.priorityAging = rs.getInt(5);
                 res.add(tmp);
             }
         }
@@ -196,11 +227,11 @@ public class Queue implements Serializable
     {
         if (this.id == null)
         {
-            this.id = create(cnx, name, description, defaultQueue);
+            this.id = create(cnx, name, description, defaultQueue, priorityAging);
         }
         else
         {
-            cnx.runUpdate("q_update_all_fields_by_id", defaultQueue, description, name, id);
+            cnx.runUpdate("q_update_all_fields_by_id", defaultQueue, description, name, priorityAging, id);
         }
 
     }
@@ -0,0 +1,2 @@
+/* Polling index: allows the queue head to be read without sorting the whole backlog of a queue */
+CREATE INDEX IDX_JOB_INSTANCE_6 ON __T__JOB_INSTANCE(QUEUE, STATUS, PRIORITY DESC, INTERNAL_POSITION);
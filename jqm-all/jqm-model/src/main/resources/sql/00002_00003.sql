@@ -0,0 +1,10 @@
+/* Cross-node queue signals (fallback channel for databases without a native notification mechanism) */
+CREATE MEMORY TABLE __T__QUEUE_SIGNAL
+(
+	ID INTEGER NOT NULL,
+	QUEUE INTEGER NOT NULL,
+	SIGNAL_DATE TIMESTAMP NOT NULL,
+
+	CONSTRAINT PK_QUEUE_SIGNAL PRIMARY KEY(ID)
+);
+CREATE INDEX IDX_QUEUE_SIGNAL_1 ON __T__QUEUE_SIGNAL(SIGNAL_DATE);
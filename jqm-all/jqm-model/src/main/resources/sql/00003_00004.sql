@@ -0,0 +1,2 @@
+/* Adaptive polling: upper bound of the polling interval of a deployment parameter. 0 means fixed interval. */
+ALTER TABLE __T__QUEUE_NODE_MAPPING ADD MAX_POLLING_INTERVAL INTEGER DEFAULT 0 NOT NULL;
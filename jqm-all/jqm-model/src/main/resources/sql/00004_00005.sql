@@ -0,0 +1,2 @@
+/* Priority aging: seconds of waiting which count as one priority level when ordering the queue. 0 means strict priority order. */
+ALTER TABLE __T__QUEUE ADD PRIORITY_AGING INTEGER DEFAULT 0 NOT NULL;
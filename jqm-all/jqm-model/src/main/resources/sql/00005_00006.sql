@@ -0,0 +1,25 @@
+/* Cluster-wide resource managers: the units of each resource not leased by any node */
+CREATE MEMORY TABLE __T__RM_COUNTER
+(
+	ID INTEGER NOT NULL,
+	NAME VARCHAR(100) NOT NULL,
+	TOTAL INTEGER NOT NULL,
+	AVAILABLE INTEGER NOT NULL,
+
+	CONSTRAINT PK_RM_COUNTER PRIMARY KEY(ID),
+	CONSTRAINT UK_RM_COUNTER_1 UNIQUE(NAME)
+);
+
+/* The units leased by each node. Leases which are not renewed are given back to the counter by the other nodes. */
+CREATE MEMORY TABLE __T__RM_LEASE
+(
+	ID INTEGER NOT NULL,
+	COUNTER INTEGER NOT NULL,
+	NODE INTEGER NOT NULL,
+	UNITS INTEGER NOT NULL,
+	RENEWED TIMESTAMP NOT NULL,
+
+	CONSTRAINT PK_RM_LEASE PRIMARY KEY(ID),
+	CONSTRAINT UK_RM_LEASE_1 UNIQUE(COUNTER, NODE),
+	CONSTRAINT FK_RM_LEASE_1 FOREIGN KEY(COUNTER) REFERENCES __T__RM_COUNTER(ID) ON DELETE CASCADE
+);
@@ -0,0 +1,12 @@
+/* Highlander job definitions: the node allowed to run an instance of the job definition without checking the other nodes. */
+CREATE MEMORY TABLE __T__HIGHLANDER_LEASE
+(
+	ID INTEGER NOT NULL,
+	JOBDEF INTEGER NOT NULL,
+	NODE INTEGER NULL,
+	RENEWED TIMESTAMP NULL,
+
+	CONSTRAINT PK_HIGHLANDER_LEASE PRIMARY KEY(ID),
+	CONSTRAINT UK_HIGHLANDER_LEASE_1 UNIQUE(JOBDEF),
+	CONSTRAINT FK_HIGHLANDER_LEASE_1 FOREIGN KEY(JOBDEF) REFERENCES __T__JOB_DEFINITION(ID) ON DELETE CASCADE
+);
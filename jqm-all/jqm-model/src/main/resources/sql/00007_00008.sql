@@ -0,0 +1,2 @@
+/* Sweep of the delayed job instances which have become due */
+CREATE INDEX IDX_JOB_INSTANCE_7 ON __T__JOB_INSTANCE(STATUS, DATE_NOT_BEFORE);
@@ -0,0 +1,30 @@
+package com.enioka.jqm.runner.api;
+
+import java.io.OutputStream;
+
+/**
+ * <strong>This is not a public API and it will stay private in the foreseeable future.</strong><br>
+ * <br>
+ * Implemented by the replacements of stdout/stderr which send the output of each job instance to its own log file, depending on the
+ * writing thread. Allows a runner to copy the output of a job instance from threads which do not run the job instance.
+ */
+public interface JobOutputMultiplexer
+{
+    /**
+     * The output of the job instance run by the calling thread, which can then be written by any thread. If the calling thread does not
+     * run a job instance, the multiplexer itself.
+     */
+    public OutputStream getCurrentThreadOutput();
+
+    /**
+     * From now on, what the calling thread writes goes to the given log file (a file name, inside the log directory of the node). Must be
+     * called by the thread running the job instance.
+     */
+    public void registerThread(String fileName);
+
+    /**
+     * Closes the log file of the calling thread, which then writes to the original stream again. Does nothing if the thread was not
+     * registered.
+     */
+    public void unregisterThread();
+}
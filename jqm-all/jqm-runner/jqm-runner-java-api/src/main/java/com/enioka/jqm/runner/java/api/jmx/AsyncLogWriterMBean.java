@@ -0,0 +1,70 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.runner.java.api.jmx;
+
+import javax.management.MXBean;
+
+/**
+ * Monitoring interface for the asynchronous writer of the job instance log files.
+ */
+@MXBean
+public interface AsyncLogWriterMBean
+{
+    /**
+     * Size of the buffer shared by all the job instances of the node.
+     */
+    long getBufferCapacityBytes();
+
+    /**
+     * Bytes written by the job instances and not yet written to the log files.
+     */
+    long getBufferedBytes();
+
+    /**
+     * What happens when the buffer is full: block, drop or spill.
+     */
+    String getFullBufferPolicy();
+
+    /**
+     * Bytes written to the log files since startup.
+     */
+    long getWrittenBytes();
+
+    /**
+     * Number of times a job instance has found the buffer full since startup.
+     */
+    long getFullBufferCount();
+
+    /**
+     * Bytes lost since startup because the buffer was full (only with the drop policy).
+     */
+    long getDroppedBytes();
+
+    /**
+     * Average time between the moment data is handed to the writer and the moment it is written to its file.
+     */
+    long getAverageLatencyMicroseconds();
+
+    /**
+     * Longest time between the moment data is handed to the writer and the moment it is written to its file.
+     */
+    long getMaxLatencyMicroseconds();
+
+    /**
+     * Resets all the counters.
+     */
+    void reset();
+}
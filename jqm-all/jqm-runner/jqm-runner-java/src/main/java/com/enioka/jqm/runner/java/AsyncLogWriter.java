@@ -0,0 +1,639 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.runner.java;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enioka.jqm.runner.java.api.jmx.AsyncLogWriterMBean;
+
+/**
+ * Writes the log files of the job instances in a dedicated thread, so that payloads never wait for the disk (as long as the buffer is not
+ * full). Used by the {@link MultiplexPrintStream}s when the global parameter logFileAsync is true.<br>
+ * <br>
+ * The job instance streams hand over their full (or periodically flushed) blocks to a bounded ring buffer shared by all the job instances
+ * of the node. The writer thread takes all the available blocks at once, and writes the blocks of each file with a single gathering write.
+ * When the buffer is full, depending on the {@link Policy}, the payload thread either waits, loses its block, or spills the whole buffer to
+ * the files itself. Blocks are always written in order, whatever the policy.<br>
+ * <br>
+ * The copies of the job instance logs sent to the common log (logFilePerLaunch=both) are handed over the same way, through a separate
+ * buffer and thread so that a slow common log appender does not delay the job instance log files. They are logged in order, under the
+ * name of the payload thread which has written them.
+ */
+class AsyncLogWriter implements Runnable, AsyncLogWriterMBean
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(AsyncLogWriter.class);
+
+    private static final String JMX_NAME = "com.enioka.jqm:type=Node.Logs,name=AsyncLogWriter";
+    private static final int MAX_BATCH_SIZE = 256;
+
+    /**
+     * What a payload thread does when the buffer is full.
+     */
+    enum Policy
+    {
+        /**
+         * Wait for the writer thread to make room. No data is lost, but payloads are slowed down as in synchronous mode.
+         */
+        BLOCK,
+        /**
+         * Throw away the block. Payloads are never slowed down, but their log files are incomplete.
+         */
+        DROP,
+        /**
+         * Write all the buffered blocks (and its own) to the files inside the payload thread. No data is lost and the payload does not
+         * wait for the writer thread to be scheduled.
+         */
+        SPILL
+    }
+
+    /**
+     * A block of bytes to append to a file, or the order to close the file when there are no bytes.
+     */
+    private static final class Chunk
+    {
+        private final FileOutputStream file;
+        private final ByteBuffer data;
+        private final CountDownLatch closed;
+        private final long submitted = System.nanoTime();
+
+        private Chunk(FileOutputStream file, ByteBuffer data, CountDownLatch closed)
+        {
+            this.file = file;
+            this.data = data;
+            this.closed = closed;
+        }
+    }
+
+    /**
+     * A message for the common log.
+     */
+    private static final class Message
+    {
+        private final Logger logger;
+        private final String message;
+        private final String threadName = Thread.currentThread().getName();
+
+        private Message(Logger logger, String message)
+        {
+            this.logger = logger;
+            this.message = message;
+        }
+    }
+
+    private final ArrayBlockingQueue<Chunk> ring;
+    private final ArrayBlockingQueue<Message> messages;
+    private final long capacityBytes;
+    private final Policy policy;
+
+    /**
+     * Held by whoever takes blocks from the ring and writes them, so that the blocks are written in the order they were submitted.
+     */
+    private final Object writeLock = new Object();
+    private final Object logLock = new Object();
+    private volatile boolean run = true;
+    private Thread t, commonLogThread;
+    private ObjectName name = null;
+
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private final AtomicLong fullBufferCount = new AtomicLong();
+    private final AtomicLong droppedBytes = new AtomicLong();
+    private final AtomicLong latencyCount = new AtomicLong();
+    private final AtomicLong latencyTotalNanos = new AtomicLong();
+    private final LongAccumulator latencyMaxNanos = new LongAccumulator(Math::max, 0);
+
+    private AsyncLogWriter(long capacityBytes, Policy policy)
+    {
+        int slots = (int) Math.max(2, capacityBytes / MultiplexPrintStream.BUFFER_SIZE);
+        this.ring = new ArrayBlockingQueue<>(slots);
+        this.messages = new ArrayBlockingQueue<>(slots);
+        this.capacityBytes = (long) slots * MultiplexPrintStream.BUFFER_SIZE;
+        this.policy = policy;
+    }
+
+    /**
+     * Creates and starts the writer.
+     *
+     * @param capacityBytes
+     *            size of the buffer. It is actually counted in blocks of {@link MultiplexPrintStream#BUFFER_SIZE} bytes.
+     */
+    static AsyncLogWriter start(long capacityBytes, Policy policy)
+    {
+        AsyncLogWriter res = new AsyncLogWriter(capacityBytes, policy);
+        res.t = new Thread(res, "Job log writer");
+        res.t.setDaemon(true);
+        res.t.start();
+        res.commonLogThread = new Thread(res::runLogger, "Job common log writer");
+        res.commonLogThread.setDaemon(true);
+        res.commonLogThread.start();
+
+        try
+        {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JMX_NAME);
+            if (!mbs.isRegistered(name))
+            {
+                // Only the first writer of the JVM is visible when there are multiple engines inside the same JVM.
+                mbs.registerMBean(res, name);
+                res.name = name;
+            }
+        }
+        catch (Exception e)
+        {
+            jqmlogger.warn("Could not register the JMX bean of the job log writer", e);
+        }
+
+        jqmlogger.info("Job log files are written asynchronously with a buffer of {} KB (full buffer policy: {})", res.capacityBytes / 1024,
+                policy);
+        return res;
+    }
+
+    /**
+     * Writes everything which is still inside the buffer and stops the writer thread. Blocks submitted after this call are written
+     * synchronously.
+     */
+    void stop()
+    {
+        this.run = false;
+        try
+        {
+            this.t.join();
+            this.commonLogThread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        spill(null); // blocks submitted while stopping.
+        spillMessages(null);
+
+        if (name != null)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            }
+            catch (Exception e)
+            {
+                jqmlogger.warn("Could not unregister the JMX bean of the job log writer", e);
+            }
+        }
+
+        if (droppedBytes.get() > 0)
+        {
+            jqmlogger.warn("{} bytes of job instance logs were lost because the log buffer was full", droppedBytes.get());
+        }
+    }
+
+    /**
+     * Hands over a block to the writer. The block must not be modified afterwards.
+     */
+    void submit(FileOutputStream file, byte[] data, int length) throws IOException
+    {
+        submit(file, data, length, true);
+    }
+
+    /**
+     * @param droppable
+     *            false if the following blocks of the file cannot be read without this one (compressed files). With the {@link Policy#DROP}
+     *            policy, such a block is spilled instead of being lost.
+     */
+    void submit(FileOutputStream file, byte[] data, int length, boolean droppable) throws IOException
+    {
+        Chunk c = new Chunk(file, ByteBuffer.wrap(data, 0, length), null);
+        bufferedBytes.addAndGet(length);
+        if (!run)
+        {
+            spill(c);
+            return;
+        }
+        if (ring.offer(c))
+        {
+            return;
+        }
+
+        fullBufferCount.incrementAndGet();
+        switch (policy)
+        {
+        case DROP:
+            if (!droppable)
+            {
+                spill(c);
+                break;
+            }
+            bufferedBytes.addAndGet(-length);
+            droppedBytes.addAndGet(length);
+            break;
+        case SPILL:
+            spill(c);
+            break;
+        default:
+            put(c);
+        }
+    }
+
+    /**
+     * Hands over a message to log (at info level) in the common log thread. With the {@link Policy#DROP} policy, the message is lost when
+     * the buffer is full.
+     */
+    void submit(Logger logger, String message) throws IOException
+    {
+        Message m = new Message(logger, message);
+        if (!run)
+        {
+            spillMessages(m);
+            return;
+        }
+        if (messages.offer(m))
+        {
+            return;
+        }
+
+        fullBufferCount.incrementAndGet();
+        switch (policy)
+        {
+        case DROP:
+            break;
+        case SPILL:
+            spillMessages(m);
+            break;
+        default:
+            try
+            {
+                messages.put(m);
+            }
+            catch (InterruptedException e)
+            {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /**
+     * Closes the file once all the blocks submitted before have been written. Waits for it, whatever the policy.
+     */
+    void close(FileOutputStream file) throws IOException
+    {
+        Chunk c = new Chunk(file, null, new CountDownLatch(1));
+        if (!run || !ring.offer(c))
+        {
+            if (!run || policy == Policy.SPILL)
+            {
+                spill(c);
+                return;
+            }
+            fullBufferCount.incrementAndGet();
+            put(c);
+        }
+
+        try
+        {
+            while (!c.closed.await(100, TimeUnit.MILLISECONDS))
+            {
+                if (!t.isAlive())
+                {
+                    // Stopped after the block was submitted.
+                    spill(null);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // The writer will close the file anyway.
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void put(Chunk c) throws IOException
+    {
+        try
+        {
+            ring.put(c);
+        }
+        catch (InterruptedException e)
+        {
+            if (c.data != null)
+            {
+                bufferedBytes.addAndGet(-c.data.remaining());
+                droppedBytes.addAndGet(c.data.remaining());
+            }
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Writes all the buffered blocks then the given one (if any) inside the current thread.
+     */
+    private void spill(Chunk c)
+    {
+        synchronized (writeLock)
+        {
+            List<Chunk> batch = new ArrayList<>(ring.size() + 1);
+            ring.drainTo(batch);
+            if (c != null)
+            {
+                batch.add(c);
+            }
+            write(batch, false);
+        }
+    }
+
+    /**
+     * Logs all the buffered messages then the given one (if any) inside the current thread.
+     */
+    private void spillMessages(Message m)
+    {
+        synchronized (logLock)
+        {
+            List<Message> batch = new ArrayList<>(messages.size() + 1);
+            messages.drainTo(batch);
+            if (m != null)
+            {
+                batch.add(m);
+            }
+            log(batch);
+        }
+    }
+
+    private void runLogger()
+    {
+        List<Message> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (true)
+        {
+            synchronized (logLock)
+            {
+                Message first = null;
+                try
+                {
+                    first = messages.poll(100, TimeUnit.MILLISECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    run = false;
+                }
+                if (first == null)
+                {
+                    if (!run && messages.isEmpty())
+                    {
+                        break;
+                    }
+                    continue;
+                }
+
+                batch.add(first);
+                messages.drainTo(batch, MAX_BATCH_SIZE - 1);
+                log(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Logs the given messages, the current thread being renamed for each message as the thread which has submitted it (the thread name is
+     * part of most log patterns).
+     */
+    private static void log(List<Message> batch)
+    {
+        Thread current = Thread.currentThread();
+        String name = current.getName();
+        try
+        {
+            for (Message m : batch)
+            {
+                current.setName(m.threadName);
+                m.logger.info(m.message);
+            }
+        }
+        finally
+        {
+            current.setName(name);
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        List<Chunk> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (true)
+        {
+            synchronized (writeLock)
+            {
+                // The lock is held while waiting, but the ring is never empty when a payload thread wants to spill it.
+                Chunk first = null;
+                try
+                {
+                    first = ring.poll(100, TimeUnit.MILLISECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    run = false;
+                }
+                if (first == null)
+                {
+                    if (!run && ring.isEmpty())
+                    {
+                        break;
+                    }
+                    continue;
+                }
+
+                batch.add(first);
+                ring.drainTo(batch, MAX_BATCH_SIZE - 1);
+                write(batch, true);
+                batch.clear();
+            }
+        }
+        jqmlogger.debug("Job log writer has stopped");
+    }
+
+    /**
+     * Writes the given blocks, with one gathering write per file when inside the writer thread. Payload threads (which spill) write through
+     * the streams, as an interruption of the thread during a write on a channel would close the file.
+     */
+    private void write(List<Chunk> batch, boolean gathering)
+    {
+        Map<FileOutputStream, List<Chunk>> byFile = new LinkedHashMap<>();
+        for (Chunk c : batch)
+        {
+            byFile.computeIfAbsent(c.file, k -> new ArrayList<>()).add(c);
+        }
+
+        for (Map.Entry<FileOutputStream, List<Chunk>> e : byFile.entrySet())
+        {
+            FileOutputStream file = e.getKey();
+            List<ByteBuffer> buffers = new ArrayList<>(e.getValue().size());
+            Chunk close = null;
+            for (Chunk c : e.getValue())
+            {
+                if (c.data == null)
+                {
+                    close = c; // always the last block of its file.
+                }
+                else
+                {
+                    buffers.add(c.data);
+                }
+            }
+
+            long length = 0;
+            for (ByteBuffer b : buffers)
+            {
+                length += b.remaining();
+            }
+            try
+            {
+                if (gathering)
+                {
+                    write(file.getChannel(), buffers.toArray(new ByteBuffer[0]));
+                }
+                else
+                {
+                    for (ByteBuffer b : buffers)
+                    {
+                        file.write(b.array(), b.arrayOffset() + b.position(), b.remaining());
+                    }
+                }
+                writtenBytes.addAndGet(length);
+            }
+            catch (IOException ex)
+            {
+                jqmlogger.warn("Could not write to a job instance log file", ex);
+            }
+            bufferedBytes.addAndGet(-length);
+
+            long now = System.nanoTime();
+            for (Chunk c : e.getValue())
+            {
+                if (c.data != null)
+                {
+                    latencyCount.incrementAndGet();
+                    latencyTotalNanos.addAndGet(now - c.submitted);
+                    latencyMaxNanos.accumulate(now - c.submitted);
+                }
+            }
+
+            if (close != null)
+            {
+                try
+                {
+                    file.close();
+                }
+                catch (IOException ex)
+                {
+                    jqmlogger.warn("Could not close a job instance log file", ex);
+                }
+                close.closed.countDown();
+            }
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer[] buffers) throws IOException
+    {
+        int first = 0;
+        while (first < buffers.length)
+        {
+            channel.write(buffers, first, buffers.length - first);
+            while (first < buffers.length && !buffers[first].hasRemaining())
+            {
+                first++;
+            }
+        }
+    }
+
+    // ///////////////////////////////////////////////////////////////////
+    // JMX
+    // ///////////////////////////////////////////////////////////////////
+
+    @Override
+    public long getBufferCapacityBytes()
+    {
+        return capacityBytes;
+    }
+
+    @Override
+    public long getBufferedBytes()
+    {
+        return bufferedBytes.get();
+    }
+
+    @Override
+    public String getFullBufferPolicy()
+    {
+        return policy.name().toLowerCase();
+    }
+
+    @Override
+    public long getWrittenBytes()
+    {
+        return writtenBytes.get();
+    }
+
+    @Override
+    public long getFullBufferCount()
+    {
+        return fullBufferCount.get();
+    }
+
+    @Override
+    public long getDroppedBytes()
+    {
+        return droppedBytes.get();
+    }
+
+    @Override
+    public long getAverageLatencyMicroseconds()
+    {
+        long count = latencyCount.get();
+        return count == 0 ? 0 : latencyTotalNanos.get() / count / 1000;
+    }
+
+    @Override
+    public long getMaxLatencyMicroseconds()
+    {
+        return latencyMaxNanos.get() / 1000;
+    }
+
+    @Override
+    public void reset()
+    {
+        writtenBytes.set(0);
+        fullBufferCount.set(0);
+        droppedBytes.set(0);
+        latencyCount.set(0);
+        latencyTotalNanos.set(0);
+        latencyMaxNanos.reset();
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.runner.java;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the successive blocks of a log file into a single gzip member, with one deflater kept for the whole file so that the
+ * dictionary is not lost between blocks. Each block ends with a sync flush: everything given so far can be decompressed from the file at
+ * once, even while new blocks are being appended - readers must then accept a stream without its end (EOFException). The end of the
+ * member (last block, CRC and size) is only written by {@link #finish()}.<br>
+ * Not thread safe.
+ */
+class GzipStreamEncoder
+{
+    // Magic, deflate, no flags, no time, no extra flags, unknown OS.
+    private static final byte[] HEADER = new byte[] { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+    private static final int TRAILER_SIZE = 8;
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private boolean started = false;
+    private long size = 0;
+
+    /**
+     * @return a new array containing the compressed block (preceded by the gzip header for the first block), which can be appended to the
+     *         file.
+     */
+    byte[] encode(byte[] b, int len)
+    {
+        deflater.setInput(b, 0, len);
+        crc.update(b, 0, len);
+        size += len;
+
+        // Deflate can make incompressible data slightly bigger.
+        byte[] res = new byte[HEADER.length + len + len / 100 + 64];
+        int count = header(res);
+        while (true)
+        {
+            count += deflater.deflate(res, count, res.length - count, Deflater.SYNC_FLUSH);
+            if (count < res.length)
+            {
+                // Room was left: all the input was compressed and flushed.
+                break;
+            }
+            res = Arrays.copyOf(res, res.length * 2);
+        }
+        return count == res.length ? res : Arrays.copyOf(res, count);
+    }
+
+    /**
+     * @return a new array containing the end of the gzip member, or an empty array if nothing was ever encoded (the file stays empty).
+     */
+    byte[] finish()
+    {
+        if (!started)
+        {
+            return new byte[0];
+        }
+        deflater.finish();
+        byte[] res = new byte[64 + TRAILER_SIZE];
+        int count = 0;
+        while (!deflater.finished())
+        {
+            if (count == res.length - TRAILER_SIZE)
+            {
+                res = Arrays.copyOf(res, res.length * 2);
+            }
+            count += deflater.deflate(res, count, res.length - TRAILER_SIZE - count);
+        }
+
+        writeInt(res, count, (int) crc.getValue());
+        writeInt(res, count + 4, (int) size); // Size modulo 2^32, as per RFC 1952.
+        return count + TRAILER_SIZE == res.length ? res : Arrays.copyOf(res, count + TRAILER_SIZE);
+    }
+
+    private int header(byte[] res)
+    {
+        if (started)
+        {
+            return 0;
+        }
+        started = true;
+        System.arraycopy(HEADER, 0, res, 0, HEADER.length);
+        return HEADER.length;
+    }
+
+    private static void writeInt(byte[] b, int off, int value)
+    {
+        // Little endian.
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >> 8);
+        b[off + 2] = (byte) (value >> 16);
+        b[off + 3] = (byte) (value >> 24);
+    }
+
+    /**
+     * Frees the native memory of the deflater.
+     */
+    void end()
+    {
+        deflater.end();
+    }
+}
@@ -54,7 +54,7 @@ class JavaJobInstanceTracker implements JobInstanceTracker, JavaJobInstanceTrack
     private final JobRunnerCallback engineCallback;
     private final ClassloaderManager clm;
 
-    private Thread mainThread;
+    private volatile Thread mainThread;
 
     private ObjectName name = null;
     private ClassLoader classLoaderToRestoreAtEnd = null;
@@ -168,6 +168,9 @@ class JavaJobInstanceTracker implements JobInstanceTracker, JavaJobInstanceTrack
     @Override
     public void wrap()
     {
+        // The thread may be reused by another job instance (thread pool): a late kill must not interrupt it.
+        mainThread = null;
+
         // Restore and clean class loaders (if needed, as CLs may be persistent)
         if (this.classLoaderToRestoreAtEnd != null)
         {
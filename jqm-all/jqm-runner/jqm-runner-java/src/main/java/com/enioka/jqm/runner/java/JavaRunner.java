@@ -5,6 +5,8 @@ import java.util.ServiceLoader;
 
 import org.apache.commons.io.FilenameUtils;
 import org.kohsuke.MetaInfServices;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.enioka.jqm.api.JavaJobRunner;
 import com.enioka.jqm.api.JobManager;
@@ -26,9 +28,12 @@ import com.enioka.jqm.shared.services.ServiceLoaderHelper;
 @MetaInfServices(JobRunner.class)
 public class JavaRunner implements JobRunner
 {
+    private static Logger jqmlogger = LoggerFactory.getLogger(JavaRunner.class);
+
     private ClassloaderManager classloaderManager;
     private boolean oneLogPerLaunch = false;
     private PrintStream originalStdOut, originalStdErr;
+    private AsyncLogWriter asyncLogWriter = null;
 
     @Override
     public void close()
@@ -45,6 +50,11 @@ public class JavaRunner implements JobRunner
             System.setOut(originalStdOut);
             System.setErr(originalStdErr);
         }
+
+        if (asyncLogWriter != null)
+        {
+            asyncLogWriter.stop();
+        }
     }
 
     public JavaRunner()
@@ -73,12 +83,37 @@ public class JavaRunner implements JobRunner
                 String rootPath = ExtClassLoader.getRootDir();
                 String logDirectory = FilenameUtils.concat(rootPath, "logs");
 
+                // Optional writer thread shared by stdout and stderr
+                if (Boolean.parseBoolean(GlobalParameter.getParameter(cnx, "logFileAsync", "false")))
+                {
+                    long size = Long.parseLong(GlobalParameter.getParameter(cnx, "logFileAsyncBufferKb", "4096")) * 1024;
+                    String policy = GlobalParameter.getParameter(cnx, "logFileAsyncFullPolicy", "block").toUpperCase();
+                    AsyncLogWriter.Policy p = AsyncLogWriter.Policy.BLOCK;
+                    try
+                    {
+                        p = AsyncLogWriter.Policy.valueOf(policy);
+                    }
+                    catch (IllegalArgumentException e)
+                    {
+                        jqmlogger.warn("Unknown logFileAsyncFullPolicy {} - block will be used instead", policy);
+                    }
+                    asyncLogWriter = AsyncLogWriter.start(size, p);
+                }
+
+                // Compression. (the purge of old files is done by the engine)
+                String compression = GlobalParameter.getParameter(cnx, "logFileCompression", "none");
+                boolean compress = "gzip".equals(compression);
+                if (!compress && !"none".equals(compression))
+                {
+                    jqmlogger.warn("Unknown logFileCompression {} - log files will not be compressed", compression);
+                }
+
                 // Override stdout so that we are able to capture it inside log files.
-                MultiplexPrintStream s = new MultiplexPrintStream(System.out, logDirectory, "both".equals(gp1));
+                MultiplexPrintStream s = new MultiplexPrintStream(System.out, logDirectory, "both".equals(gp1), asyncLogWriter, compress);
                 System.setOut(s);
 
                 // Same with stderr
-                s = new MultiplexPrintStream(System.err, logDirectory, "both".equals(gp1));
+                s = new MultiplexPrintStream(System.err, logDirectory, "both".equals(gp1), asyncLogWriter, compress);
                 System.setErr(s);
 
                 // Redirect JQM's own logging to the multiplexing stdout.
@@ -15,19 +15,18 @@
  */
 package com.enioka.jqm.runner.java;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.PrintStream;
-import java.io.Writer;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.charset.Charset;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.runner.api.JobOutputMultiplexer;
 
 import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
@@ -37,54 +36,262 @@ import org.slf4j.LoggerFactory;
  * The goal of this Stream is to provide a replacement for stdout/err in which every running job instance has its own personal flow. This is
  * basically flow multiplexing, with the multiplexing key being the caller Thread object. Used by default, can be disabled with a
  * {@link GlobalParameter}. <br>
- * Should a payload create a new thread, its stdout would go to the global log as the multiplexing key is the Thread. But is not a big deal
- * as creating threads inside an app server is not a good idea anyway.<br>
+ * Only the registered thread of a job instance writes to its log file: the threads it creates are not registered (they may be shared
+ * threads, such as the common fork-join pool, which outlive the job instance) and write to the global log. Other threads (such as the ones
+ * copying the output of a process) can write to the log file through {@link #getCurrentThreadOutput()} called by the registered thread.
+ * <br>
+ * <br>
+ * Bytes are written as they are to the log file of the job instance (no decoding), through a buffer owned by the job instance. The stream
+ * of the current thread is found with a thread local, so writing threads never wait for each other. Buffers are written to the files when
+ * full, when the payload flushes the stream, and at least every {@value #FLUSH_PERIOD_MS}ms by a daemon thread shared by all the streams.
+ * Threads which are not running a job instance write to the original stream, which is flushed on each write.<br>
+ * <br>
+ * When an {@link AsyncLogWriter} is given, the buffers are not written by the job instance threads but handed over to this writer. When
+ * compression is enabled, each buffer is compressed by a {@link GzipStreamEncoder} owned by the job instance, so the .gz file is a single
+ * gzip stream whose end is written when the job instance ends. The copies of the logs sent to the common log (when it is used) are also
+ * handed over to the writer, so that the payloads do not wait for the appenders of the common log either.
  * <br>
  * This is a variant of the SiftingAppender of logback-classic (which is not used here as way too specific)
  */
-class MultiplexPrintStream extends PrintStream
+class MultiplexPrintStream extends PrintStream implements JobOutputMultiplexer
 {
     private static Logger jqmlogger = (Logger) LoggerFactory.getLogger(MultiplexPrintStream.class);
     private static Logger alljobslogger = (Logger) LoggerFactory.getLogger("alljobslogger");
-    private static String ls = System.getProperty("line.separator");
 
-    private BufferedWriter original = null;
+    static final int BUFFER_SIZE = 8192;
+    static final long FLUSH_PERIOD_MS = 500;
+
+    /**
+     * All the job instance streams of all the multiplexing streams, for the flusher thread.
+     */
+    private static final Set<JobOutput> openOutputs = ConcurrentHashMap.newKeySet();
+    private static Thread flusher = null;
+
+    private final Charset charset = Charset.defaultCharset();
+    private final byte[] lineSeparator = System.lineSeparator().getBytes(charset);
+    private final ThreadLocal<JobOutput> outputs = new ThreadLocal<>();
     private boolean useCommonLogFile = false;
+    private final AsyncLogWriter writer;
+    private final boolean compress;
 
-    private Map<String, BufferedWriter> writers = new HashMap<>();
     public String rootLogDir;
 
     MultiplexPrintStream(OutputStream out, String rootLogDir, boolean alsoWriteToCommonLog)
+    {
+        this(out, rootLogDir, alsoWriteToCommonLog, null, false);
+    }
+
+    /**
+     * @param writer
+     *            if null, the job instance threads write their own log files.
+     * @param compress
+     *            if true, log files are gzip files, and their name ends with .gz.
+     */
+    MultiplexPrintStream(OutputStream out, String rootLogDir, boolean alsoWriteToCommonLog, AsyncLogWriter writer, boolean compress)
     {
         super(out);
         this.useCommonLogFile = alsoWriteToCommonLog;
-        this.original = new BufferedWriter(new OutputStreamWriter(out));
         this.rootLogDir = rootLogDir;
+        this.writer = writer;
+        this.compress = compress;
 
         File d = new File(this.rootLogDir);
         if (!d.isDirectory() && !d.mkdir())
         {
             throw new RuntimeException("could not create log dir " + this.rootLogDir);
         }
+        startFlusher();
     }
 
-    private BufferedWriter getWriter()
+    /**
+     * The buffered log file of a single job instance. Only written by the thread running the job instance, but also flushed by the flusher
+     * thread - hence the (uncontended most of the time) lock. With an asynchronous writer, full buffers are handed over to the writer and
+     * replaced.
+     */
+    private static final class JobOutput
     {
-        BufferedWriter res = writers.get(Thread.currentThread().getName());
-        if (res == null)
+        private final FileOutputStream file;
+        private final AsyncLogWriter writer;
+        private final GzipStreamEncoder gzip;
+        private byte[] buffer = new byte[BUFFER_SIZE];
+        private int count = 0;
+        private volatile boolean closed = false;
+
+        private JobOutput(FileOutputStream file, AsyncLogWriter writer, boolean compress)
+        {
+            this.file = file;
+            this.writer = writer;
+            this.gzip = compress ? new GzipStreamEncoder() : null;
+        }
+
+        synchronized void write(byte[] b, int off, int len, byte[] suffix) throws IOException
+        {
+            append(b, off, len);
+            if (suffix != null)
+            {
+                append(suffix, 0, suffix.length);
+            }
+        }
+
+        synchronized void write(int b) throws IOException
+        {
+            if (closed)
+            {
+                return;
+            }
+            if (count == buffer.length)
+            {
+                flushBuffer();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        private void append(byte[] b, int off, int len) throws IOException
         {
-            return this.original;
+            if (closed)
+            {
+                return;
+            }
+            if (len > buffer.length - count)
+            {
+                flushBuffer();
+            }
+            if (len >= buffer.length && writer == null && gzip == null)
+            {
+                // Too big to be worth a copy.
+                file.write(b, off, len);
+                return;
+            }
+            while (len > 0)
+            {
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == buffer.length)
+                {
+                    flushBuffer();
+                }
+            }
+        }
+
+        synchronized void flushBuffer() throws IOException
+        {
+            if (count == 0 || closed)
+            {
+                return;
+            }
+            if (gzip != null)
+            {
+                byte[] block = gzip.encode(buffer, count);
+                count = 0;
+                writeCompressed(block);
+            }
+            else if (writer == null)
+            {
+                file.write(buffer, 0, count);
+                count = 0;
+            }
+            else
+            {
+                byte[] full = buffer;
+                int length = count;
+                buffer = new byte[BUFFER_SIZE];
+                count = 0;
+                writer.submit(file, full, length);
+            }
+        }
+
+        private void writeCompressed(byte[] block) throws IOException
+        {
+            if (block.length == 0)
+            {
+                return;
+            }
+            if (writer == null)
+            {
+                file.write(block);
+            }
+            else
+            {
+                writer.submit(file, block, block.length, false);
+            }
+        }
+
+        synchronized void close() throws IOException
+        {
+            try
+            {
+                flushBuffer();
+                if (gzip != null && !closed)
+                {
+                    writeCompressed(gzip.finish());
+                }
+            }
+            finally
+            {
+                closed = true;
+                if (gzip != null)
+                {
+                    gzip.end();
+                }
+                if (writer == null)
+                {
+                    file.close();
+                }
+                else
+                {
+                    writer.close(file);
+                }
+            }
         }
-        return res;
     }
 
-    void registerThread(String fileName)
+    private static synchronized void startFlusher()
+    {
+        if (flusher != null)
+        {
+            return;
+        }
+        flusher = new Thread(() -> {
+            while (true)
+            {
+                try
+                {
+                    Thread.sleep(FLUSH_PERIOD_MS);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                for (JobOutput o : openOutputs)
+                {
+                    try
+                    {
+                        o.flushBuffer();
+                    }
+                    catch (IOException e)
+                    {
+                        // don't log exceptions, it could trigger a StackOverflow
+                    }
+                }
+            }
+        }, "Job log flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public void registerThread(String fileName)
     {
         try
         {
             unregisterThread();
-            Writer w = new FileWriter(FilenameUtils.concat(rootLogDir, fileName), true);
-            writers.put(Thread.currentThread().getName(), new BufferedWriter(w));
+            String path = FilenameUtils.concat(rootLogDir, compress ? fileName + ".gz" : fileName);
+            JobOutput o = new JobOutput(new FileOutputStream(path, true), writer, compress);
+            outputs.set(o);
+            openOutputs.add(o);
         }
         catch (IOException e)
         {
@@ -93,16 +300,19 @@ class MultiplexPrintStream extends PrintStream
         }
     }
 
-    void unregisterThread()
+    @Override
+    public void unregisterThread()
     {
+        JobOutput o = outputs.get();
+        outputs.remove();
+        if (o == null)
+        {
+            return;
+        }
+        openOutputs.remove(o);
         try
         {
-            BufferedWriter bf = getWriter();
-            if (bf != original)
-            {
-                bf.close();
-                this.writers.remove(Thread.currentThread().getName());
-            }
+            o.close();
         }
         catch (IOException e)
         {
@@ -111,13 +321,13 @@ class MultiplexPrintStream extends PrintStream
         }
     }
 
-    /** Check to make sure that the stream has not been closed */
-    private void ensureOpen() throws IOException
+    /**
+     * @return null if the current thread does not run a job instance (anymore).
+     */
+    private JobOutput current()
     {
-        if (out == null)
-        {
-            throw new IOException("Stream closed");
-        }
+        JobOutput o = outputs.get();
+        return o == null || o.closed ? null : o;
     }
 
     private void write(String s)
@@ -127,21 +337,119 @@ class MultiplexPrintStream extends PrintStream
 
     private void write(String s, boolean newLine)
     {
-        BufferedWriter textOut = getWriter();
+        byte[] b = s.getBytes(charset);
+        JobOutput o = current();
+        if (o == null)
+        {
+            writeOriginal(b, 0, b.length, newLine ? lineSeparator : null);
+            return;
+        }
+
         try
         {
-            ensureOpen();
-            textOut.write(s);
-            if (newLine)
+            o.write(b, 0, b.length, newLine ? lineSeparator : null);
+        }
+        catch (InterruptedIOException x)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException x)
+        {
+            // don't log exceptions, it could trigger a StackOverflow
+        }
+
+        if (useCommonLogFile)
+        {
+            writeCommon(newLine ? s + System.lineSeparator() : s);
+        }
+    }
+
+    private void writeCommon(String s)
+    {
+        if (writer == null)
+        {
+            alljobslogger.info(s);
+            return;
+        }
+
+        try
+        {
+            writer.submit(alljobslogger, s);
+        }
+        catch (InterruptedIOException x)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException x)
+        {
+            // don't log exceptions, it could trigger a StackOverflow
+        }
+    }
+
+    private synchronized void writeOriginal(byte[] b, int off, int len, byte[] suffix)
+    {
+        super.write(b, off, len);
+        if (suffix != null)
+        {
+            super.write(suffix, 0, suffix.length);
+        }
+        super.flush();
+    }
+
+    @Override
+    public OutputStream getCurrentThreadOutput()
+    {
+        final JobOutput o = current();
+        if (o == null)
+        {
+            return this;
+        }
+        return new OutputStream()
+        {
+            @Override
+            public void write(int b)
+            {
+                MultiplexPrintStream.this.write(o, new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len)
             {
-                textOut.newLine();
+                MultiplexPrintStream.this.write(o, b, off, len);
             }
-            textOut.flush();
 
-            if (useCommonLogFile && textOut != original)
+            @Override
+            public void flush()
             {
-                alljobslogger.info(s + (newLine ? ls : ""));
+                try
+                {
+                    o.flushBuffer();
+                }
+                catch (IOException x)
+                {
+                    // don't log exceptions, it could trigger a StackOverflow
+                }
             }
+        };
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len)
+    {
+        write(current(), buf, off, len);
+    }
+
+    private void write(JobOutput o, byte[] buf, int off, int len)
+    {
+        if (o == null || o.closed)
+        {
+            writeOriginal(buf, off, len, null);
+            return;
+        }
+
+        try
+        {
+            o.write(buf, off, len, null);
         }
         catch (InterruptedIOException x)
         {
@@ -151,13 +459,55 @@ class MultiplexPrintStream extends PrintStream
         {
             // don't log exceptions, it could trigger a StackOverflow
         }
+
+        if (useCommonLogFile)
+        {
+            writeCommon(new String(buf, off, len, charset));
+        }
     }
 
-    // TODO: write something that's not a performance hog...
     @Override
-    public void write(byte[] buf, int off, int len)
+    public void write(int b)
     {
-        write(new String(buf, off, len));
+        JobOutput o = current();
+        if (o == null)
+        {
+            super.write(b);
+            return;
+        }
+
+        try
+        {
+            o.write(b);
+        }
+        catch (InterruptedIOException x)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException x)
+        {
+            // don't log exceptions, it could trigger a StackOverflow
+        }
+    }
+
+    @Override
+    public void flush()
+    {
+        JobOutput o = current();
+        if (o == null)
+        {
+            super.flush();
+            return;
+        }
+
+        try
+        {
+            o.flushBuffer();
+        }
+        catch (IOException x)
+        {
+            // don't log exceptions, it could trigger a StackOverflow
+        }
     }
 
     // ///////////////////////////////////////////////////////////////////
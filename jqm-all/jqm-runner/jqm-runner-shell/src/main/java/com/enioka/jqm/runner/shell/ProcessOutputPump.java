@@ -0,0 +1,225 @@
+package com.enioka.jqm.runner.shell;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enioka.jqm.runner.api.JobOutputMultiplexer;
+
+/**
+ * Copies the output (stdout, stderr) of the processes to the logs of their job instance, so as to avoid buffers being filled and
+ * subsequent locks.<br>
+ * <br>
+ * A few threads shared by all the processes of the node do the copy, instead of two threads per process. Each thread loops on the
+ * process streams it was given, and only reads the bytes which are already available (so it never blocks on a silent process). Bytes are
+ * copied as they are, by chunks: no decoding, and no limit on the length of a line. When no stream had anything to read, the thread waits
+ * a little, longer and longer up to {@value #MAX_IDLE_WAIT_MS}ms while all processes are silent.
+ */
+class ProcessOutputPump implements Runnable
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(ProcessOutputPump.class);
+
+    static final int CHUNK_SIZE = 65536;
+    static final int MIN_IDLE_WAIT_MS = 5;
+    static final int MAX_IDLE_WAIT_MS = 100;
+    private static final int THREAD_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    private static ProcessOutputPump[] pumps = null;
+    private static int nextPump = 0;
+
+    private final List<Pipe> pipes = new CopyOnWriteArrayList<>();
+    private final byte[] buffer = new byte[CHUNK_SIZE];
+
+    /**
+     * One output of one process.
+     */
+    private static final class Pipe
+    {
+        private final Process process;
+        private final InputStream in;
+        private final OutputStream out;
+        private final CountDownLatch end;
+
+        private Pipe(Process process, InputStream in, OutputStream out, CountDownLatch end)
+        {
+            this.process = process;
+            this.in = in;
+            this.out = out;
+            this.end = end;
+        }
+
+        /**
+         * @return the number of bytes copied, or -1 if the process has exited and all its output was copied.
+         */
+        private int pump(byte[] buffer)
+        {
+            try
+            {
+                int available = in.available();
+                if (available > 0)
+                {
+                    int read = in.read(buffer, 0, Math.min(available, buffer.length));
+                    if (read > 0)
+                    {
+                        out.write(buffer, 0, read);
+                        return read;
+                    }
+                    return read < 0 ? -1 : 0;
+                }
+
+                // Nothing to read. Once the process has exited, remaining bytes are still reported by available(): check again, as bytes
+                // may have been written just before the exit.
+                if (process.isAlive())
+                {
+                    return 0;
+                }
+                return in.available() > 0 ? 0 : -1;
+            }
+            catch (IOException e)
+            {
+                // Stream closed (process killed...)
+                jqmlogger.debug("Standard flow reading has ended on an error", e);
+                return -1;
+            }
+        }
+
+        private void close()
+        {
+            try
+            {
+                out.flush();
+                in.close();
+            }
+            catch (IOException e)
+            {
+                jqmlogger.warn("Could not close a process output", e);
+            }
+            finally
+            {
+                end.countDown();
+            }
+        }
+    }
+
+    /**
+     * Starts copying the outputs of the process to the stdout/stderr of the job instance run by the calling thread.
+     */
+    static Waiter plumbProcess(Process p)
+    {
+        return plumbProcess(p, outputOf(System.out), outputOf(System.err));
+    }
+
+    static Waiter plumbProcess(Process p, OutputStream stdout, OutputStream stderr)
+    {
+        Waiter res = new Waiter();
+        res.stdout = nextPump();
+        res.stderr = nextPump();
+        res.stdout.add(new Pipe(p, p.getInputStream(), stdout, res.end));
+        res.stderr.add(new Pipe(p, p.getErrorStream(), stderr, res.end));
+        return res;
+    }
+
+    private static OutputStream outputOf(PrintStream s)
+    {
+        // When the engine gives a log file per job instance, the pump threads must write into the file of the current job instance.
+        return s instanceof JobOutputMultiplexer ? ((JobOutputMultiplexer) s).getCurrentThreadOutput() : s;
+    }
+
+    private static synchronized ProcessOutputPump nextPump()
+    {
+        if (pumps == null)
+        {
+            pumps = new ProcessOutputPump[THREAD_COUNT];
+            for (int i = 0; i < pumps.length; i++)
+            {
+                pumps[i] = new ProcessOutputPump();
+                Thread t = new Thread(pumps[i], "Shell output pump " + i);
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+        nextPump = (nextPump + 1) % pumps.length;
+        return pumps[nextPump];
+    }
+
+    private void add(Pipe pipe)
+    {
+        pipes.add(pipe);
+        wakeUp();
+    }
+
+    synchronized void wakeUp()
+    {
+        this.notifyAll();
+    }
+
+    @Override
+    public void run()
+    {
+        long idleWait = MIN_IDLE_WAIT_MS;
+        while (true)
+        {
+            boolean copied = false;
+            for (Pipe pipe : pipes)
+            {
+                int res = pipe.pump(buffer);
+                if (res < 0)
+                {
+                    pipes.remove(pipe);
+                    pipe.close();
+                }
+                copied |= res > 0;
+            }
+
+            if (copied)
+            {
+                idleWait = MIN_IDLE_WAIT_MS;
+                continue;
+            }
+            try
+            {
+                synchronized (this)
+                {
+                    // A new or ended process wakes the thread up.
+                    this.wait(pipes.isEmpty() ? 0 : idleWait);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            idleWait = Math.min(MAX_IDLE_WAIT_MS, idleWait * 2);
+        }
+    }
+}
+
+class Waiter
+{
+    final CountDownLatch end = new CountDownLatch(2);
+    ProcessOutputPump stdout, stderr;
+
+    /**
+     * To be called once the process has exited.
+     */
+    public void waitForEnd()
+    {
+        // Do not wait for the pumps to notice the end of the process.
+        stdout.wakeUp();
+        stderr.wakeUp();
+        try
+        {
+            end.await();
+        }
+        catch (InterruptedException e)
+        {
+            // Nothing to do.
+        }
+    }
+}
@@ -18,9 +18,11 @@ import com.enioka.jqm.model.Instruction;
 import com.enioka.jqm.model.JobInstance;
 import com.enioka.jqm.model.State;
 import com.enioka.jqm.runner.api.JobInstanceTracker;
+import com.enioka.jqm.runner.api.JobOutputMultiplexer;
 import com.enioka.jqm.runner.api.JobRunnerCallback;
 import com.enioka.jqm.runner.shell.api.jmx.ShellJobInstanceTrackerMBean;
 
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -134,10 +136,11 @@ class ShellJobInstanceTracker implements JobInstanceTracker, ShellJobInstanceTra
             return State.CRASHED;
         }
 
-        // Wait for end, flushing logs.
+        // Wait for end, flushing logs. The outputs go to the log files of the job instance, as for a Java payload.
+        registerLogFiles();
         try
         {
-            Waiter w = StreamGobbler.plumbProcess(process);
+            Waiter w = ProcessOutputPump.plumbProcess(process);
             int res = process.waitFor();
             jqmlogger.debug("Shell payload " + this.ji.getId() + " - the external process has exited with RC " + res);
             w.waitForEnd();
@@ -155,6 +158,30 @@ class ShellJobInstanceTracker implements JobInstanceTracker, ShellJobInstanceTra
             jqmlogger.warn("Shell job plumbing has failed", e);
             return State.CRASHED;
         }
+        finally
+        {
+            unregisterLogFiles();
+        }
+    }
+
+    private void registerLogFiles()
+    {
+        String fileName = StringUtils.leftPad("" + this.ji.getId(), 10, "0");
+        if (System.out instanceof JobOutputMultiplexer && System.err instanceof JobOutputMultiplexer)
+        {
+            ((JobOutputMultiplexer) System.out).registerThread(fileName + ".stdout.log");
+            ((JobOutputMultiplexer) System.err).registerThread(fileName + ".stderr.log");
+        }
+    }
+
+    private void unregisterLogFiles()
+    {
+        // If the process is still running (interrupted thread), its remaining output goes to the original streams.
+        if (System.out instanceof JobOutputMultiplexer && System.err instanceof JobOutputMultiplexer)
+        {
+            ((JobOutputMultiplexer) System.out).unregisterThread();
+            ((JobOutputMultiplexer) System.err).unregisterThread();
+        }
     }
 
     @Override
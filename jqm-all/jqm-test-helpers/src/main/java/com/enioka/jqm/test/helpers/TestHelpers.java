@@ -121,6 +121,10 @@ public class TestHelpers
         cnx.runUpdate("deliverable_delete_all");
         cnx.runUpdate("dp_delete_all");
         cnx.runUpdate("message_delete_all");
+        cnx.runUpdate("qs_delete_all");
+        cnx.runUpdate("rml_delete_all");
+        cnx.runUpdate("rmc_delete_all");
+        cnx.runUpdate("hl_delete_all");
         cnx.runUpdate("history_delete_all");
         cnx.runUpdate("sjprm_delete_all");
         cnx.runUpdate("sj_delete_all");
@@ -0,0 +1,594 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.ws.api;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enioka.jqm.jdbc.DbConn;
+
+import jakarta.ws.rs.core.StreamingOutput;
+
+/**
+ * Sends (parts of) job instance log files. Files are read through a {@link FileChannel} positioned by the caller, and copied with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)} so that the JVM never needs to hold the file in memory.<br>
+ * <br>
+ * Followed logs are sent as chunked asynchronous responses, so no request thread waits for new bytes. A single thread shared by all the
+ * followers of the web application polls their files (or the streams they relay) and queues what is new. It only runs while there are
+ * followers. The chunks are written by a pool of writer threads, one at a time for a given follower, so a slow client only delays itself:
+ * its log is not read further while it is more than {@link #FOLLOW_MAX_PENDING_BYTES} behind, and it is disconnected if it stays so for
+ * {@link #FOLLOW_MAX_STALL_MS}.
+ */
+class LogFileStreamer
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(LogFileStreamer.class);
+
+    // Engines flush log files at least every 0.5s, no need to poll more often.
+    static final int FOLLOW_POLL_MS = 500;
+    // Checking if the job instance has ended costs a query, so it is not done at each poll.
+    static final int FOLLOW_END_CHECK_MS = 2000;
+    // A follower starting at the beginning of a big file must not delay the others for too long.
+    private static final int FOLLOW_MAX_BYTES_PER_POLL = 1024 * 1024;
+    // Bytes read but not yet accepted by the client above which a follower is not polled. Bounds the memory used by a slow client.
+    private static final int FOLLOW_MAX_PENDING_BYTES = FOLLOW_MAX_BYTES_PER_POLL;
+    // A client which has not caught up for that long is considered gone.
+    private static final int FOLLOW_MAX_STALL_MS = 60000;
+    private static final int CHUNK_SIZE = 65536;
+
+    private static final List<Follower> followers = new CopyOnWriteArrayList<>();
+    private static final Object pollerLock = new Object();
+    private static Thread poller = null;
+
+    // Idle writers do not live long, so nothing outlives the web application when there is no follower.
+    private static final ExecutorService writers = new ThreadPoolExecutor(0, Integer.MAX_VALUE, FOLLOW_END_CHECK_MS, TimeUnit.MILLISECONDS,
+            new SynchronousQueue<>(), r -> {
+                Thread t = new Thread(r, "Log follow writer");
+                t.setDaemon(true);
+                return t;
+            });
+    // Queued after the last chunk of a follower, closes its response.
+    private static final byte[] END = new byte[0];
+
+    private LogFileStreamer()
+    {}
+
+    /**
+     * Sends length bytes of the file, starting at position start.
+     */
+    static StreamingOutput range(final File file, final long start, final long length)
+    {
+        return output -> {
+            try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+            {
+                transfer(ch, start, start + length, Channels.newChannel(output));
+            }
+        };
+    }
+
+    /**
+     * Sends the decompressed content of a gzip file, which may still be being written.
+     */
+    static StreamingOutput decompressed(final InputStream compressed)
+    {
+        return output -> copyDecompressed(compressed, output);
+    }
+
+    /**
+     * Sends the file from the given position, then the bytes appended to it as they are written, until the job instance has ended. The
+     * file may not exist yet (job instance not started).<br>
+     * A compressed file cannot be positioned by uncompressed offset: it is decompressed from the start, skipping the bytes before the given
+     * position, by a stream which is then kept open to decompress the new blocks as they are written.
+     */
+    static ChunkedOutput<byte[]> follow(File file, File compressedFile, int jobId, long from)
+    {
+        return add(new FileFollower(file, compressedFile, jobId, from));
+    }
+
+    /**
+     * Sends a stream which is still being received (the log of a job instance followed on another node), each block as a chunk. The
+     * stream must report the bytes it has already received through {@link InputStream#available()} - including its end, as the streams of
+     * the JDK HTTP client do - so that reading it never blocks.
+     */
+    static ChunkedOutput<byte[]> relay(InputStream in)
+    {
+        return add(new StreamFollower(in));
+    }
+
+    /**
+     * A followed log. Read by the poller thread only, its chunks are queued for the writer threads.
+     */
+    private abstract static class Follower
+    {
+        final ChunkedOutput<byte[]> output = new ChunkedOutput<>(byte[].class);
+
+        private final Queue<byte[]> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicLong pendingBytes = new AtomicLong();
+        private final AtomicBoolean writing = new AtomicBoolean();
+        private volatile boolean failed = false;
+        private long backedUpSince = 0;
+
+        /**
+         * Reads at most {@link LogFileStreamer#FOLLOW_MAX_BYTES_PER_POLL} new bytes, and queues those which must be sent.
+         *
+         * @return the number of bytes read, or -1 if the log is complete.
+         */
+        abstract long poll() throws IOException;
+
+        /**
+         * Frees what is used to read the log.
+         */
+        abstract void release();
+
+        /**
+         * Queues a chunk for the client. Never blocks.
+         */
+        void send(byte[] chunk)
+        {
+            pendingBytes.addAndGet(chunk.length);
+            pending.add(chunk);
+            startWriter();
+        }
+
+        /**
+         * Closes the response once the queued chunks are written (or immediately if the client has failed).
+         */
+        void end()
+        {
+            release();
+            pending.add(END);
+            startWriter();
+        }
+
+        private void startWriter()
+        {
+            if (writing.compareAndSet(false, true))
+            {
+                writers.execute(this::write);
+            }
+        }
+
+        private void write()
+        {
+            byte[] chunk;
+            while ((chunk = pending.poll()) != null)
+            {
+                if (chunk == END)
+                {
+                    try
+                    {
+                        output.close();
+                    }
+                    catch (IOException e)
+                    {
+                        jqmlogger.debug("Could not close a log follow response", e);
+                    }
+                }
+                else if (!failed)
+                {
+                    try
+                    {
+                        output.write(chunk);
+                    }
+                    catch (IOException e)
+                    {
+                        // Client gone. The remaining chunks are dropped.
+                        jqmlogger.debug("Log follow has ended on an error", e);
+                        failed = true;
+                    }
+                }
+                pendingBytes.addAndGet(-chunk.length);
+            }
+            writing.set(false);
+
+            // A chunk queued after the last poll of the queue but before the flag was reset has not started a writer.
+            if (!pending.isEmpty())
+            {
+                startWriter();
+            }
+        }
+    }
+
+    private static final class FileFollower extends Follower
+    {
+        private final File file, compressedFile;
+        private final int jobId;
+        private final long from;
+        private FileChannel ch = null;
+        private final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        private FollowedGzipStream gz = null;
+        private long position, decompressed = 0, lastEndCheck = 0;
+        private boolean ended = false;
+
+        private FileFollower(File file, File compressedFile, int jobId, long from)
+        {
+            this.file = file;
+            this.compressedFile = compressedFile;
+            this.jobId = jobId;
+            this.from = from;
+            this.position = from;
+        }
+
+        @Override
+        long poll() throws IOException
+        {
+            long read;
+            if (ch == null && gz == null && file.isFile())
+            {
+                ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            }
+            if (ch != null)
+            {
+                read = sendPlain();
+            }
+            else
+            {
+                read = sendDecompressed();
+            }
+
+            if (read > 0)
+            {
+                return read;
+            }
+            if (ended)
+            {
+                return -1;
+            }
+            if (System.currentTimeMillis() - lastEndCheck > FOLLOW_END_CHECK_MS)
+            {
+                lastEndCheck = System.currentTimeMillis();
+                // Once ended, the log is complete: one last read is needed, done at the next poll.
+                ended = isEnded(jobId);
+            }
+            return 0;
+        }
+
+        private long sendPlain() throws IOException
+        {
+            long sent = 0;
+            while (sent < FOLLOW_MAX_BYTES_PER_POLL)
+            {
+                buffer.clear();
+                int read = ch.read(buffer, position);
+                if (read <= 0)
+                {
+                    break;
+                }
+                send(Arrays.copyOf(buffer.array(), read));
+                position += read;
+                sent += read;
+            }
+            return sent;
+        }
+
+        /**
+         * The file is a single gzip stream, which is only terminated once the job instance has ended: before that, the stream stops after
+         * the last block flushed by the engine, and the next blocks are decompressed by the same stream at the next polls.
+         */
+        private long sendDecompressed() throws IOException
+        {
+            if (gz == null)
+            {
+                if (!compressedFile.isFile())
+                {
+                    return 0;
+                }
+                FileInputStream in = new FileInputStream(compressedFile);
+                try
+                {
+                    gz = new FollowedGzipStream(in);
+                }
+                catch (EOFException e)
+                {
+                    // Header not written yet.
+                    in.close();
+                    return 0;
+                }
+            }
+
+            long res = 0;
+            try
+            {
+                // The trailer is only complete once the job instance has ended: it must not be read before.
+                while (res < FOLLOW_MAX_BYTES_PER_POLL && (ended || !gz.isDataComplete()))
+                {
+                    int read = gz.read(buffer.array());
+                    if (read < 0)
+                    {
+                        break;
+                    }
+                    int skipped = (int) Math.max(0, Math.min(read, from - decompressed));
+                    if (read > skipped)
+                    {
+                        send(Arrays.copyOfRange(buffer.array(), skipped, read));
+                    }
+                    decompressed += read;
+                    res += read;
+                }
+            }
+            catch (EOFException e)
+            {
+                // Last flushed block reached. Nothing was consumed from the file, so the stream can go on once the file has grown.
+            }
+            return res;
+        }
+
+        @Override
+        void release()
+        {
+            try
+            {
+                if (ch != null)
+                {
+                    ch.close();
+                }
+                if (gz != null)
+                {
+                    gz.close();
+                }
+            }
+            catch (IOException e)
+            {
+                jqmlogger.debug("Could not close a followed log file", e);
+            }
+        }
+    }
+
+    /**
+     * Tells when the deflated data of the current gzip member is complete, so that its trailer is not read too early.
+     */
+    private static final class FollowedGzipStream extends GZIPInputStream
+    {
+        private FollowedGzipStream(InputStream in) throws IOException
+        {
+            super(in, CHUNK_SIZE);
+        }
+
+        private boolean isDataComplete()
+        {
+            return inf.finished();
+        }
+    }
+
+    private static final class StreamFollower extends Follower
+    {
+        private final InputStream in;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private boolean ended = false;
+
+        private StreamFollower(InputStream in)
+        {
+            this.in = in;
+        }
+
+        @Override
+        long poll() throws IOException
+        {
+            if (ended)
+            {
+                return -1;
+            }
+            long sent = 0;
+            int available;
+            while (sent < FOLLOW_MAX_BYTES_PER_POLL && (available = in.available()) > 0)
+            {
+                int read = in.read(buffer, 0, Math.min(available, buffer.length));
+                if (read < 0)
+                {
+                    ended = true;
+                    break;
+                }
+                send(Arrays.copyOf(buffer, read));
+                sent += read;
+            }
+            return sent;
+        }
+
+        @Override
+        void release()
+        {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private static ChunkedOutput<byte[]> add(Follower f)
+    {
+        // Chunks written before the response is ready are queued by the output.
+        followers.add(f);
+        synchronized (pollerLock)
+        {
+            if (poller == null)
+            {
+                poller = new Thread(LogFileStreamer::runPoller, "Log follow poller");
+                poller.setDaemon(true);
+                poller.start();
+            }
+            pollerLock.notifyAll();
+        }
+        return f.output;
+    }
+
+    private static void runPoller()
+    {
+        while (true)
+        {
+            boolean backlog = false;
+            for (Follower f : followers)
+            {
+                long read;
+                if (f.failed || f.output.isClosed())
+                {
+                    read = -1;
+                }
+                else if (f.pendingBytes.get() >= FOLLOW_MAX_PENDING_BYTES)
+                {
+                    // The client reads slower than its log is written. Wait for it without reading more.
+                    long now = System.currentTimeMillis();
+                    if (f.backedUpSince == 0)
+                    {
+                        f.backedUpSince = now;
+                    }
+                    if (now - f.backedUpSince < FOLLOW_MAX_STALL_MS)
+                    {
+                        continue;
+                    }
+                    jqmlogger.info("A log follow client has not caught up for {} ms and is disconnected", now - f.backedUpSince);
+                    f.failed = true;
+                    read = -1;
+                }
+                else
+                {
+                    f.backedUpSince = 0;
+                    try
+                    {
+                        read = f.poll();
+                    }
+                    catch (Exception e)
+                    {
+                        // File removed...
+                        jqmlogger.debug("Log follow has ended on an error", e);
+                        read = -1;
+                    }
+                }
+                if (read < 0)
+                {
+                    followers.remove(f);
+                    f.end();
+                }
+                backlog |= read >= FOLLOW_MAX_BYTES_PER_POLL;
+            }
+
+            if (backlog)
+            {
+                continue;
+            }
+            synchronized (pollerLock)
+            {
+                if (followers.isEmpty())
+                {
+                    // A new follower starts a new thread, so nothing outlives the web application when there is no follower.
+                    poller = null;
+                    return;
+                }
+                try
+                {
+                    pollerLock.wait(FOLLOW_POLL_MS);
+                }
+                catch (InterruptedException e)
+                {
+                    poller = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes sent.
+     */
+    private static long transfer(FileChannel ch, long start, long end, WritableByteChannel out) throws IOException
+    {
+        long position = start;
+        while (position < end)
+        {
+            long sent = ch.transferTo(position, end - position, out);
+            if (sent <= 0)
+            {
+                // File was truncated.
+                break;
+            }
+            position += sent;
+        }
+        return position - start;
+    }
+
+    /**
+     * The file is a single gzip stream, which is only terminated once the job instance has ended: before that, everything until the last
+     * flush of the engine is sent, then the stream ends abruptly. Closes the given stream.
+     */
+    private static long copyDecompressed(InputStream compressed, OutputStream output) throws IOException
+    {
+        long res = 0;
+        try (InputStream c = compressed; InputStream in = new GZIPInputStream(c, CHUNK_SIZE))
+        {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int read;
+            while ((read = in.read(buffer)) > 0)
+            {
+                output.write(buffer, 0, read);
+                res += read;
+            }
+        }
+        catch (EOFException e)
+        {
+            // The stream is not terminated yet.
+        }
+        return res;
+    }
+
+    static boolean isEnded(int jobId)
+    {
+        try (DbConn cnx = Helpers.getDbSession(); ResultSet rs = cnx.runSelect("history_select_state_by_id", jobId))
+        {
+            if (rs.next())
+            {
+                return true;
+            }
+        }
+        catch (Exception e)
+        {
+            jqmlogger.warn("Could not check the state of job instance " + jobId + " - log follow will stop", e);
+            return true;
+        }
+
+        // Neither in history nor in queue: purged or never existed.
+        try (DbConn cnx = Helpers.getDbSession(); ResultSet rs = cnx.runSelect("ji_select_instruction_by_id", jobId))
+        {
+            return !rs.next();
+        }
+        catch (Exception e)
+        {
+            jqmlogger.warn("Could not check the state of job instance " + jobId + " - log follow will stop", e);
+            return true;
+        }
+    }
+}
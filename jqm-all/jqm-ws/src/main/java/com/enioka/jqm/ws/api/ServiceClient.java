@@ -15,10 +15,12 @@
  */
 package com.enioka.jqm.ws.api;
 
+import java.io.File;
 import java.io.InputStream;
 import java.util.Calendar;
 import java.util.List;
 
+import org.glassfish.jersey.server.ChunkedOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,8 +35,11 @@ import com.enioka.jqm.client.api.State;
 import com.enioka.jqm.client.shared.JobRequestBaseImpl;
 import com.enioka.jqm.client.shared.QueryBaseImpl;
 import com.enioka.jqm.client.shared.SelfDestructFileStream;
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.Node;
 import com.enioka.jqm.ws.plumbing.HttpCache;
 
+import jakarta.servlet.ServletContext;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
@@ -44,6 +49,7 @@ import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
 
@@ -395,9 +401,9 @@ public class ServiceClient
     @Path("ji/{jobId}/stderr")
     @Produces("application/octet-stream")
     @GET
-    public InputStream getJobLogStdErr(@PathParam("jobId") int jobId, @Context HttpServletResponse res)
+    public InputStream getJobLogStdErr(@PathParam("jobId") int jobId, @QueryParam("from") long from, @Context HttpServletResponse res)
     {
-        SelfDestructFileStream fs = (SelfDestructFileStream) Helpers.getClient().getJobLogStdErr(jobId);
+        SelfDestructFileStream fs = (SelfDestructFileStream) Helpers.getClient().getJobLogStdErr(jobId, from);
         res.setHeader("Content-Disposition", "attachment; filename=" + fs.nameHint);
         return fs;
     }
@@ -405,13 +411,60 @@ public class ServiceClient
     @Path("ji/{jobId}/stdout")
     @Produces("application/octet-stream")
     @GET
-    public InputStream getJobLogStdOut(@PathParam("jobId") int jobId, @Context HttpServletResponse res)
+    public InputStream getJobLogStdOut(@PathParam("jobId") int jobId, @QueryParam("from") long from, @Context HttpServletResponse res)
     {
-        SelfDestructFileStream fs = (SelfDestructFileStream) Helpers.getClient().getJobLogStdOut(jobId);
+        SelfDestructFileStream fs = (SelfDestructFileStream) Helpers.getClient().getJobLogStdOut(jobId, from);
         res.setHeader("Content-Disposition", "attachment; filename=" + fs.nameHint);
         return fs;
     }
 
+    @Path("ji/{jobId}/stderr/follow")
+    @Produces("application/octet-stream")
+    @GET
+    public ChunkedOutput<byte[]> followJobLogStdErr(@PathParam("jobId") int jobId, @QueryParam("from") long from,
+            @Context ServletContext context)
+    {
+        return followJobLog(jobId, "stderr", from, context);
+    }
+
+    @Path("ji/{jobId}/stdout/follow")
+    @Produces("application/octet-stream")
+    @GET
+    public ChunkedOutput<byte[]> followJobLogStdOut(@PathParam("jobId") int jobId, @QueryParam("from") long from,
+            @Context ServletContext context)
+    {
+        return followJobLog(jobId, "stdout", from, context);
+    }
+
+    /**
+     * A job instance which runs (or ran) on this node is followed directly from its log file. Otherwise, the log is followed on the node of
+     * the job instance, and relayed as it is received. In both cases, no request thread waits for new bytes.
+     */
+    private ChunkedOutput<byte[]> followJobLog(int jobId, String type, long from, ServletContext context)
+    {
+        if (from >= 0 && isLocalNode(Helpers.getClient().getJob(jobId).getNodeName(), context))
+        {
+            File file = ServiceSimple.getLogFile(jobId, type);
+            return LogFileStreamer.follow(file, new File(file.getPath() + ".gz"), jobId, from);
+        }
+        return LogFileStreamer.relay("stdout".equals(type) ? Helpers.getClient().followJobLogStdOut(jobId, from)
+                : Helpers.getClient().followJobLogStdErr(jobId, from));
+    }
+
+    private static boolean isLocalNode(String nodeName, ServletContext context)
+    {
+        String nodeId = context.getInitParameter("jqmnodeid");
+        if (nodeName == null || nodeId == null)
+        {
+            // Not attributed to a node yet, or not running on top of JQM.
+            return false;
+        }
+        try (DbConn cnx = Helpers.getDbSession())
+        {
+            return nodeName.equals(Node.select_single(cnx, "node_select_by_id", Integer.parseInt(nodeId)).getName());
+        }
+    }
+
     @Path("q")
     @GET
     @Produces({ MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON })
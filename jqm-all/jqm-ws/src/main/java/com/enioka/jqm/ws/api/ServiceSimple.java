@@ -34,6 +34,7 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.enioka.jqm.cl.ExtClassLoader;
 import com.enioka.jqm.client.api.JobRequest;
 import com.enioka.jqm.jdbc.DbConn;
 import com.enioka.jqm.jdbc.NoResultException;
@@ -45,12 +46,14 @@ import jakarta.servlet.http.HttpServletResponse;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.FormParam;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.Response.Status;
 import jakarta.ws.rs.core.SecurityContext;
 
@@ -114,19 +117,171 @@ public class ServiceSimple
     @GET
     @Path("stdout")
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public InputStream getLogOut(@QueryParam("id") int id, @Context HttpServletResponse res, @Context SecurityContext security)
+    public Response getLogOut(@QueryParam("id") int id, @HeaderParam("Accept-Encoding") String acceptEncoding,
+            @HeaderParam("Range") String range, @Context HttpServletResponse res, @Context SecurityContext security)
     {
-        res.setHeader("Content-Disposition", "attachment; filename=" + id + ".stdout.txt");
-        return getFile(FilenameUtils.concat("./logs", StringUtils.leftPad("" + id, 10, "0") + ".stdout.log"), security);
+        return getLog(id, "stdout", acceptEncoding, range, res, security);
     }
 
     @GET
     @Path("stderr")
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public InputStream getLogErr(@QueryParam("id") int id, @Context HttpServletResponse res, @Context SecurityContext security)
+    public Response getLogErr(@QueryParam("id") int id, @HeaderParam("Accept-Encoding") String acceptEncoding,
+            @HeaderParam("Range") String range, @Context HttpServletResponse res, @Context SecurityContext security)
     {
-        res.setHeader("Content-Disposition", "attachment; filename=" + id + ".stderr.txt");
-        return getFile(FilenameUtils.concat("./logs", StringUtils.leftPad("" + id, 10, "0") + ".stderr.log"), security);
+        return getLog(id, "stderr", acceptEncoding, range, res, security);
+    }
+
+    @GET
+    @Path("stdout/follow")
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public Response followLogOut(@QueryParam("id") int id, @QueryParam("from") long from, @Context SecurityContext security)
+    {
+        return followLog(id, "stdout", from, security);
+    }
+
+    @GET
+    @Path("stderr/follow")
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public Response followLogErr(@QueryParam("id") int id, @QueryParam("from") long from, @Context SecurityContext security)
+    {
+        return followLog(id, "stderr", from, security);
+    }
+
+    static File getLogFile(int id, String type)
+    {
+        // Same directory as the one used by the runners, which is not always the working directory.
+        String logDirectory = FilenameUtils.concat(ExtClassLoader.getRootDir(), "logs");
+        return new File(FilenameUtils.concat(logDirectory, StringUtils.leftPad("" + id, 10, "0") + "." + type + ".log"));
+    }
+
+    /**
+     * Log files may have been compressed by the engine (global parameter logFileCompression). They are then sent as they are if the client
+     * accepts gzip, and decompressed on the fly otherwise. Ranges (a single one, in bytes) are only supported on uncompressed files - they
+     * are ignored otherwise, and the whole file is sent as allowed by RFC 7233.
+     */
+    private Response getLog(int id, String type, String acceptEncoding, String range, HttpServletResponse res,
+            SecurityContext security)
+    {
+        res.setHeader("Content-Disposition", "attachment; filename=" + id + "." + type + ".txt");
+        File file = getLogFile(id, type);
+        if (file.isFile())
+        {
+            log.debug("log retrieval service called by user " + getUserName(security) + " for file " + file.getPath() + " range " + range);
+            long size = file.length();
+            long[] r = parseRange(range, size);
+            if (r == null)
+            {
+                return Response.ok(LogFileStreamer.range(file, 0, size)).header("Accept-Ranges", "bytes").header("Content-Length", size)
+                        .build();
+            }
+            if (r.length == 0)
+            {
+                return Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE).header("Content-Range", "bytes */" + size).build();
+            }
+            return Response.status(Status.PARTIAL_CONTENT).entity(LogFileStreamer.range(file, r[0], r[1] - r[0] + 1))
+                    .header("Accept-Ranges", "bytes").header("Content-Range", "bytes " + r[0] + "-" + r[1] + "/" + size)
+                    .header("Content-Length", r[1] - r[0] + 1).build();
+        }
+
+        String path = file.getPath() + ".gz";
+        InputStream compressed = getFile(path, security);
+        // The gzip stream is only terminated when the job instance ends: a file still being written cannot be sent as it is.
+        if (acceptsGzip(acceptEncoding) && LogFileStreamer.isEnded(id))
+        {
+            return Response.ok(compressed).header("Vary", "Accept-Encoding").header("Content-Encoding", "gzip").build();
+        }
+        return Response.ok(LogFileStreamer.decompressed(compressed)).header("Vary", "Accept-Encoding").build();
+    }
+
+    /**
+     * Parses a Range header. Only single byte ranges are supported (multipart responses are not worth it for logs).
+     *
+     * @return null if the whole file should be sent, an empty array if the range cannot be satisfied, the first and last (inclusive)
+     *         positions otherwise.
+     */
+    static long[] parseRange(String range, long size)
+    {
+        if (range == null || !range.startsWith("bytes=") || range.contains(","))
+        {
+            return null;
+        }
+        String[] bounds = range.substring(6).trim().split("-", -1);
+        if (bounds.length != 2)
+        {
+            return null;
+        }
+
+        long first, last;
+        try
+        {
+            if (bounds[0].isEmpty())
+            {
+                // Suffix: the last N bytes.
+                long suffix = Long.parseLong(bounds[1]);
+                if (suffix <= 0)
+                {
+                    return new long[0];
+                }
+                first = Math.max(0, size - suffix);
+                last = size - 1;
+            }
+            else
+            {
+                first = Long.parseLong(bounds[0]);
+                last = bounds[1].isEmpty() ? Long.MAX_VALUE : Long.parseLong(bounds[1]);
+                if (last < first)
+                {
+                    return null; // Syntactically invalid: ignored.
+                }
+                last = Math.min(last, size - 1);
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+
+        if (first < 0 || first >= size)
+        {
+            return new long[0];
+        }
+        return new long[] { first, last };
+    }
+
+    /**
+     * Streams the log from the given position until the job instance ends, sending new bytes as they are written. Works even if the job
+     * instance has not started yet. Does not use a range, as the final size is not known. The request does not hold a thread while waiting
+     * for new bytes.
+     */
+    private Response followLog(int id, String type, long from, SecurityContext security)
+    {
+        log.debug("log follow service called by user " + getUserName(security) + " for job instance " + id + " " + type + " from " + from);
+        if (from < 0)
+        {
+            throw new ErrorDto("from must be positive", "", 10, Status.BAD_REQUEST);
+        }
+        File file = getLogFile(id, type);
+        return Response.ok(LogFileStreamer.follow(file, new File(file.getPath() + ".gz"), id, from)).header("Cache-Control", "no-cache")
+                .build();
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding)
+    {
+        if (acceptEncoding == null)
+        {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(","))
+        {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip"))
+            {
+                // q=0 means "not acceptable".
+                return parts.length == 1 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
     }
 
     @GET
@@ -204,6 +204,14 @@ public class XmlConfigurationParser
                 // Default?
                 q.setDefaultQueue(dqName.equals(name));
 
+                // Priority aging (optional, strict priority order if absent)
+                int priorityAging = 0;
+                if (qElement.getElementsByTagName("priorityAgingSeconds").getLength() > 0)
+                {
+                    priorityAging = Integer.parseInt(qElement.getElementsByTagName("priorityAgingSeconds").item(0).getTextContent().trim());
+                }
+                q.setPriorityAging(priorityAging);
+
                 // Merge
                 q.update(cnx);
 
@@ -225,6 +233,12 @@ public class XmlConfigurationParser
                     int pollingIntervalMs = Integer
                             .parseInt(mElement.getElementsByTagName("pollingIntervalMs").item(0).getTextContent().trim());
                     boolean enabled = Boolean.parseBoolean(mElement.getElementsByTagName("enabled").item(0).getTextContent().trim());
+                    int maxPollingIntervalMs = 0;
+                    if (mElement.getElementsByTagName("maxPollingIntervalMs").getLength() > 0)
+                    {
+                        maxPollingIntervalMs = Integer
+                                .parseInt(mElement.getElementsByTagName("maxPollingIntervalMs").item(0).getTextContent().trim());
+                    }
 
                     // existing mapping?
                     int nodeId = com.enioka.jqm.model.Node.select_single(cnx, "node_select_by_key", nodeName).getId();
@@ -241,12 +255,13 @@ public class XmlConfigurationParser
 
                     if (dp != null)
                     {
-                        cnx.runUpdate("dp_update_changed_by_id", enabled, maxThreads, pollingIntervalMs, nodeId, queueId, dp.getId(),
-                                enabled, maxThreads, pollingIntervalMs, nodeId, queueId);
+                        cnx.runUpdate("dp_update_changed_by_id", enabled, maxThreads, pollingIntervalMs, nodeId, queueId,
+                                maxPollingIntervalMs, dp.getId(), enabled, maxThreads, pollingIntervalMs, nodeId, queueId,
+                                maxPollingIntervalMs);
                     }
                     else
                     {
-                        DeploymentParameter.create(cnx, enabled, nodeId, maxThreads, pollingIntervalMs, queueId);
+                        DeploymentParameter.create(cnx, enabled, nodeId, maxThreads, pollingIntervalMs, maxPollingIntervalMs, queueId);
                     }
                 }
 